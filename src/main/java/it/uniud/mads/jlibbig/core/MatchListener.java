@@ -0,0 +1,58 @@
+package it.uniud.mads.jlibbig.core;
+
+/**
+ * Observes the searches carried out by matchers, e.g. for finding which
+ * redexes take most of the time spent matching. A listener is registered
+ * through the options of a matcher (cf.
+ * {@link MatcherOptions#withListener(MatchListener)}) and is informed of
+ * every search the matcher carries out; each search is described by its own
+ * {@link MatchStats}, which is updated as the search goes on and passed to
+ * every method of the listener.
+ *
+ * Searches run on the thread consuming their matches, hence a listener
+ * shared by matchers used on several threads has to be thread-safe. Methods
+ * are invoked while the search is in progress and should return quickly.
+ * Every method does nothing by default.
+ */
+public interface MatchListener {
+
+	/**
+	 * Invoked when the model of a search has been built and the search is
+	 * about to start.
+	 *
+	 * @param stats
+	 *            the statistics of the search.
+	 */
+	default void searchStarted(MatchStats stats) {
+	}
+
+	/**
+	 * Invoked whenever the search finds a solution.
+	 *
+	 * @param stats
+	 *            the statistics of the search.
+	 */
+	default void solutionFound(MatchStats stats) {
+	}
+
+	/**
+	 * Invoked whenever the embedding described by a solution has been read
+	 * from the model, i.e. when a match is about to be returned.
+	 *
+	 * @param stats
+	 *            the statistics of the search.
+	 */
+	default void matchExtracted(MatchStats stats) {
+	}
+
+	/**
+	 * Invoked once, when the search ends because there are no more
+	 * solutions, because no more are asked for (e.g. when counting up to a
+	 * bound) or because it has been stopped by a limit.
+	 *
+	 * @param stats
+	 *            the statistics of the search.
+	 */
+	default void searchEnded(MatchStats stats) {
+	}
+}
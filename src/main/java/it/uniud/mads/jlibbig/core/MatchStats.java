@@ -0,0 +1,203 @@
+package it.uniud.mads.jlibbig.core;
+
+/**
+ * Statistics of a search for matches, reported to a {@link MatchListener}:
+ * the size of the model, the time spent building it, looking for solutions
+ * and reading them, and the effort of the search. Times are in nanoseconds.
+ * Counters of the search tree (nodes, backtracks and failures) are the ones
+ * of the constraint solver for matchers based on it and those of the
+ * backtracking search otherwise; matchers without a model report zero
+ * variables and constraints.
+ *
+ * Statistics are collected only when a listener is registered; an instance
+ * describes a single search and is updated by the matcher as the search goes
+ * on through the <code>record</code> methods, which inform the listener.
+ */
+public final class MatchStats {
+
+	private final MatchListener listener;
+	private final Object matcher;
+	private final Object redex;
+
+	private int variables, constraints;
+	private long buildTime;
+	private long solutions;
+	private long solveTime, lastSolveTime;
+	private long matches;
+	private long extractionTime, lastExtractionTime;
+	private long nodes, backtracks, fails;
+	private boolean ended = false;
+
+	/**
+	 * Creates the statistics of a search.
+	 *
+	 * @param listener
+	 *            the listener to be informed.
+	 * @param matcher
+	 *            the matcher carrying out the search.
+	 * @param redex
+	 *            the bigraph looked for.
+	 */
+	public MatchStats(MatchListener listener, Object matcher, Object redex) {
+		if (listener == null || matcher == null || redex == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		this.listener = listener;
+		this.matcher = matcher;
+		this.redex = redex;
+	}
+
+	/**
+	 * Records that the model of the search has been built.
+	 *
+	 * @param variables
+	 *            the variables of the model.
+	 * @param constraints
+	 *            the constraints of the model.
+	 * @param nanos
+	 *            the time spent building the model.
+	 */
+	public void recordModel(int variables, int constraints, long nanos) {
+		this.variables = variables;
+		this.constraints = constraints;
+		this.buildTime += nanos;
+		listener.searchStarted(this);
+	}
+
+	/**
+	 * Records a step of the search, i.e. the search for the next solution.
+	 * Counters are the totals since the beginning of the search.
+	 *
+	 * @param found
+	 *            whether a solution has been found.
+	 * @param nanos
+	 *            the time spent by the step.
+	 * @param nodes
+	 *            the nodes of the search tree explored so far.
+	 * @param backtracks
+	 *            the backtracks of the search so far.
+	 * @param fails
+	 *            the failures of the search so far.
+	 */
+	public void recordSolve(boolean found, long nanos, long nodes,
+			long backtracks, long fails) {
+		this.solveTime += nanos;
+		this.lastSolveTime = nanos;
+		this.nodes = nodes;
+		this.backtracks = backtracks;
+		this.fails = fails;
+		if (found) {
+			this.solutions++;
+			listener.solutionFound(this);
+		}
+	}
+
+	/**
+	 * Records that a solution has been read from the model.
+	 *
+	 * @param nanos
+	 *            the time spent reading the solution.
+	 */
+	public void recordExtraction(long nanos) {
+		this.matches++;
+		this.extractionTime += nanos;
+		this.lastExtractionTime = nanos;
+		listener.matchExtracted(this);
+	}
+
+	/**
+	 * Records the end of the search. Only the first invocation is reported
+	 * to the listener.
+	 */
+	public void recordEnd() {
+		if (ended)
+			return;
+		ended = true;
+		listener.searchEnded(this);
+	}
+
+	/**
+	 * Returns the matcher carrying out the search.
+	 *
+	 * @return the matcher.
+	 */
+	public Object getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Returns the bigraph looked for by the search.
+	 *
+	 * @return the redex.
+	 */
+	public Object getRedex() {
+		return redex;
+	}
+
+	public int getVariables() {
+		return variables;
+	}
+
+	public int getConstraints() {
+		return constraints;
+	}
+
+	public long getBuildTime() {
+		return buildTime;
+	}
+
+	public long getSolutions() {
+		return solutions;
+	}
+
+	public long getSolveTime() {
+		return solveTime;
+	}
+
+	public long getLastSolveTime() {
+		return lastSolveTime;
+	}
+
+	public long getMatches() {
+		return matches;
+	}
+
+	public long getExtractionTime() {
+		return extractionTime;
+	}
+
+	public long getLastExtractionTime() {
+		return lastExtractionTime;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public long getBacktracks() {
+		return backtracks;
+	}
+
+	public long getFails() {
+		return fails;
+	}
+
+	/**
+	 * Tells whether the search has ended.
+	 *
+	 * @return a boolean indicating whether the search has ended.
+	 */
+	public boolean isEnded() {
+		return ended;
+	}
+
+	@Override
+	public String toString() {
+		return matcher.getClass().getSimpleName() + "{variables=" + variables
+				+ ", constraints=" + constraints + ", build=" + buildTime
+				+ "ns, solutions=" + solutions + ", solve=" + solveTime
+				+ "ns, matches=" + matches + ", extraction="
+				+ extractionTime + "ns, nodes=" + nodes + ", backtracks="
+				+ backtracks + ", fails=" + fails + "}";
+	}
+}
@@ -0,0 +1,303 @@
+package it.uniud.mads.jlibbig.core;
+
+import it.uniud.mads.jlibbig.core.exceptions.MatchLimitException;
+
+/**
+ * Describes how matchers look for matches: the search strategy, whether the
+ * search restarts, the limits on the effort spent, a token for cancelling
+ * the search from another thread, whether matches are looked for up to the
+ * symmetries of the redex, whether redexes are split into their
+ * components and a listener informed of the searches. Instances are
+ * immutable; options are
+ * changed by the <code>with</code> methods which return a modified copy e.g.
+ *
+ * <pre>
+ * MatcherOptions.DEFAULT.withStrategy(Strategy.DOM_WDEG).withTimeLimit(1000)
+ * </pre>
+ *
+ * When a limit is reached or the search is cancelled, matchers stop the
+ * search and throw a {@link MatchLimitException}; the matches already
+ * returned are valid but they may not be all the matches.
+ *
+ * Strategies and restarts concern matchers based on a constraint solver and
+ * are ignored by the others, whereas limits and cancellation are honoured by
+ * every matcher. Limits are a number of nodes or failures of the search tree
+ * and a number of milliseconds; they are counted from the beginning of the
+ * search and apply to the whole enumeration of matches. A non-positive limit
+ * stands for no limit.
+ *
+ * Symmetry breaking is honoured by the matchers of the std package based on
+ * a constraint solver or on backtracking, i.e.
+ * {@link it.uniud.mads.jlibbig.core.std.Matcher} and
+ * {@link it.uniud.mads.jlibbig.core.std.BacktrackingMatcher}, and ignored by
+ * the others, {@link it.uniud.mads.jlibbig.core.std.WeightedMatcher}
+ * included. The same holds for the decomposition of redexes into their
+ * components; limits and cancellation then apply to the search as a whole,
+ * i.e. to the searches of the components and to the combination of their
+ * matches together.
+ *
+ * Listeners are informed by every matcher based on a constraint solver or on
+ * backtracking, directed ones included; see {@link MatchStats} for what is
+ * reported.
+ */
+public final class MatcherOptions {
+
+	/**
+	 * Options with the default strategy of the solver, without restarts,
+	 * limits, cancellation token, symmetry breaking, decomposition or
+	 * listener.
+	 */
+	public final static MatcherOptions DEFAULT = new MatcherOptions(
+			Strategy.DEFAULT, false, 0, 0, 0, null, false, false, null);
+
+	/**
+	 * Search strategies for matchers based on a constraint solver.
+	 */
+	public enum Strategy {
+		/**
+		 * The default strategy of the solver.
+		 */
+		DEFAULT,
+		/**
+		 * Decides the place embedding first, choosing the most constrained
+		 * variables first, and then the link embedding.
+		 */
+		PLACE_FIRST,
+		/**
+		 * Chooses the variable with the smallest ratio between its domain and
+		 * the weighted degree of its constraints (dom/wdeg).
+		 */
+		DOM_WDEG,
+		/**
+		 * Chooses the variable with the smallest domain first (first fail).
+		 */
+		FIRST_FAIL
+	}
+
+	/**
+	 * A token for cancelling searches. The same token can be shared by
+	 * several searches, e.g. by the options of several matchers, and cancels
+	 * all of them.
+	 */
+	public static final class Cancellation {
+
+		private volatile boolean cancelled = false;
+
+		/**
+		 * Cancels the searches using this token. Searches notice the request
+		 * while looking for their next match.
+		 */
+		public void cancel() {
+			this.cancelled = true;
+		}
+
+		/**
+		 * Tells whether the token has been cancelled.
+		 *
+		 * @return a boolean indicating whether the token has been cancelled.
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	private final Strategy strategy;
+	private final boolean restarts;
+	private final long timeLimit;
+	private final long nodeLimit;
+	private final long failLimit;
+	private final Cancellation cancellation;
+	private final boolean symmetryBreaking;
+	private final boolean decomposition;
+	private final MatchListener listener;
+
+	private MatcherOptions(Strategy strategy, boolean restarts, long timeLimit,
+			long nodeLimit, long failLimit, Cancellation cancellation,
+			boolean symmetryBreaking, boolean decomposition,
+			MatchListener listener) {
+		if (strategy == null) {
+			throw new IllegalArgumentException("The strategy can not be null.");
+		}
+		this.strategy = strategy;
+		this.restarts = restarts;
+		this.timeLimit = Math.max(0, timeLimit);
+		this.nodeLimit = Math.max(0, nodeLimit);
+		this.failLimit = Math.max(0, failLimit);
+		this.cancellation = cancellation;
+		this.symmetryBreaking = symmetryBreaking;
+		this.decomposition = decomposition;
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns a copy of these options with the given search strategy.
+	 *
+	 * @param strategy
+	 *            the search strategy.
+	 * @return the new options.
+	 */
+	public MatcherOptions withStrategy(Strategy strategy) {
+		return new MatcherOptions(strategy, restarts, timeLimit, nodeLimit,
+				failLimit, cancellation, symmetryBreaking,
+				decomposition, listener);
+	}
+
+	/**
+	 * Returns a copy of these options where the search restarts following a
+	 * Luby sequence. The parts of the search space already explored are
+	 * recorded and not visited again, hence no match is reported twice.
+	 *
+	 * @param restarts
+	 *            whether the search restarts.
+	 * @return the new options.
+	 */
+	public MatcherOptions withRestarts(boolean restarts) {
+		return new MatcherOptions(strategy, restarts, timeLimit, nodeLimit,
+				failLimit, cancellation, symmetryBreaking,
+				decomposition, listener);
+	}
+
+	/**
+	 * Returns a copy of these options with the given time limit.
+	 *
+	 * @param millis
+	 *            the limit in milliseconds.
+	 * @return the new options.
+	 */
+	public MatcherOptions withTimeLimit(long millis) {
+		return new MatcherOptions(strategy, restarts, millis, nodeLimit,
+				failLimit, cancellation, symmetryBreaking,
+				decomposition, listener);
+	}
+
+	/**
+	 * Returns a copy of these options with the given limit on the nodes of
+	 * the search tree.
+	 *
+	 * @param nodes
+	 *            the limit on the nodes.
+	 * @return the new options.
+	 */
+	public MatcherOptions withNodeLimit(long nodes) {
+		return new MatcherOptions(strategy, restarts, timeLimit, nodes,
+				failLimit, cancellation, symmetryBreaking,
+				decomposition, listener);
+	}
+
+	/**
+	 * Returns a copy of these options with the given limit on the failures
+	 * of the search.
+	 *
+	 * @param fails
+	 *            the limit on the failures.
+	 * @return the new options.
+	 */
+	public MatcherOptions withFailLimit(long fails) {
+		return new MatcherOptions(strategy, restarts, timeLimit, nodeLimit,
+				fails, cancellation, symmetryBreaking,
+				decomposition, listener);
+	}
+
+	/**
+	 * Returns a copy of these options with the given cancellation token.
+	 *
+	 * @param cancellation
+	 *            the token, or null for none.
+	 * @return the new options.
+	 */
+	public MatcherOptions withCancellation(Cancellation cancellation) {
+		return new MatcherOptions(strategy, restarts, timeLimit, nodeLimit,
+				failLimit, cancellation, symmetryBreaking,
+				decomposition, listener);
+	}
+
+	/**
+	 * Returns a copy of these options where matches are looked for up to the
+	 * automorphisms of the redex. Swapping sibling nodes of the redex with
+	 * the same structure, when this preserves its interfaces, does not
+	 * change the occurrence described by a match, i.e. its context and
+	 * parameters, but only which redex node is placed on which agent node.
+	 * Matchers then list only one match for each occurrence.
+	 *
+	 * @param symmetryBreaking
+	 *            whether matches are looked for up to redex automorphisms.
+	 * @return the new options.
+	 */
+	public MatcherOptions withSymmetryBreaking(boolean symmetryBreaking) {
+		return new MatcherOptions(strategy, restarts, timeLimit, nodeLimit,
+				failLimit, cancellation, symmetryBreaking,
+				decomposition, listener);
+	}
+
+	/**
+	 * Returns a copy of these options where redexes are split into their
+	 * components, i.e. the groups of roots whose nodes are not linked to the
+	 * nodes of other groups. Components are matched on their own and their
+	 * matches are combined when they occupy disjoint parts of the agent;
+	 * hence the cost of a search is the sum, rather than the product, of the
+	 * costs of matching the components. Matches are the same either way but
+	 * they may be listed in a different order, hence redexes are kept whole
+	 * unless decomposition is asked for.
+	 *
+	 * @param decomposition
+	 *            whether redexes are split into their components.
+	 * @return the new options.
+	 */
+	public MatcherOptions withDecomposition(boolean decomposition) {
+		return new MatcherOptions(strategy, restarts, timeLimit, nodeLimit,
+				failLimit, cancellation, symmetryBreaking,
+				decomposition, listener);
+	}
+
+	/**
+	 * Returns a copy of these options with the given listener, which is
+	 * informed of the searches of the matchers using the options (cf.
+	 * {@link MatchListener}). Statistics are collected only when a listener
+	 * is given.
+	 *
+	 * @param listener
+	 *            the listener, or null for none.
+	 * @return the new options.
+	 */
+	public MatcherOptions withListener(MatchListener listener) {
+		return new MatcherOptions(strategy, restarts, timeLimit, nodeLimit,
+				failLimit, cancellation, symmetryBreaking, decomposition,
+				listener);
+	}
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	public boolean hasRestarts() {
+		return restarts;
+	}
+
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+
+	public long getNodeLimit() {
+		return nodeLimit;
+	}
+
+	public long getFailLimit() {
+		return failLimit;
+	}
+
+	public Cancellation getCancellation() {
+		return cancellation;
+	}
+
+	public boolean hasSymmetryBreaking() {
+		return symmetryBreaking;
+	}
+
+	public boolean hasDecomposition() {
+		return decomposition;
+	}
+
+	public MatchListener getListener() {
+		return listener;
+	}
+}
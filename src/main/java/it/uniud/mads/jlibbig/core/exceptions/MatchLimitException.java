@@ -0,0 +1,44 @@
+package it.uniud.mads.jlibbig.core.exceptions;
+
+/**
+ * Thrown by matchers when the search for matches is stopped by one of the
+ * limits of their options or by a cancellation request (cf.
+ * {@link it.uniud.mads.jlibbig.core.MatcherOptions}). The matches returned
+ * before the exception are valid, but there may be others.
+ */
+public class MatchLimitException extends RuntimeException {
+	private static final long serialVersionUID = -3032658624471957311L;
+
+	/**
+	 * The reasons for stopping a search.
+	 */
+	public enum Reason {
+		TIME, NODES, FAILS, CANCELLED
+	}
+
+	private final Reason reason;
+
+	public MatchLimitException(Reason reason) {
+		super(messageOf(reason));
+		if (reason == null) {
+			throw new IllegalArgumentException("The reason can not be null.");
+		}
+		this.reason = reason;
+	}
+
+	private static String messageOf(Reason reason) {
+		if (reason == Reason.CANCELLED)
+			return "The search for matches has been cancelled.";
+		return "The search for matches exceeded its limit on "
+				+ String.valueOf(reason).toLowerCase() + ".";
+	}
+
+	/**
+	 * Returns why the search has been stopped.
+	 *
+	 * @return the reason.
+	 */
+	public Reason getReason() {
+		return reason;
+	}
+}
@@ -590,6 +590,8 @@ final public class DirectedBigraph implements
         if (owner == null) {
             owner = this;
         }
+        // builders change the bigraph without informing the index
+        indexProxy.invalidate();
         for (EditableOwned o : this.roots) {
             o.setOwner(owner);
         }
@@ -847,6 +849,10 @@ final public class DirectedBigraph implements
         if (ns != null) {
             ns.add(node);
         }
+        DirectedBigraphIndex idx = indexProxy.softGet();
+        if (idx != null) {
+            idx.onNodeAdded(node);
+        }
     }
 
     /**
@@ -861,6 +867,10 @@ final public class DirectedBigraph implements
         if (ns != null) {
             ns.addAll(nodes);
         }
+        DirectedBigraphIndex idx = indexProxy.softGet();
+        if (idx != null) {
+            idx.onNodeAdded(nodes);
+        }
     }
 
     /**
@@ -876,6 +886,10 @@ final public class DirectedBigraph implements
         if (ns != null) {
             ns.remove(node);
         }
+        DirectedBigraphIndex idx = indexProxy.softGet();
+        if (idx != null) {
+            idx.onNodeRemoved(node);
+        }
     }
 
     /**
@@ -891,10 +905,15 @@ final public class DirectedBigraph implements
         if (ns != null) {
             ns.removeAll(nodes);
         }
+        DirectedBigraphIndex idx = indexProxy.softGet();
+        if (idx != null) {
+            idx.onNodeRemoved(nodes);
+        }
     }
 
     void onNodeSetChanged() {
         this.nodesProxy.invalidate();
+        this.indexProxy.invalidate();
         this.ancestors.clear();
     }
 
@@ -955,6 +974,7 @@ final public class DirectedBigraph implements
         if (ns != null) {
             ns.add(edge);
         }
+        onLinksChanged();
     }
 
     void onEdgeAdded(Collection<EditableEdge> edges) {
@@ -962,6 +982,7 @@ final public class DirectedBigraph implements
         if (ns != null) {
             ns.addAll(edges);
         }
+        onLinksChanged();
     }
 
     void onEdgeRemoved(EditableEdge edge) {
@@ -969,6 +990,7 @@ final public class DirectedBigraph implements
         if (ns != null) {
             ns.remove(edge);
         }
+        onLinksChanged();
     }
 
     void onEdgeRemoved(Collection<EditableEdge> edges) {
@@ -976,10 +998,19 @@ final public class DirectedBigraph implements
         if (ns != null) {
             ns.removeAll(edges);
         }
+        onLinksChanged();
     }
 
     void onEdgeSetChanged() {
         this.nodesProxy.invalidate();
+        onLinksChanged();
+    }
+
+    private void onLinksChanged() {
+        DirectedBigraphIndex idx = indexProxy.softGet();
+        if (idx != null) {
+            idx.onStructureChanged();
+        }
     }
 
     public Collection<EditableEdge> provideEdges() {
@@ -1013,6 +1044,72 @@ final public class DirectedBigraph implements
         return this.edgesProxy.get();
     }
 
+    /* Indices over nodes and handles are handled like nodes, see getNodes() */
+    CachingProxy<DirectedBigraphIndex> indexProxy = new CachingProxy<>(
+            new Provider<DirectedBigraphIndex>() {
+                @Override
+                public DirectedBigraphIndex get() {
+                    return new DirectedBigraphIndex(DirectedBigraph.this);
+                }
+            });
+
+    /**
+     * Returns the nodes of this bigraph having the given control. The
+     * collection is read-only and computed once for all the controls of the
+     * bigraph, hence looking up the nodes of a control does not require to
+     * visit the bigraph.
+     *
+     * @param control the control of the nodes.
+     * @return the nodes with the given control.
+     */
+    public Collection<? extends Node> getNodes(DirectedControl control) {
+        if (control == null) {
+            throw new IllegalArgumentException("The argument can not be null.");
+        }
+        return indexProxy.get().nodes(control);
+    }
+
+    /**
+     * Returns the handles (i.e. edges and outer names of both interfaces) of
+     * this bigraph having exactly the given number of points. The collection
+     * is read-only and computed once for all the degrees.
+     *
+     * @param degree the number of points of the handles.
+     * @return the handles with the given degree.
+     */
+    public Collection<? extends Handle> getHandles(int degree) {
+        if (degree < 0) {
+            throw new IllegalArgumentException(
+                    "The degree should be a non-negative integer.");
+        }
+        return indexProxy.get().handles(degree);
+    }
+
+    /**
+     * Returns the nodes of this bigraph at the given depth of the place
+     * graph. Children of roots are at depth 1 and children of a node at depth
+     * d are at depth d + 1. The collection is read-only and computed once for
+     * all the depths.
+     *
+     * @param depth the depth of the nodes.
+     * @return the nodes at the given depth.
+     */
+    public Collection<? extends Node> getNodesAtDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException(
+                    "The depth should be a positive integer.");
+        }
+        return indexProxy.get().nodesAtDepth(depth);
+    }
+
+    /*
+     * Returns the profile of this bigraph, used by matchers to rule out
+     * redexes that can not occur in it (cf. DirectedBigraphProfile).
+     */
+    DirectedBigraphProfile getProfile() {
+        return indexProxy.get().profile();
+    }
+
     Collection<Parent> getAncestors(Child child) {
         if (child == null) {
             throw new IllegalArgumentException("The argument can not be null.");
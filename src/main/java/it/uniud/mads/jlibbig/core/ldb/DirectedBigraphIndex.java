@@ -0,0 +1,137 @@
+package it.uniud.mads.jlibbig.core.ldb;
+
+import java.util.*;
+
+/*
+ * Indices over the entities of a directed bigraph, queried through
+ * DirectedBigraph#getNodes(DirectedDirectedControl), DirectedBigraph#getHandles(int)
+ * and DirectedBigraph#getNodesAtDepth(int). This is the counterpart of
+ * it.uniud.mads.jlibbig.core.std.BigraphIndex and is maintained in the same
+ * way; it keeps the profile of the bigraph too (cf. DirectedBigraphProfile).
+ */
+final class DirectedBigraphIndex {
+
+    private final DirectedBigraph big;
+
+    private final Map<DirectedControl, Set<Node>> by_control = new HashMap<>();
+    private Map<Integer, List<Handle>> by_degree;
+    private Map<Integer, List<Node>> by_depth;
+    private DirectedBigraphProfile profile;
+
+    DirectedBigraphIndex(DirectedBigraph big) {
+        this.big = big;
+        for (Node n : big.getNodes()) {
+            add(n);
+        }
+    }
+
+    synchronized void onNodeAdded(Node node) {
+        add(node);
+        onStructureChanged();
+    }
+
+    synchronized void onNodeAdded(Collection<? extends Node> nodes) {
+        for (Node n : nodes) {
+            add(n);
+        }
+        onStructureChanged();
+    }
+
+    synchronized void onNodeRemoved(Node node) {
+        remove(node);
+        onStructureChanged();
+    }
+
+    synchronized void onNodeRemoved(Collection<? extends Node> nodes) {
+        for (Node n : nodes) {
+            remove(n);
+        }
+        onStructureChanged();
+    }
+
+    synchronized void onStructureChanged() {
+        by_degree = null;
+        by_depth = null;
+        profile = null;
+    }
+
+    private void add(Node node) {
+        Set<Node> ns = by_control.get(node.getControl());
+        if (ns == null) {
+            ns = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+            by_control.put(node.getControl(), ns);
+        }
+        ns.add(node);
+    }
+
+    private void remove(Node node) {
+        Set<Node> ns = by_control.get(node.getControl());
+        if (ns != null)
+            ns.remove(node);
+    }
+
+    synchronized Collection<? extends Node> nodes(DirectedControl control) {
+        Set<Node> ns = by_control.get(control);
+        if (ns == null)
+            return Collections.emptySet();
+        return Collections.unmodifiableSet(ns);
+    }
+
+    synchronized Collection<? extends Handle> handles(int degree) {
+        if (by_degree == null) {
+            by_degree = new HashMap<>();
+            for (Handle h : big.getEdges()) {
+                addTo(by_degree, h.getPoints().size(), h);
+            }
+            for (Handle h : big.outers.getAsc().values()) {
+                addTo(by_degree, h.getPoints().size(), h);
+            }
+            for (Handle h : big.inners.getDesc().values()) {
+                addTo(by_degree, h.getPoints().size(), h);
+            }
+        }
+        List<Handle> hs = by_degree.get(degree);
+        if (hs == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(hs);
+    }
+
+    synchronized Collection<? extends Node> nodesAtDepth(int depth) {
+        if (by_depth == null) {
+            by_depth = new HashMap<>();
+            Deque<Parent> q = new ArrayDeque<Parent>(big.getRoots());
+            int d = 0;
+            while (!q.isEmpty()) {
+                // the queue holds exactly the parents at depth d
+                d++;
+                for (int k = q.size(); k > 0; k--) {
+                    for (Child c : q.poll().getChildren()) {
+                        if (c.isNode()) {
+                            addTo(by_depth, d, (Node) c);
+                            q.add((Node) c);
+                        }
+                    }
+                }
+            }
+        }
+        List<Node> ns = by_depth.get(depth);
+        if (ns == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(ns);
+    }
+
+    synchronized DirectedBigraphProfile profile() {
+        if (profile == null)
+            profile = new DirectedBigraphProfile(big);
+        return profile;
+    }
+
+    private static <E> void addTo(Map<Integer, List<E>> map, int key, E e) {
+        List<E> es = map.get(key);
+        if (es == null) {
+            es = new ArrayList<>();
+            map.put(key, es);
+        }
+        es.add(e);
+    }
+}
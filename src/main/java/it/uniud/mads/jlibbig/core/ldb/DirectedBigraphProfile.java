@@ -0,0 +1,79 @@
+package it.uniud.mads.jlibbig.core.ldb;
+
+import java.util.*;
+
+/*
+ * Summarises the place graph of a directed bigraph for telling cheaply
+ * whether a redex can not occur in it. This is the counterpart of
+ * it.uniud.mads.jlibbig.core.std.BigraphProfile restricted to nodes: how
+ * handles of a directed redex are mapped depends on the polarity of their
+ * points, hence their degrees are not compared.
+ */
+final class DirectedBigraphProfile {
+
+    // for each control, the number of nodes having k children (sites too)
+    private final Map<DirectedControl, int[]> children = new HashMap<>();
+    // for each control, the number of its nodes
+    private final Map<DirectedControl, Integer> counts = new HashMap<>();
+    // for each control, the depth of its deepest node
+    private final Map<DirectedControl, Integer> depths = new HashMap<>();
+
+    DirectedBigraphProfile(DirectedBigraph big) {
+        Deque<Parent> q = new ArrayDeque<Parent>(big.getRoots());
+        int d = 0;
+        while (!q.isEmpty()) {
+            // the queue holds exactly the parents at depth d
+            d++;
+            for (int k = q.size(); k > 0; k--) {
+                for (Child c : q.poll().getChildren()) {
+                    if (c.isNode()) {
+                        Node n = (Node) c;
+                        DirectedControl ctrl = n.getControl();
+                        Integer m = counts.get(ctrl);
+                        counts.put(ctrl, (m == null) ? 1 : m + 1);
+                        depths.put(ctrl, d);
+                        int s = n.getChildren().size();
+                        int[] hs = children.get(ctrl);
+                        if (hs == null || hs.length <= s) {
+                            hs = (hs == null) ? new int[s + 1] : Arrays
+                                    .copyOf(hs, s + 1);
+                            children.put(ctrl, hs);
+                        }
+                        hs[s]++;
+                        q.add(n);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Tells whether the redex may occur in the bigraph described by this
+     * profile; false means there are no matches, true means there may be
+     * some.
+     */
+    boolean admits(DirectedCompiledRedex redex) {
+        for (Map.Entry<DirectedControl, Integer> e : redex.controls
+                .entrySet()) {
+            DirectedControl c = e.getKey();
+            Integer m = counts.get(c);
+            if (m == null || m < e.getValue()
+                    || depths.get(c) < redex.depths.get(c))
+                return false;
+            int[] hs = children.get(c);
+            Integer l = redex.least_children.get(c);
+            if (l != null && hs.length <= l)
+                return false;
+            int[] rhs = redex.exact_children.get(c);
+            if (rhs == null)
+                continue;
+            if (hs.length < rhs.length)
+                return false;
+            for (int k = 0; k < rhs.length; k++) {
+                if (hs[k] < rhs[k])
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,227 @@
+package it.uniud.mads.jlibbig.core.ldb;
+
+import java.util.*;
+
+/**
+ * Describes the structure of a directed redex that does not depend on the
+ * agent it is matched against. Matchers compute this information before
+ * looking for embeddings of the redex; rules match the same redex against
+ * many agents and hence compile it once and reuse the result (cf.
+ * {@link DirectedMatcher#match(DirectedBigraph, DirectedCompiledRedex)}).
+ *
+ * Nodes are numbered densely following a breadth first visit of the place
+ * graph where, among siblings, the most constrained nodes (i.e. those with
+ * more ports and descendants) come first. Every node therefore comes after
+ * its parent and the order can be used to drive searches top-down.
+ *
+ * @see it.uniud.mads.jlibbig.core.std.CompiledRedex
+ */
+public final class DirectedCompiledRedex {
+
+	final DirectedBigraph redex;
+
+	final List<? extends Root> roots;
+	final List<? extends Site> sites;
+	// nodes sorted such that parents come before their children
+	final List<Node> nodes;
+	final Collection<? extends Edge> edges;
+	/*
+	 * Handles are edges, negative ports, downwards inner interface and
+	 * upwards outer interface
+	 */
+	final List<Handle> handles;
+	/*
+	 * Points are positive ports, upwards inner interface and downwards outer
+	 * interface
+	 */
+	final Collection<Point> points;
+	/*
+	 * In ports linked to some descending name of the outer interface: these
+	 * are the only ports the context can link to.
+	 */
+	final Set<Handle> exposed = Collections
+			.newSetFromMap(new IdentityHashMap<Handle, Boolean>());
+
+	// position of roots in roots and of nodes in nodes
+	final Map<PlaceEntity, Integer> index = new IdentityHashMap<>();
+	final Map<Parent, List<Node>> node_children = new IdentityHashMap<>();
+	final Map<Parent, List<Site>> site_children = new IdentityHashMap<>();
+	// number of nodes for each control
+	final Map<DirectedControl, Integer> controls = new HashMap<>();
+	/*
+	 * What the images of the nodes require of the agent (cf.
+	 * DirectedBigraphProfile): for each control, the depth of its deepest
+	 * node, the number of nodes without sites below them having k children
+	 * and the largest number of node children of a node with sites below it.
+	 */
+	final Map<DirectedControl, Integer> depths = new HashMap<>();
+	final Map<DirectedControl, int[]> exact_children = new HashMap<>();
+	final Map<DirectedControl, Integer> least_children = new HashMap<>();
+
+	/*
+	 * naming policy for sizes: r- redex -rs roots -ns nodes -ss sites -hs
+	 * handles -ps points -prs ports -ins inners
+	 */
+	final int rrs, rns, rss, rhs, rps, rprs, rins;
+
+	/**
+	 * Compiles the given redex.
+	 *
+	 * @param redex
+	 *            the redex to be compiled.
+	 */
+	public DirectedCompiledRedex(DirectedBigraph redex) {
+		if (redex == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		this.redex = redex;
+		this.roots = redex.getRoots();
+		this.sites = redex.getSites();
+		this.edges = redex.getEdges();
+
+		final Map<Node, Integer> weights = new IdentityHashMap<>();
+		for (Node n : redex.getNodes()) {
+			weightOf(n, weights);
+		}
+		Comparator<Node> bySelectivity = new Comparator<Node>() {
+			@Override
+			public int compare(Node n1, Node n2) {
+				return weights.get(n2) - weights.get(n1);
+			}
+		};
+
+		this.nodes = new ArrayList<>(weights.size());
+		Deque<Parent> q = new ArrayDeque<>();
+		int k = 0;
+		for (Root r : roots) {
+			index.put(r, k++);
+			q.add(r);
+		}
+		k = 0;
+		while (!q.isEmpty()) {
+			Parent p = q.poll();
+			List<Node> ns = new ArrayList<>();
+			List<Site> ss = new ArrayList<>();
+			for (Child c : p.getChildren()) {
+				if (c.isNode()) {
+					ns.add((Node) c);
+				} else {
+					ss.add((Site) c);
+				}
+			}
+			Collections.sort(ns, bySelectivity);
+			for (Node n : ns) {
+				nodes.add(n);
+				index.put(n, k++);
+				q.add(n);
+			}
+			node_children.put(p, ns);
+			site_children.put(p, ss);
+		}
+
+		this.handles = new ArrayList<Handle>(edges);
+		this.points = new HashSet<>(2 * nodes.size());
+		int ports = 0;
+		int[] depth = new int[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++) {
+			Node n = nodes.get(i);
+			DirectedControl c = n.getControl();
+			Integer m = controls.get(c);
+			controls.put(c, (m == null) ? 1 : m + 1);
+			// parents come first, hence their depth is known
+			Parent p = n.getParent();
+			depth[i] = (p.isRoot()) ? 1 : depth[index.get(p)] + 1;
+			m = depths.get(c);
+			if (m == null || m < depth[i])
+				depths.put(c, depth[i]);
+			int s = node_children.get(n).size();
+			if (site_children.get(n).isEmpty()) {
+				int[] hs = exact_children.get(c);
+				if (hs == null || hs.length <= s) {
+					hs = (hs == null) ? new int[s + 1] : Arrays.copyOf(hs,
+							s + 1);
+					exact_children.put(c, hs);
+				}
+				hs[s]++;
+			} else {
+				m = least_children.get(c);
+				if (m == null || m < s)
+					least_children.put(c, s);
+			}
+			handles.addAll(n.getInPorts());
+			points.addAll(n.getOutPorts());
+			ports += n.getOutPorts().size() + n.getInPorts().size();
+		}
+		handles.addAll(redex.getInnerInterface().getDesc().values());
+		handles.addAll(redex.getOuterInterface().getAsc().values());
+		points.addAll(redex.getInnerInterface().getAsc().values());
+		points.addAll(redex.getOuterInterface().getDesc().values());
+		for (InnerName i : redex.outers.getDesc().values()) {
+			if (i.getHandle().isPort())
+				exposed.add(i.getHandle());
+		}
+
+		rrs = roots.size();
+		rns = nodes.size();
+		rss = sites.size();
+		rhs = handles.size();
+		rps = points.size();
+		rprs = ports;
+		rins = redex.getInnerInterface().getAsc().size()
+				+ redex.getInnerInterface().getDesc().size();
+	}
+
+	/*
+	 * The weight of a node is its arity plus the size of the subtree it
+	 * roots: heavier nodes have less candidates and are searched first.
+	 */
+	private static int weightOf(Node n, Map<Node, Integer> weights) {
+		Integer w = weights.get(n);
+		if (w == null) {
+			int s = n.getControl().getArityOut() + n.getControl().getArityIn()
+					+ 1;
+			for (Child c : n.getChildren()) {
+				if (c.isNode())
+					s += weightOf((Node) c, weights);
+			}
+			w = s;
+			weights.put(n, w);
+		}
+		return w;
+	}
+
+	/**
+	 * Returns the redex described by this object.
+	 *
+	 * @return the compiled redex.
+	 */
+	public DirectedBigraph getRedex() {
+		return redex;
+	}
+
+	/**
+	 * Returns the number of nodes of the redex having the given control.
+	 *
+	 * @param control
+	 *            the control to be counted.
+	 * @return the number of nodes with the given control.
+	 */
+	public int countNodes(DirectedControl control) {
+		Integer n = controls.get(control);
+		return (n == null) ? 0 : n;
+	}
+
+	/*
+	 * Number of children of the given redex parent that are nodes.
+	 */
+	int nodeChildrenCount(Parent p) {
+		return node_children.get(p).size();
+	}
+
+	/*
+	 * Tells whether every child of the given redex parent is a node.
+	 */
+	boolean hasOnlyNodeChildren(Parent p) {
+		return site_children.get(p).isEmpty();
+	}
+}
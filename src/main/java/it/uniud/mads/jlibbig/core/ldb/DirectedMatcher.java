@@ -8,13 +8,16 @@ import it.uniud.mads.jlibbig.core.ldb.InPort;
 import it.uniud.mads.jlibbig.core.ldb.OutPort;
 import it.uniud.mads.jlibbig.core.ldb.EditableHandle;
 import it.uniud.mads.jlibbig.core.util.BidMap;
+import it.uniud.mads.jlibbig.core.util.SparseModel;
 
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+import it.uniud.mads.jlibbig.core.exceptions.MatchLimitException;
 import org.chocosolver.solver.Model;
 import org.chocosolver.solver.Solver;
 import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.expression.discrete.arithmetic.ArExpression;
 import org.chocosolver.solver.variables.IntVar;
-import org.chocosolver.solver.variables.Variable;
 
 /**
  * Provides services for computing matches of bigraphs with abstract
@@ -41,11 +44,151 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 	 */
 	public final static DirectedMatcher DEFAULT = new DirectedMatcher();
 
+	private final MatcherOptions options;
+	// nodes are matched by control unless areMatchable is overridden
+	final boolean matchesByControl = !overridesMatchable();
+
+	/**
+	 * Creates a matcher with the default options (cf.
+	 * {@link MatcherOptions#DEFAULT}).
+	 */
+	public DirectedMatcher() {
+		this(MatcherOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates a matcher with the given options describing the strategy and
+	 * the limits of its searches.
+	 *
+	 * @param options
+	 *            the options of the matcher.
+	 */
+	public DirectedMatcher(MatcherOptions options) {
+		if (options == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		this.options = options;
+	}
+
+	/**
+	 * Returns the options of this matcher.
+	 *
+	 * @return the options of the matcher.
+	 */
+	public MatcherOptions getOptions() {
+		return options;
+	}
+
 	@Override
 	public Iterable<? extends DirectedMatch> match(DirectedBigraph agent, DirectedBigraph redex) {
+		return match(agent, new DirectedCompiledRedex(redex));
+	}
+
+	/**
+	 * Computes the matches of a compiled redex in the agent. Only the work
+	 * depending on the agent is carried out, hence this method should be
+	 * preferred when the same redex is matched against several agents.
+	 * Inheriting classes changing how matches are computed are expected to
+	 * override this method.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the compiled redex to look up for.
+	 * @return the matches of the redex in the agent.
+	 */
+	public Iterable<? extends DirectedMatch> match(DirectedBigraph agent,
+			DirectedCompiledRedex redex) {
+		if (!mayOccur(agent, redex))
+			return Collections.<DirectedMatch> emptyList();
 		return new MatchIterable(agent, redex);
 	}
 
+	/**
+	 * Tells whether the redex occurs in the agent. The search stops at the
+	 * first solution and, unlike {@link #match}, no match is built; this
+	 * makes the method convenient for rules used as guards.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return a boolean indicating whether there is a match of the redex in
+	 *         the agent.
+	 */
+	public boolean exists(DirectedBigraph agent, DirectedBigraph redex) {
+		DirectedCompiledRedex compiled = new DirectedCompiledRedex(redex);
+		if (!mayOccur(agent, compiled))
+			return false;
+		return new MatchIterable(agent, compiled).exists();
+	}
+
+	/**
+	 * Computes a match of the redex in the agent, if any. Only the first
+	 * solution is looked for and only its match is built.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return the first match found or {@code null} if there are none.
+	 */
+	public DirectedMatch matchFirst(DirectedBigraph agent, DirectedBigraph redex) {
+		Iterator<? extends DirectedMatch> it = match(agent, redex).iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * Counts the matches of the redex in the agent. Solutions are enumerated
+	 * without building any match; this is much cheaper than iterating over
+	 * {@link #match}.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return the number of matches of the redex in the agent.
+	 */
+	public int count(DirectedBigraph agent, DirectedBigraph redex) {
+		return count(agent, redex, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Counts the matches of the redex in the agent stopping as soon as the
+	 * given bound is reached.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @param bound
+	 *            the maximum number of matches to count.
+	 * @return the number of matches of the redex in the agent or
+	 *         {@code bound} if there are more.
+	 */
+	public int count(DirectedBigraph agent, DirectedBigraph redex, int bound) {
+		if (bound < 0) {
+			throw new IllegalArgumentException(
+					"The bound should be a non-negative integer.");
+		}
+		DirectedCompiledRedex compiled = new DirectedCompiledRedex(redex);
+		if (!mayOccur(agent, compiled))
+			return 0;
+		return new MatchIterable(agent, compiled).count(bound);
+	}
+
+	/*
+	 * Tells whether the redex may occur in the agent by comparing the profile
+	 * of the agent with what the redex requires of it (cf.
+	 * DirectedBigraphProfile). Matchers redefining areMatchable may match
+	 * nodes with different controls, hence their redexes are not filtered.
+	 */
+	boolean mayOccur(DirectedBigraph agent, DirectedCompiledRedex redex) {
+		if (!matchesByControl || !agent.signature.equals(redex.redex.signature))
+			return true;
+		return agent.getProfile().admits(redex);
+	}
+
 	/**
 	 * The method is called to asses if a pair of nodes (one from the redex and
 	 * the other from the agent bigraph) is a potential match or not. The
@@ -70,9 +213,58 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 		return fromAgent.getControl().equals(fromRedex.getControl());
 	}
 
+	private boolean overridesMatchable() {
+		for (Class<?> c = getClass(); c != DirectedMatcher.class; c = c
+				.getSuperclass()) {
+			try {
+				c.getDeclaredMethod("areMatchable", DirectedBigraph.class,
+						Node.class, DirectedBigraph.class, Node.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Computes the matches of the redex that place the redex node pin on one
+	 * of the given agent nodes. Only the hosts of these nodes are candidates
+	 * for the root above pin (cf. DirectedParallelMatcher).
+	 */
+	Iterable<? extends DirectedMatch> match(DirectedBigraph agent,
+			DirectedCompiledRedex redex, Node pin,
+			Collection<? extends Node> images) {
+		return new MatchIterable(agent, redex, pin, images);
+	}
+
+	/*
+	 * Returns the agent parent hosting the root of the redex when the redex
+	 * node pin is placed on the agent node image, or null if there is none or
+	 * it is not in an active context.
+	 */
+	static Parent hostOf(Node pin, Node image) {
+		Parent f = image.getParent();
+		for (Parent g = pin.getParent(); g.isNode(); g = ((Node) g)
+				.getParent()) {
+			if (f.isRoot())
+				return null;
+			f = ((Node) f).getParent();
+		}
+		for (Parent p = f; p.isNode(); p = ((Node) p).getParent()) {
+			if (!((Node) p).getControl().isActive())
+				return null;
+		}
+		return f;
+	}
+
 	private class MatchIterable implements Iterable<DirectedMatch> {
 		
 		final DirectedBigraph agent, redex;
+		final DirectedCompiledRedex compiled;
+
+		// if not null, the redex node pin is placed on one of the agent images
+		final Node pin;
+		final Set<Node> images;
 
 		// boolean agent_ancestors_is_empty = true;
 		// final Map<Child, Collection<Parent>> agent_ancestors;
@@ -92,9 +284,10 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 		 */
 		final List<Handle> agent_handles;
 
+		// redex collections are taken from its compiled form
 		final List<? extends Root> redex_roots;
 		final List<? extends Site> redex_sites;
-		final Collection<? extends Node> redex_nodes;
+		final List<Node> redex_nodes;
 		final Collection<Point> redex_points;
 		final Collection<? extends Edge> redex_edges;
 		final List<Handle> redex_handles;
@@ -107,14 +300,29 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 		 */
 		final int ars, ans, ass, ahs, aps, aiprs, aoprs, rrs, rns, rss, rhs, rps, rprs, rins;
 
-		private MatchIterable(DirectedBigraph agent, DirectedBigraph redex) {
+		private MatchIterable(DirectedBigraph agent, DirectedCompiledRedex redex) {
+			this(agent, redex, null, null);
+		}
+
+		private MatchIterable(DirectedBigraph agent,
+				DirectedCompiledRedex redex, Node pin,
+				Collection<? extends Node> images) {
 			// boolean[] neededParams) {
-			if (!agent.signature.equals(redex.signature)) {
+			if (!agent.signature.equals(redex.redex.signature)) {
 				throw new UnsupportedOperationException(
 						"Agent and redex should have the same singature.");
 			}
 			this.agent = agent;
-			this.redex = redex;
+			this.redex = redex.redex;
+			this.compiled = redex;
+			this.pin = pin;
+			if (pin == null) {
+				this.images = null;
+			} else {
+				this.images = Collections
+						.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+				this.images.addAll(images);
+			}
 
 			this.agent_roots = agent.getRoots();
 			this.agent_nodes = agent.getNodes();
@@ -157,43 +365,20 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 
 			// this.agent_ancestors = new HashMap<>(ans);
 
-			this.redex_roots = redex.getRoots();
-			this.redex_sites = redex.getSites();
-			this.redex_nodes = redex.getNodes();
-			this.redex_edges = redex.getEdges();//redex_nodes);
-			// handles are edges, negative ports, downwards inner interface and 
-			// upwards outer interface
-			this.redex_handles = new LinkedList<Handle>(redex_edges);
-			for (Node n : redex_nodes) {
-				redex_handles.addAll(n.getInPorts());
-			}
-			redex_handles.addAll(redex.getInnerInterface().getDesc().values());
-			redex_handles.addAll(redex.getOuterInterface().getAsc().values());
-
-			rrs = redex_roots.size();
-			rns = redex_nodes.size();
-			rss = redex_sites.size();
-			rhs = redex_handles.size();
-
-			// points are positive ports, upwards inner interface and downwards 
-			// outer interface
-			innerup_size = redex.getInnerInterface().getAsc().size();
-			outerdown_size = redex.getOuterInterface().getDesc().size();
-			this.redex_points = new HashSet<>(rns + innerup_size + outerdown_size);
-			for (Node n : redex_nodes) {
-				redex_points.addAll(n.getOutPorts());
-			}
-			// only ports
-			int rprts = 0;
-			for (Node n : redex_nodes) {
-				rprts += n.getOutPorts().size() + n.getInPorts().size();
-			}
-			rprs = rprts;
-			redex_points.addAll(redex.getInnerInterface().getAsc().values());
-			redex_points.addAll(redex.getOuterInterface().getDesc().values());
-			rps = redex_points.size();
-			rins = redex.getInnerInterface().getAsc().size() + 
-				redex.getInnerInterface().getDesc().size();
+			this.redex_roots = redex.roots;
+			this.redex_sites = redex.sites;
+			this.redex_nodes = redex.nodes;
+			this.redex_edges = redex.edges;
+			this.redex_handles = redex.handles;
+			this.redex_points = redex.points;
+
+			rrs = redex.rrs;
+			rns = redex.rns;
+			rss = redex.rss;
+			rhs = redex.rhs;
+			rprs = redex.rprs;
+			rps = redex.rps;
+			rins = redex.rins;
 
 			// this.neededParam = new boolean[rss];
 			// for (int i = 0; i < this.neededParam.length; i++) {
@@ -206,6 +391,20 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 			return new MatchIterator();
 		}
 
+		/*
+		 * Looks for a single solution of the CSP without building its match.
+		 */
+		boolean exists() {
+			return new MatchIterator().countSolutions(1) > 0;
+		}
+
+		/*
+		 * Counts the solutions of the CSP up to the given bound.
+		 */
+		int count(int bound) {
+			return new MatchIterator().countSolutions(bound);
+		}
+
 		private class MatchIterator implements Iterator<DirectedMatch> {
 
 			private boolean mayHaveNext = true;
@@ -215,13 +414,20 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 
 			final private Model model;
 			final private Solver solver;
+			// allocates the place variables and posts sums over them
+			final private SparseModel<PlaceEntity> sparse;
 			/*
 			 * variables for the place embedding problem the following variables
 			 * are indexed over pairs where the first entity is from the agent
-			 * and the second from the redex
+			 * and the second from the redex. Rows are sparse: missing rows and
+			 * entries stand for variables fixed to zero.
 			 */
-			final Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars = new IdentityHashMap<>(
-					ars + ans + ass);
+			final Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars;
+			/*
+			 * agent place entities having a variable in p_vars indexed by the
+			 * redex entity they may be placed on
+			 */
+			final Map<PlaceEntity, List<PlaceEntity>> p_cands;
 			/*
 			 * variables for the multiflux problem desrcibing the link embedding
 			 * these are indexed by redex handles and then by agent handles
@@ -235,10 +441,25 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 			final Map<Handle, Map<Handle, IntVar>> f_vars = new IdentityHashMap<>(
 					rhs);
 
+			private int var_count = 0;
+
+			// statistics of the search, if there is a listener
+			final private MatchStats stats;
+
 			MatchIterator() {
+				this.stats = DirectedSearchControl.newStats(options,
+						DirectedMatcher.this, redex);
+				long t = (stats == null) ? 0 : System.nanoTime();
 				this.model = new Model();
+				this.sparse = new SparseModel<>(model);
+				this.p_vars = sparse.getPlaceVars();
+				this.p_cands = sparse.getCandidates();
 
 				solver = instantiateModel();
+				DirectedSearchControl.configure(options, solver, placeVars());
+				if (stats != null)
+					stats.recordModel(model.getNbVars(), model.getNbCstrs(),
+							System.nanoTime() - t);
 
 				if (DEBUG) {
 					System.out.println("- MODEL CREATED ---------------------");
@@ -250,87 +471,112 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 				}
 			}
 
-			private Variable findVariable(String name, Variable[] vars) {
-				for (Variable v : vars) {
-					if (name.equals(v.getName())) {
-						return v;
-					}
+			/*
+			 * Solution values are read straight from the variables: once the
+			 * solver stops on a solution they are all instantiated.
+			 */
+			private int valueOf(IntVar var) {
+				return (var == null) ? 0 : var.getValue();
+			}
+
+			private <K, V> Map<K, V> rowOf(Map<K, Map<K, V>> vars, K key) {
+				Map<K, V> row = vars.get(key);
+				return (row == null) ? Collections.<K, V> emptyMap() : row;
+			}
+
+			/*
+			 * Tells whether the agent child can be placed on the redex one
+			 * assuming their parents are. This covers the node compatibility
+			 * (constraint 2) and the child counting of constraints 7 and 8
+			 * (every child of an image is either an image or in a parameter).
+			 */
+			private boolean isFeasible(Child i, Child j) {
+				if (j.isSite()) {
+					return true;
 				}
-				// We should't encounter this case.
-				return null;
+				if (!i.isNode()) {
+					return false;
+				}
+				Node ni = (Node) i;
+				Node nj = (Node) j;
+				if (ni.getControl().getArityOut() < nj.getControl()
+						.getArityOut()
+						|| ni.getControl().getArityIn() < nj.getControl()
+								.getArityIn()
+						|| !areMatchable(agent, ni, redex, nj)) {
+					return false;
+				}
+				int cs = compiled.nodeChildrenCount(nj);
+				int ci = ni.getChildren().size();
+				return compiled.hasOnlyNodeChildren(nj) ? ci == cs : ci >= cs;
 			}
 
 			private Solver instantiateModel() {
-				// MODEL
-				// ///////////////////////////////////////////////////////////
-
-				// int ki = 0, kj = 0, kk = 0;
-				// IntegerExpressionVariable[] vars1, vars2;
+				// VARIABLES //////////////////////////////////////////////////
 
+				/*
+				 * Variables are allocated only for pairs that pass the
+				 * structural checks below, any pair missing from p_vars,
+				 * e_vars or f_vars is implicitly zero. Candidates are
+				 * propagated top-down along the redex place graph (cf.
+				 * SparseModel): redex roots can be hosted by agent roots and
+				 * nodes in an active context (constraint 4), redex nodes and
+				 * sites by children of the candidates for their parent
+				 * (constraint 3).
+				 */
 				{
-					int ki = 0;
-					for (Root i : agent_roots) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rrs + rns + rss);
-						for (Root j : redex_roots) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						// 1 // these will always be zero
-						for (Node j : redex_nodes) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							model.arithm(var, "=", 0).post();
-							row.put(j, var);
-						}
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							model.arithm(var, "=", 0).post();
-							row.put(j, var);
+					List<Parent> hosts = new ArrayList<>();
+					Deque<Parent> q = new ArrayDeque<Parent>(agent_roots);
+					while (!q.isEmpty()) {
+						Parent f = q.poll();
+						hosts.add(f);
+						for (Child c : f.getChildren()) {
+							if (c.isNode()
+									&& ((Node) c).getControl().isActive()) {
+								q.add((Node) c);
+							}
 						}
-						p_vars.put(i, row);
-						ki++;
 					}
-					for (Node i : agent_nodes) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rrs + rns + rss);
-						for (Root j : redex_roots) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						for (Node j : redex_nodes) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
+					/*
+					 * A pin leaves as candidates for the root above it only
+					 * the hosts of its images.
+					 */
+					Root pin_root = null;
+					Set<Parent> pin_hosts = null;
+					if (pin != null) {
+						Parent g = pin.getParent();
+						while (g.isNode())
+							g = ((Node) g).getParent();
+						pin_root = (Root) g;
+						pin_hosts = Collections
+								.newSetFromMap(new IdentityHashMap<Parent, Boolean>());
+						for (Node i : images) {
+							Parent f = hostOf(pin, i);
+							if (f != null)
+								pin_hosts.add(f);
 						}
-						p_vars.put(i, row);
-						ki++;
 					}
-
-					for (Site i : agent_sites) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rss); // rrs + rns + rss);
-						/*
-						 * for (Root j : redex_roots) { IntVar var =
-						 * Choco.makeBooleanVar(ki + "_" + kj++);
-						 * model.addVariable(var); row.put(j, var); } /*for
-						 * (Node j : redex_nodes) { IntVar var =
-						 * Choco.makeBooleanVar(ki + "_" + kj++);
-						 * model.addVariable(var); row.put(j, var); }
-						 */
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
+					for (Root g : redex_roots) {
+						List<Parent> fs = hosts;
+						if (g == pin_root) {
+							fs = new ArrayList<>();
+							for (Parent f : hosts) {
+								if (pin_hosts.contains(f))
+									fs.add(f);
+							}
 						}
-						p_vars.put(i, row);
-						ki++;
+						sparse.addRoot(g, fs, compiled.nodeChildrenCount(g));
 					}
 				}
+				// redex nodes come after their parents
+				{
+					List<Child> rchildren = new ArrayList<>(rns + rss);
+					rchildren.addAll(redex_nodes);
+					rchildren.addAll(redex_sites);
+					sparse.addChildren(rchildren, (i, j) -> (j != pin || images
+							.contains(i)) && isFeasible(i, j));
+				}
+
 
 				{
 					int ki = 0;
@@ -339,8 +585,12 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						Map<Handle, IntVar> row = new IdentityHashMap<>(
 								ahs);
 						for (Handle ha : agent_handles) {
-							IntVar var = model.boolVar("F_" + ki + "_" + kj++);
-							row.put(ha, var);
+							// ports are set below
+							if (!hr.isPort() || !ha.isPort()) {
+								IntVar var = model.boolVar("F_" + ki + "_" + kj);
+								row.put(ha, var);
+							}
+							kj++;
 						}
 						f_vars.put(hr, row);
 						ki++;
@@ -356,13 +606,37 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						IntVar var = model.boolVar("PH_" + ki);
 						row.put(hi, var);
 						for (Point pj : redex_points) {
-							var = model.boolVar("PP_" + ki + "_" + kj++);
-							row.put(pj, var);
+							// ports are set below
+							if (!pi.isPort() || !pj.isPort()) {
+								var = model.boolVar("PP_" + ki + "_" + kj);
+								row.put(pj, var);
+							}
+							kj++;
 						}
 						e_vars.put(pi, row);
 						ki++;
 					}
 
+					/*
+					 * The k-th ports of an agent node and of a redex node are
+					 * linked iff the nodes are matched, hence the place
+					 * variable is shared (interplay constraints for ports).
+					 */
+					for (Node nj : redex_nodes) {
+						for (PlaceEntity i : p_cands.get(nj)) {
+							Node ni = (Node) i;
+							IntVar m = p_vars.get(ni).get(nj);
+							for (int k = nj.getControl().getArityOut() - 1; 0 <= k; k--) {
+								e_vars.get(ni.getOutPort(k)).put(
+										nj.getOutPort(k), m);
+							}
+							for (int k = nj.getControl().getArityIn() - 1; 0 <= k; k--) {
+								f_vars.get(nj.getInPort(k)).put(
+										ni.getInPort(k), m);
+							}
+						}
+					}
+
 					// vars for redex handles flux
 					ki = 0;
 					for (Handle hj : redex_handles) {
@@ -379,311 +653,203 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 					}
 				}
 
-				// PLACE CONSTRAINTS //////////////////////////////////////////
-
-				// 2 // M_ij = 0 if nodes are different in the sense of this.eq
-				// merged with interplay constraints
 				/*
-				 * { for (Node i : agent_nodes) { Map<PlaceEntity,
-				 * IntVar> row = p_vars.get(i); for (Node j :
-				 * redex_nodes) { IntVar var = row.get(j); if
-				 * (!areMatchable(agent, i, redex, j)) {
-				 * model.addConstraint(Choco.eq(0, var)); } } }}
+				 * Agent nodes that may end up in a parameter, i.e. candidates
+				 * for redex sites and their descendants, with the variables
+				 * placing them or one of their ancestors in a site.
 				 */
-				// ////////////////////////////////////////////////////////////
-
-				// 3 // M_ij <= M_fg if f = prnt(i) and g = prnt(j)
-				{
-					for (Node i : agent_nodes) {
-						Parent f = i.getParent();
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						Map<PlaceEntity, IntVar> f_row = p_vars.get(f);
-						for (Child j : redex_nodes) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g))
-								.post();
-						}
-						for (Child j : redex_sites) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g))
-								.post();
-						}
-					}
-					for (Site i : agent_sites) {
-						Parent f = i.getParent();
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						Map<PlaceEntity, IntVar> f_row = p_vars.get(f);
-						for (Child j : redex_sites) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g))
-								.post();
-						}
-					}
-				}
-				// ////////////////////////////////////////////////////////////
-
-				// 4 // M_ij = 0 if j is a root and i is not in an active
-				// context //
-
-				{
-					/*
-					 * Descends the agent parent map deactivating matching (with
-					 * redex roots) below every passive node. Nodes in qa were
-					 * found in an active context whereas children in qp are in
-					 * passive contexts or passive nodes.
-					 */
-					Deque<Node> qa = new ArrayDeque<>();
-					Deque<Child> qp = new ArrayDeque<>();
-					for (Root r : agent_roots) {
-						for (Child c : r.getChildren()) {
-							if (c.isNode()) {
-								qa.add((Node) c);
+				Map<Node, List<IntVar>> param_vars = new IdentityHashMap<>();
+				List<Node> param_nodes = new ArrayList<>();
+				for (Site j : redex_sites) {
+					for (PlaceEntity i : p_cands.get(j)) {
+						if (!i.isNode())
+							continue;
+						IntVar v = p_vars.get(i).get(j);
+						Deque<Node> q = new ArrayDeque<>();
+						q.add((Node) i);
+						while (!q.isEmpty()) {
+							Node n = q.poll();
+							List<IntVar> vs = param_vars.get(n);
+							if (vs == null) {
+								vs = new ArrayList<>();
+								param_vars.put(n, vs);
+								param_nodes.add(n);
 							}
-						}
-					}
-					while (!qa.isEmpty()) {
-						Node n = qa.poll();
-						if (n.getControl().isActive()) {
+							vs.add(v);
 							for (Child c : n.getChildren()) {
 								if (c.isNode()) {
-									qa.add((Node) c);
+									q.add((Node) c);
 								}
 							}
-						} else {
-							qp.add(n);
 						}
 					}
-					qa.clear();
-					while (!qp.isEmpty()) {
-						Child i = qp.poll();
-						Map<PlaceEntity, IntVar> row = p_vars.get(i);
-						for (Root j : redex_roots) {
-							model.arithm(row.get(j), "=", 0).post();
-						}
-						if (i.isNode()) {
-							for (Child c : ((Node) i).getChildren()) {
-								if (c.isNode()) {
-									qp.add((Node) c);
-								}
-							}
+				}
+
+				// PLACE CONSTRAINTS //////////////////////////////////////////
+
+				// 2 // M_ij = 0 if nodes are different in the sense of this.eq
+				// ! implicit, see isFeasible //
+
+				// 3 // M_ij <= M_fg if f = prnt(i) and g = prnt(j)
+				{
+					for (Map.Entry<PlaceEntity, Map<PlaceEntity, IntVar>> r : p_vars
+							.entrySet()) {
+						if (r.getKey().isRoot())
+							continue;
+						Map<PlaceEntity, IntVar> f_row = p_vars
+								.get(((Child) r.getKey()).getParent());
+						for (Map.Entry<PlaceEntity, IntVar> c : r.getValue()
+								.entrySet()) {
+							if (c.getKey().isRoot())
+								continue;
+							Parent g = ((Child) c.getKey()).getParent();
+							model.arithm(c.getValue(), "<=", f_row.get(g))
+									.post();
 						}
 					}
 				}
 
-				// /////////////////////////////////////////////////////////////////
+				// 4 // M_ij = 0 if j is a root and i is not in an active
+				// context
+				// ! implicit, see the allocation of variables //
 
 				// 5 // sum M_ij = 1 if j not in sites
 				{
-					IntVar[] vars = new IntVar[ars + ans];
+					List<IntVar> vars = new ArrayList<>();
 					for (Root j : redex_roots) {
-						int k = 0;
-						for (PlaceEntity i : p_vars.keySet()) {
-							if (i.isSite())
-								continue;
-							vars[k++] = p_vars.get(i).get(j);
+						vars.clear();
+						for (PlaceEntity i : p_cands.get(j)) {
+							vars.add(p_vars.get(i).get(j));
 						}
-						model.sum(vars, "=", 1).post();
+						sparse.postSum(vars, "=", 1);
 					}
-					vars = new IntVar[ans + ass];
 					for (Node j : redex_nodes) {
-						int k = 0;
-						for (PlaceEntity i : p_vars.keySet()) {
-							if (i.isRoot())
-								continue;
-							vars[k++] = p_vars.get(i).get(j);
+						vars.clear();
+						for (PlaceEntity i : p_cands.get(j)) {
+							vars.add(p_vars.get(i).get(j));
 						}
-						model.sum(vars, "=", 1).post();
+						sparse.postSum(vars, "=", 1);
 					}
 				}
-				// //////////////////////////////////////////////////////////////////
 
 				// 6 // n sum(j not root) M_ij + sum(j root) M_ij <= n if i in
 				// nodes
 				{
-					for (Node i : agent_nodes) {
-						Map<PlaceEntity, IntVar> row = p_vars.get(i);
-						IntVar[] vars = new IntVar[rns + rss];
+					for (Map.Entry<PlaceEntity, Map<PlaceEntity, IntVar>> r : p_vars
+							.entrySet()) {
+						if (!r.getKey().isNode())
+							continue;
+						Map<PlaceEntity, IntVar> row = r.getValue();
+						IntVar[] vars = new IntVar[row.size()];
+						int[] coeffs = new int[vars.length];
 						int k = 0;
-						for (PlaceEntity j : redex_nodes) {
-							vars[k++] = row.get(j);
-						}
-						for (PlaceEntity j : redex_sites) {
-							vars[k++] = row.get(j);
-						}
-						IntVar t1 = model.intVar(rrs);
-						IntVar c = model.intVar(0);
-						for (IntVar v : vars) {
-							c = c.add(v).intVar();
-						}
-						c = c.mul(t1).intVar();
-
-						vars = new IntVar[rrs];
-						k = 0;
-						for (Root j : redex_roots) {
-							vars[k++] = row.get(j);
+						boolean nonRoot = false;
+						for (Map.Entry<PlaceEntity, IntVar> c : row.entrySet()) {
+							if (c.getKey().isRoot()) {
+								coeffs[k] = 1;
+							} else {
+								coeffs[k] = rrs;
+								nonRoot = true;
+							}
+							vars[k++] = c.getValue();
 						}
-
-						t1 = model.intVar(0);
-						for (IntVar v : vars) {
-							t1 = t1.add(v).intVar();
+						if (nonRoot && vars.length > 1) {
+							model.scalar(vars, coeffs, "<=", rrs).post();
 						}
-						t1 = t1.add(c).intVar();
-						model.arithm(t1, "<=", rrs).post();
 					}
-					/*
-					 * for (Site i : agent_sites) { Map<PlaceEntity,
-					 * IntVar> row = p_vars.get(i); IntVar[]
-					 * vars = new IntVar[rss]; int k = 0; for
-					 * (PlaceEntity j : redex_sites) { vars[k++] = row.get(j); }
-					 * IntegerExpressionVariable c = Choco.mult(rrs,
-					 * Choco.sum(vars));
-					 * 
-					 * vars = new IntVar[rrs]; k = 0; for (Root j :
-					 * redex_roots) { vars[k++] = row.get(j); }
-					 * model.addConstraint(Choco.geq(rrs, Choco.sum(c,
-					 * Choco.sum(vars)))); }
-					 */
 				}
-				// /////////////////////////////////////////////////////////////////
 
 				// 7 // |chld(f)| M_fg <= sum(i chld(f), j in chld(g)) M_ij if
 				// f,g in nodes
 				{
-					for (Parent f : agent_nodes) {
-						Collection<? extends Child> cf = f.getChildren();
-						for (Parent g : redex_nodes) {
-							Collection<? extends Child> cg = g.getChildren();
-							IntVar[] vars = new IntVar[cf
-									.size() * cg.size()];
-							int k = 0;
-							for (PlaceEntity i : cf) {
-								for (PlaceEntity j : cg) {
-									vars[k++] = p_vars.get(i).get(j);
+					List<IntVar> vars = new ArrayList<>();
+					for (Node g : redex_nodes) {
+						Collection<? extends Child> cg = g.getChildren();
+						for (PlaceEntity f : p_cands.get(g)) {
+							Collection<? extends Child> cf = ((Node) f)
+									.getChildren();
+							if (cf.isEmpty())
+								continue;
+							vars.clear();
+							for (Child i : cf) {
+								Map<PlaceEntity, IntVar> row = p_vars.get(i);
+								if (row == null)
+									continue;
+								for (Child j : cg) {
+									IntVar v = row.get(j);
+									if (v != null)
+										vars.add(v);
 								}
 							}
-							IntVar chld = p_vars.get(f).get(g);
-							model.sum(vars, ">=", chld.mul(cf.size()).intVar()).post();
+							sparse.postDiff(vars, cf.size(), Collections
+									.singletonList(p_vars.get(f).get(g)), ">=");
 						}
 					}
 				}
-				// /////////////////////////////////////////////////////////////////
 
 				// 8 // |chld(g) not sites| M_fg <= sum(i chld(f), j chld(g) not
 				// sites) if g in roots
 				{
-					Map<Root, Collection<? extends Child>> cgs = new HashMap<>(
-							rrs);
+					List<IntVar> vars = new ArrayList<>();
 					for (Root g : redex_roots) {
-						Collection<? extends Child> cg = new HashSet<>(
-								g.getChildren());
-						cg.removeAll(redex_sites);
-						cgs.put(g, cg);
-					}
-					for (PlaceEntity f : p_vars.keySet()) {
-						if (f.isSite())
+						Collection<Node> cg = compiled.node_children.get(g);
+						if (cg.isEmpty())
 							continue;
-						Collection<? extends Child> cf = ((Parent) f)
-								.getChildren();
-						for (Root g : redex_roots) {
-							Collection<? extends Child> cg = cgs.get(g);
-							IntVar[] vars = new IntVar[cf
-									.size() * cg.size()];
-							int k = 0;
-							for (Child i : cf) {
+						for (PlaceEntity f : p_cands.get(g)) {
+							vars.clear();
+							for (Child i : ((Parent) f).getChildren()) {
+								Map<PlaceEntity, IntVar> row = p_vars.get(i);
+								if (row == null)
+									continue;
 								for (Child j : cg) {
-									vars[k++] = p_vars.get(i).get(j);
+									IntVar v = row.get(j);
+									if (v != null)
+										vars.add(v);
 								}
 							}
-							IntVar chld = p_vars.get(f).get(g);
-							model.sum(vars, ">=", chld.mul(cg.size()).intVar()).post();
+							sparse.postDiff(vars, cg.size(), Collections
+									.singletonList(p_vars.get(f).get(g)), ">=");
 						}
 					}
 				}
-				// /////////////////////////////////////////////////////////////////
 
 				// 9 // sum(f in ancs(i)\{i}, g in m) M_fg + M_ij <= 1 if j in
 				// roots
-/* The class bigraph provides ancestor for us				
- 				if (agent_ancestors_is_empty) {
-					
-					 * acquire agent_ancestors and re-check if it still is empty
-					 * if this is the case, descends the agent parent map and
-					 * builds agent_ancestors
-					 
-					synchronized (agent_ancestors) {
-						if (agent_ancestors_is_empty) {
-							Stack<Parent> ancs = new Stack<>();
-							Stack<Parent> visit = new Stack<>();
-							for (Root r : agent_roots) {
-								ancs.clear();
-								visit.add(r);
-								while (!visit.isEmpty()) {
-									Parent p = visit.pop();
-									if (p.isNode()) {
-										Node n = (Node) p;
-										while (!ancs.isEmpty()
-												&& ancs.peek() != n.getParent())
-											ancs.pop();
-									}
-									// put itself as an ancestor and
-									// process each of its children
-									ancs.push(p);
-									for (Child c : p.getChildren()) {
-										if (c.isParent()) {
-											visit.add((Parent) c);
-										}
-										agent_ancestors.put(c, new ArrayList<>(
-												ancs));
-									}
-								}
-							}
-							agent_ancestors_is_empty = false;
-						}
-					}
-				}*/
 				{
-					for (Node i : agent_nodes) {
-						Collection<Parent> ancs = agent.getAncestors(i);
-						IntVar[] vars = new IntVar[(ancs.size()) * rss];
-						int k = 0;
-						for (Parent f : ancs) {
-							if (f.isNode()) {
-								Map<PlaceEntity, IntVar> f_row = p_vars
-										.get(f);
-								for (Site g : redex_sites) {
-									vars[k++] = f_row.get(g);
-								}
+					List<IntVar> vars = new ArrayList<>();
+					for (Root j : redex_roots) {
+						for (PlaceEntity i : p_cands.get(j)) {
+							if (!i.isNode() || !param_vars.containsKey(i))
+								continue;
+							Collection<IntVar> own = p_vars.get(i).values();
+							vars.clear();
+							for (IntVar v : param_vars.get(i)) {
+								if (!own.contains(v))
+									vars.add(v);
 							}
-						}
-						
-						IntVar sum = model.intVar(0);
-						for (IntVar v : vars) {
-							sum = sum.add(v).intVar();
-						}
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						for (Root j : redex_roots) {
-							model.arithm(sum.add(i_row.get(j)).intVar(), 
-									"<=", 1).post();
+							if (vars.isEmpty())
+								continue;
+							vars.add(p_vars.get(i).get(j));
+							sparse.postSum(vars, "<=", 1);
 						}
 					}
 				}
 
 				// 10 //
 				{
-					IntVar[] vars = new IntVar[rrs + rns + rss];
 					for (Site i : agent_sites) {
-						vars = p_vars.get(i).values().toArray(vars);
-						model.sum(vars, "<=", 1).post();
+						Map<PlaceEntity, IntVar> row = p_vars.get(i);
+						if (row != null && row.size() > 1) {
+							sparse.postSum(row.values(), "<=", 1);
+						}
 					}
 				}
 				// LINK CONSTRAINTS ///////////////////////////////////////////
 
 				// 1 // source constraints
 				{
-					IntVar[] vars = new IntVar[rps + 1];
 					for (Point p : agent_points) {
-						vars = e_vars.get(p).values().toArray(vars);
-						model.sum(vars, "=", 1).post();
+						sparse.postSum(e_vars.get(p).values(), "=", 1);
 					}
 				}
 				// 2 // sink constraints
@@ -707,24 +873,20 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 
 				// 3 // flux preservation
 				{
-					IntVar[] vars1 = new IntVar[ahs];
+					List<IntVar> vars2 = new ArrayList<>();
 					for (Handle hr : redex_handles) {
 						Collection<? extends Point> ps = hr.getPoints();
-						int k = 0;
-						IntVar[] vars2 = new IntVar[aps * ps.size()];
+						vars2.clear();
 						for (Point pa : agent_points) {
 							Map<LinkEntity, IntVar> row = e_vars
 									.get(pa);
 							for (Point pr : ps) {
-								vars2[k++] = row.get(pr);
+								IntVar v = row.get(pr);
+								if (v != null)
+									vars2.add(v);
 							}
 						}
-						vars1 = e_vars.get(hr).values().toArray(vars1);
-						IntVar sum1 = model.intVar(0);
-						for (IntVar v : vars1) {
-							sum1 = sum1.add(v).intVar();
-						}
-						model.sum(vars2, "=", sum1).post();
+						sparse.postDiff(vars2, 1, e_vars.get(hr).values(), "=");
 					}
 				}
 
@@ -770,10 +932,17 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 								if (!ha.getPoints().isEmpty()) {
 									IntVar vf = f_row.get(ha);
 									IntVar ve = e_row.get(ha);
+									if (vf == null) {
+										model.arithm(ve, "=", 0).post();
+										continue;
+									}
 									model.arithm(ve, "<=", 
 											vf.mul(ha.getPoints().size())
 											.intVar()).post();
-									model.arithm(vf, "<=", ve).post();
+									// exposed ports may be linked to points of
+									// the context alone
+									if (!compiled.exposed.contains(hr))
+										model.arithm(vf, "<=", ve).post();
 								}
 							}
 						}
@@ -786,26 +955,42 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						Collection<? extends Point> ps = hr.getPoints();
 						for (Handle ha : agent_handles) {
 							IntVar vf = f_row.get(ha);
-							int k = 0;
-							IntVar[] vars = new IntVar[ps
-									.size() * ha.getPoints().size()];
+							if (vf == null) {
+								// ha and hr are ports of unmatched nodes
+								for (Point pa : ha.getPoints()) {
+									Map<LinkEntity, IntVar> e_row = e_vars
+											.get(pa);
+									for (Point pr : ps) {
+										IntVar ve = e_row.get(pr);
+										if (ve != null)
+											model.arithm(ve, "=", 0).post();
+									}
+								}
+								continue;
+							}
+							List<IntVar> vars = new ArrayList<>();
 							for (Point pa : ha.getPoints()) {
 								Map<LinkEntity, IntVar> e_row = e_vars
 										.get(pa);
 								for (Point pr : ps) {
 									IntVar ve = e_row.get(pr);
-									vars[k++] = ve;
+									if (ve == null)
+										continue;
+									vars.add(ve);
 									model.arithm(ve, "<=", vf).post();
 								}
 								// // constraint 10
-								if (hr.isEdge()) {
-									model.arithm(
-											vf.add(e_vars.get(pa).get(ha)).intVar(), 
+								// closed ports can not be bypassed either
+								if (hr.isEdge() || (hr.isPort()
+										&& !compiled.exposed.contains(hr))) {
+									model.arithm(vf, "+", e_vars.get(pa).get(ha),
 											"<=", 1).post();
 								}
 							}
-							if (!ps.isEmpty() && !ha.getPoints().isEmpty())
-								model.sum(vars, ">=", vf).post();
+							if (!ps.isEmpty() && !ha.getPoints().isEmpty()
+									&& !compiled.exposed.contains(hr))
+								sparse.postDiff(vars, 1,
+										Collections.singletonList(vf), ">=");
 						}
 					}
 				}
@@ -815,11 +1000,9 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 					 * Redex handles can be matched to at most one handle of the
 					 * redex
 					 */
-					IntVar[] vars = new IntVar[ahs];
 					for (Handle hr : redex_handles) {
 						Map<Handle, IntVar> f_row = f_vars.get(hr);
-						model.sum(f_row.values().toArray(vars), "<=", 1)
-							.post();
+						sparse.postSum(f_row.values(), "<=", 1);
 					}
 				}
 
@@ -835,7 +1018,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						if (hr1.isEdge()) {
 							for (Handle ha : agent_handles) {
 								// edges belongs to edges
-								if (ha.isOuterName() || ha.isPort()) {
+								if ((ha.isOuterName() || ha.isPort())
+										&& f_row1.containsKey(ha)) {
 									model.arithm(f_row1.get(ha), "=", 0)
 										.post();
 								}
@@ -849,6 +1033,9 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 									.get(hr2);
 							if (hr1.isEdge() != hr2.isEdge()) {
 								for (Handle ha : agent_handles) {
+									if (!f_row1.containsKey(ha)
+											|| !f_row2.containsKey(ha))
+										continue;
 									model.arithm(f_row1.get(ha)
 											.add(f_row2.get(ha)).intVar(), 
 											"<=", 1).post();
@@ -882,76 +1069,15 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 				 */
 
 				// INTERPLAY CONSTRAINTS //////////////////////////////////////
-				{
-					// bound nodes and their ports
-					for (Node ni : agent_nodes) {
-						Map<PlaceEntity, IntVar> p_row = p_vars
-								.get(ni);
-						for (Node nj : redex_nodes) {
-							IntVar m = p_row.get(nj);
-							boolean comp = areMatchable(agent, ni, redex, nj);
-							// ! Place constraint 2 //
-							if (!comp) {
-								model.arithm(m, "=", 0).post();
-							}
-							for (int i = ni.getControl().getArityOut() - 1; 0 <= i; i--) {
-								Map<LinkEntity, IntVar> e_row = e_vars
-										.get(ni.getOutPort(i));
-								for (int j = nj.getControl().getArityOut() - 1; 0 <= j; j--) {
-									if (comp && i == j) {
-										/* ni <-> nj iff ni[k] <-> nj[k] */
-										model.arithm(e_row.get(nj.getOutPort(j)),
-												"=", m).post();
-									} else {
-										/* ni[f] <!> nj[g] if ni<!>nj || f != g */
-										model.arithm(e_row.get(nj.getOutPort(j)),
-												"=", 0).post();
-									}
-								}
-							}
 
-							for (int i = nj.getControl().getArityIn() - 1; 0 <= i; i--) {
-								Map<Handle, IntVar> f_row = f_vars
-										.get(nj.getInPort(i));
-								for (int j = ni.getControl().getArityIn() - 1; 0 <= j; j--) {
-									if (comp && i == j) {
-										/* ni <-> nj iff ni[k] <-> nj[k] */
-										model.arithm(f_row.get(ni.getInPort(j)),
-												"=", m).post();
-									} else {
-										/* ni[f] <!> nj[g] if ni<!>nj || f != g */
-										model.arithm(f_row.get(ni.getInPort(j)),
-												"=", 0).post();
-									}
-								}
-							}
-						}
-					}
-				}
+				// bound nodes and their ports
+				// ! implicit, see the allocation of variables //
 				{
 					for (Node ni : agent_nodes) {
-						// sum over ni anchestors and redex roots
-						Collection<Parent> ancs = agent.getAncestors(ni);
-						IntVar[] vars2 = new IntVar[(1 + ancs
-								.size()) * rss];
-						int k2 = 0;
-						for (Parent f : ancs) {
-							Map<PlaceEntity, IntVar> row = p_vars
-									.get(f);
-							for (Site g : redex_sites) {
-								vars2[k2++] = row.get(g);
-							}
-						}
-						{// ancs does not include ni
-							Map<PlaceEntity, IntVar> row = p_vars
-									.get(ni);
-							for (Site g : redex_sites) {
-								vars2[k2++] = row.get(g);
-							}
-						}
-						IntVar sum2 = model.intVar(0);
-						for (IntVar v : vars2) {
-							sum2 = sum2.add(v).intVar();
+						// sites of ni and its anchestors
+						List<IntVar> vars2 = param_vars.get(ni);
+						if (vars2 == null) {
+							vars2 = Collections.emptyList();
 						}
 
 						for (OutPort pi : ni.getOutPorts()) {
@@ -979,7 +1105,10 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 							 * a port can match an inner name in the redex if
 							 * its node is in the params.
 							 */
-							model.sum(vars4, "<=", sum2).post();
+							if (vars4.length > 0) {
+								sparse.postDiff(Arrays.asList(vars4), 1, vars2,
+										"<=");
+							}
 						}
 
 						// for (InPort pi : ni.getInPorts()) {
@@ -1037,6 +1166,58 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 			private void noMoreSolutions() {
 				this.mayHaveNext = false;
 				this.solver.hardReset();
+				if (stats != null)
+					stats.recordEnd();
+			}
+
+			/*
+			 * Looks for the next solution of the CSP. A search stopped by a
+			 * limit or a cancellation ends the enumeration and is reported to
+			 * the caller, since it does not prove there are no more solutions.
+			 */
+			private boolean solve() {
+				long t = (stats == null) ? 0 : System.nanoTime();
+				boolean found = solver.solve();
+				if (stats != null)
+					stats.recordSolve(found, System.nanoTime() - t,
+							solver.getNodeCount(), solver.getBackTrackCount(),
+							solver.getFailCount());
+				if (found)
+					return true;
+				MatcherOptions opts = options;
+				if (DirectedSearchControl.isStopped(solver)) {
+					MatchLimitException e = DirectedSearchControl.limitReached(
+							opts, solver);
+					noMoreSolutions();
+					throw e;
+				}
+				return false;
+			}
+
+			/*
+			 * The variables describing the place embedding; some strategies
+			 * decide them before the others.
+			 */
+			private IntVar[] placeVars() {
+				List<IntVar> vs = new ArrayList<>();
+				for (Map<PlaceEntity, IntVar> row : p_vars.values()) {
+					vs.addAll(row.values());
+				}
+				return vs.toArray(new IntVar[vs.size()]);
+			}
+
+			/*
+			 * Counts the solutions of the CSP up to the given bound without
+			 * building their matches; the iterator is exhausted afterwards.
+			 */
+			private int countSolutions(int bound) {
+				firstRun = false;
+				int count = 0;
+				while (count < bound && solve()) {
+					count++;
+				}
+				noMoreSolutions();
+				return count;
 			}
 
 			private void fetchSolution() {
@@ -1044,8 +1225,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 				if (DEBUG_PRINT_SOLUTION_FETCH)
 					System.out.println("fetch solution has been invoked...");
 				// look for a solution for the CSP
-				boolean hasSolution = solver.solve();
-				if (hasSolution) {
+				boolean hasSolution = solve();
+				if (!hasSolution) {
 					if (DEBUG_PRINT_SOLUTION_FETCH)
 						System.out.println("...but no more solutions where found.");
 					noMoreSolutions();
@@ -1083,59 +1264,53 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 								+ "d|", i);
 						c = 1;
 						Root ri = agent_roots.get(i);
-						Map<PlaceEntity, IntVar> row = p_vars.get(ri);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, ri);
 						for (int j = 0; j < rrs; j++) {
 							Root rj = redex_roots.get(j);
-							IntVar v = findVariable(row.get(rj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(rj);
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 						for (Node nj : redex_nodes) {
-							IntVar v = findVariable(row.get(nj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(nj);
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 						for (int j = 0; j < rss; j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(sj);
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 					}
 					for (Node ni : agent_nodes) {
 						System.out.printf("\n%-" + p_cell_width[0] + "s|", ni);
 						c = 1;
-						Map<PlaceEntity, IntVar> row = p_vars.get(ni);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, ni);
 						for (int j = 0; j < rrs; j++) {
 							Root rj = redex_roots.get(j);
-							IntVar v = findVariable(row.get(rj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(rj);
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 						for (Node nj : redex_nodes) {
-							IntVar v = findVariable(row.get(nj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(nj);
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 						for (int j = 0; j < rss; j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(sj);
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 					}
 					for (int i = 0; i < ass; i++) {
 						System.out.printf("\nS_%-" + (p_cell_width[0] - 2)
 								+ "d|", i);
 						c = 1;
-						Root ri = agent_roots.get(i);
-						Map<PlaceEntity, IntVar> row = p_vars.get(ri);
+						Site si = agent_sites.get(i);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, si);
 						for (int j = 0; j < rrs; j++) {
 							System.out.printf("%" + p_cell_width[c++] + "d|",
 									' ');
@@ -1146,10 +1321,9 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						}
 						for (int j = 0; j < rss; j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(sj);
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 					}
 					System.out.println('\n');
@@ -1183,17 +1357,15 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						c = 1;
 						Map<LinkEntity, IntVar> row = e_vars.get(pi);
 						for (Point pj : redex_points) {
-							IntVar v = findVariable(row.get(pj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(pj);
 							System.out.printf("%" + e_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 						for (Handle hj : agent_handles) {
 							if (row.containsKey(hj)) {
-								IntVar v = findVariable(row.get(hj).getName(), 
-										model.getVars()).asIntVar();
+								IntVar v = row.get(hj);
 								System.out.printf("%" + e_cell_width[c++]
-										+ "d|", v.getValue());
+										+ "d|", valueOf(v));
 							} else {
 								System.out.printf("%" + e_cell_width[c++]
 										+ "c|", ' ');
@@ -1209,10 +1381,9 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 									' ');
 						}
 						for (Handle hj : agent_handles) {
-							IntVar v = findVariable(row.get(hj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(hj);
 							System.out.printf("%" + e_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 					}
 
@@ -1230,10 +1401,9 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						c = 1;
 						Map<Handle, IntVar> row = f_vars.get(hi);
 						for (Handle hj : agent_handles) {
-							IntVar v = findVariable(row.get(hj).getName(), 
-									model.getVars()).asIntVar();
+							IntVar v = row.get(hj);
 							System.out.printf("%" + f_cell_width[c++] + "d|",
-									v.getValue());
+									valueOf(v));
 						}
 					}
 					System.out.println('\n');
@@ -1244,6 +1414,7 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 				 * redex or params bigraphs depending on the seolution of the
 				 * CSP above
 				 */
+				long t = (stats == null) ? 0 : System.nanoTime();
 
 				// context
 				DirectedBigraph ctx = new DirectedBigraph(agent.signature);
@@ -1343,9 +1514,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						// cache miss
 						Map<Handle, IntVar> f_row = f_vars.get(o0);
 						for (Handle h : agent_handles) {
-							IntVar var = findVariable(f_row.get(h).getName(),
-									model.getVars()).asIntVar();
-							if (var.getValue() == 1) {
+							IntVar var = f_row.get(h);
+							if (valueOf(var) == 1) {
 								h1 = h.getEditable();
 								break;
 							}
@@ -1384,10 +1554,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 							// cache miss
 							Map<Handle, IntVar> f_row = f_vars.get(h0);
 							for (Handle h : agent_handles) {
-								IntVar var = findVariable(
-										f_row.get(h).getName(),
-										model.getVars()).asIntVar();
-								if (var.getValue() == 1) {
+								IntVar var = f_row.get(h);
+								if (valueOf(var) == 1) {
 									h1 = h.getEditable();
 									break;
 								}
@@ -1439,10 +1607,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 							// cache miss
 							Map<Handle, IntVar> f_row = f_vars.get(h0);
 							for (Handle h : agent_handles) {
-								IntVar var = findVariable(
-										f_row.get(h).getName(),
-										model.getVars()).asIntVar();
-								if (var.getValue() == 1) {
+								IntVar var = f_row.get(h);
+								if (valueOf(var) == 1) {
 									h1 = h.getEditable();
 									break;
 								}
@@ -1489,10 +1655,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 							// cache miss
 							Map<Handle, IntVar> f_row = f_vars.get(i0);
 							for (Handle h : agent_handles) {
-								IntVar var = findVariable(
-										f_row.get(h).getName(),
-										model.getVars()).asIntVar();
-								if (var.getValue() == 1) {
+								IntVar var = f_row.get(h);
+								if (valueOf(var) == 1) {
 									h1 = h.getEditable();
 									break;
 								}
@@ -1531,9 +1695,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 					EditableHandle h1 = i1.getHandle();
 					ctx_pnt_dic.put(i1, i2);
 
-					IntVar var = findVariable(row.get(h1).getName(),
-							model.getVars()).asIntVar();
-					if (var.getValue() == 1) {
+					IntVar var = row.get(h1);
+					if (valueOf(var) == 1) {
 						/*
 						 * this inner name bypasses the redex. Checks if the
 						 * handle already has an image in this parameter
@@ -1580,9 +1743,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						}
 					} else {
 						for (InnerName i0 : redex.inners.getAsc().values()) {
-							IntVar v = findVariable(row.get(i0).getName(),
-									model.getVars()).asIntVar();
-							if (v.getValue() == 1) {
+							IntVar v = row.get(i0);
+							if (valueOf(v) == 1) {
 								/*
 								 * this port is attached to the redex inner i0.
 								 * Add it as an outer of prm, if it is not
@@ -1627,16 +1789,14 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 
 					for (Point pnt : o1.getEditablePoints()) {
 						Map<LinkEntity, IntVar> row = e_vars.get(pnt);
-						IntVar var = findVariable(row.get(o1).getName(),
-								model.getVars()).asIntVar();
+						IntVar var = row.get(o1);
 
 						EditableInnerName i1 = null;
-						if (var.getValue() == 0) {
+						if (valueOf(var) == 0) {
 							for (EditableOuterName i0 : redex.inners.getDesc().values()) {
 								for (Point pnt1 : i0.getEditablePoints()) {
-									IntVar v = findVariable(row.get(pnt1).getName(),
-											model.getVars()).asIntVar();
-									if (v.getValue() == 1) {
+									IntVar v = row.get(pnt1);
+									if (valueOf(v) == 1) {
 										/*
 										* this port is attached to the redex inner i0.
 										* Add it as an outer of prm, if it is not
@@ -1701,9 +1861,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 								Collection<? extends EditablePoint> pnts = new ArrayList<>(ip1.getEditablePoints());
 								for (EditablePoint p : pnts) {
 									Map<LinkEntity, IntVar> row = e_vars.get(p);
-									IntVar var = findVariable(row.get(ip1).
-											getName(), model.getVars()).asIntVar();
-									if (var.getValue() == 1) {
+									IntVar var = row.get(ip1);
+									if (valueOf(var) == 1) {
 										Collection<EditableInnerName> ins = agent.inners.getAsc().values();
 										ins.removeAll(redex.inners.getAsc().values());
 										ins = redex.inners.getAsc().values();
@@ -1744,10 +1903,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 								boolean notMatched = true;
 								while (ic.hasNext()) {
 									Child c1 = ic.next();
-									IntVar var = findVariable(p_vars.get(c1)
-											.get(c0).getName(),
-											model.getVars()).asIntVar();
-									if (var.getValue() == 1) {
+									IntVar var = rowOf(p_vars, c1).get(c0);
+									if (valueOf(var) == 1) {
 										notMatched = false;
 										q.add(new VState(rdx, n2, c1, c0));
 										ic.remove();
@@ -1811,9 +1968,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 								Collection<? extends Point> pnts = new ArrayList<>(ip1.getPoints());
 								for (Point p : pnts) {
 									Map<LinkEntity, IntVar> row = e_vars.get(p);
-									IntVar var = findVariable(row.get(ip1).
-											getName(), model.getVars()).asIntVar();
-									if (var.getValue() == 1) {
+									IntVar var = row.get(ip1);
+									if (valueOf(var) == 1) {
 										if (agent.inners.getAsc().values().contains(p)) {
 											String name = ((InnerName) p).getName();
 
@@ -1872,9 +2028,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 								Map<LinkEntity, IntVar> row = e_vars.get(op1);
 								EditableHandle h1 = op1.getHandle();
 
-								IntVar var = findVariable(row.get(h1).
-										getName(), model.getVars()).asIntVar();
-								if (var.getValue() == 1) {
+								IntVar var = row.get(h1);
+								if (valueOf(var) == 1) {
 									if (agent.inners.getDesc().values().contains(h1)) {
 										/*
 										* this port bypasses the redex. Add an outer to
@@ -1927,9 +2082,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 									}
 								} else {
 									for (InnerName i0 : redex.outers.getDesc().values()) {
-										IntVar var_tmp = findVariable(row.get(i0).
-												getName(), model.getVars()).asIntVar();
-										if (var_tmp.getValue() == 1) {
+										IntVar var_tmp = row.get(i0);
+										if (valueOf(var_tmp) == 1) {
 											/*
 											 * this port is attached to the
 											 * redex descending outer i0. Add 
@@ -1955,14 +2109,13 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 						}
 						// enqueue children, if necessary
 						Collection<Child> rcs = new HashSet<>(p1.getChildren());
-						Map<PlaceEntity, IntVar> p_row = p_vars.get(p1);
+						Map<PlaceEntity, IntVar> p_row = rowOf(p_vars, p1);
 						Iterator<Root> ir = unseen_rdx_roots.iterator();
 						while (ir.hasNext()) {
 							Root r0 = ir.next();
 							// make a site for each root whose image is p1
-							IntVar var_tmp = findVariable(p_row.get(r0).getName(),
-									model.getVars()).asIntVar();
-							if (var_tmp.getValue() == 1) {
+							IntVar var_tmp = p_row.get(r0);
+							if (valueOf(var_tmp) == 1) {
 								// root_img.put(r0, p1);
 								ir.remove();
 								int k = redex_roots.indexOf(r0);
@@ -1977,10 +2130,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 									boolean notMatched = true;
 									while (ic.hasNext()) {
 										Child c1 = ic.next();
-										IntVar var = findVariable(p_vars.get(c1)
-												.get(c0).getName(),
-												model.getVars()).asIntVar();
-										if (var.getValue() == 1) {
+										IntVar var = rowOf(p_vars, c1).get(c0);
+										if (valueOf(var) == 1) {
 											notMatched = false;
 											q.add(new VState(rdx, r2, c1, c0));
 											ic.remove();
@@ -2011,9 +2162,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 										.get(p1);
 								EditableHandle h1 = p1.getHandle();
 
-								IntVar var = findVariable(row.get(h1).
-										getName(), model.getVars()).asIntVar();
-								if (var.getValue() == 1) {
+								IntVar var = row.get(h1);
+								if (valueOf(var) == 1) {
 									/*
 									 * this port bypasses the redex. Checks if
 									 * the handle already has an image in this
@@ -2063,9 +2213,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 									}
 								} else {
 									for (InnerName i0 : redex.inners.getAsc().values()) {
-										IntVar var_tmp = findVariable(row.get(i0).
-												getName(), model.getVars()).asIntVar();
-										if (var_tmp.getValue() == 1) {
+										IntVar var_tmp = row.get(i0);
+										if (valueOf(var_tmp) == 1) {
 											/*
 											 * this port is attached to the
 											 * redex inner i0. Add it as an
@@ -2193,6 +2342,8 @@ public class DirectedMatcher implements it.uniud.mads.jlibbig.core.DirectedMatch
 
 				}
 				this.nextMatch = new DirectedMatch(ctx, rdx, id, prm, nEmb);
+				if (stats != null)
+					stats.recordExtraction(System.nanoTime() - t);
 			}
 		}
 	}
@@ -0,0 +1,228 @@
+package it.uniud.mads.jlibbig.core.ldb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Computes the matches of a directed redex by splitting the search among the
+ * threads of a {@link ForkJoinPool}. A node of the redex is chosen and the
+ * agent nodes it may be placed on are partitioned into tasks; each task
+ * looks for the matches placing the chosen node on the agent nodes of its
+ * part, hence every match is found by exactly one task. Tasks start when an
+ * iterator is requested and their matches are merged into that iterator.
+ *
+ * Matches can be listed as soon as their task completes or in the order of
+ * the tasks; in the second case the order does not depend on how tasks are
+ * scheduled.
+ *
+ * Searches are split only for {@link DirectedMatcher} and for redexes with
+ * some node; matchers redefining which nodes are matchable and redexes
+ * without nodes are matched on the calling thread as usual.
+ *
+ * @see it.uniud.mads.jlibbig.core.std.ParallelMatcher
+ */
+public class DirectedParallelMatcher implements
+		it.uniud.mads.jlibbig.core.DirectedMatcher<DirectedBigraph, DirectedBigraph> {
+
+	// tasks for each thread of the pool, for balancing their load
+	private final static int TASKS_PER_THREAD = 4;
+
+	private final DirectedMatcher matcher;
+	private final ForkJoinPool pool;
+	private final boolean ordered;
+
+	/**
+	 * Creates a parallel matcher running the default matcher on the common
+	 * pool. Matches are listed as soon as they are found.
+	 */
+	public DirectedParallelMatcher() {
+		this(DirectedMatcher.DEFAULT, ForkJoinPool.commonPool(), false);
+	}
+
+	/**
+	 * Creates a parallel matcher running the given matcher on the given pool.
+	 *
+	 * @param matcher
+	 *            the matcher computing the matches.
+	 * @param pool
+	 *            the pool running the searches.
+	 * @param ordered
+	 *            whether matches are listed in the order of the tasks
+	 *            rather than as soon as they are found.
+	 */
+	public DirectedParallelMatcher(DirectedMatcher matcher, ForkJoinPool pool,
+			boolean ordered) {
+		if (matcher == null || pool == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		this.matcher = matcher;
+		this.pool = pool;
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Returns the matcher used to look for matches.
+	 *
+	 * @return the matcher.
+	 */
+	public DirectedMatcher getMatcher() {
+		return this.matcher;
+	}
+
+	/**
+	 * Returns the pool running the searches.
+	 *
+	 * @return the pool.
+	 */
+	public ForkJoinPool getPool() {
+		return this.pool;
+	}
+
+	/**
+	 * Tells whether matches are listed in the order of the tasks.
+	 *
+	 * @return a boolean indicating whether matches are ordered.
+	 */
+	public boolean isOrdered() {
+		return this.ordered;
+	}
+
+	@Override
+	public Iterable<? extends DirectedMatch> match(DirectedBigraph agent,
+			DirectedBigraph redex) {
+		return match(agent, new DirectedCompiledRedex(redex));
+	}
+
+	/**
+	 * Computes the matches of a compiled redex in the agent.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the compiled redex to look up for.
+	 * @return the matches of the redex in the agent.
+	 */
+	public Iterable<? extends DirectedMatch> match(final DirectedBigraph agent,
+			final DirectedCompiledRedex redex) {
+		if (agent == null || redex == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		if (!matcher.matchesByControl || redex.rns == 0) {
+			return matcher.match(agent, redex);
+		}
+		if (!matcher.mayOccur(agent, redex)) {
+			return Collections.<DirectedMatch> emptyList();
+		}
+		// the redex node with the fewest candidates is pinned
+		Node pin = null;
+		Collection<? extends Node> images = null;
+		for (Node n : redex.nodes) {
+			Collection<? extends Node> ns = agent.getNodes(n.getControl());
+			if (images == null || ns.size() < images.size()) {
+				pin = n;
+				images = ns;
+			}
+		}
+		final Node pin_node = pin;
+		final List<Node> pin_images = new ArrayList<Node>(images);
+		// collections shared by the tasks are computed beforehand
+		agent.getNodes();
+		agent.getEdges();
+		return new Iterable<DirectedMatch>() {
+			@Override
+			public Iterator<DirectedMatch> iterator() {
+				return new MatchIterator(agent, redex, pin_node, pin_images);
+			}
+		};
+	}
+
+	private class MatchIterator implements Iterator<DirectedMatch> {
+
+		private final List<Future<List<DirectedMatch>>> tasks;
+		private final CompletionService<List<DirectedMatch>> completed;
+		private int next_task = 0;
+		private Iterator<DirectedMatch> matches = Collections
+				.<DirectedMatch> emptyIterator();
+
+		MatchIterator(final DirectedBigraph agent,
+				final DirectedCompiledRedex redex, final Node pin,
+				List<Node> images) {
+			int n = images.size();
+			int k = Math.max(1, pool.getParallelism() * TASKS_PER_THREAD);
+			int size = Math.max(1, (n + k - 1) / k);
+			this.tasks = new ArrayList<>((n + size - 1) / size);
+			this.completed = (ordered) ? null
+					: new ExecutorCompletionService<List<DirectedMatch>>(pool);
+			for (int i = 0; i < n; i += size) {
+				// a whole part is searched at once, since models span the agent
+				final List<Node> part = images.subList(i, Math.min(n, i + size));
+				Callable<List<DirectedMatch>> task = new Callable<List<DirectedMatch>>() {
+					@Override
+					public List<DirectedMatch> call() {
+						List<DirectedMatch> ms = new ArrayList<>();
+						for (DirectedMatch m : matcher.match(agent, redex, pin,
+								part)) {
+							ms.add(m);
+						}
+						return ms;
+					}
+				};
+				tasks.add((ordered) ? pool.submit(task) : completed
+						.submit(task));
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!matches.hasNext()) {
+				if (next_task == tasks.size())
+					return false;
+				matches = await(next_task++).iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public DirectedMatch next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return matches.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("");
+		}
+
+		/*
+		 * Waits for the i-th task or, if the order does not matter, for the
+		 * next task to complete. A failure in a task cancels the others and
+		 * is rethrown.
+		 */
+		private List<DirectedMatch> await(int i) {
+			try {
+				return ((ordered) ? tasks.get(i) : completed.take()).get();
+			} catch (InterruptedException e) {
+				cancel();
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted while matching.");
+			} catch (ExecutionException e) {
+				cancel();
+				Throwable t = e.getCause();
+				if (t instanceof RuntimeException)
+					throw (RuntimeException) t;
+				if (t instanceof Error)
+					throw (Error) t;
+				throw new RuntimeException(t);
+			}
+		}
+
+		private void cancel() {
+			next_task = tasks.size();
+			for (Future<?> f : tasks) {
+				f.cancel(true);
+			}
+		}
+	}
+}
@@ -49,6 +49,8 @@ public class DirectedRewritingRule implements
 	final DirectedBigraph redex;
 	final DirectedBigraph reactum;
 	final DirectedInstantiationMap eta;
+	// the redex is matched against every agent the rule is applied to
+	final DirectedCompiledRedex compiledRedex;
 
 	private DirectedMatcher matcher;
 
@@ -109,6 +111,7 @@ public class DirectedRewritingRule implements
 		this.redex = redex;
 		this.reactum = reactum;
 		this.eta = eta;
+		this.compiledRedex = new DirectedCompiledRedex(redex);
 
 		this.matcher = (matcher == null) ? DirectedMatcher.DEFAULT : matcher;
 	}
@@ -280,6 +283,16 @@ public class DirectedRewritingRule implements
 		return this.eta;
 	}
 	
+	/**
+	 * Returns the redex of the rule compiled for matching. The redex is
+	 * compiled once, when the rule is created.
+	 * 
+	 * @return the compiled redex.
+	 */
+	public DirectedCompiledRedex getCompiledRedex() {
+		return this.compiledRedex;
+	}
+
 	@Override
 	public Iterable<DirectedBigraph> apply(DirectedBigraph to) {
 		return this.apply(this.getMatcher(),to);
@@ -313,7 +326,7 @@ public class DirectedRewritingRule implements
 		@Override
 		public Iterator<DirectedBigraph> iterator() {
 			if (mAble == null)
-				mAble = this.matcher.match(target, redex);
+				mAble = this.matcher.match(target, compiledRedex);
 			return new RewriteIterator();
 		}
 
@@ -0,0 +1,125 @@
+package it.uniud.mads.jlibbig.core.ldb;
+
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+import it.uniud.mads.jlibbig.core.exceptions.MatchLimitException;
+
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.Solver;
+import org.chocosolver.solver.search.SearchState;
+import org.chocosolver.solver.search.limits.FailCounter;
+import org.chocosolver.solver.search.strategy.Search;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.util.criteria.Criterion;
+
+/*
+ * Applies the options of a directed matcher (cf. MatcherOptions) to its
+ * searches as std.SearchControl does for bigraphs: the solver is configured
+ * with the strategy, restarts and limits of the options and a search stopped
+ * by a limit or a cancellation is reported by a MatchLimitException telling
+ * the reason.
+ */
+final class DirectedSearchControl {
+
+	private DirectedSearchControl() {
+	}
+
+	/*
+	 * Creates the statistics of a search if the options have a listener.
+	 * Matchers invoke this method when a search begins and, if they get some
+	 * statistics, keep them up to date.
+	 */
+	static MatchStats newStats(MatcherOptions options,
+			it.uniud.mads.jlibbig.core.DirectedMatcher<DirectedBigraph, DirectedBigraph> matcher,
+			DirectedBigraph redex) {
+		return (options.getListener() == null) ? null : new MatchStats(
+				options.getListener(), matcher, redex);
+	}
+
+	/*
+	 * Configures the solver of a matcher with the strategy, restarts and
+	 * limits of the options. The strategy decides the given place variables
+	 * before the other variables of the model, hence this method is meant to
+	 * be invoked once the model is complete.
+	 */
+	static void configure(MatcherOptions options, Solver solver,
+			IntVar[] placeVars) {
+		Model model = solver.getModel();
+		IntVar[] vars = model.retrieveIntVars(true);
+		switch (options.getStrategy()) {
+		case PLACE_FIRST:
+			if (placeVars.length > 0 && vars.length > 0) {
+				solver.setSearch(Search.sequencer(
+						Search.domOverWDegSearch(placeVars),
+						Search.domOverWDegSearch(vars)));
+			}
+			break;
+		case DOM_WDEG:
+			if (vars.length > 0)
+				solver.setSearch(Search.domOverWDegSearch(vars));
+			break;
+		case FIRST_FAIL:
+			if (vars.length > 0)
+				solver.setSearch(Search.minDomLBSearch(vars));
+			break;
+		default:
+			break;
+		}
+		if (options.hasRestarts()) {
+			solver.setLubyRestart(500, new FailCounter(model, 0), 5000);
+			solver.setNoGoodRecordingFromRestarts();
+		}
+		if (options.getTimeLimit() > 0)
+			solver.limitTime(options.getTimeLimit());
+		if (options.getNodeLimit() > 0)
+			solver.limitNode(options.getNodeLimit());
+		if (options.getFailLimit() > 0)
+			solver.limitFail(options.getFailLimit());
+		if (options.getCancellation() != null) {
+			final MatcherOptions.Cancellation c = options.getCancellation();
+			solver.addStopCriterion(new Criterion() {
+				@Override
+				public boolean isMet() {
+					return c.isCancelled();
+				}
+			});
+		}
+	}
+
+	/*
+	 * Tells whether the cancellation token of the options has been
+	 * cancelled.
+	 */
+	private static boolean isCancelled(MatcherOptions options) {
+		MatcherOptions.Cancellation c = options.getCancellation();
+		return c != null && c.isCancelled();
+	}
+
+	/*
+	 * Tells whether the last search of a configured solver has been stopped
+	 * by a limit or cancelled, i.e. it failed to find a solution without
+	 * proving there is none.
+	 */
+	static boolean isStopped(Solver solver) {
+		return solver.getSearchState() == SearchState.STOPPED;
+	}
+
+	/*
+	 * Describes why the search of a configured solver has been stopped; the
+	 * time limit is blamed when no other reason applies.
+	 */
+	static MatchLimitException limitReached(MatcherOptions options,
+			Solver solver) {
+		long nodes = solver.getNodeCount(), fails = solver.getFailCount();
+		MatchLimitException.Reason r;
+		if (isCancelled(options))
+			r = MatchLimitException.Reason.CANCELLED;
+		else if (options.getNodeLimit() > 0 && nodes >= options.getNodeLimit())
+			r = MatchLimitException.Reason.NODES;
+		else if (options.getFailLimit() > 0 && fails >= options.getFailLimit())
+			r = MatchLimitException.Reason.FAILS;
+		else
+			r = MatchLimitException.Reason.TIME;
+		return new MatchLimitException(r);
+	}
+}
@@ -11,23 +11,28 @@ class EditableNode implements Node, EditableParent, EditableChild {
     public static final String PROPERTY_OWNER = "Owner";
     private final List<EditableOutPort> outPorts;
     private final List<EditableInPort> inPorts;
-    private final List<? extends OutPort> ro_outPorts;
-    private final List<? extends InPort> ro_inPorts;
-    private final Collection<? extends Child> ro_chd;
-    private final DelegatedProperty.PropertySetter<Owner> ownerSetter;
-    private final DelegatedProperty<Owner> ownerProp;
-    private final ReplicationListenerContainer rep = new ReplicationListenerContainer();
-    private final PropertyContainer props = new PropertyContainer(this);
+    // children and their read-only view are allocated with the first child
+    private Collection<? extends Child> ro_chd;
+    // allocated with the properties, on first use (cf. getProperties)
+    private DelegatedProperty.PropertySetter<Owner> ownerSetter;
+    // most nodes have neither properties other than their owner nor
+    // replication listeners: their containers are allocated on first use
+    private ReplicationListenerContainer rep;
+    private PropertyContainer props;
     private DirectedControl control;
     private EditableParent parent; // redundant with parentProp
     private Collection<EditableChild> children;
+    // the owner of the parent, kept up to date by parents (cf. setOwner)
+    private Owner owner;
+    // the name is rendered from the id when first needed
+    private final long id;
     private String name;
 
     EditableNode(DirectedControl control) {
-        this.name = "N_" + NameGenerator.DEFAULT.generate();
+        this.id = NameGenerator.DEFAULT.generateId();
         this.control = control;
-        List<EditableOutPort> outPorts = new ArrayList<>();
-        List<EditableInPort> inPorts = new ArrayList<>();
+        List<EditableOutPort> outPorts = new ArrayList<>(control.getArityOut());
+        List<EditableInPort> inPorts = new ArrayList<>(control.getArityIn());
         for (int i = 0; i < control.getArityOut(); i++) {
             outPorts.add(new EditableOutPort(i));
         }
@@ -36,15 +41,6 @@ class EditableNode implements Node, EditableParent, EditableChild {
         }
         this.outPorts = Collections.unmodifiableList(outPorts);
         this.inPorts = Collections.unmodifiableList(inPorts);
-        this.children = new HashSet<>();
-        this.ro_outPorts = Collections.unmodifiableList(this.outPorts);
-        this.ro_inPorts = Collections.unmodifiableList(this.inPorts);
-        this.ro_chd = Collections.unmodifiableCollection(this.children);
-
-        this.ownerSetter = new DelegatedProperty.PropertySetter<>();
-        this.ownerProp = new DelegatedProperty<Owner>(PROPERTY_OWNER, true, ownerSetter);
-
-        props.attachProperty(this.ownerProp);
     }
 
     EditableNode(DirectedControl control, EditableParent parent) {
@@ -69,12 +65,17 @@ class EditableNode implements Node, EditableParent, EditableChild {
     }
 
     public String getName() {
-        return name;
+        String n = this.name;
+        if (n == null) {
+            n = "N_" + NameGenerator.render(this.id);
+            this.name = n;
+        }
+        return n;
     }
 
     @Override
     public String toString() {
-        return this.name + ':' + this.control.getName();
+        return this.getName() + ':' + this.control.getName();
     }
 
     @Override
@@ -84,13 +85,13 @@ class EditableNode implements Node, EditableParent, EditableChild {
 
     @Override
     public Collection<? extends Child> getChildren() {
-        return this.ro_chd;
+        return (this.ro_chd == null) ? Collections.<Child>emptySet() : this.ro_chd;
     }
 
     public List<? extends Port<DirectedControl>> getPorts() {
         List<Port<DirectedControl>> ports = new ArrayList<>();
-        ports.addAll(this.ro_outPorts);
-        ports.addAll(this.ro_inPorts);
+        ports.addAll(this.outPorts);
+        ports.addAll(this.inPorts);
         return ports;
     }
 
@@ -100,11 +101,11 @@ class EditableNode implements Node, EditableParent, EditableChild {
     }
 
     public List<? extends OutPort> getOutPorts() {
-        return this.ro_outPorts;
+        return this.outPorts;
     }
 
     public List<? extends InPort> getInPorts() {
-        return this.ro_inPorts;
+        return this.inPorts;
     }
 
     public List<EditableOutPort> getOutPortsForEdit() {
@@ -134,6 +135,10 @@ class EditableNode implements Node, EditableParent, EditableChild {
     public void addChild(EditableChild child) {
         if (child == null)
             return;
+        if (this.children == null) {
+            this.children = new HashSet<>();
+            this.ro_chd = Collections.unmodifiableCollection(this.children);
+        }
         this.children.add(child);
         if (this != child.getParent()) {
             child.setParent(this);
@@ -142,7 +147,7 @@ class EditableNode implements Node, EditableParent, EditableChild {
 
     @Override
     public void removeChild(EditableChild child) {
-        if (child == null)
+        if (child == null || this.children == null)
             return;
         this.children.remove(child);
         if (this == child.getParent())
@@ -151,7 +156,7 @@ class EditableNode implements Node, EditableParent, EditableChild {
 
     @Override
     public Collection<EditableChild> getEditableChildren() {
-        return this.children;
+        return (this.children == null) ? Collections.<EditableChild>emptySet() : this.children;
     }
 
     @Override
@@ -162,23 +167,42 @@ class EditableNode implements Node, EditableParent, EditableChild {
     @Override
     public EditableNode replicate() {
         EditableNode copy = new EditableNode(this.control);
-        rep.tellReplicated(this, copy);
+        if (rep != null)
+            rep.tellReplicated(this, copy);
         return copy;
     }
 
     @Override
     public boolean isListenerRegistered(ReplicationListener listener) {
-        return rep.isListenerRegistered(listener);
+        return rep != null && rep.isListenerRegistered(listener);
     }
 
     @Override
     public void registerListener(ReplicationListener listener) {
+        if (rep == null)
+            rep = new ReplicationListenerContainer();
         rep.registerListener(listener);
     }
 
     @Override
     public boolean unregisterListener(ReplicationListener listener) {
-        return rep.unregisterListener(listener);
+        return rep != null && rep.unregisterListener(listener);
+    }
+
+    /*
+     * Allocates the properties of this node and its owner property, which
+     * delegates to the owner property of the parent.
+     */
+    private PropertyContainer props() {
+        if (props == null) {
+            props = new PropertyContainer(this);
+            ownerSetter = new DelegatedProperty.PropertySetter<>();
+            props.attachProperty(new DelegatedProperty<Owner>(PROPERTY_OWNER, true, ownerSetter));
+            if (parent != null) {
+                ownerSetter.set(parent.<Owner>getProperty(PROPERTY_OWNER));
+            }
+        }
+        return props;
     }
 
     @Override
@@ -189,7 +213,7 @@ class EditableNode implements Node, EditableParent, EditableChild {
         if (PROPERTY_OWNER.equals(name))// || PROPERTY_PARENT.equals(name))
             throw new IllegalArgumentException("Property '" + name
                     + "' can not be substituted");
-        return props.attachProperty(prop);
+        return props().attachProperty(prop);
     }
 
     @Override
@@ -204,27 +228,50 @@ class EditableNode implements Node, EditableParent, EditableChild {
         if (PROPERTY_OWNER.equals(name))// || PROPERTY_PARENT.equals(name))
             throw new IllegalArgumentException("Property '" + name
                     + "' can not be detached");
-        return props.detachProperty(name);
+        return (props == null) ? null : props.detachProperty(name);
     }
 
     @Override
     public <V> Property<V> getProperty(String name) {
-        return props.getProperty(name);
+        if (props == null && !PROPERTY_OWNER.equals(name))
+            return null;
+        return props().getProperty(name);
     }
 
     @Override
     public Collection<Property<?>> getProperties() {
-        return props.getProperties();
+        return props().getProperties();
     }
 
     @Override
     public Collection<String> getPropertyNames() {
-        return props.getPropertyNames();
+        return props().getPropertyNames();
     }
 
     @Override
     public Owner getOwner() {
-        return this.ownerProp.get();
+        return this.owner;
+    }
+
+    /*
+     * Sets the owner of this node and of the nodes below it. Parents call it
+     * whenever their owner changes.
+     */
+    void setOwner(Owner owner) {
+        if (this.owner == owner)
+            return;
+        Deque<EditableNode> q = new ArrayDeque<>();
+        this.owner = owner;
+        q.add(this);
+        while (!q.isEmpty()) {
+            for (EditableChild c : q.poll().getEditableChildren()) {
+                if (c.isNode()) {
+                    EditableNode n = (EditableNode) c;
+                    n.owner = owner;
+                    q.add(n);
+                }
+            }
+        }
     }
 
     @Override
@@ -247,7 +294,10 @@ class EditableNode implements Node, EditableParent, EditableChild {
             }
             if (parent != null) {
                 parent.addChild(this);
-                this.ownerSetter.set(parent.<Owner>getProperty(PROPERTY_OWNER));
+                setOwner(parent.getOwner());
+                if (this.ownerSetter != null) {
+                    this.ownerSetter.set(parent.<Owner>getProperty(PROPERTY_OWNER));
+                }
             }
         }
     }
@@ -276,7 +326,7 @@ class EditableNode implements Node, EditableParent, EditableChild {
     public int hashCode() {
         final int prime = 41;
         int result = 1;
-        result = prime * result + ((name == null) ? 0 : name.hashCode());
+        result = prime * result + (int) (id ^ (id >>> 32));
         return result;
     }
 
@@ -469,23 +519,26 @@ class EditableNode implements Node, EditableParent, EditableChild {
         @Override
         public EditableHandle replicate() {
             EditableInPort copy = new EditableInPort(this.getNumber());
-            rep.tellReplicated(this, copy);
+            if (rep != null)
+                rep.tellReplicated(this, copy);
             return copy;
         }
 
+        // in ports share the replication listeners of their node
+
         @Override
         public boolean isListenerRegistered(ReplicationListener listener) {
-            return rep.isListenerRegistered(listener);
+            return EditableNode.this.isListenerRegistered(listener);
         }
 
         @Override
         public void registerListener(ReplicationListener listener) {
-            rep.registerListener(listener);
+            EditableNode.this.registerListener(listener);
         }
 
         @Override
         public boolean unregisterListener(ReplicationListener listener) {
-            return rep.unregisterListener(listener);
+            return EditableNode.this.unregisterListener(listener);
         }
 
     }
@@ -17,7 +17,7 @@ class EditableRoot implements EditableParent, Root, EditableOwned {
     private final ProtectedProperty<Owner> owner = new ProtectedProperty<>(PROPERTY_OWNER, null, ownerSetter);
     private final ReplicationListenerContainer rep = new ReplicationListenerContainer();
     private final PropertyContainer props = new PropertyContainer(this);
-    private final String name;
+    private final long id;
     private Set<EditableChild> children = new HashSet<>();
     private final Set<? extends Child> ro_chd = Collections.unmodifiableSet(this.children);
 
@@ -26,7 +26,7 @@ class EditableRoot implements EditableParent, Root, EditableOwned {
     }
 
     EditableRoot(Owner owner) {
-        this.name = "R_" + NameGenerator.DEFAULT.generate();
+        this.id = NameGenerator.DEFAULT.generateId();
         props.attachProperty(this.owner);
         if (owner != null)
             ownerSetter.set(owner);
@@ -41,7 +41,7 @@ class EditableRoot implements EditableParent, Root, EditableOwned {
             if (i >= 0)
                 return i + ":r";
         }
-        return this.name;
+        return "R_" + NameGenerator.render(this.id);
     }
 
     @Override
@@ -149,6 +149,11 @@ class EditableRoot implements EditableParent, Root, EditableOwned {
     @Override
     public void setOwner(Owner value) {
         this.ownerSetter.set(value);
+        // nodes keep the owner in a field
+        for (EditableChild c : this.children) {
+            if (c.isNode())
+                ((EditableNode) c).setOwner(value);
+        }
     }
 
     @Override
@@ -15,11 +15,11 @@ class EditableSite implements EditableChild, Site {
     private final DelegatedProperty<Owner> ownerProp;
     private final ReplicationListenerContainer rep = new ReplicationListenerContainer();
     private final PropertyContainer props = new PropertyContainer();
-    private final String name;
+    private final long id;
     private EditableParent parent;  //redundant with parentProp
 
     EditableSite() {
-        this.name = "S_" + NameGenerator.DEFAULT.generate();
+        this.id = NameGenerator.DEFAULT.generateId();
         this.ownerSetter = new DelegatedProperty.PropertySetter<>();
         this.ownerProp = new DelegatedProperty<>(PROPERTY_OWNER, true, ownerSetter);
 
@@ -40,7 +40,7 @@ class EditableSite implements EditableChild, Site {
             if (i >= 0)
                 return i + ":s";
         }
-        return this.name;
+        return "S_" + NameGenerator.render(this.id);
     }
 
     @Override
@@ -0,0 +1,69 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+/*
+ * Collects the information on an agent that searches need regardless of the
+ * redex they look for, so that it is computed once when several redexes are
+ * matched against the same agent (cf. RuleSetMatcher). Entries are computed
+ * on first use; bigraphs are immutable hence they remain valid as long as the
+ * agent. Entries may be requested by several threads at once: in the worst
+ * case they are computed more than once, always with the same outcome.
+ */
+final class AgentIndex {
+
+	final Bigraph agent;
+
+	// agent roots and nodes in an active context
+	private volatile List<Parent> hosts;
+	// agent outer names and edges without points
+	private volatile List<Handle> idle_handles;
+
+	AgentIndex(Bigraph agent) {
+		if (agent == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		this.agent = agent;
+	}
+
+	/*
+	 * The agent parents that may host redex roots (cf.
+	 * Matcher.activeParents).
+	 */
+	List<Parent> hosts() {
+		List<Parent> hs = hosts;
+		if (hs == null) {
+			hs = Collections.unmodifiableList(Matcher.activeParents(agent));
+			hosts = hs;
+		}
+		return hs;
+	}
+
+	/*
+	 * The agent handles that may be images of idle redex handles.
+	 */
+	List<Handle> idleHandles() {
+		List<Handle> hs = idle_handles;
+		if (hs == null) {
+			hs = Collections.unmodifiableList(idleHandles(agent));
+			idle_handles = hs;
+		}
+		return hs;
+	}
+
+	/*
+	 * Collects the idle outer names of the agent followed by its idle edges.
+	 */
+	static List<Handle> idleHandles(Bigraph agent) {
+		List<Handle> hs = new ArrayList<>();
+		for (OuterName o : agent.getOuterNames()) {
+			if (o.getPoints().isEmpty())
+				hs.add(o);
+		}
+		for (Edge e : agent.getEdges()) {
+			if (e.getPoints().isEmpty())
+				hs.add(e);
+		}
+		return hs;
+	}
+}
@@ -25,8 +25,10 @@ import java.util.*;
  */
 public class AgentMatch extends Match {
 
-	protected final List<Bigraph> params;
-	protected final Bigraph lambda;
+	protected List<Bigraph> params;
+	protected Bigraph lambda;
+
+	private boolean[] neededParam;
 
 	AgentMatch(Bigraph context, Bigraph redexImage, Bigraph redexId,
 			Bigraph paramWiring, Bigraph[] params,
@@ -36,8 +38,29 @@ public class AgentMatch extends Match {
 		this.lambda = paramWiring;
 	}
 
+	/*
+	 * Creates a match whose components are built from the given embedding
+	 * on first access.
+	 */
+	AgentMatch(Bigraph agent, Bigraph redex, boolean[] neededParam,
+			Matcher.Embedding embedding) {
+		super(agent, redex, embedding);
+		this.neededParam = neededParam;
+	}
+
+	@Override
+	void build(Bigraph agent, Bigraph redex, Matcher.Embedding embedding) {
+		AgentMatch match = AgentMatcher.buildMatch(agent, redex,
+				this.neededParam, embedding);
+		assign(match);
+		this.params = match.params;
+		this.lambda = match.lambda;
+		this.neededParam = null;
+	}
+
 	@Override
 	public Bigraph getParam() {
+		materialize();
 		if (param == null) {
 			BigraphBuilder bb = new BigraphBuilder(this.context.signature);
 			for (Bigraph prm : this.params) {
@@ -59,6 +82,7 @@ public class AgentMatch extends Match {
 	 * @return the list of the actual parameters of the match.
 	 */
 	public List<Bigraph> getParams() {
+		materialize();
 		return this.params;
 	}
 
@@ -73,11 +97,13 @@ public class AgentMatch extends Match {
 	 *         the inners of the match redex.
 	 */
 	public Bigraph getParamWiring() {
+		materialize();
 		return this.lambda;
 	}
 
 	@Override
 	public String toString() {
+		materialize();
 		StringBuilder builder = new StringBuilder();
 		builder.append("AgentMatch:\ncontext = ").append(super.context)
 				.append("\nredexImage = ").append(super.rdxImage)
@@ -1,17 +1,23 @@
 package it.uniud.mads.jlibbig.core.std;
 
 import java.util.*;
+import java.util.stream.*;
 
 import it.uniud.mads.jlibbig.core.Matcher;
 import it.uniud.mads.jlibbig.core.std.EditableNode.EditablePort;
+import it.uniud.mads.jlibbig.core.std.Matcher.Embedding;
+import it.uniud.mads.jlibbig.core.std.Matcher.SolvedEmbedding;
 import it.uniud.mads.jlibbig.core.util.BidMap;
+import it.uniud.mads.jlibbig.core.util.SparseModel;
 
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+import it.uniud.mads.jlibbig.core.exceptions.MatchLimitException;
 import org.chocosolver.solver.Model;
 import org.chocosolver.solver.Solver;
 import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.expression.discrete.arithmetic.ArExpression;
 import org.chocosolver.solver.variables.IntVar;
-import org.chocosolver.solver.variables.Variable;
 
 /**
  * Provides services for computing the matches a bigraph (with abstract internal
@@ -38,6 +44,41 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 	 */
 	public final static AgentMatcher DEFAULT = new AgentMatcher();
 
+	private final MatcherOptions options;
+	// nodes are matched by control unless areMatchable is overridden
+	final boolean matchesByControl = !overridesMatchable();
+
+	/**
+	 * Creates a matcher with the default options (cf.
+	 * {@link MatcherOptions#DEFAULT}).
+	 */
+	public AgentMatcher() {
+		this(MatcherOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates a matcher with the given options describing the strategy and
+	 * the limits of its searches.
+	 *
+	 * @param options
+	 *            the options of the matcher.
+	 */
+	public AgentMatcher(MatcherOptions options) {
+		if (options == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		this.options = options;
+	}
+
+	/**
+	 * Returns the options of this matcher.
+	 *
+	 * @return the options of the matcher.
+	 */
+	public MatcherOptions getOptions() {
+		return options;
+	}
+
 	@Override
 	public Iterable<? extends AgentMatch> match(Bigraph agent, Bigraph redex) {
 		return this.match(agent, redex, null);
@@ -55,9 +96,149 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 	 */
 	Iterable<? extends AgentMatch> match(Bigraph agent, Bigraph redex,
 			boolean... neededParams) {
+		return match(agent, new CompiledRedex(redex), neededParams);
+	}
+
+	/**
+	 * Computes the matches of a compiled redex in the agent. Only the work
+	 * depending on the agent is carried out, hence this method should be
+	 * preferred when the same redex is matched against several agents.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the compiled redex to look up for.
+	 * @return the matches of the redex in the agent.
+	 */
+	public Iterable<? extends AgentMatch> match(Bigraph agent,
+			CompiledRedex redex) {
+		return match(agent, redex, (boolean[]) null);
+	}
+
+	/**
+	 * @param agent
+	 *            the agent.
+	 * @param redex
+	 *            the compiled redex to be matched in the agent.
+	 * @param neededParams
+	 *            a boolean mask describing whereas a parameter must be
+	 *            generated or can be skipped.
+	 * @return an iterable for iterating over the matches.
+	 */
+	Iterable<? extends AgentMatch> match(Bigraph agent, CompiledRedex redex,
+			boolean... neededParams) {
+		if (!mayOccur(agent, redex))
+			return Collections.<AgentMatch> emptyList();
 		return new MatchIterable(agent, redex, neededParams);
 	}
 
+	/**
+	 * Tells whether the redex occurs in the agent. The search stops at the
+	 * first solution and, unlike {@link #match}, no match is built; this
+	 * makes the method convenient for rules used as guards.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return a boolean indicating whether there is a match of the redex in
+	 *         the agent.
+	 */
+	public boolean exists(Bigraph agent, Bigraph redex) {
+		CompiledRedex compiled = new CompiledRedex(redex);
+		if (!mayOccur(agent, compiled))
+			return false;
+		return new MatchIterable(agent, compiled, null).exists();
+	}
+
+	/**
+	 * Computes a match of the redex in the agent, if any. Only the first
+	 * solution is looked for and only its match is built.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return the first match found or {@code null} if there are none.
+	 */
+	public AgentMatch matchFirst(Bigraph agent, Bigraph redex) {
+		Iterator<? extends AgentMatch> it = match(agent, redex).iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * Counts the matches of the redex in the agent. Solutions are enumerated
+	 * without building any match; this is much cheaper than iterating over
+	 * {@link #match}.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return the number of matches of the redex in the agent.
+	 */
+	public int count(Bigraph agent, Bigraph redex) {
+		return count(agent, redex, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Counts the matches of the redex in the agent stopping as soon as the
+	 * given bound is reached.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @param bound
+	 *            the maximum number of matches to count.
+	 * @return the number of matches of the redex in the agent or
+	 *         {@code bound} if there are more.
+	 */
+	public int count(Bigraph agent, Bigraph redex, int bound) {
+		if (bound < 0) {
+			throw new IllegalArgumentException(
+					"The bound should be a non-negative integer.");
+		}
+		CompiledRedex compiled = new CompiledRedex(redex);
+		if (!mayOccur(agent, compiled))
+			return 0;
+		return new MatchIterable(agent, compiled, null).count(bound);
+	}
+
+	/**
+	 * Returns a stream of the matches of the redex in the agent. Matches are
+	 * looked for only as the stream is consumed, hence short-circuiting
+	 * operations stop the search early. Unlike {@link Matcher#matchStream},
+	 * the search is not split: parallel streams consume it in batches.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the compiled redex to look up for.
+	 * @return a stream of the matches of the redex in the agent.
+	 */
+	public Stream<AgentMatch> matchStream(final Bigraph agent,
+			final CompiledRedex redex) {
+		if (agent == null || redex == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		return StreamSupport.stream(() -> Spliterators
+				.<AgentMatch> spliteratorUnknownSize(match(agent, redex)
+						.iterator(), MatchSpliterator.CHARACTERISTICS),
+				MatchSpliterator.CHARACTERISTICS, false);
+	}
+
+	/*
+	 * Tells whether the redex may occur in the agent, cf. Matcher#mayOccur.
+	 * Inputs the search would reject are let through so that it does.
+	 */
+	boolean mayOccur(Bigraph agent, CompiledRedex redex) {
+		if (!matchesByControl || !agent.isGround()
+				|| !agent.signature.equals(redex.redex.signature))
+			return true;
+		return agent.getProfile().admits(redex);
+	}
+
 	/**
 	 * The method is called to asses if a pair of nodes (one from the redex and
 	 * the other from the agent bigraph) is a potential match or not. The
@@ -82,12 +263,23 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 		return fromAgent.getControl().equals(fromRedex.getControl());
 	}
 
+	private boolean overridesMatchable() {
+		for (Class<?> c = getClass(); c != AgentMatcher.class; c = c
+				.getSuperclass()) {
+			try {
+				c.getDeclaredMethod("areMatchable", Bigraph.class, Node.class,
+						Bigraph.class, Node.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+			}
+		}
+		return false;
+	}
+
 	private class MatchIterable implements Iterable<AgentMatch> {
 
 		final Bigraph agent, redex;
-
-		boolean agent_ancestors_is_empty = true;
-		final Map<Node, Collection<Parent>> agent_ancestors;
+		final CompiledRedex compiled;
 
 		// caches some collections of entities (e.g. nodes and edges are
 		// computed on the fly)
@@ -102,29 +294,31 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 		 */
 		final List<Handle> agent_handles;
 
+		// redex collections are taken from its compiled form
 		final List<? extends Root> redex_roots;
 		final List<? extends Site> redex_sites;
-		final Collection<? extends Node> redex_nodes;
+		final List<Node> redex_nodes;
 		final Collection<Point> redex_points;
-		final Collection<? extends Edge> redex_edges;
 		final List<Handle> redex_handles;
+		final List<InnerName> redex_inners;
 
 		final boolean[] neededParam;
 
 		final int ars, ans, ahs, rrs, rns, rss, rhs, rps, rprs, rins;// , reps;
 
-		private MatchIterable(Bigraph agent, Bigraph redex,
+		private MatchIterable(Bigraph agent, CompiledRedex redex,
 				boolean[] neededParams) {
 			if (!agent.isGround()) {
 				throw new UnsupportedOperationException(
 						"Agent should be a bigraph with empty inner interface i.e. ground.");
 			}
-			if (!agent.signature.equals(redex.signature)) {
+			if (!agent.signature.equals(redex.redex.signature)) {
 				throw new UnsupportedOperationException(
 						"Agent and redex should have the same singature.");
 			}
 			this.agent = agent;
-			this.redex = redex;
+			this.redex = redex.redex;
+			this.compiled = redex;
 
 			this.agent_roots = agent.getRoots();
 			this.agent_nodes = agent.getNodes();
@@ -141,32 +335,20 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 				agent_ports.addAll(n.getPorts());
 			}
 
-			this.agent_ancestors = new HashMap<>(ans);
-
-			this.redex_roots = redex.getRoots();
-			this.redex_sites = redex.getSites();
-			this.redex_nodes = redex.getNodes();
-			this.redex_edges = redex.getEdges();//redex_nodes);
-			this.redex_handles = new LinkedList<Handle>(redex_edges);
-			redex_handles.addAll(redex.getOuterNames());
-
-			rrs = redex_roots.size();
-			rns = redex_nodes.size();
-			rss = redex_sites.size();
-			rhs = redex_handles.size();
-
-			this.redex_points = new HashSet<>(rns);
-			for (Node n : redex_nodes) {
-				Collection<? extends Port> ps = n.getPorts();
-				redex_points.addAll(ps);
-			}
-			rprs = redex_points.size(); // only ports
-			{
-				Collection<? extends InnerName> ps = redex.getInnerNames();
-				redex_points.addAll(ps);
-			}
-			rps = redex_points.size();
-			rins = rps - rprs;
+			this.redex_roots = redex.roots;
+			this.redex_sites = redex.sites;
+			this.redex_nodes = redex.nodes;
+			this.redex_handles = redex.handles;
+			this.redex_points = redex.points;
+			this.redex_inners = redex.inners;
+
+			rrs = redex.rrs;
+			rns = redex.rns;
+			rss = redex.rss;
+			rhs = redex.rhs;
+			rprs = redex.rprs;
+			rps = redex.rps;
+			rins = redex.rins;
 
 			this.neededParam = new boolean[rss];
 			for (int i = 0; i < this.neededParam.length; i++) {
@@ -179,6 +361,20 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 			return new MatchIterator();
 		}
 
+		/*
+		 * Looks for a single solution of the CSP without building its match.
+		 */
+		boolean exists() {
+			return new MatchIterator().countSolutions(1) > 0;
+		}
+
+		/*
+		 * Counts the solutions of the CSP up to the given bound.
+		 */
+		int count(int bound) {
+			return new MatchIterator().countSolutions(bound);
+		}
+
 		private class MatchIterator implements Iterator<AgentMatch> {
 
 			private boolean mayHaveNext = true;
@@ -188,19 +384,30 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 
 			final private Model model;
 			final private Solver solver;
+			// allocates the place variables and posts sums over them
+			final private SparseModel<PlaceEntity> sparse;
 			/*
 			 * variables for the place embedding problem the following variables
 			 * are indexed over pairs where the first entity is from the agent
-			 * and the second from the redex
+			 * and the second from the redex. Rows are sparse: missing rows and
+			 * entries stand for variables fixed to zero.
 			 */
-			final Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars = new IdentityHashMap<>(
-					ars + ans);
+			final Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars;
+			/*
+			 * agent place entities having a variable in p_vars indexed by the
+			 * redex entity they may be placed on
+			 */
+			final Map<PlaceEntity, List<PlaceEntity>> p_cands;
 			/*
 			 * variables for the multiflux problem desrcibing the link embedding
-			 * these are indexed by redex handles and then by agent handles
+			 * these are indexed by redex handles and then by agent handles.
+			 * Agent points without a row always bypass the redex.
+			 */
+			final Map<LinkEntity, Map<LinkEntity, IntVar>> e_vars = new IdentityHashMap<>();
+			/*
+			 * variables of e_vars indexed by their redex point
 			 */
-			final Map<LinkEntity, Map<LinkEntity, IntVar>> e_vars = new IdentityHashMap<>(
-					ahs * rhs + agent_ports.size() * (1 + redex_points.size()));
+			final Map<Point, List<IntVar>> e_cols = new IdentityHashMap<>(rps);
 			/*
 			 * variables for flux separation implicitly describing the handles
 			 * embedding these are indexed from the source to target of the flux
@@ -208,10 +415,25 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 			final Map<Handle, Map<Handle, IntVar>> f_vars = new IdentityHashMap<>(
 					rhs);
 
+			private int var_count = 0;
+
+			// statistics of the search, if there is a listener
+			final private MatchStats stats;
+
 			MatchIterator() {
+				this.stats = SearchControl.newStats(options, AgentMatcher.this,
+						redex);
+				long t = (stats == null) ? 0 : System.nanoTime();
 				this.model = new Model();
+				this.sparse = new SparseModel<>(model);
+				this.p_vars = sparse.getPlaceVars();
+				this.p_cands = sparse.getCandidates();
 
 				solver = instantiateModel();
+				SearchControl.configure(options, solver, placeVars());
+				if (stats != null)
+					stats.recordModel(model.getNbVars(), model.getNbCstrs(),
+							System.nanoTime() - t);
 
 				if (DEBUG) {
 					System.out.println("- MODEL CREATED ---------------------");
@@ -223,485 +445,398 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 				}
 			}
 
-			private Variable findVariable(String name, Variable[] vars) {
-				for (Variable v : vars) {
-					if (name.equals(v.getName())) {
-						return v;
-					}
-				}
-				// We should't encounter this case.
-				return null;
+			/*
+			 * Solution values are read straight from the variables: once the
+			 * solver stops on a solution they are all instantiated.
+			 */
+			private boolean isSet(IntVar var) {
+				return var != null && var.getValue() == 1;
 			}
 
-			private Solver instantiateModel() {
-				// MODEL
-				// ///////////////////////////////////////////////////////////
+			private int valueOf(IntVar var) {
+				return (var == null) ? 0 : var.getValue();
+			}
 
-				// int ki = 0, kj = 0, kk = 0;
-				// IntegerExpressionVariable[] vars1, vars2;
+			private <K, V> Map<K, V> rowOf(Map<K, Map<K, V>> vars, K key) {
+				Map<K, V> row = vars.get(key);
+				return (row == null) ? Collections.<K, V> emptyMap() : row;
+			}
 
-				{
-					int ki = 0;
-					for (Root i : agent_roots) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rrs + rns + rss);
-						for (Root j : redex_roots) {
-							IntVar var = model.boolVar(ki + "," + kj++);
-							row.put(j, var);
-						}
-						// 1 // these will always be zero
-						for (Node j : redex_nodes) {
-							IntVar var = model.boolVar(ki + "," + kj++);
-							model.arithm(var, "=", 0).post();
-							row.put(j, var);
-						}
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "," + kj++);
-							model.arithm(var, "=", 0).post();
-							row.put(j, var);
+			/*
+			 * Records the embedding described by the current solution of the
+			 * CSP so that the match can be built after the search moves on.
+			 */
+			private Embedding snapshot() {
+				SolvedEmbedding emb = new SolvedEmbedding();
+				for (Map.Entry<PlaceEntity, Map<PlaceEntity, IntVar>> r : p_vars
+						.entrySet()) {
+					for (Map.Entry<PlaceEntity, IntVar> c : r.getValue()
+							.entrySet()) {
+						if (isSet(c.getValue())) {
+							emb.place(r.getKey(), c.getKey());
 						}
-						p_vars.put(i, row);
-						ki++;
 					}
-					for (Node i : agent_nodes) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rrs + rns + rss);
-						for (Root j : redex_roots) {
-							IntVar var = model.boolVar(ki + "," + kj++);
-							row.put(j, var);
-						}
-						for (Node j : redex_nodes) {
-							IntVar var = model.boolVar(ki + "," + kj++);
-							row.put(j, var);
-						}
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "," + kj++);
-							row.put(j, var);
+				}
+				for (Map.Entry<Handle, Map<Handle, IntVar>> r : f_vars
+						.entrySet()) {
+					for (Map.Entry<Handle, IntVar> c : r.getValue().entrySet()) {
+						if (isSet(c.getValue())) {
+							emb.mapHandle(r.getKey(), c.getKey());
 						}
-						p_vars.put(i, row);
-						ki++;
 					}
 				}
-
-				{
-					int ki = 0;
-					for (Handle hr : redex_handles) {
-						int kj = 0;
-						Map<Handle, IntVar> row = new IdentityHashMap<>(
-								ahs);
-						for (Handle ha : agent_handles) {
-							IntVar var = model.boolVar("F_" + ki + "_" + kj++);
-							row.put(ha, var);
+				for (Map.Entry<LinkEntity, Map<LinkEntity, IntVar>> r : e_vars
+						.entrySet()) {
+					if (!r.getKey().isPoint())
+						continue;
+					Point p = (Point) r.getKey();
+					Map<LinkEntity, IntVar> row = r.getValue();
+					if (isSet(row.get(p.getHandle())))
+						continue;
+					emb.bind(p);
+					for (Map.Entry<LinkEntity, IntVar> c : row.entrySet()) {
+						if (c.getKey().isInnerName() && isSet(c.getValue())) {
+							emb.link(p, (InnerName) c.getKey());
 						}
-						f_vars.put(hr, row);
-						ki++;
 					}
+				}
+				return emb;
+			}
 
-					// vars for agent port flux
-					ki = 0;
-					for (Port pi : agent_ports) {
-						int kj = 0;
-						Map<LinkEntity, IntVar> row = new IdentityHashMap<>(
-								redex_points.size() + 1);
-						Handle hi = pi.getHandle();
-						IntVar var = model.boolVar("PH_" + ki);
-						row.put(hi, var);
-						for (Point pj : redex_points) {
-							var = model.boolVar("PP_" + ki + "_" + kj++);
-							row.put(pj, var);
-						}
-						e_vars.put(pi, row);
-						ki++;
-					}
+			/*
+			 * Records that the agent point pa may be linked to the redex point
+			 * pr by means of var. The row for pa and its bypass variable are
+			 * created on demand as is the flux variable between the two
+			 * handles involved.
+			 */
+			private void newPointVar(Point pa, Point pr, IntVar var) {
+				Map<LinkEntity, IntVar> row = e_vars.get(pa);
+				if (row == null) {
+					row = new IdentityHashMap<>();
+					row.put(pa.getHandle(), model.boolVar("PH_" + var_count++));
+					e_vars.put(pa, row);
+				}
+				row.put(pr, var);
+				e_cols.get(pr).add(var);
+				Map<Handle, IntVar> f_row = f_vars.get(pr.getHandle());
+				if (!f_row.containsKey(pa.getHandle())) {
+					f_row.put(pa.getHandle(), model.boolVar("F_" + var_count++));
+				}
+			}
 
-					// vars for redex handles flux
-					ki = 0;
-					for (Handle hj : redex_handles) {
-						int kj = 0;
-						Map<LinkEntity, IntVar> row = new IdentityHashMap<>(
-								ahs);
-						for (Handle hi : agent_handles) {
-							IntVar var = model.intVar("HH_" + ki + "_" + kj++, 
-									0, hi.getPoints().size());
-							row.put(hi, var);
-						}
-						e_vars.put(hj, row);
-						ki++;
-					}
+			/*
+			 * Tells whether the agent child can be placed on the redex one
+			 * assuming their parents are. This covers the node compatibility
+			 * (constraint 2), the handle types of their ports (constraint 8)
+			 * and the child counting of constraints 7 and 8 (every child of an
+			 * image is either an image or in a parameter).
+			 */
+			private boolean isFeasible(Child i, Child j) {
+				if (j.isSite()) {
+					return true;
+				}
+				if (!i.isNode()) {
+					return false;
 				}
+				Node ni = (Node) i;
+				Node nj = (Node) j;
+				if (ni.getControl().getArity() < nj.getControl().getArity()
+						|| !areMatchable(agent, ni, redex, nj)) {
+					return false;
+				}
+				for (int k = nj.getControl().getArity() - 1; 0 <= k; k--) {
+					// redex edges can not be matched to agent outers
+					if (compiled.isEdgePort(nj, k)
+							&& ni.getPort(k).getHandle().isOuterName())
+						return false;
+				}
+				int cs = compiled.nodeChildrenCount(nj);
+				int ci = ni.getChildren().size();
+				return compiled.hasOnlyNodeChildren(nj) ? ci == cs : ci >= cs;
+			}
 
-				// PLACE CONSTRAINTS //////////////////////////////////////////
+			private Solver instantiateModel() {
+				// VARIABLES //////////////////////////////////////////////////
 
-				// 2 // M_ij = 0 if nodes are different in the sense of this.eq
-				// TODO merge with interplay constraints
+				/*
+				 * Variables are allocated only for pairs that pass the
+				 * structural checks below, any pair missing from p_vars,
+				 * e_vars or f_vars is implicitly zero. Candidates are
+				 * propagated top-down along the redex place graph (cf.
+				 * SparseModel): redex roots can be hosted by agent roots and
+				 * nodes in an active context (constraint 4), redex nodes and
+				 * sites by children of the candidates for their parent
+				 * (constraint 3).
+				 */
 				{
-					for (Node i : agent_nodes) {
-						Map<PlaceEntity, IntVar> row = p_vars.get(i);
-						for (Node j : redex_nodes) {
-							IntVar var = row.get(j);
-							if (!areMatchable(agent, i, redex, j)) {
-								model.arithm(var, "=", 0).post();
+					List<Parent> hosts = new ArrayList<>();
+					Deque<Parent> q = new ArrayDeque<Parent>(agent_roots);
+					while (!q.isEmpty()) {
+						Parent f = q.poll();
+						hosts.add(f);
+						for (Child c : f.getChildren()) {
+							if (c.isNode()
+									&& ((Node) c).getControl().isActive()) {
+								q.add((Node) c);
 							}
 						}
 					}
+					for (Root g : redex_roots) {
+						sparse.addRoot(g, hosts, compiled.nodeChildrenCount(g));
+					}
 				}
-				// ////////////////////////////////////////////////////////////
-
-				// 3 // M_ij <= M_fg if f = prnt(i) and g = prnt(j)
+				// redex nodes come after their parents
 				{
-					for (Node i : agent_nodes) {
-						Parent f = i.getParent();
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						Map<PlaceEntity, IntVar> f_row = p_vars.get(f);
-						for (Child j : redex_nodes) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g)).post();
-						}
-						for (Child j : redex_sites) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g)).post();
-						}
-					}
+					List<Child> rchildren = new ArrayList<>(rns + rss);
+					rchildren.addAll(redex_nodes);
+					rchildren.addAll(redex_sites);
+					sparse.addChildren(rchildren, this::isFeasible);
 				}
-				// ////////////////////////////////////////////////////////////
 
-				// 4 // M_ij = 0 if j is a root and i is not in an active
-				// context //
+				for (Point p : redex_points) {
+					e_cols.put(p, new ArrayList<IntVar>());
+				}
+				for (Handle hr : redex_handles) {
+					f_vars.put(hr, new IdentityHashMap<Handle, IntVar>());
+					e_vars.put(hr, new IdentityHashMap<LinkEntity, IntVar>());
+				}
 
-				{
-					/*
-					 * Descends the agent parent map deactivating matching (with
-					 * redex roots) below every passive node. Nodes in qa were
-					 * found in an active context whereas qp are in a passive
-					 * one or passive.
-					 */
-					Deque<Node> qa = new ArrayDeque<>();
-					Deque<Node> qp = new ArrayDeque<>();
-					for (Root r : agent_roots) {
-						for (Child c : r.getChildren()) {
-							if (c.isNode()) {
-								qa.add((Node) c);
-							}
+				/*
+				 * The k-th port of an agent node is linked to the k-th port of
+				 * a redex node iff the nodes are matched, hence the place
+				 * variable is shared (interplay constraints for ports).
+				 */
+				for (Node nj : redex_nodes) {
+					for (PlaceEntity i : p_cands.get(nj)) {
+						Node ni = (Node) i;
+						IntVar m = p_vars.get(ni).get(nj);
+						for (int k = 0; k < nj.getControl().getArity(); k++) {
+							newPointVar(ni.getPort(k), nj.getPort(k), m);
 						}
 					}
-					while (!qa.isEmpty()) {
-						Node n = qa.poll();
-						if (n.getControl().isActive()) {
+				}
+
+				/*
+				 * Agent nodes that may end up in a parameter, i.e. candidates
+				 * for redex sites and their descendants, with the variables
+				 * placing them or one of their ancestors in a site. These are
+				 * needed only to link inner names; roots are kept apart from
+				 * parameters by PlaceEmbeddingPropagator.
+				 */
+				Map<Node, List<IntVar>> param_vars = new IdentityHashMap<>();
+				List<Node> param_nodes = new ArrayList<>();
+				for (Site j : (rins > 0) ? redex_sites : Collections
+						.<Site> emptyList()) {
+					for (PlaceEntity i : p_cands.get(j)) {
+						if (!i.isNode())
+							continue;
+						IntVar v = p_vars.get(i).get(j);
+						Deque<Node> q = new ArrayDeque<>();
+						q.add((Node) i);
+						while (!q.isEmpty()) {
+							Node n = q.poll();
+							List<IntVar> vs = param_vars.get(n);
+							if (vs == null) {
+								vs = new ArrayList<>();
+								param_vars.put(n, vs);
+								param_nodes.add(n);
+							}
+							vs.add(v);
 							for (Child c : n.getChildren()) {
 								if (c.isNode()) {
-									qa.add((Node) c);
+									q.add((Node) c);
 								}
 							}
-						} else {
-							qp.add(n);
-						}
-					}
-					qa.clear();
-					while (!qp.isEmpty()) {
-						Node i = qp.poll();
-						for (Child c : i.getChildren()) {
-							if (c.isNode()) {
-								qp.add((Node) c);
-							}
-						}
-						Map<PlaceEntity, IntVar> row = p_vars.get(i);
-						for (Root j : redex_roots) {
-							model.arithm(row.get(j), "=", 0).post();
 						}
 					}
 				}
 
-				// /////////////////////////////////////////////////////////////////
-
-				// 5 // sum M_ij = 1 if j not in sites
+				/*
+				 * Redex inner names can be linked only to ports of nodes in a
+				 * parameter. Ports on agent outer names can not reach inner
+				 * names on redex edges (constraint 8).
+				 */
 				{
-					IntVar[] vars = new IntVar[ars + ans];
-					for (Root j : redex_roots) {
-						int k = 0;
-						for (PlaceEntity i : p_vars.keySet()) {
-							vars[k++] = p_vars.get(i).get(j);
-						}
-						model.sum(vars, "=", 1).post();
+					List<Port> ps = new ArrayList<>();
+					for (Node n : param_nodes) {
+						ps.addAll(n.getPorts());
 					}
-					for (Node j : redex_nodes) {
-						int k = 0;
-						// TODO roots can be skipped since these are always zero
-						for (Parent i : agent_roots) {
-							vars[k++] = p_vars.get(i).get(j);
-						}
-						for (Parent i : agent_nodes) {
-							vars[k++] = p_vars.get(i).get(j);
+					for (Port pa : ps) {
+						for (InnerName pr : redex_inners) {
+							if (pr.getHandle().isEdge()
+									&& pa.getHandle().isOuterName())
+								continue;
+							newPointVar(pa, pr,
+									model.boolVar("PP_" + var_count++));
 						}
-						model.sum(vars, "=", 1).post();
 					}
 				}
-				// //////////////////////////////////////////////////////////////////
 
-				// 6 // n sum(j not root) M_ij + sum(j root) M_ij <= n if i in
-				// nodes
+				// idle redex handles may be matched with idle agent handles
 				{
-					for (Node i : agent_nodes) {
-						Map<PlaceEntity, IntVar> row = p_vars.get(i);
-						IntVar[] vars = new IntVar[rns + rss];
-						int k = 0;
-						for (PlaceEntity j : redex_nodes) {
-							vars[k++] = row.get(j);
-						}
-						for (PlaceEntity j : redex_sites) {
-							vars[k++] = row.get(j);
-						}
-
-						IntVar t1 = model.intVar(rrs);
-						IntVar c = model.intVar(0);
-						for (IntVar v : vars) {
-							c = c.add(v).intVar();
-						}
-						c = c.mul(t1).intVar();
-
-						vars = new IntVar[rrs];
-						k = 0;
-						for (Root j : redex_roots) {
-							vars[k++] = row.get(j);
-						}
-
-						t1 = model.intVar(0);
-						for (IntVar v : vars) {
-							t1 = t1.add(v).intVar();
+					List<Handle> idles = new ArrayList<>();
+					for (Handle ha : agent_handles) {
+						if (ha.getPoints().isEmpty())
+							idles.add(ha);
+					}
+					for (Handle hr : redex_handles) {
+						if (!hr.getPoints().isEmpty())
+							continue;
+						Map<Handle, IntVar> f_row = f_vars.get(hr);
+						for (Handle ha : idles) {
+							if (hr.isEdge() && ha.isOuterName())
+								continue;
+							f_row.put(ha, model.boolVar("F_" + var_count++));
 						}
-						t1 = t1.add(c).intVar();
-						model.arithm(t1, "<=", rrs).post();
 					}
 				}
-				// /////////////////////////////////////////////////////////////////
 
-				// 7 // |chld(f)| M_fg <= sum(i chld(f), j in chld(g)) M_ij if
-				// f,g in nodes
-				{
-					for (Parent f : agent_nodes) {
-						Collection<? extends Child> cf = f.getChildren();
-						for (Parent g : redex_nodes) {
-							Collection<? extends Child> cg = g.getChildren();
-							IntVar[] vars = new IntVar[cf.size() * cg.size()];
-							int k = 0;
-							for (PlaceEntity i : cf) {
-								for (PlaceEntity j : cg) {
-									vars[k++] = p_vars.get(i).get(j);
-								}
-							}
-							IntVar chld = p_vars.get(f).get(g);
-							model.sum(vars, ">=", chld.mul(cf.size()).intVar()).post();
-						}
+				// vars for redex handles flux
+				Map<Handle, List<IntVar>> hh_cols = new IdentityHashMap<>();
+				for (Handle hr : redex_handles) {
+					if (hr.getPoints().isEmpty())
+						continue;
+					Map<LinkEntity, IntVar> row = e_vars.get(hr);
+					for (Handle ha : f_vars.get(hr).keySet()) {
+						int n = ha.getPoints().size();
+						if (n == 0)
+							continue;
+						IntVar var = model.intVar("HH_" + var_count++, 0, n);
+						row.put(ha, var);
+						List<IntVar> col = hh_cols.get(ha);
+						if (col == null) {
+							col = new ArrayList<>();
+							hh_cols.put(ha, col);
+						}
+						col.add(var);
 					}
 				}
-				// /////////////////////////////////////////////////////////////////
 
+				// PLACE CONSTRAINTS //////////////////////////////////////////
+
+				// 2 // M_ij = 0 if nodes are different in the sense of this.eq
+				// ! implicit, see isFeasible //
+
+				// 3 // M_ij <= M_fg if f = prnt(i) and g = prnt(j)
+				// 4 // M_ij = 0 if j is a root and i is not in an active
+				// context
+				// ! implicit, see the allocation of variables //
+				// 5 // sum M_ij = 1 if j not in sites
+				// 6 // n sum(j not root) M_ij + sum(j root) M_ij <= n if i in
+				// nodes
+				// 7 // |chld(f)| M_fg <= sum(i chld(f), j in chld(g)) M_ij if
+				// f,g in nodes
 				// 8 // |chld(g) not sites| M_fg <= sum(i chld(f), j chld(g) not
 				// sites) if g in roots
-				{
-					Map<Root, Collection<? extends Child>> cgs = new HashMap<>(
-							rrs);
-					for (Root g : redex_roots) {
-						Collection<? extends Child> cg = new HashSet<>(
-								g.getChildren());
-						cg.removeAll(redex_sites);
-						cgs.put(g, cg);
-					}
-					for (PlaceEntity f : p_vars.keySet()) {
-						Collection<? extends Child> cf = ((Parent) f)
-								.getChildren();
-						for (Root g : redex_roots) {
-							Collection<? extends Child> cg = cgs.get(g);
-							IntVar[] vars = new IntVar[cf.size() * cg.size()];
-							int k = 0;
-							for (Child i : cf) {
-								for (Child j : cg) {
-									vars[k++] = p_vars.get(i).get(j);
-								}
-							}
-							IntVar chld = p_vars.get(f).get(g);
-							model.sum(vars, ">=", chld.mul(cg.size()).intVar()).post();
-						}
-					}
-				}
-				// /////////////////////////////////////////////////////////////////
-
-				// 9 // sum(f ancs(i)\{i}, g in m) M_fg + M_ij <= 1 if j in
+				// 9 // sum(f in ancs(i)\{i}, g in m) M_fg + M_ij <= 1 if j in
 				// roots
-				if (agent_ancestors_is_empty) {
-					/*
-					 * acquire agent_ancestors and re-check if it still is empty
-					 * if this is the case, descends the agent parent map and
-					 * builds agent_ancestors
-					 */
-					synchronized (agent_ancestors) {
-						if (agent_ancestors_is_empty) {
-							Stack<Parent> ancs = new Stack<>();
-							Stack<Parent> visit = new Stack<>();
-							for (Root r : agent_roots) {
-								ancs.clear();
-								visit.add(r);
-								while (!visit.isEmpty()) {
-									Parent p = visit.pop();
-									if (p.isNode()) {
-										Node n = (Node) p;
-										while (!ancs.isEmpty()
-												&& ancs.peek() != n.getParent())
-											ancs.pop();
-										// store ancestors for later
-										agent_ancestors.put(n, new ArrayList<>(
-												ancs));
-									}
-									// put itself as an ancestor and
-									// process each of its children
-									boolean push = false;
-									for (Child c : p.getChildren()) {
-										if (c.isParent()) {
-											visit.add((Parent) c);
-											push = true;
-										}
-									}
-									if (push)
-										ancs.push(p);
-								}
-							}
-							agent_ancestors_is_empty = false;
-						}
-					}
-				}
-				{
-					for (Root j : redex_roots) {
-						for (PlaceEntity i : agent_ancestors.keySet()) {
-							Collection<Parent> ancs = agent_ancestors.get(i);
-							IntVar[] vars = new IntVar[1
-									+ (ancs.size() - 1) * rss];
-							int k = 0;
-							for (Parent f : ancs) {
-								if (f.isNode()) {
-									// skip the only root in ancs
-									Map<PlaceEntity, IntVar> row = p_vars
-											.get(f);
-									for (Site g : redex_sites) {
-										vars[k++] = row.get(g);
-									}
-								}
-							}
-							vars[k] = p_vars.get(i).get(j);
-							model.sum(vars, "<=", 1).post();
-						}
-					}
-				}
+				// 10 // sum M_ij <= 1 if i in sites
+				// ! all enforced by a single propagator reasoning on the
+				// place graphs, see PlaceEmbeddingPropagator //
+				PlaceEmbeddingPropagator.constraint(model, compiled, p_vars,
+						p_cands).post();
+
 				// LINK CONSTRAINTS ///////////////////////////////////////////
 
 				// 1 // source constraints
 				{
-					IntVar[] vars = new IntVar[redex_points.size() + 1];
-					for (Port p : agent_ports) {
-						vars = e_vars.get(p).values().toArray(vars);
-						model.sum(vars, "=", 1).post();
+					for (Map.Entry<LinkEntity, Map<LinkEntity, IntVar>> r : e_vars
+							.entrySet()) {
+						if (r.getKey().isPoint()) {
+							sparse.postSum(r.getValue().values(), "=", 1);
+						}
 					}
 				}
 				// 2 // sink constraints
+				// points without a row always bypass
 				{
-					for (Handle ha : agent_handles) {
+					List<IntVar> vars = new ArrayList<>();
+					for (Map.Entry<Handle, List<IntVar>> c : hh_cols.entrySet()) {
+						Handle ha = c.getKey();
 						Collection<? extends Point> ps = ha.getPoints();
-						IntVar[] vars1 = new IntVar[rhs + ps.size()];
-						int k = 0;
+						int n = ps.size();
+						vars.clear();
 						for (Point p : ps) {
-							vars1[k++] = e_vars.get(p).get(ha);
-						}
-						for (Handle hr : redex_handles) {
-							vars1[k++] = e_vars.get(hr).get(ha);
+							Map<LinkEntity, IntVar> row = e_vars.get(p);
+							if (row == null) {
+								n--;
+							} else {
+								vars.add(row.get(ha));
+							}
 						}
-						model.sum(vars1, "=", ps.size()).post();
+						vars.addAll(c.getValue());
+						sparse.postSum(vars, "=", n);
 					}
 				}
 
 				// 3 // flux preservation
 				{
-					IntVar[] vars1 = new IntVar[ahs];
+					List<IntVar> vars = new ArrayList<>();
 					for (Handle hr : redex_handles) {
-						Collection<? extends Point> ps = hr.getPoints();
-						int k = 0;
-						IntVar[] vars2 = new IntVar[agent_ports
-								.size() * ps.size()];
-						for (Port pa : agent_ports) {
-							Map<LinkEntity, IntVar> row = e_vars.get(pa);
-							for (Point pr : ps) {
-								vars2[k++] = row.get(pr);
-							}
-						}
-
-						vars1 = e_vars.get(hr).values().toArray(vars1);
-						IntVar sum1 = model.intVar(0);
-						for (IntVar v : vars1) {
-							sum1 = sum1.add(v).intVar();
+						vars.clear();
+						for (Point pr : hr.getPoints()) {
+							vars.addAll(e_cols.get(pr));
 						}
-						model.sum(vars2, "=", sum1).post();
+						sparse.postDiff(vars, 1, e_vars.get(hr).values(), "=");
 					}
 				}
 
 				// 4 // redex ports as "sources"
-				{
-					IntVar[] vars = new IntVar[agent_ports.size()];
-					for (Point pr : redex_points) {
-						if (pr.isPort()) {
-							int k = 0;
-							for (Port pa : agent_ports) {
-								vars[k++] = e_vars.get(pa).get(pr);
-							}
-							model.sum(vars, "=", 1).post();
-						}
-					}
-				}
+				// ! implied by place constraint 5 since the variables for
+				// ports are shared //
 
 				// 5 // relation between f_vars and e_vars for handles
 				{
 					for (Handle hr : redex_handles) {
 						Map<Handle, IntVar> f_row = f_vars.get(hr);
-						Map<LinkEntity, IntVar> e_row = e_vars.get(hr);
-						if (!hr.getPoints().isEmpty()) {
-							for (Handle ha : agent_handles) {
-								if (!ha.getPoints().isEmpty()) {
-									IntVar vf = f_row.get(ha);
-									IntVar ve = e_row.get(ha);
-									model.arithm(ve, "<=", 
-											vf.mul(ha.getPoints().size())
-											.intVar()).post();
-									model.arithm(vf, "<=", ve).post();
-								}
-							}
+						for (Map.Entry<LinkEntity, IntVar> c : e_vars.get(hr)
+								.entrySet()) {
+							Handle ha = (Handle) c.getKey();
+							IntVar vf = f_row.get(ha);
+							IntVar ve = c.getValue();
+							sparse.postDiff(Collections.singletonList(ve), ha
+									.getPoints().size(), Collections
+									.singletonList(vf), "<=");
+							model.arithm(vf, "<=", ve).post();
 						}
 					}
 				}
 				// 6 // relation between f_vars and e_vars for points
 				{
+					List<IntVar> vars = new ArrayList<>();
 					for (Handle hr : redex_handles) {
-						Map<Handle, IntVar> f_row = f_vars.get(hr);
 						Collection<? extends Point> ps = hr.getPoints();
-						for (Handle ha : agent_handles) {
-							IntVar vf = f_row.get(ha);
-							int k = 0;
-							IntVar[] vars = new IntVar[ps
-									.size() * ha.getPoints().size()];
+						if (ps.isEmpty())
+							continue;
+						for (Map.Entry<Handle, IntVar> c : f_vars.get(hr)
+								.entrySet()) {
+							Handle ha = c.getKey();
+							IntVar vf = c.getValue();
+							vars.clear();
 							for (Point pa : ha.getPoints()) {
-								Map<LinkEntity, IntVar> e_row = e_vars
-										.get(pa);
+								Map<LinkEntity, IntVar> e_row = e_vars.get(pa);
+								if (e_row == null) {
+									// pa bypasses ha
+									if (hr.isEdge()) {
+										model.arithm(vf, "=", 0).post();
+									}
+									continue;
+								}
 								for (Point pr : ps) {
 									IntVar ve = e_row.get(pr);
-									vars[k++] = ve;
-									model.arithm(ve, "<=", vf).post();
+									if (ve != null) {
+										vars.add(ve);
+										model.arithm(ve, "<=", vf).post();
+									}
 								}
 								// // constraint 10
 								if (hr.isEdge()) {
-									model.arithm(
-											vf.add(e_vars.get(pa).get(ha)).intVar(), 
-											"<=", 1).post();
+									model.arithm(vf, "+", e_row.get(ha), "<=",
+											1).post();
 								}
 							}
-							if (!ps.isEmpty() || !ha.getPoints().isEmpty())
-								model.sum(vars, ">=", vf).post();
+							sparse.postDiff(vars, 1, Collections
+									.singletonList(vf), ">=");
 						}
 					}
 				}
@@ -711,161 +846,90 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 					 * Redex handles can be matched to at most one handle of the
 					 * redex
 					 */
-					IntVar[] vars = new IntVar[ahs];
 					for (Handle hr : redex_handles) {
 						Map<Handle, IntVar> f_row = f_vars.get(hr);
-						model.sum(f_row.values().toArray(vars), 
-								"<=", 1).post();
+						if (f_row.size() > 1) {
+							sparse.postSum(f_row.values(), "<=", 1);
+						}
 					}
 				}
 
 				// 8 // handles type
+				// 9 // embeddings are injective w.r.t edges
 				{
 					/*
-					 * Redex handles can not be matched to agent outers.
+					 * Redex edges can not be matched to agent outers (implicit)
+					 * and agent handles can not be the image of both edges and
+					 * outer names.
 					 */
-					ListIterator<Handle> ir1 = redex_handles.listIterator(0);
-					while (ir1.hasNext()) {
-						Handle hr1 = ir1.next();
-						Map<Handle, IntVar> f_row1 = f_vars.get(hr1);
-						if (hr1.isEdge()) {
-							for (Handle ha : agent_handles) {
-								// edges belongs to edges
-								if (ha.isOuterName())
-									model.arithm(f_row1.get(ha), "=", 0).post();
-							}
-						}
-						ListIterator<Handle> ir2 = redex_handles
-								.listIterator(ir1.nextIndex());
-						while (ir2.hasNext()) {
-							Handle hr2 = ir2.next();
-							Map<Handle, IntVar> f_row2 = f_vars
-									.get(hr2);
-							if (hr1.isEdge() != hr2.isEdge()) {
-								for (Handle ha : agent_handles) {
-									model.arithm(f_row1.get(ha)
-											.add(f_row2.get(ha)).intVar(), 
-											"<=", 1).post();
-								}
+					Map<Handle, List<IntVar>> edge_cols = new IdentityHashMap<>();
+					Map<Handle, List<IntVar>> outer_cols = new IdentityHashMap<>();
+					for (Handle hr : redex_handles) {
+						Map<Handle, List<IntVar>> cols = (hr.isEdge()) ? edge_cols
+								: outer_cols;
+						for (Map.Entry<Handle, IntVar> c : f_vars.get(hr)
+								.entrySet()) {
+							List<IntVar> col = cols.get(c.getKey());
+							if (col == null) {
+								col = new ArrayList<>();
+								cols.put(c.getKey(), col);
 							}
+							col.add(c.getValue());
 						}
 					}
-				}
-				// 9 // embeddings are injective w.r.t edges
-				{
-					IntVar[] vars = new IntVar[redex_edges.size()];
-					for (Handle ha : agent_handles) {
-						int k = 0;
-						for (Handle hr : redex_edges) {
-							vars[k++] = f_vars.get(hr).get(ha);
+					List<IntVar> vars = new ArrayList<>();
+					for (Map.Entry<Handle, List<IntVar>> c : edge_cols
+							.entrySet()) {
+						List<IntVar> col = c.getValue();
+						if (col.size() > 1) {
+							sparse.postSum(col, "<=", 1);
+						}
+						List<IntVar> outers = outer_cols.get(c.getKey());
+						if (outers == null)
+							continue;
+						for (IntVar v : outers) {
+							vars.clear();
+							vars.addAll(col);
+							vars.add(v);
+							sparse.postSum(vars, "<=", 1);
 						}
-						model.sum(vars, "<=", 1).post();
 					}
 				}
 				// 10 // points of handles mapped to redex edges can not bypass
 				// it
 				// ! merged with constraint 6 //
-				// {
-				// for (Handle hr : redex_edges) {
-				// Map<Handle, IntegerVariable> f_row = f_vars.get(hr);
-				// for (Handle ha : agent_handles) {
-				// IntegerVariable vf = f_row.get(ha);
-				// for (Point p : ha.getPoints()) {
-				// model.addConstraint(Choco.geq(1,
-				// Choco.sum(e_vars.get(p).get(ha), vf)));
-				// }
-				// }
-				// }
-				// }
 
 				// INTERPLAY CONSTRAINTS //////////////////////////////////////
-				{
-					// bound nodes and their ports
-					for (Node ni : agent_nodes) {
-						Map<PlaceEntity, IntVar> p_row = p_vars.get(ni);
-						for (Node nj : redex_nodes) {
-							IntVar m = p_row.get(nj);
-							boolean comp = areMatchable(agent, ni, redex, nj);
-							// ! Place constraint 2 //
-							// if (!comp) {
-							// model.addConstraint(Choco.eq(0, m));
-							// }
-							for (int i = ni.getControl().getArity() - 1; 0 <= i; i--) {
-								Map<LinkEntity, IntVar> e_row = e_vars
-										.get(ni.getPort(i));
-								for (int j = nj.getControl().getArity() - 1; 0 <= j; j--) {
-									if (comp && i == j) {
-										/* ni <-> nj iff ni[k] <-> nj[k] */
-										model.arithm(m, "=", e_row.get(nj.getPort(j)))
-												.post();
-									} else {
-										/* ni[f] <!> nj[g] if ni<!>nj || f != g */
-										model.arithm(e_row.get(nj.getPort(j)), 
-												"=", 0).post();
-									}
-								}
-							}
-						}
-					}
-				}
-				{
-					for (Node ni : agent_nodes) {
-						// sum over ni anchestors and redex roots
-						Collection<Parent> ancs = agent_ancestors.get(ni);
-						// IntegerVariable[] vars1 = new IntegerVariable[ancs
-						// .size() * rrs];
-						IntVar[] vars2 = new IntVar[(1 + ancs
-								.size()) * rss];
-						// int k1 = 0;
-						int k2 = 0;
-						for (Parent f : ancs) {
-							Map<PlaceEntity, IntVar> row = p_vars
-									.get(f);
-							// for (Root g : redex_roots) {
-							// vars1[k1++] = row.get(g);
-							// }
-							for (Site g : redex_sites) {
-								vars2[k2++] = row.get(g);
-							}
-						}
-						{
-							Map<PlaceEntity, IntVar> row = p_vars
-									.get(ni);
-							for (Site g : redex_sites) {
-								vars2[k2++] = row.get(g);
-							}
-						}
-						// IntegerExpressionVariable sum1 = Choco.sum(vars1);
-						IntVar sum2 = model.intVar(0);
-						for (IntVar v : vars2) {
-							sum2 = sum2.add(v).intVar();
-						}
 
+				// bound nodes and their ports
+				// ! implicit, see the allocation of variables //
+				{
+					/*
+					 * a port can match an inner name in the redex if its node
+					 * is in the params.
+					 */
+					List<IntVar> vars = new ArrayList<>();
+					for (Node ni : param_nodes) {
 						for (Port pi : ni.getPorts()) {
 							Map<LinkEntity, IntVar> row = e_vars.get(pi);
-							// all the redex points
-							// IntegerVariable[] vars3 = new
-							// IntegerVariable[rprs];
-							IntVar[] vars4 = new IntVar[rins];
-							// int k3 = 0;
-							int k4 = 0;
-							for (Point in : redex.getInnerNames()) {
-								IntVar var = row.get(in);
-								vars4[k4++] = var;
+							if (row == null)
+								continue;
+							vars.clear();
+							for (InnerName in : redex_inners) {
+								IntVar v = row.get(in);
+								if (v != null)
+									vars.add(v);
+							}
+							if (!vars.isEmpty()) {
+								sparse.postDiff(vars, 1, param_vars.get(ni),
+										"<=");
 							}
-							/*
-							 * a port can match an inner name in the redex if
-							 * its node is in the params.
-							 */
-							model.sum(vars4, "<=", sum2).post();
 						}
 					}
 				}
 				// END OF CONSTRAINTS /////////////////////////////////////////
 
-				Solver solver = model.getSolver();
-
-				return solver;
+				return model.getSolver();
 			}
 
 			@Override
@@ -894,6 +958,58 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 			private void noMoreSolutions() {
 				this.mayHaveNext = false;
 				this.solver.hardReset();
+				if (stats != null)
+					stats.recordEnd();
+			}
+
+			/*
+			 * Looks for the next solution of the CSP. A search stopped by a
+			 * limit or a cancellation ends the enumeration and is reported to
+			 * the caller, since it does not prove there are no more solutions.
+			 */
+			private boolean solve() {
+				long t = (stats == null) ? 0 : System.nanoTime();
+				boolean found = solver.solve();
+				if (stats != null)
+					stats.recordSolve(found, System.nanoTime() - t,
+							solver.getNodeCount(), solver.getBackTrackCount(),
+							solver.getFailCount());
+				if (found)
+					return true;
+				MatcherOptions opts = options;
+				if (SearchControl.isStopped(solver)) {
+					MatchLimitException e = SearchControl.limitReached(
+							opts, solver);
+					noMoreSolutions();
+					throw e;
+				}
+				return false;
+			}
+
+			/*
+			 * The variables describing the place embedding; some strategies
+			 * decide them before the others.
+			 */
+			private IntVar[] placeVars() {
+				List<IntVar> vs = new ArrayList<>();
+				for (Map<PlaceEntity, IntVar> row : p_vars.values()) {
+					vs.addAll(row.values());
+				}
+				return vs.toArray(new IntVar[vs.size()]);
+			}
+
+			/*
+			 * Counts the solutions of the CSP up to the given bound without
+			 * building their matches; the iterator is exhausted afterwards.
+			 */
+			private int countSolutions(int bound) {
+				firstRun = false;
+				int count = 0;
+				while (count < bound && solve()) {
+					count++;
+				}
+				noMoreSolutions();
+				return count;
 			}
 
 			private void fetchSolution() {
@@ -902,8 +1018,8 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 				if (DEBUG_PRINT_SOLUTION_FETCH)
 					System.out.println("fetch solution has been invoked...");
 				// look for a solution for the CSP
-				if ((first && !solver.solve())
-						|| (!first && !solver.solve())) {
+				if ((first && !solve())
+						|| (!first && !solve())) {
 					if (DEBUG_PRINT_SOLUTION_FETCH)
 						System.out
 								.println("...but no more solutions where found.");
@@ -942,51 +1058,45 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 								+ "d|", i);
 						c = 1;
 						Root ri = agent_roots.get(i);
-						Map<PlaceEntity, IntVar> row = p_vars.get(ri);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, ri);
 						for (int j = 0; j < redex_roots.size(); j++) {
 							Root rj = redex_roots.get(j);
-							IntVar v = findVariable(row.get(rj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(rj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (Node nj : redex_nodes) {
-							IntVar v = findVariable(row.get(nj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(nj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (int j = 0; j < redex_sites.size(); j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(sj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					for (Node ni : agent_nodes) {
 						System.out.printf("\n%-" + p_cell_width[0] + "s|", ni);
 						c = 1;
-						Map<PlaceEntity, IntVar> row = p_vars.get(ni);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, ni);
 						for (int j = 0; j < redex_roots.size(); j++) {
 							Root rj = redex_roots.get(j);
-							IntVar v = findVariable(row.get(rj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(rj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (Node nj : redex_nodes) {
-							IntVar v = findVariable(row.get(nj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(nj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (int j = 0; j < redex_sites.size(); j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(sj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					System.out.println('\n');
@@ -1018,19 +1128,17 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 					for (Point pi : agent_ports) {
 						System.out.printf("\n%-" + e_cell_width[0] + "s|", pi);
 						c = 1;
-						Map<LinkEntity, IntVar> row = e_vars.get(pi);
+						Map<LinkEntity, IntVar> row = rowOf(e_vars, pi);
 						for (Point pj : redex_points) {
-							IntVar v = findVariable(row.get(pj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(pj));
 							System.out.printf("%" + e_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (Handle hj : agent_handles) {
 							if (row.containsKey(hj)) {
-								IntVar v = findVariable(row.get(hj).getName(), 
-										model.getVars()).asIntVar();
+								int v = valueOf(row.get(hj));
 								System.out.printf("%" + e_cell_width[c++]
-										+ "d|", v.getValue());
+										+ "d|", v);
 							} else {
 								System.out.printf("%" + e_cell_width[c++]
 										+ "c|", ' ');
@@ -1046,10 +1154,9 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 									' ');
 						}
 						for (Handle hj : agent_handles) {
-							IntVar v = findVariable(row.get(hj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(hj));
 							System.out.printf("%" + e_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 
@@ -1067,437 +1174,448 @@ public class AgentMatcher implements Matcher<Bigraph, Bigraph> {
 						c = 1;
 						Map<Handle, IntVar> row = f_vars.get(hi);
 						for (Handle hj : agent_handles) {
-							IntVar v = findVariable(row.get(hj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(hj));
 							System.out.printf("%" + f_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					System.out.println('\n');
 				}
 
-				/*
-				 * Visit the agent and clones it adding replicas to context,
-				 * redex or params bigraphs depending on the seolution of the
-				 * CSP above
-				 */
+				long t = (stats == null) ? 0 : System.nanoTime();
+				this.nextMatch = new AgentMatch(agent, redex, neededParam,
+						snapshot());
+				if (stats != null)
+					stats.recordExtraction(System.nanoTime() - t);
+			}
+		}
+	}
 
-				// context
-				Bigraph ctx = new Bigraph(agent.signature);
-				// redex
-				Bigraph rdx = new Bigraph(agent.signature);
-				// parameters
-				Bigraph[] prms = new Bigraph[rss];
-				// linking medianting between parameters and redex+ID
-				Bigraph lmb = Bigraph.makeId(redex.signature, rss);
-				Bigraph id = Bigraph.makeEmpty(redex.signature);
-				// an injective map from redex's nodes to rdx's ones
-				BidMap<Node, Node> nEmb = new BidMap<>(rns);
-
-				// replicated sites
-				EditableSite ctx_sites_dic[] = new EditableSite[rrs];
-				EditableSite rdx_sites_dic[] = new EditableSite[rss];
-				EditableRoot rdx_roots_dic[] = new EditableRoot[rrs];
-
-				// replicated handles lookup tables
-				Map<Handle, EditableHandle> ctx_hnd_dic = new IdentityHashMap<>();
-				Map<Handle, EditableHandle> rdx_hnd_dic = new IdentityHashMap<>();
-				Map<Handle, EditableHandle> lmb_hnd_dic = new IdentityHashMap<>();
-				Map<Bigraph, Map<Handle, EditableHandle>> prms_hnd_dic = new IdentityHashMap<>();
-
-				Map<Handle, EditableHandle> handle_img = new IdentityHashMap<>(
-						rhs);
-
-				class VState {
-					final PlaceEntity c; // the agent root/node to be visited
-					final PlaceEntity i; // if present, is the image of c in the
-											// redex
-					final EditableParent p; // the replicated parent
-					final Bigraph b;
-
-					VState(Bigraph b, EditableParent p, PlaceEntity c) {
-						this(b, p, c, null);
-					}
+	/**
+	 * Splits the agent into the context, redex image, identity, parameter
+	 * wiring and parameters of a match as described by the given embedding of
+	 * the redex.
+	 * 
+	 * @param agent
+	 *            the bigraph describing the agent.
+	 * @param redex
+	 *            the bigraph describing the redex.
+	 * @param neededParam
+	 *            a boolean mask describing whereas a parameter must be
+	 *            generated or can be skipped.
+	 * @param emb
+	 *            the embedding of the redex into the agent.
+	 * @return the match.
+	 */
+	static AgentMatch buildMatch(Bigraph agent, Bigraph redex,
+			boolean[] neededParam, Embedding emb) {
+		List<? extends Root> redex_roots = redex.getRoots();
+		List<? extends Site> redex_sites = redex.getSites();
+		int rrs = redex_roots.size();
+		int rns = redex.getNodes().size();
+		int rss = redex_sites.size();
+		int rhs = redex.getEdges().size() + redex.getOuterNames().size();
 
-					VState(Bigraph b, EditableParent p, PlaceEntity c,
-							PlaceEntity i) {
-						this.i = i;
-						this.c = c;
-						this.p = p;
-						this.b = b;
-					}
-				}
-				Deque<VState> q = new ArrayDeque<>();
+		/*
+		 * Visit the agent and clones it adding replicas to context,
+		 * redex or params bigraphs depending on the given embedding
+		 */
 
-				for (EditableOuterName o1 : agent.outers.values()) {
-					EditableOuterName o2 = o1.replicate();
-					ctx.outers.put(o2.getName(), o2);
-					o2.setOwner(ctx);
-					ctx_hnd_dic.put(o1, o2);
+		// context
+		Bigraph ctx = new Bigraph(agent.signature);
+		// redex
+		Bigraph rdx = new Bigraph(agent.signature);
+		// parameters
+		Bigraph[] prms = new Bigraph[rss];
+		// linking medianting between parameters and redex+ID
+		Bigraph lmb = Bigraph.makeId(redex.signature, rss);
+		Bigraph id = Bigraph.makeEmpty(redex.signature);
+		// an injective map from redex's nodes to rdx's ones
+		BidMap<Node, Node> nEmb = new BidMap<>(rns);
+
+		// replicated sites
+		EditableSite ctx_sites_dic[] = new EditableSite[rrs];
+		EditableSite rdx_sites_dic[] = new EditableSite[rss];
+		EditableRoot rdx_roots_dic[] = new EditableRoot[rrs];
+
+		// replicated handles lookup tables
+		Map<Handle, EditableHandle> ctx_hnd_dic = new IdentityHashMap<>();
+		Map<Handle, EditableHandle> rdx_hnd_dic = new IdentityHashMap<>();
+		Map<Handle, EditableHandle> lmb_hnd_dic = new IdentityHashMap<>();
+		Map<Bigraph, Map<Handle, EditableHandle>> prms_hnd_dic = new IdentityHashMap<>();
+		// ports of the parameters bypassing the redex, their replicas and
+		// parameters
+		List<EditablePort> bypassing = new ArrayList<>();
+		List<Bigraph> bypassing_prms = new ArrayList<>();
+
+		Map<Handle, EditableHandle> handle_img = new IdentityHashMap<>(
+				rhs);
+
+		class VState {
+			final PlaceEntity c; // the agent root/node to be visited
+			final PlaceEntity i; // if present, is the image of c in the
+									// redex
+			final EditableParent p; // the replicated parent
+			final Bigraph b;
+
+			VState(Bigraph b, EditableParent p, PlaceEntity c) {
+				this(b, p, c, null);
+			}
+
+			VState(Bigraph b, EditableParent p, PlaceEntity c,
+					PlaceEntity i) {
+				this.i = i;
+				this.c = c;
+				this.p = p;
+				this.b = b;
+			}
+		}
+		Deque<VState> q = new ArrayDeque<>();
+
+		for (EditableOuterName o1 : agent.outers.values()) {
+			EditableOuterName o2 = o1.replicate();
+			ctx.outers.put(o2.getName(), o2);
+			o2.setOwner(ctx);
+			ctx_hnd_dic.put(o1, o2);
+		}
+		for (EditableOuterName o0 : redex.outers.values()) {
+			// replicate the handle
+			String name = o0.getName();
+			EditableOuterName o2 = new EditableOuterName(name);
+			rdx.outers.put(name, o2);
+			o2.setOwner(rdx);
+			rdx_hnd_dic.put(o0, o2);
+			// update ctx inner face
+			EditableInnerName i1 = new EditableInnerName(name);
+			ctx.inners.put(name, i1);
+			// find the handle for i1
+			EditableHandle h1 = handle_img.get(o0);
+			if (h1 == null) {
+				// cache miss
+				Handle h = emb.getHandleImage(o0);
+				h1 = (h == null) ? new EditableEdge() : h.getEditable();
+				handle_img.put(o0, h1);
+			}
+			EditableHandle h2 = ctx_hnd_dic.get(h1);
+			if (h2 == null) {
+				h2 = h1.replicate();
+				h2.setOwner(ctx);
+				ctx_hnd_dic.put(h1, h2);
+			}
+			i1.setHandle(h2);
+		}
+		for (EditableInnerName i0 : redex.inners.values()) {
+			String name = i0.getName();
+			EditableInnerName i2 = new EditableInnerName(name);
+			// set replicated handle for i2
+			EditableHandle h0 = i0.getHandle();
+			// looks for an existing replica
+			EditableHandle h2 = rdx_hnd_dic.get(h0);
+			if (h2 == null) {
+				EditableHandle h1 = handle_img.get(h0);
+				if (h1 == null) {
+					// cache miss
+					Handle h = emb.getHandleImage(h0);
+					h1 = (h == null) ? new EditableEdge() : h.getEditable();
+					handle_img.put(h0, h1);
 				}
-				for (EditableOuterName o0 : redex.outers.values()) {
-					// replicate the handle
-					String name = o0.getName();
-					EditableOuterName o2 = new EditableOuterName(name);
-					rdx.outers.put(name, o2);
-					o2.setOwner(rdx);
-					rdx_hnd_dic.put(o0, o2);
-					// update ctx inner face
-					EditableInnerName i1 = new EditableInnerName(name);
-					ctx.inners.put(name, i1);
-					// find the handle for i1
-					EditableHandle h1 = handle_img.get(o0);
-					if (h1 == null) {
-						// cache miss
-						Map<Handle, IntVar> f_row = f_vars.get(o0);
-						for (Handle h : agent_handles) {
-							IntVar v = findVariable(f_row.get(h).getName(), 
-									model.getVars()).asIntVar();
-							if (v.getValue() == 1) {
-								h1 = h.getEditable();
-								break;
-							}
-						}
-						if (h1 == null) {
-							h1 = new EditableEdge();
-						}
-						handle_img.put(o0, h1);
-					}
-					EditableHandle h2 = ctx_hnd_dic.get(h1);
-					if (h2 == null) {
-						h2 = h1.replicate();
-						h2.setOwner(ctx);
-						ctx_hnd_dic.put(h1, h2);
+				h2 = h1.replicate();
+				h2.setOwner(rdx);
+				rdx_hnd_dic.put(h0, h2);
+			}
+			i2.setHandle(h2);
+			rdx.inners.put(name, i2);
+
+			EditableOuterName o2 = new EditableOuterName(name);
+			o2.setOwner(lmb);
+			lmb.outers.put(name, o2);
+		}
+		for (EditableRoot r0 : agent.roots) {
+			q.add(new VState(ctx, null, r0));
+		}
+		Collection<Root> unseen_rdx_roots = new LinkedList<>(
+				redex_roots);
+		while (!q.isEmpty()) {
+			VState v = q.poll();
+			if (v.b == ctx) {
+				// the entity visited belongs to the context
+				EditableParent p1 = (EditableParent) v.c;
+				EditableParent p2 = p1.replicate();
+				if (p1.isRoot()) {
+					// ordering is ensured by the queue
+					EditableRoot r2 = (EditableRoot) p2;
+					ctx.roots.add(r2);
+					r2.setOwner(ctx);
+				} else { // isNode()
+					EditableNode n1 = (EditableNode) p1;
+					// unseen_agt_nodes.remove(n1);
+					EditableNode n2 = (EditableNode) p2;
+					n2.setParent(v.p);
+					// replicate links from node ports
+					for (int i = n1.getControl().getArity() - 1; -1 < i; i--) {
+						EditablePort o = n1.getPort(i);
+						EditableHandle h1 = o.getHandle();
+						// looks for an existing replica
+						EditableHandle h2 = ctx_hnd_dic.get(h1);
+						if (h2 == null) {
+							h2 = h1.replicate();
+							h2.setOwner(ctx);
+							ctx_hnd_dic.put(h1, h2);
+						}
+						n2.getPort(i).setHandle(h2);
 					}
-					i1.setHandle(h2);
 				}
-				for (EditableInnerName i0 : redex.inners.values()) {
-					String name = i0.getName();
-					EditableInnerName i2 = new EditableInnerName(name);
-					// set replicated handle for i2
-					EditableHandle h0 = i0.getHandle();
-					// looks for an existing replica
-					EditableHandle h2 = rdx_hnd_dic.get(h0);
-					if (h2 == null) {
-						EditableHandle h1 = handle_img.get(h0);
-						if (h1 == null) {
-							// cache miss
-							Map<Handle, IntVar> f_row = f_vars.get(h0);
-							for (Handle h : agent_handles) {
-								IntVar v = findVariable(f_row.get(h).getName(), 
-										model.getVars()).asIntVar();
-								if (v.getValue() == 1) {
-									h1 = h.getEditable();
-									break;
+				// enqueue children, if necessary
+				Collection<Child> rcs = new HashSet<>(p1.getChildren());
+				Iterator<Root> ir = unseen_rdx_roots.iterator();
+				while (ir.hasNext()) {
+					Root r0 = ir.next();
+					// make a site for each root whose image is p1
+					if (emb.isPlaced(p1, r0)) {
+						// root_img.put(r0, p1);
+						ir.remove();
+						int k = redex_roots.indexOf(r0);
+						EditableSite s = new EditableSite();
+						s.setParent(p2);
+						ctx_sites_dic[k] = s;
+						EditableRoot r2 = new EditableRoot();
+						r2.setOwner(rdx);
+						rdx_roots_dic[k] = r2;
+						for (Child c0 : r0.getChildren()) {
+							Iterator<Child> ic = rcs.iterator();
+							boolean notMatched = true;
+							while (ic.hasNext()) {
+								Child c1 = ic.next();
+								if (emb.isPlaced(c1, c0)) {
+									notMatched = false;
+									q.add(new VState(rdx, r2, c1, c0));
+									ic.remove();
 								}
 							}
-							if (h1 == null) {
-								h1 = new EditableEdge();
+							if (notMatched && c0.isSite()) {
+								// closed site
+								q.add(new VState(rdx, r2, null, c0));
 							}
-							handle_img.put(h0, h1);
 						}
-						h2 = h1.replicate();
-						h2.setOwner(rdx);
-						rdx_hnd_dic.put(h0, h2);
 					}
-					i2.setHandle(h2);
-					rdx.inners.put(name, i2);
-
-					EditableOuterName o2 = new EditableOuterName(name);
-					o2.setOwner(lmb);
-					lmb.outers.put(name, o2);
 				}
-				for (EditableRoot r0 : agent.roots) {
-					q.add(new VState(ctx, null, r0));
+				for (Child c1 : rcs) {
+					q.add(new VState(ctx, p2, c1));
 				}
-				Collection<Root> unseen_rdx_roots = new LinkedList<>(
-						redex_roots);
-				while (!q.isEmpty()) {
-					VState v = q.poll();
-					if (v.b == ctx) {
-						// the entity visited belongs to the context
-						EditableParent p1 = (EditableParent) v.c;
-						EditableParent p2 = p1.replicate();
-						if (p1.isRoot()) {
-							// ordering is ensured by the queue
-							EditableRoot r2 = (EditableRoot) p2;
-							ctx.roots.add(r2);
-							r2.setOwner(ctx);
-						} else { // isNode()
-							EditableNode n1 = (EditableNode) p1;
-							// unseen_agt_nodes.remove(n1);
-							EditableNode n2 = (EditableNode) p2;
-							n2.setParent(v.p);
-							// replicate links from node ports
-							for (int i = n1.getControl().getArity() - 1; -1 < i; i--) {
-								EditablePort o = n1.getPort(i);
-								EditableHandle h1 = o.getHandle();
-								// looks for an existing replica
-								EditableHandle h2 = ctx_hnd_dic.get(h1);
-								if (h2 == null) {
-									h2 = h1.replicate();
-									h2.setOwner(ctx);
-									ctx_hnd_dic.put(h1, h2);
-								}
-								n2.getPort(i).setHandle(h2);
-							}
-						}
-						// enqueue children, if necessary
-						Collection<Child> rcs = new HashSet<>(p1.getChildren());
-						Map<PlaceEntity, IntVar> p_row = p_vars
-								.get(p1);
-						Iterator<Root> ir = unseen_rdx_roots.iterator();
-						while (ir.hasNext()) {
-							Root r0 = ir.next();
-							IntVar var = findVariable(p_row.get(r0).getName(), 
-								model.getVars()).asIntVar();
-							// make a site for each root whose image is p1
-							if (var.getValue() == 1) {
-								// root_img.put(r0, p1);
-								ir.remove();
-								int k = redex_roots.indexOf(r0);
-								EditableSite s = new EditableSite();
-								s.setParent(p2);
-								ctx_sites_dic[k] = s;
-								EditableRoot r2 = new EditableRoot();
-								r2.setOwner(rdx);
-								rdx_roots_dic[k] = r2;
-								for (Child c0 : r0.getChildren()) {
-									Iterator<Child> ic = rcs.iterator();
-									boolean notMatched = true;
-									while (ic.hasNext()) {
-										Child c1 = ic.next();
-										var = findVariable(p_vars.get(c1)
-												.get(c0).getName(), 
-												model.getVars()).asIntVar();
-										if (var.getValue() == 1) {
-											notMatched = false;
-											q.add(new VState(rdx, r2, c1, c0));
-											ic.remove();
-										}
-									}
-									if (notMatched && c0.isSite()) {
-										// closed site
-										q.add(new VState(rdx, r2, null, c0));
-									}
-								}
+			} else if (v.b == rdx) {
+				// the entity visited is the image of something in the
+				// redex
+				if (v.i.isNode()) {
+					EditableNode n0 = (EditableNode) v.i;
+					EditableNode n1 = (EditableNode) v.c;
+					EditableNode n2 = n1.replicate();
+					nEmb.put(n0, n1);
+					n2.setParent(v.p);
+					// replicate links from node ports
+					for (int i = n0.getControl().getArity() - 1; -1 < i; i--) {
+						EditablePort o0 = n0.getPort(i);
+						EditableHandle h0 = o0.getHandle();
+						// looks for an existing replica
+						EditableHandle h2 = rdx_hnd_dic.get(h0);
+						if (h2 == null) {
+							h2 = n1.getPort(i).getHandle().replicate();
+							h2.setOwner(rdx);
+							rdx_hnd_dic.put(h0, h2);
+						}
+						n2.getPort(i).setHandle(h2);
+					}
+					Collection<Child> cs1 = new HashSet<>(
+							n1.getChildren());
+					for (Child c0 : n0.getChildren()) {
+						Iterator<Child> ic = cs1.iterator();
+						boolean notMatched = true;
+						while (ic.hasNext()) {
+							Child c1 = ic.next();
+							if (emb.isPlaced(c1, c0)) {
+								notMatched = false;
+								q.add(new VState(rdx, n2, c1, c0));
+								ic.remove();
 							}
 						}
-						for (Child c1 : rcs) {
-							q.add(new VState(ctx, p2, c1));
-						}
-					} else if (v.b == rdx) {
-						// the entity visited is the image of something in the
-						// redex
-						if (v.i.isNode()) {
-							EditableNode n0 = (EditableNode) v.i;
-							EditableNode n1 = (EditableNode) v.c;
-							EditableNode n2 = n1.replicate();
-							nEmb.put(n0, n1);
-							n2.setParent(v.p);
-							// replicate links from node ports
-							for (int i = n0.getControl().getArity() - 1; -1 < i; i--) {
-								EditablePort o0 = n0.getPort(i);
-								EditableHandle h0 = o0.getHandle();
-								// looks for an existing replica
-								EditableHandle h2 = rdx_hnd_dic.get(h0);
-								if (h2 == null) {
-									h2 = n1.getPort(i).getHandle().replicate();
-									h2.setOwner(rdx);
-									rdx_hnd_dic.put(h0, h2);
-								}
-								n2.getPort(i).setHandle(h2);
-							}
-							Collection<Child> cs1 = new HashSet<>(
-									n1.getChildren());
-							for (Child c0 : n0.getChildren()) {
-								Iterator<Child> ic = cs1.iterator();
-								boolean notMatched = true;
-								while (ic.hasNext()) {
-									Child c1 = ic.next();
-									IntVar var = findVariable(p_vars.get(c1)
-											.get(c0).getName(), 
-											model.getVars()).asIntVar();
-									if (var.getValue() == 1) {
-										notMatched = false;
-										q.add(new VState(rdx, n2, c1, c0));
-										ic.remove();
-									}
-								}
-								if (notMatched && c0.isSite()) {
-									// closed site
-									q.add(new VState(rdx, n2, null, c0));
-								}
-							}
-						} else {
-							EditableSite s0 = (EditableSite) v.i;
-							int k = redex_sites.indexOf(s0);
-							if (rdx_sites_dic[k] == null) {
-								EditableSite s2 = new EditableSite();
-								s2.setParent(v.p);
-								rdx_sites_dic[k] = s2;
-							}
-							if (neededParam[k]) {
-								Bigraph prm = prms[k];
-								if (prm == null) {
-									prm = new Bigraph(agent.getSignature());
-									prm.roots.add(new EditableRoot(prm));
-									prms[k] = prm;
-									prms_hnd_dic
-											.put(prm,
-													new IdentityHashMap<Handle, EditableHandle>());
-								}
-								if (v.c != null)
-									q.add(new VState(prm, prm.roots.get(0), v.c));
-							}
+						if (notMatched && c0.isSite()) {
+							// closed site
+							q.add(new VState(rdx, n2, null, c0));
 						}
-					} else {
-						// the entity (node) visited belongs to some parameter
-						EditableNode n1 = (EditableNode) v.c;
-						EditableNode n2 = n1.replicate();
-						n2.setParent(v.p);
-						for (int i = n1.getControl().getArity() - 1; -1 < i; i--) {
+					}
+				} else {
+					EditableSite s0 = (EditableSite) v.i;
+					int k = redex_sites.indexOf(s0);
+					if (rdx_sites_dic[k] == null) {
+						EditableSite s2 = new EditableSite();
+						s2.setParent(v.p);
+						rdx_sites_dic[k] = s2;
+					}
+					if (neededParam[k]) {
+						Bigraph prm = prms[k];
+						if (prm == null) {
+							prm = new Bigraph(agent.getSignature());
+							prm.roots.add(new EditableRoot(prm));
+							prms[k] = prm;
+							prms_hnd_dic
+									.put(prm,
+											new IdentityHashMap<Handle, EditableHandle>());
+						}
+						if (v.c != null)
+							q.add(new VState(prm, prm.roots.get(0), v.c));
+					}
+				}
+			} else {
+				// the entity (node) visited belongs to some parameter
+				EditableNode n1 = (EditableNode) v.c;
+				EditableNode n2 = n1.replicate();
+				n2.setParent(v.p);
+				for (int i = n1.getControl().getArity() - 1; -1 < i; i--) {
+					/*
+					 * every handle with a point in the param is
+					 * translated into an outer and the necessary wiring
+					 * is delegated to the bigraph lambda.
+					 */
+					EditablePort p1 = n1.getPort(i);
+					EditablePort p2 = n2.getPort(i);
+
+					EditableHandle h2 = null;
+					Map<Handle, EditableHandle> hnd_dic = prms_hnd_dic
+							.get(v.b);
+
+					if (emb.isBypassing(p1)) {
+						/*
+						 * this port bypasses the redex, it is linked once
+						 * the whole context is replicated (see below).
+						 */
+						bypassing.add(p1);
+						bypassing.add(p2);
+						bypassing_prms.add(v.b);
+						continue;
+					}
+					for (InnerName i0 : redex.inners.values()) {
+						if (emb.isLinked(p1, i0)) {
 							/*
-							 * every handle with a point in the param is
-							 * translated into an outer and the necessary wiring
-							 * is delegated to the bigraph lambda.
+							 * this port is attached to the redex
+							 * inner i0. Add a fresh name to lambda
+							 * and this param and link it to i0 e p2
+							 * resp.
 							 */
-							EditablePort p1 = n1.getPort(i);
-							EditablePort p2 = n2.getPort(i);
-
-							EditableHandle h2 = null;
-							Map<Handle, EditableHandle> hnd_dic = prms_hnd_dic
-									.get(v.b);
-							Map<LinkEntity, IntVar> row = e_vars
-									.get(p1);
-							EditableHandle h1 = p1.getHandle();
-
-							IntVar var_tmp = findVariable(row.get(h1).getName(),
-									model.getVars()).asIntVar();
-							if (var_tmp.getValue() == 1) {
-								/*
-								 * this port bypasses the redex. Checks if the
-								 * handle already has an image in this parameter
-								 * otherwise creates a suitable name in the
-								 * parameter and in the wiring lambda. This may
-								 * require some additional step if the handle
-								 * already has an image in the context.
-								 */
-								h2 = hnd_dic.get(h1);
-								if (h2 == null) {
-									EditableHandle h3 = lmb_hnd_dic.get(h1);
-									if (h3 == null) {
-										EditableHandle h4 = ctx_hnd_dic.get(h1);
-										if (h4 != null) {
-											/*
-											 * h1 has an image in the context,
-											 * add an inner to it and link it
-											 * down to the parameter passing
-											 * through id e lmb.
-											 */
-											EditableInnerName i4 = new EditableInnerName();
-											i4.setHandle(h4);
-											String name = i4.getName();
-											ctx.inners.put(name, i4);
-											// add it also to id
-											EditableOuterName o5 = new EditableOuterName(
-													name);
-											o5.setOwner(id);
-											id.outers.put(name, o5);
-											EditableInnerName i5 = new EditableInnerName(
-													name);
-											i5.setHandle(o5);
-											id.inners.put(name, i5);
-											// and finally to lambda
-											EditableOuterName o3 = new EditableOuterName(
-													name);
-											lmb.outers.put(name, o3);
-											h3 = o3;
-										} else {
-											/*
-											 * this handle is not required by
-											 * the context, use an edge to
-											 * reduce the interface of id
-											 */
-											h3 = new EditableEdge();
-										}
-										h3.setOwner(lmb);
-										lmb_hnd_dic.put(h1, h3);
-									}
-									EditableInnerName i3 = new EditableInnerName(
-											h3);
-									String name = i3.getName();
-									lmb.inners.put(name, i3);
-									EditableOuterName o2 = new EditableOuterName(
-											name);
-									o2.setOwner(v.b);
-									v.b.outers.put(name, o2);
-									h2 = o2;
-									hnd_dic.put(h1, h2);
-								}
-							} else {
-								for (InnerName i0 : redex.inners.values()) {
-									IntVar var = findVariable(row.get(i0).getName(),
-										model.getVars()).asIntVar();
-									if (var.getValue() == 1) {
-										/*
-										 * this port is attached to the redex
-										 * inner i0. Add a fresh name to lambda
-										 * and this param and link it to i0 e p2
-										 * resp.
-										 */
-										EditableHandle h3 = lmb.outers.get(i0
-												.getName());
-										h2 = hnd_dic.get(h3);
-										if (h2 == null) {
-											EditableInnerName i3 = new EditableInnerName();
-											String name = i3.getName();
-											i3.setHandle(h3);
-											lmb.inners.put(name, i3);
-											EditableOuterName o2 = new EditableOuterName(
-													name);
-											o2.setOwner(v.b);
-											v.b.outers.put(name, o2);
-											h2 = o2;
-											hnd_dic.put(h3, o2);
-										}
-										break;
-									}
-								}
+							EditableHandle h3 = lmb.outers.get(i0
+									.getName());
+							h2 = hnd_dic.get(h3);
+							if (h2 == null) {
+								EditableInnerName i3 = new EditableInnerName();
+								String name = i3.getName();
+								i3.setHandle(h3);
+								lmb.inners.put(name, i3);
+								EditableOuterName o2 = new EditableOuterName(
+										name);
+								o2.setOwner(v.b);
+								v.b.outers.put(name, o2);
+								h2 = o2;
+								hnd_dic.put(h3, o2);
 							}
-							p2.setHandle(h2);
-						}
-						for (Child c1 : n1.getChildren()) {
-							q.add(new VState(v.b, n2, c1));
+							break;
 						}
 					}
+					p2.setHandle(h2);
 				}
-				ctx.sites.addAll(Arrays.asList(ctx_sites_dic));
-				rdx.sites.addAll(Arrays.asList(rdx_sites_dic));
-				rdx.roots.addAll(Arrays.asList(rdx_roots_dic));
-
-				if (DEBUG_CONSISTENCY_CHECK) {
-					if (!ctx.isConsistent()) {
-						throw new RuntimeException("Inconsistent bigraph (ctx)");
-					}
-					if (!rdx.isConsistent()) {
-						throw new RuntimeException("Inconsistent bigraph (rdx)");
-					}
-					if (!lmb.isConsistent()) {
-						throw new RuntimeException("Inconsistent bigraph (lmb)");
-					}
-					if (!id.isConsistent()) {
-						throw new RuntimeException("Inconsistent bigraph (id)");
-					}
-					for (int i = 0; i < rss; i++) {
-						if (neededParam[i] && !prms[i].isConsistent()) {
-							throw new RuntimeException(
-									"Inconsistent bigraph (prm " + i + ")");
-						}
+				for (Child c1 : n1.getChildren()) {
+					q.add(new VState(v.b, n2, c1));
+				}
+			}
+		}
+		/*
+		 * Ports of the parameters bypassing the redex are linked once the
+		 * whole context is replicated: the context may share their handles
+		 * only through nodes visited after them.
+		 */
+		for (int k = 0; k < bypassing.size(); k += 2) {
+			Bigraph b = bypassing_prms.get(k / 2);
+			Map<Handle, EditableHandle> hnd_dic = prms_hnd_dic.get(b);
+			EditableHandle h1 = bypassing.get(k).getHandle();
+			/*
+			 * Checks if the handle already has an image in this parameter
+			 * otherwise creates a suitable name in the parameter and in the
+			 * wiring lambda. This may require some additional step if the
+			 * handle already has an image in the context.
+			 */
+			EditableHandle h2 = hnd_dic.get(h1);
+			if (h2 == null) {
+				EditableHandle h3 = lmb_hnd_dic.get(h1);
+				if (h3 == null) {
+					EditableHandle h4 = ctx_hnd_dic.get(h1);
+					if (h4 != null) {
+						/*
+						 * h1 has an image in the context,
+						 * add an inner to it and link it
+						 * down to the parameter passing
+						 * through id e lmb.
+						 */
+						EditableInnerName i4 = new EditableInnerName();
+						i4.setHandle(h4);
+						String name = i4.getName();
+						ctx.inners.put(name, i4);
+						// add it also to id
+						EditableOuterName o5 = new EditableOuterName(
+								name);
+						o5.setOwner(id);
+						id.outers.put(name, o5);
+						EditableInnerName i5 = new EditableInnerName(
+								name);
+						i5.setHandle(o5);
+						id.inners.put(name, i5);
+						// and finally to lambda
+						EditableOuterName o3 = new EditableOuterName(
+								name);
+						lmb.outers.put(name, o3);
+						h3 = o3;
+					} else {
+						/*
+						 * this handle is not required by
+						 * the context, use an edge to
+						 * reduce the interface of id
+						 */
+						h3 = new EditableEdge();
 					}
+					h3.setOwner(lmb);
+					lmb_hnd_dic.put(h1, h3);
+				}
+				EditableInnerName i3 = new EditableInnerName(h3);
+				String name = i3.getName();
+				lmb.inners.put(name, i3);
+				EditableOuterName o2 = new EditableOuterName(name);
+				o2.setOwner(b);
+				b.outers.put(name, o2);
+				h2 = o2;
+				hnd_dic.put(h1, h2);
+			}
+			bypassing.get(k + 1).setHandle(h2);
+		}
+		ctx.sites.addAll(Arrays.asList(ctx_sites_dic));
+		rdx.sites.addAll(Arrays.asList(rdx_sites_dic));
+		rdx.roots.addAll(Arrays.asList(rdx_roots_dic));
+
+		if (DEBUG_CONSISTENCY_CHECK) {
+			if (!ctx.isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph (ctx)");
+			}
+			if (!rdx.isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph (rdx)");
+			}
+			if (!lmb.isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph (lmb)");
+			}
+			if (!id.isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph (id)");
+			}
+			for (int i = 0; i < rss; i++) {
+				if (neededParam[i] && !prms[i].isConsistent()) {
+					throw new RuntimeException(
+							"Inconsistent bigraph (prm " + i + ")");
 				}
-				this.nextMatch = new AgentMatch(ctx, rdx, id, lmb, prms, nEmb);
 			}
 		}
+		return new AgentMatch(ctx, rdx, id, lmb, prms, nEmb);
 	}
 }
@@ -1,6 +1,7 @@
 package it.uniud.mads.jlibbig.core.std;
 
 import java.util.*;
+import java.util.stream.*;
 
 import it.uniud.mads.jlibbig.core.exceptions.*;
 
@@ -95,6 +96,78 @@ public class AgentRewritingRule extends RewritingRule {
 		return new RewriteIterable(agent);
 	}
 
+	/**
+	 * Returns a stream of the results of applying the rule to the given
+	 * agent, yielding the same results of {@link #apply(Bigraph)}. Matches
+	 * are rewritten as the stream is consumed, hence short-circuiting
+	 * operations stop the search early.
+	 * 
+	 * @param agent
+	 *            the bigraph the rule is applied to.
+	 * @return a stream of the results.
+	 */
+	@Override
+	public Stream<Bigraph> applyStream(final Bigraph agent) {
+		if (!agent.isGround()) {
+			throw new UnsupportedOperationException(
+					"Agent should be a bigraph with empty inner interface i.e. ground.");
+		}
+		if (!agent.signature.equals(redex.signature)) {
+			throw new IncompatibleSignatureException(
+					"Agent and redex should have the same singature.",
+					agent.getSignature(), redex.getSignature());
+		}
+		return StreamSupport.stream(
+				() -> Spliterators.<AgentMatch> spliteratorUnknownSize(matcher
+						.match(agent, compiledRedex, neededParam).iterator(),
+						MatchSpliterator.CHARACTERISTICS),
+				MatchSpliterator.CHARACTERISTICS, false).map(this::rewriteOf);
+	}
+
+	/*
+	 * Rewrites the occurrence of the redex described by the match.
+	 */
+	private Bigraph rewriteOf(AgentMatch match) {
+		if (DEBUG_PRINT_MATCH)
+			System.out.println(match);
+
+		BigraphBuilder bb = new BigraphBuilder(redex.getSignature());
+		for (int i = eta.getPlaceDomain() - 1; 0 <= i; i--) {
+			bb.leftJuxtapose(match.getParams().get(eta.getPlaceInstance(i)),
+					!cloneParam[i]);
+		}
+		Bigraph lambda = match.getParamWiring();
+		for (EditableInnerName n : lambda.inners.values()) {
+			if (!bb.containsOuterName(n.getName())) {
+				lambda.inners.remove(n.getName());
+				n.setHandle(null);
+			}
+		}
+		for (int i = eta.getPlaceCodomain() - eta.getPlaceDomain(); i > 0; i--) {
+			lambda.roots.remove(0);
+			lambda.sites.remove(0);
+		}
+		for (int i = eta.getPlaceDomain() - eta.getPlaceCodomain(); i > 0; i--) {
+			EditableRoot r = new EditableRoot();
+			r.setOwner(lambda);
+			EditableSite s = new EditableSite(r);
+			lambda.roots.add(r);
+			lambda.sites.add(s);
+		}
+		bb.outerCompose(lambda, true);
+		Bigraph inreact = instantiateReactum(match);
+		inreact = Bigraph.juxtapose(inreact, match.getRedexId());
+		bb.outerCompose(inreact, true);
+		bb.outerCompose(match.getContext(), true);
+		Bigraph result = bb.makeBigraph(true);
+		if (DEBUG_PRINT_RESULT)
+			System.out.println(result);
+		if (DEBUG_CONSISTENCY_CHECK && !result.isConsistent()) {
+			throw new RuntimeException("Inconsistent bigraph");
+		}
+		return result;
+	}
+
 	private class RewriteIterable implements Iterable<Bigraph> {
 
 		private final Bigraph target;
@@ -108,7 +181,7 @@ public class AgentRewritingRule extends RewritingRule {
 		@Override
 		public Iterator<Bigraph> iterator() {
 			if (mAble == null)
-				mAble = matcher.match(target, redex, neededParam);
+				mAble = matcher.match(target, compiledRedex, neededParam);
 			return new RewriteIterator();
 		}
 
@@ -128,46 +201,7 @@ public class AgentRewritingRule extends RewritingRule {
 				if (!hasNext()) {
 					throw new NoSuchElementException();
 				}
-				AgentMatch match = mTor.next();
-
-				if (DEBUG_PRINT_MATCH)
-					System.out.println(match);
-
-				BigraphBuilder bb = new BigraphBuilder(redex.getSignature());
-				for (int i = eta.getPlaceDomain() - 1; 0 <= i; i--) {
-					bb.leftJuxtapose(match.params.get(eta.getPlaceInstance(i)),
-							!cloneParam[i]);
-				}
-				Bigraph lambda = match.getParamWiring();
-				for (EditableInnerName n : lambda.inners.values()) {
-					if (!bb.containsOuterName(n.getName())) {
-						lambda.inners.remove(n.getName());
-						n.setHandle(null);
-					}
-				}
-				for (int i = eta.getPlaceCodomain() - eta.getPlaceDomain(); i > 0; i--) {
-					lambda.roots.remove(0);
-					lambda.sites.remove(0);
-				}
-				for (int i = eta.getPlaceDomain() - eta.getPlaceCodomain(); i > 0; i--) {
-					EditableRoot r = new EditableRoot();
-					r.setOwner(lambda);
-					EditableSite s = new EditableSite(r);
-					lambda.roots.add(r);
-					lambda.sites.add(s);
-				}
-				bb.outerCompose(lambda, true);
-				Bigraph inreact = instantiateReactum(match);
-				inreact = Bigraph.juxtapose(inreact, match.getRedexId());
-				bb.outerCompose(inreact, true);
-				bb.outerCompose(match.getContext(), true);
-				Bigraph result = bb.makeBigraph(true);
-				if (DEBUG_PRINT_RESULT)
-					System.out.println(result);
-				if (DEBUG_CONSISTENCY_CHECK && !result.isConsistent()) {
-					throw new RuntimeException("Inconsistent bigraph");
-				}
-				return result;
+				return rewriteOf(mTor.next());
 			}
 
 			@Override
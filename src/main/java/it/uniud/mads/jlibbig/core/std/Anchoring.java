@@ -0,0 +1,172 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+import it.uniud.mads.jlibbig.core.exceptions.UnexpectedOwnerException;
+
+/*
+ * Restricts where the matches of a redex may occur in an agent. Anchors are
+ * agent roots or nodes: redex roots may be hosted only by active parents in
+ * the subtree of some anchor (the anchor included), hence the whole occurrence
+ * lies below the anchors. Besides, some redex nodes may be given the agent
+ * nodes they may be placed on; a redex root is then hosted only by the agent
+ * parents allowing these placements (cf. Matcher#hostOf). A pinned search
+ * is the special case of a single redex node placed on a single agent node.
+ *
+ * Candidate hosts are computed visiting the anchored subtrees only, so that
+ * searches confined to a region of the agent do not depend on its size.
+ */
+final class Anchoring {
+
+	// parents allowed to host redex roots or null if any active one is
+	private final List<Parent> hosts;
+	private final Set<Parent> host_set;
+	// anchored redex nodes and the agent nodes they may be placed on
+	private final List<Node> anchored = new ArrayList<>();
+	private final Map<Node, List<Node>> images = new IdentityHashMap<>();
+	private final Map<Node, Set<Node>> image_sets = new IdentityHashMap<>();
+
+	private Anchoring(Node pin, Node image) {
+		this.hosts = null;
+		this.host_set = null;
+		anchor(pin, Collections.singletonList(image));
+	}
+
+	Anchoring(Bigraph agent, Bigraph redex,
+			Collection<? extends Parent> anchors,
+			Map<? extends Node, ? extends Collection<? extends Node>> placements) {
+		if (anchors == null) {
+			this.hosts = null;
+			this.host_set = null;
+		} else {
+			this.hosts = new ArrayList<>();
+			this.host_set = Collections
+					.newSetFromMap(new IdentityHashMap<Parent, Boolean>());
+			Deque<Parent> q = new ArrayDeque<>();
+			for (Parent p : anchors) {
+				assertOwner(p, agent, "Anchors");
+				if (isActive(p))
+					q.add(p);
+				while (!q.isEmpty()) {
+					Parent f = q.poll();
+					if (!host_set.add(f))
+						continue;
+					hosts.add(f);
+					for (Child c : f.getChildren()) {
+						if (c.isNode() && ((Node) c).getControl().isActive()) {
+							q.add((Node) c);
+						}
+					}
+				}
+			}
+		}
+		if (placements != null) {
+			for (Map.Entry<? extends Node, ? extends Collection<? extends Node>> e : placements
+					.entrySet()) {
+				assertOwner(e.getKey(), redex, "Anchored nodes");
+				if (e.getValue() == null) {
+					throw new IllegalArgumentException(
+							"Arguments can not be null.");
+				}
+				for (Node n : e.getValue()) {
+					assertOwner(n, agent, "Images");
+				}
+				anchor(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	/*
+	 * The redex node pin is placed on the agent node image.
+	 */
+	static Anchoring pin(Node pin, Node image) {
+		return new Anchoring(pin, image);
+	}
+
+	private void anchor(Node j, Collection<? extends Node> is) {
+		List<Node> ns = new ArrayList<Node>(is);
+		Set<Node> s = Collections
+				.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+		s.addAll(ns);
+		anchored.add(j);
+		images.put(j, ns);
+		image_sets.put(j, s);
+	}
+
+	private static void assertOwner(Parent p, Bigraph big, String obj) {
+		if (p == null) {
+			throw new IllegalArgumentException(obj + " can not be null.");
+		}
+		if (p.getEditable().getOwner() != big) {
+			throw new UnexpectedOwnerException(obj
+					+ " should be owned by the bigraph they refer to.");
+		}
+	}
+
+	/*
+	 * Tells whether the parent and its ancestors are active, i.e. whether
+	 * the parent may host redex roots.
+	 */
+	private static boolean isActive(Parent p) {
+		while (p.isNode()) {
+			Node n = (Node) p;
+			if (!n.getControl().isActive())
+				return false;
+			p = n.getParent();
+		}
+		return true;
+	}
+
+	/*
+	 * Returns the agent parents allowed by the anchors to host redex roots,
+	 * or null if there are no anchors.
+	 */
+	List<Parent> hosts() {
+		return hosts;
+	}
+
+	/*
+	 * Returns the agent parents that may host the given redex root, or null
+	 * if no node below it is anchored. Hosts are the ones allowing every
+	 * anchored node below the root to be placed on one of its images.
+	 */
+	List<Parent> hostsOf(Root root) {
+		List<Parent> fs = null;
+		Set<Parent> prev = null;
+		for (Node j : anchored) {
+			Parent g = j.getParent();
+			while (g.isNode())
+				g = ((Node) g).getParent();
+			if (g != root)
+				continue;
+			List<Parent> hs = new ArrayList<>();
+			Set<Parent> seen = Collections
+					.newSetFromMap(new IdentityHashMap<Parent, Boolean>());
+			for (Node i : images.get(j)) {
+				Parent h = Matcher.hostOf(j, i);
+				if (h != null && (host_set == null || host_set.contains(h))
+						&& (prev == null || prev.contains(h)) && seen.add(h))
+					hs.add(h);
+			}
+			fs = hs;
+			prev = seen;
+		}
+		return fs;
+	}
+
+	/*
+	 * Returns the agent nodes the given redex node may be placed on, or null
+	 * if it is not anchored.
+	 */
+	List<Node> imagesOf(Node j) {
+		return images.get(j);
+	}
+
+	/*
+	 * Tells whether the redex child may be placed on the agent child.
+	 */
+	boolean admits(Child j, Child i) {
+		Set<Node> s = image_sets.get(j);
+		return s == null || s.contains(i);
+	}
+}
@@ -0,0 +1,1052 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+
+/**
+ * Provides services for computing matches of bigraphs with abstract internal
+ * names; matches are described by {@link Match}.
+ *
+ * Unlike {@link Matcher}, which encodes the matching problem into a CSP, this
+ * matcher looks for embeddings of the redex by a candidate-driven backtracking
+ * search over the place and link graphs of the agent: redex roots are assigned
+ * to agent roots or nodes in an active context, redex nodes are mapped to
+ * children of the image of their parent, the remaining children are
+ * distributed among sites and finally the wiring of the parameters is decided.
+ * The search does not build any model whose size depends on the product of
+ * agent and redex sizes and hence it is better suited for small redexes and
+ * large agents. Matches are the same found by {@link Matcher} (although they
+ * may be enumerated in a different order) and therefore instances of this
+ * class can be used wherever a {@link Matcher} is expected, e.g. by
+ * {@link RewritingRule#setMatcher}.
+ *
+ * The field {@link #DEFAULT} refers to a default instance of the matcher.
+ *
+ * The standard matching of nodes can be changed by re-implementing the
+ * protected method {@link #areMatchable}.
+ *
+ * Search strategies and restarts of {@link MatcherOptions} are ignored,
+ * whereas limits count the options tried at each choice point as nodes and
+ * those rejected as failures.
+ */
+public class BacktrackingMatcher extends Matcher {
+
+	/**
+	 * The default instance of the matcher.
+	 */
+	public final static BacktrackingMatcher DEFAULT = new BacktrackingMatcher();
+
+	/**
+	 * Creates a matcher with the default options (cf.
+	 * {@link MatcherOptions#DEFAULT}).
+	 */
+	public BacktrackingMatcher() {
+		super();
+	}
+
+	/**
+	 * Creates a matcher with the given options describing the limits of its
+	 * searches.
+	 *
+	 * @param options
+	 *            the options of the matcher.
+	 */
+	public BacktrackingMatcher(MatcherOptions options) {
+		super(options);
+	}
+
+	@Override
+	public Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex) {
+		if (!mayOccur(agent, redex))
+			return Collections.<Match> emptyList();
+		RedexComponents cs = componentsOf(agent, redex);
+		if (cs != null)
+			return cs.match(this, agent);
+		return new MatchIterable(agent, redex);
+	}
+
+	@Override
+	public boolean exists(Bigraph agent, Bigraph redex) {
+		return count(agent, redex, 1) > 0;
+	}
+
+	@Override
+	public int count(Bigraph agent, Bigraph redex, int bound) {
+		if (bound < 0) {
+			throw new IllegalArgumentException(
+					"The bound should be a non-negative integer.");
+		}
+		CompiledRedex compiled = new CompiledRedex(redex);
+		if (!mayOccur(agent, compiled))
+			return 0;
+		RedexComponents cs = componentsOf(agent, compiled);
+		if (cs != null)
+			return cs.count(this, agent, bound);
+		MatchIterable it = new MatchIterable(agent, compiled);
+		Search search = new Search(it.agent, it.redex, null, null, null);
+		int count = 0;
+		while (count < bound && search.nextSolution()) {
+			count++;
+		}
+		search.end();
+		return count;
+	}
+
+	@Override
+	public Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex,
+			Collection<? extends Parent> anchors,
+			Map<? extends Node, ? extends Collection<? extends Node>> placements) {
+		if (agent == null || redex == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		if (anchors == null && placements == null)
+			return match(agent, redex);
+		Anchoring anchoring = new Anchoring(agent, redex.redex, anchors,
+				placements);
+		if (!mayOccur(agent, redex))
+			return Collections.<Match> emptyList();
+		return new MatchIterable(agent, redex, anchoring, null);
+	}
+
+	@Override
+	Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex,
+			Node pin, Node image, AgentIndex index) {
+		return new MatchIterable(agent, redex, Anchoring.pin(pin, image),
+				index);
+	}
+
+	@Override
+	Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex,
+			AgentIndex index) {
+		if (!matchesByControl || componentsOf(agent, redex) != null)
+			return match(agent, redex);
+		if (!mayOccur(agent, redex))
+			return Collections.<Match> emptyList();
+		return new MatchIterable(agent, redex, null, index);
+	}
+
+	@Override
+	Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex,
+			SearchControl.Budget budget) {
+		if (!matchesByControl || budget == null)
+			return match(agent, redex);
+		if (!mayOccur(agent, redex))
+			return Collections.<Match> emptyList();
+		return new MatchIterable(agent, redex, null, null, budget);
+	}
+
+	private class MatchIterable implements Iterable<Match> {
+
+		final Bigraph agent;
+		final CompiledRedex redex;
+		final Anchoring anchoring;
+		final AgentIndex index;
+		final SearchControl.Budget budget;
+
+		private MatchIterable(Bigraph agent, CompiledRedex redex) {
+			this(agent, redex, null, null);
+		}
+
+		private MatchIterable(Bigraph agent, CompiledRedex redex,
+				Anchoring anchoring, AgentIndex index) {
+			this(agent, redex, anchoring, index, null);
+		}
+
+		private MatchIterable(Bigraph agent, CompiledRedex redex,
+				Anchoring anchoring, AgentIndex index,
+				SearchControl.Budget budget) {
+			if (!agent.signature.equals(redex.redex.signature)) {
+				throw new UnsupportedOperationException(
+						"Agent and redex should have the same singature.");
+			}
+			this.agent = agent;
+			this.redex = redex;
+			this.anchoring = anchoring;
+			this.index = index;
+			this.budget = budget;
+		}
+
+		@Override
+		public Iterator<Match> iterator() {
+			return new MatchIterator(new Search(agent, redex, anchoring, index,
+					budget));
+		}
+	}
+
+	private class MatchIterator implements Iterator<Match> {
+
+		private final Search search;
+		private boolean mayHaveNext = true;
+		private Match nextMatch = null;
+
+		MatchIterator(Search search) {
+			this.search = search;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (mayHaveNext && nextMatch == null) {
+				if (search.nextSolution()) {
+					MatchStats stats = search.stats;
+					long t = (stats == null) ? 0 : System.nanoTime();
+					nextMatch = new Match(search.agent, search.redex,
+							search.snapshot());
+					if (stats != null)
+						stats.recordExtraction(System.nanoTime() - t);
+				} else {
+					mayHaveNext = false;
+				}
+			}
+			return nextMatch != null;
+		}
+
+		@Override
+		public Match next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Match res = nextMatch;
+			nextMatch = null;
+			return res;
+		}
+
+		@Override
+		public void remove() throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("");
+		}
+	}
+
+	/*
+	 * The state of the search for embeddings of a redex into an agent. The
+	 * search is organised as a stack of levels each of them deciding a single
+	 * choice point (e.g. the image of a redex node) given the choices made by
+	 * the levels below; levels are instantiated lazily since the choice points
+	 * of the later phases depend on the earlier ones. Whenever the top level
+	 * has no successor, the state describes an embedding.
+	 */
+	private class Search implements Embedding {
+
+		final Bigraph agent, redex;
+
+		// redex structure is taken from its compiled form
+		final CompiledRedex compiled;
+		final List<? extends Root> redex_roots;
+		// redex nodes sorted such that parents come before their children
+		final List<Node> redex_nodes;
+		final List<InnerName> redex_inners;
+		final List<OuterName> redex_idle_outers;
+		// redex edges with some inner name
+		final Set<Handle> redex_edge_inners;
+		final Map<PlaceEntity, Integer> redex_idx;
+		final Map<Parent, List<Node>> redex_node_children;
+		final Map<Parent, List<Site>> redex_site_children;
+
+		// agent roots and nodes in an active context, computed on demand
+		private List<Parent> agent_hosts;
+		// if not null, agent information shared with other searches
+		private final AgentIndex index;
+		// idle agent handles, candidates for idle redex outer names
+		final List<Handle> agent_idle_handles;
+
+		// if not null, where the redex may be placed in the agent
+		final Anchoring anchoring;
+
+		// place embedding
+		final Parent[] hosts;
+		final Node[] images;
+		// agent children to the redex node or site they are placed on
+		final Map<Child, PlaceEntity> placement = new IdentityHashMap<>();
+		// hosts and their ancestors, hence entities belonging to the context
+		final Map<PlaceEntity, Integer> host_ancs = new IdentityHashMap<>();
+		// top-level entities of the parameters
+		final Deque<Child> param_tops = new ArrayDeque<>();
+
+		// link embedding
+		final Map<Handle, Handle> handle_img = new IdentityHashMap<>();
+		final Map<Handle, Integer> handle_refs = new IdentityHashMap<>();
+		final Map<Handle, Handle> edge_pre = new IdentityHashMap<>();
+		final Map<Handle, Integer> outer_pre = new IdentityHashMap<>();
+		final Map<Point, InnerName> inner_links = new IdentityHashMap<>();
+		// redex inner names already reached by some port
+		final Set<InnerName> inner_ports = Collections
+				.newSetFromMap(new IdentityHashMap<InnerName, Boolean>());
+
+		private final Deque<Level> stack = new ArrayDeque<>();
+		private boolean started = false;
+
+		// limits and effort spent so far, charged to the budget at the end
+		private final MatcherOptions options = getOptions();
+		private final boolean limited = SearchControl.isLimited(options);
+		private SearchControl.Budget budget;
+		private long nodes = 0, fails = 0, backtracks = 0;
+		// statistics of the search, if there is a listener
+		final MatchStats stats;
+		// whether images of the symmetry classes of the redex are sorted
+		private final boolean sorted = options.hasSymmetryBreaking();
+
+		Search(Bigraph agent, CompiledRedex redex, Anchoring anchoring,
+				AgentIndex index, SearchControl.Budget budget) {
+			this.stats = SearchControl.newStats(options,
+					BacktrackingMatcher.this, redex.redex);
+			long t = (stats == null) ? 0 : System.nanoTime();
+			this.agent = agent;
+			this.redex = redex.redex;
+			this.anchoring = anchoring;
+			this.index = index;
+			this.budget = budget;
+
+			this.compiled = redex;
+			this.redex_roots = redex.roots;
+			this.redex_nodes = redex.nodes;
+			this.redex_inners = redex.inners;
+			this.redex_idle_outers = redex.idle_outers;
+			this.redex_edge_inners = redex.edge_inners;
+			this.redex_idx = redex.index;
+			this.redex_node_children = redex.node_children;
+			this.redex_site_children = redex.site_children;
+
+			if (redex_idle_outers.isEmpty()) {
+				this.agent_idle_handles = Collections.emptyList();
+			} else if (index != null) {
+				this.agent_idle_handles = index.idleHandles();
+			} else {
+				this.agent_idle_handles = AgentIndex.idleHandles(agent);
+			}
+
+			this.hosts = new Parent[redex_roots.size()];
+			this.images = new Node[redex_nodes.size()];
+			if (stats != null)
+				stats.recordModel(0, 0, System.nanoTime() - t);
+		}
+
+		private List<Parent> agentHosts() {
+			if (agent_hosts == null && anchoring != null)
+				agent_hosts = anchoring.hosts();
+			if (agent_hosts == null)
+				agent_hosts = (index == null) ? activeParents(agent) : index
+						.hosts();
+			return agent_hosts;
+		}
+
+		/*
+		 * Moves to the next embedding, if any. The first invocation starts the
+		 * search whereas the following ones resume it from the last embedding
+		 * found.
+		 */
+		boolean nextSolution() {
+			if (stats == null)
+				return findNext();
+			long t = System.nanoTime();
+			boolean found = false;
+			try {
+				found = findNext();
+			} finally {
+				stats.recordSolve(found, System.nanoTime() - t, nodes,
+						backtracks, fails);
+				if (!found)
+					stats.recordEnd();
+			}
+			return found;
+		}
+
+		/*
+		 * Ends the search before all the embeddings are found.
+		 */
+		void end() {
+			if (stats != null)
+				stats.recordEnd();
+		}
+
+		private boolean findNext() {
+			if (stack.isEmpty()) {
+				if (started)
+					return false;
+				started = true;
+				if (limited && budget == null)
+					budget = new SearchControl.Budget(options);
+				stack.push(firstLevel());
+			}
+			while (!stack.isEmpty()) {
+				if (limited && budget.isExceeded(nodes, fails)) {
+					stack.clear();
+					throw budget.limitReached(nodes, fails);
+				}
+				Level l = stack.peek();
+				if (l.advance()) {
+					Level n = l.next();
+					if (n == null)
+						return true;
+					stack.push(n);
+				} else {
+					stack.pop();
+					backtracks++;
+				}
+			}
+			if (budget != null)
+				budget.charge(nodes, fails);
+			return false;
+		}
+
+		private Level firstLevel() {
+			if (!redex_roots.isEmpty())
+				return new RootLevel(0);
+			return new ImageLevel();
+		}
+
+		/*
+		 * Every child of an image which is not an image itself goes in one of
+		 * the sites of the corresponding redex node whereas children of hosts
+		 * can also stay in the context.
+		 */
+		private Level placementLevels() {
+			List<Child> cs = new ArrayList<>();
+			List<List<Site>> ss = new ArrayList<>();
+			List<Boolean> ctx = new ArrayList<>();
+			for (int i = 0; i < images.length; i++) {
+				List<Site> sites = redex_site_children.get(redex_nodes.get(i));
+				for (Child c : images[i].getChildren()) {
+					if (!placement.containsKey(c)) {
+						// there are sites, otherwise the image was rejected
+						cs.add(c);
+						ss.add(sites);
+						ctx.add(false);
+					}
+				}
+			}
+			Map<Parent, List<Site>> host_sites = new IdentityHashMap<>();
+			List<Parent> hs = new ArrayList<>();
+			for (int i = 0; i < hosts.length; i++) {
+				List<Site> sites = host_sites.get(hosts[i]);
+				if (sites == null) {
+					sites = new ArrayList<>();
+					host_sites.put(hosts[i], sites);
+					hs.add(hosts[i]);
+				}
+				sites.addAll(redex_site_children.get(redex_roots.get(i)));
+			}
+			for (Parent h : hs) {
+				List<Site> sites = host_sites.get(h);
+				if (sites.isEmpty())
+					continue;
+				for (Child c : h.getChildren()) {
+					if (!placement.containsKey(c) && !host_ancs.containsKey(c)) {
+						cs.add(c);
+						ss.add(sites);
+						ctx.add(true);
+					}
+				}
+			}
+			if (cs.isEmpty())
+				return new ParamLevel();
+			return new PlaceLevel(cs, ss, ctx, 0);
+		}
+
+		private Level pointLevels(List<Point> points) {
+			if (points.isEmpty())
+				return new CheckLevel();
+			return new PointLevel(points, 0);
+		}
+
+		private Level idleLevels(int index) {
+			if (index < redex_idle_outers.size())
+				return new IdleLevel(index);
+			return null;
+		}
+
+		/*
+		 * Maps the redex handle to the agent one, as required by some point
+		 * of the agent attached to the redex handle. Returns false if this
+		 * contradicts previous choices.
+		 */
+		private boolean link(Handle hr, Handle ha) {
+			Handle h = handle_img.get(hr);
+			if (h != null) {
+				if (h != ha)
+					return false;
+				handle_refs.put(hr, handle_refs.get(hr) + 1);
+				return true;
+			}
+			if (hr.isEdge()) {
+				// edges are mapped injectively to edges
+				if (ha.isOuterName() || edge_pre.containsKey(ha)
+						|| outer_pre.containsKey(ha))
+					return false;
+				edge_pre.put(ha, hr);
+			} else {
+				if (edge_pre.containsKey(ha))
+					return false;
+				Integer n = outer_pre.get(ha);
+				outer_pre.put(ha, (n == null) ? 1 : n + 1);
+			}
+			handle_img.put(hr, ha);
+			handle_refs.put(hr, 1);
+			return true;
+		}
+
+		private void unlink(Handle hr) {
+			int n = handle_refs.get(hr) - 1;
+			if (n > 0) {
+				handle_refs.put(hr, n);
+				return;
+			}
+			handle_refs.remove(hr);
+			Handle ha = handle_img.remove(hr);
+			if (hr.isEdge()) {
+				edge_pre.remove(ha);
+			} else {
+				int m = outer_pre.get(ha) - 1;
+				if (m > 0)
+					outer_pre.put(ha, m);
+				else
+					outer_pre.remove(ha);
+			}
+		}
+
+		@Override
+		public boolean isPlaced(PlaceEntity fromAgent, PlaceEntity fromRedex) {
+			if (fromRedex.isRoot())
+				return hosts[redex_idx.get(fromRedex)] == fromAgent;
+			return placement.get(fromAgent) == fromRedex;
+		}
+
+		@Override
+		public Handle getHandleImage(Handle fromRedex) {
+			return handle_img.get(fromRedex);
+		}
+
+		@Override
+		public boolean isBypassing(Point fromAgent) {
+			return !inner_links.containsKey(fromAgent);
+		}
+
+		@Override
+		public boolean isLinked(Point fromAgent, InnerName fromRedex) {
+			return inner_links.get(fromAgent) == fromRedex;
+		}
+
+		/*
+		 * Records the current embedding so that the match can be built after
+		 * the search moves on.
+		 */
+		Embedding snapshot() {
+			SolvedEmbedding emb = new SolvedEmbedding();
+			for (int i = 0; i < hosts.length; i++) {
+				emb.place(hosts[i], redex_roots.get(i));
+			}
+			for (Map.Entry<Child, PlaceEntity> e : placement.entrySet()) {
+				emb.place(e.getKey(), e.getValue());
+			}
+			for (Map.Entry<Handle, Handle> e : handle_img.entrySet()) {
+				emb.mapHandle(e.getKey(), e.getValue());
+			}
+			for (Map.Entry<Point, InnerName> e : inner_links.entrySet()) {
+				emb.link(e.getKey(), e.getValue());
+			}
+			return emb;
+		}
+
+		/*
+		 * A choice point of the search. Options are tried in order and
+		 * applying an option has to leave the state unchanged when it fails.
+		 */
+		private abstract class Level {
+			private int cursor = -1;
+
+			abstract int size();
+
+			abstract boolean apply(int option);
+
+			abstract void undo(int option);
+
+			abstract Level next();
+
+			boolean advance() {
+				if (cursor >= 0)
+					undo(cursor);
+				while (++cursor < size()) {
+					nodes++;
+					if (apply(cursor))
+						return true;
+					fails++;
+				}
+				return false;
+			}
+		}
+
+		/*
+		 * Chooses the agent root or node hosting the index-th redex root.
+		 */
+		private class RootLevel extends Level {
+			final int index;
+			final Root root;
+			final List<Parent> candidates;
+
+			RootLevel(int index) {
+				this.index = index;
+				this.root = redex_roots.get(index);
+				List<Node> ns = redex_node_children.get(root);
+				List<Parent> hs = (anchoring == null) ? null : anchoring
+						.hostsOf(root);
+				if (hs != null) {
+					// anchored nodes (e.g. a pin) leave few candidates
+					this.candidates = hs;
+				} else if (ns.isEmpty()) {
+					this.candidates = agentHosts();
+				} else {
+					// only parents of some candidate for the first child
+					Node g = ns.get(0);
+					Set<Parent> ps = Collections
+							.newSetFromMap(new IdentityHashMap<Parent, Boolean>());
+					// unless areMatchable is overridden, candidates share the
+					// control of g and are looked up in the agent index
+					Collection<? extends Node> fs = agent.getNodes();
+					if (matchesByControl)
+						fs = agent.getNodes(g.getControl());
+					for (Node f : fs) {
+						if (isCandidate(f, g))
+							ps.add(f.getParent());
+					}
+					this.candidates = new ArrayList<>(ps.size());
+					for (Parent p : agentHosts()) {
+						if (ps.contains(p))
+							candidates.add(p);
+					}
+				}
+			}
+
+			@Override
+			int size() {
+				return candidates.size();
+			}
+
+			@Override
+			boolean apply(int option) {
+				Parent h = candidates.get(option);
+				if (h.getChildren().size() < redex_node_children.get(root)
+						.size())
+					return false;
+				hosts[index] = h;
+				addHostAncestor(h);
+				if (h.isNode()) {
+					for (Parent p : agent.getAncestors((Node) h))
+						addHostAncestor(p);
+				}
+				return true;
+			}
+
+			@Override
+			void undo(int option) {
+				Parent h = hosts[index];
+				hosts[index] = null;
+				removeHostAncestor(h);
+				if (h.isNode()) {
+					for (Parent p : agent.getAncestors((Node) h))
+						removeHostAncestor(p);
+				}
+			}
+
+			@Override
+			Level next() {
+				if (index + 1 < redex_roots.size())
+					return new RootLevel(index + 1);
+				if (!redex_nodes.isEmpty())
+					return new NodeLevel(0);
+				return new ImageLevel();
+			}
+		}
+
+		private void addHostAncestor(PlaceEntity p) {
+			Integer n = host_ancs.get(p);
+			host_ancs.put(p, (n == null) ? 1 : n + 1);
+		}
+
+		private void removeHostAncestor(PlaceEntity p) {
+			int n = host_ancs.get(p) - 1;
+			if (n > 0)
+				host_ancs.put(p, n);
+			else
+				host_ancs.remove(p);
+		}
+
+		private boolean isCandidate(Node fromAgent, Node fromRedex) {
+			return fromAgent.getControl().getArity() >= fromRedex.getControl()
+					.getArity()
+					&& areMatchable(agent, fromAgent, redex, fromRedex);
+		}
+
+		/*
+		 * Chooses the image of the index-th redex node among the children of
+		 * the image of its parent.
+		 */
+		private class NodeLevel extends Level {
+			final int index;
+			final Node node;
+			final List<Child> candidates;
+
+			NodeLevel(int index) {
+				this.index = index;
+				this.node = redex_nodes.get(index);
+				Parent p = node.getParent();
+				Parent f = p.isRoot() ? hosts[redex_idx.get(p)]
+						: images[redex_idx.get(p)];
+				List<Node> is = (anchoring == null) ? null : anchoring
+						.imagesOf(node);
+				if (is == null) {
+					this.candidates = new ArrayList<>(f.getChildren());
+				} else {
+					// an anchored node is placed only on its images
+					this.candidates = new ArrayList<>();
+					for (Node i : is) {
+						if (i.getParent() == f)
+							candidates.add(i);
+					}
+				}
+			}
+
+			@Override
+			int size() {
+				return candidates.size();
+			}
+
+			@Override
+			boolean apply(int option) {
+				Child c = candidates.get(option);
+				if (!c.isNode() || placement.containsKey(c)
+						|| host_ancs.containsKey(c))
+					return false;
+				Node f = (Node) c;
+				if (!isCandidate(f, node))
+					return false;
+				if (sorted) {
+					int k = compiled.symmetricPredecessor(index);
+					if (k >= 0 && CompiledRedex.compareImages(images[k], f) >= 0)
+						return false;
+				}
+				// every child of f is either an image or in some site
+				int m = f.getChildren().size();
+				int n = redex_node_children.get(node).size();
+				if (m < n || (m > n && redex_site_children.get(node).isEmpty()))
+					return false;
+				placement.put(f, node);
+				images[index] = f;
+				return true;
+			}
+
+			@Override
+			void undo(int option) {
+				placement.remove(images[index]);
+				images[index] = null;
+			}
+
+			@Override
+			Level next() {
+				if (index + 1 < redex_nodes.size())
+					return new NodeLevel(index + 1);
+				return new ImageLevel();
+			}
+		}
+
+		/*
+		 * Maps redex handles as required by the ports of the images.
+		 */
+		private class ImageLevel extends Level {
+			final List<Handle> linked = new ArrayList<>();
+
+			@Override
+			int size() {
+				return 1;
+			}
+
+			@Override
+			boolean apply(int option) {
+				for (int i = 0; i < images.length; i++) {
+					Node g = redex_nodes.get(i);
+					Node f = images[i];
+					for (int j = g.getControl().getArity() - 1; 0 <= j; j--) {
+						Handle hr = g.getPort(j).getHandle();
+						if (!link(hr, f.getPort(j).getHandle())) {
+							undo(option);
+							return false;
+						}
+						linked.add(hr);
+					}
+				}
+				/*
+				 * the other points of a handle which is the image of a redex
+				 * edge can only be in some parameter and linked to some inner
+				 * name of the edge.
+				 */
+				for (Map.Entry<Handle, Handle> e : edge_pre.entrySet()) {
+					Handle ha = e.getKey();
+					Handle hr = e.getValue();
+					int n = ha.getPoints().size() - handle_refs.get(hr);
+					if (n == 0)
+						continue;
+					if (redex_edge_inners.contains(hr)) {
+						for (Point p : ha.getPoints()) {
+							if (p.isInnerName())
+								n--;
+							else {
+								Node o = ((Port) p).getNode();
+								if (!placement.containsKey(o)
+										&& !host_ancs.containsKey(o))
+									n--;
+							}
+						}
+					}
+					if (n > 0) {
+						undo(option);
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			void undo(int option) {
+				for (Handle hr : linked)
+					unlink(hr);
+				linked.clear();
+			}
+
+			@Override
+			Level next() {
+				return placementLevels();
+			}
+		}
+
+		/*
+		 * Chooses whether the index-th child is left in the context (option 0,
+		 * when allowed) or in which site it is put.
+		 */
+		private class PlaceLevel extends Level {
+			final List<Child> children;
+			final List<List<Site>> sites;
+			final List<Boolean> context;
+			final int index;
+			final int offset;
+
+			PlaceLevel(List<Child> children, List<List<Site>> sites,
+					List<Boolean> context, int index) {
+				this.children = children;
+				this.sites = sites;
+				this.context = context;
+				this.index = index;
+				this.offset = context.get(index) ? 1 : 0;
+			}
+
+			@Override
+			int size() {
+				return offset + sites.get(index).size();
+			}
+
+			@Override
+			boolean apply(int option) {
+				if (option < offset)
+					return true;
+				Child c = children.get(index);
+				placement.put(c, sites.get(index).get(option - offset));
+				param_tops.push(c);
+				return true;
+			}
+
+			@Override
+			void undo(int option) {
+				if (option < offset)
+					return;
+				placement.remove(param_tops.pop());
+			}
+
+			@Override
+			Level next() {
+				if (index + 1 < children.size())
+					return new PlaceLevel(children, sites, context, index + 1);
+				return new ParamLevel();
+			}
+		}
+
+		/*
+		 * Collects the points of the parameters.
+		 */
+		private class ParamLevel extends Level {
+			final List<Point> points = new ArrayList<>();
+
+			@Override
+			int size() {
+				return 1;
+			}
+
+			@Override
+			boolean apply(int option) {
+				/*
+				 * without inner names every point of the parameters bypasses
+				 * the redex and images of redex edges were already checked
+				 * by ImageLevel, hence parameters need not be visited.
+				 */
+				if (redex_inners.isEmpty())
+					return true;
+				Deque<Child> q = new ArrayDeque<>(param_tops);
+				while (!q.isEmpty()) {
+					Child c = q.poll();
+					if (c.isNode()) {
+						Node n = (Node) c;
+						points.addAll(n.getPorts());
+						q.addAll(n.getChildren());
+					}
+				}
+				points.addAll(agent.getInnerNames());
+				Map<Handle, Integer> ps = new IdentityHashMap<>();
+				for (Point p : points) {
+					Integer n = ps.get(p.getHandle());
+					ps.put(p.getHandle(), (n == null) ? 1 : n + 1);
+				}
+				for (Map.Entry<Handle, Handle> e : edge_pre.entrySet()) {
+					Integer n = ps.get(e.getKey());
+					if (handle_refs.get(e.getValue()) + ((n == null) ? 0 : n) < e
+							.getKey().getPoints().size()) {
+						points.clear();
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			void undo(int option) {
+				points.clear();
+			}
+
+			@Override
+			Level next() {
+				return pointLevels(points);
+			}
+		}
+
+		/*
+		 * Chooses whether the index-th point of the parameters bypasses the
+		 * redex (option 0) or to which redex inner name it is linked.
+		 */
+		private class PointLevel extends Level {
+			final List<Point> points;
+			final int index;
+			final Point point;
+
+			PointLevel(List<Point> points, int index) {
+				this.points = points;
+				this.index = index;
+				this.point = points.get(index);
+			}
+
+			@Override
+			int size() {
+				return 1 + redex_inners.size();
+			}
+
+			@Override
+			boolean apply(int option) {
+				if (option == 0) {
+					// points of images of redex edges can not bypass them
+					return !edge_pre.containsKey(point.getHandle());
+				}
+				InnerName i = redex_inners.get(option - 1);
+				if (point.isPort() && inner_ports.contains(i))
+					return false;
+				if (!link(i.getHandle(), point.getHandle()))
+					return false;
+				inner_links.put(point, i);
+				if (point.isPort())
+					inner_ports.add(i);
+				return true;
+			}
+
+			@Override
+			void undo(int option) {
+				if (option == 0)
+					return;
+				InnerName i = inner_links.remove(point);
+				if (point.isPort())
+					inner_ports.remove(i);
+				unlink(i.getHandle());
+			}
+
+			@Override
+			Level next() {
+				if (index + 1 < points.size())
+					return new PointLevel(points, index + 1);
+				return new CheckLevel();
+			}
+		}
+
+		/*
+		 * Checks that every redex inner name is reached by exactly one port
+		 * and that images of redex edges have no other points.
+		 */
+		private class CheckLevel extends Level {
+
+			@Override
+			int size() {
+				return 1;
+			}
+
+			@Override
+			boolean apply(int option) {
+				if (inner_ports.size() < redex_inners.size())
+					return false;
+				for (Map.Entry<Handle, Handle> e : edge_pre.entrySet()) {
+					if (handle_refs.get(e.getValue()) < e.getKey().getPoints()
+							.size())
+						return false;
+				}
+				return true;
+			}
+
+			@Override
+			void undo(int option) {
+			}
+
+			@Override
+			Level next() {
+				return idleLevels(0);
+			}
+		}
+
+		/*
+		 * Chooses whether the index-th idle redex outer name is mapped to an
+		 * idle agent handle or to nothing (option 0).
+		 */
+		private class IdleLevel extends Level {
+			final int index;
+			final OuterName outer;
+
+			IdleLevel(int index) {
+				this.index = index;
+				this.outer = redex_idle_outers.get(index);
+			}
+
+			@Override
+			int size() {
+				return 1 + agent_idle_handles.size();
+			}
+
+			@Override
+			boolean apply(int option) {
+				if (option > 0)
+					handle_img.put(outer, agent_idle_handles.get(option - 1));
+				return true;
+			}
+
+			@Override
+			void undo(int option) {
+				if (option > 0)
+					handle_img.remove(outer);
+			}
+
+			@Override
+			Level next() {
+				return idleLevels(index + 1);
+			}
+		}
+	}
+}
@@ -37,6 +37,8 @@ final public class Bigraph implements
 	final List<EditableSite> sites = new ArrayList<>();
 	final Map<String, EditableOuterName> outers = new IdentityHashMap<>();
 	final Map<String, EditableInnerName> inners = new IdentityHashMap<>();
+	// shared by roots, outer names and edges (cf. setOwner and OwnerCell)
+	final OwnerCell ownership = new OwnerCell(this);
 
 	private final List<? extends Root> ro_roots = Collections
 			.unmodifiableList(roots);
@@ -183,6 +185,12 @@ final public class Bigraph implements
 	 * to avoid leaking references to their internal working bigraph. If the
 	 * argument is null, the owner is set to this bigraph.
 	 * 
+	 * Entities refer to the owner cell of their bigraph, hence the owner is
+	 * changed in constant time. Roots and outer names attached by operations
+	 * unaware of this bigraph are pointed to its cell. Edges are not visited
+	 * and the edge set is computed anew from the points on next access: edges
+	 * left without points by the builder (idle edges) are dropped.
+	 * 
 	 * @param owner
 	 * @return this bigraph
 	 */
@@ -190,15 +198,17 @@ final public class Bigraph implements
 		if (owner == null){
 			owner = this;
 		}
-		for (EditableOwned o : this.roots) {
-			o.setOwner(owner);
-		}
-		for (EditableOwned o : this.outers.values()) {
-			o.setOwner(owner);
+		// builders change the bigraph without informing the index
+		indexProxy.invalidate();
+		edgesProxy.invalidate();
+		for (EditableRoot r : this.roots) {
+			if (r.getOwnerCell() != this.ownership)
+				r.setOwner(this);
 		}
-		for (Edge e : this.getEdges()) {
-			((EditableOwned) e).setOwner(owner);
+		for (EditableOuterName o : this.outers.values()) {
+			o.setOwner(this);
 		}
+		this.ownership.set(owner);
 		return this;
 	}
 
@@ -229,9 +239,10 @@ final public class Bigraph implements
 		 * sites/names)
 		 */
 		Bigraph big = new Bigraph(this.signature);
-		// owner == null -> self
-		if (owner == null)
-			owner = big;
+		// entities refer to the cell of the clone, whose owner is the given one
+		if (owner != null)
+			big.ownership.set(owner);
+		owner = big;
 		Map<Handle, EditableHandle> hnd_dic = new HashMap<>();
 		// replicate outer names
 		for (EditableOuterName o1 : this.outers.values()) {
@@ -402,6 +413,10 @@ final public class Bigraph implements
 		if(ns != null){
 			ns.add(node);
 		}
+		BigraphIndex idx = indexProxy.softGet();
+		if(idx != null){
+			idx.onNodeAdded(node);
+		}
 	}
 	
 	/**
@@ -415,6 +430,10 @@ final public class Bigraph implements
 		if(ns != null){
 			ns.addAll(nodes);
 		}
+		BigraphIndex idx = indexProxy.softGet();
+		if(idx != null){
+			idx.onNodeAdded(nodes);
+		}
 	}
 	
 	/**
@@ -429,6 +448,10 @@ final public class Bigraph implements
 		if(ns != null){
 			ns.remove(node);
 		}
+		BigraphIndex idx = indexProxy.softGet();
+		if(idx != null){
+			idx.onNodeRemoved(node);
+		}
 	}
 	
 	/**
@@ -443,10 +466,15 @@ final public class Bigraph implements
 		if(ns != null){
 			ns.removeAll(nodes);
 		}
+		BigraphIndex idx = indexProxy.softGet();
+		if(idx != null){
+			idx.onNodeRemoved(nodes);
+		}
 	}
 	
 	void onNodeSetChanged(){
 		this.nodesProxy.invalidate();
+		this.indexProxy.invalidate();
 		this.ancestors.clear();
 	}
 
@@ -499,6 +527,7 @@ final public class Bigraph implements
 		if(ns != null){
 			ns.add(edge);
 		}
+		onLinksChanged();
 	}
 	
 	void onEdgeAdded(Collection<EditableEdge> edges){
@@ -506,6 +535,7 @@ final public class Bigraph implements
 		if(ns != null){
 			ns.addAll(edges);
 		}
+		onLinksChanged();
 	}
 	
 	void onEdgeRemoved(EditableEdge edge){
@@ -513,6 +543,7 @@ final public class Bigraph implements
 		if(ns != null){
 			ns.remove(edge);
 		}
+		onLinksChanged();
 	}
 	
 	void onEdgeRemoved(Collection<EditableEdge> edges){
@@ -520,10 +551,19 @@ final public class Bigraph implements
 		if(ns != null){
 			ns.removeAll(edges);
 		}
+		onLinksChanged();
 	}
 	
 	void onEdgeSetChanged(){
 		this.nodesProxy.invalidate();
+		onLinksChanged();
+	}
+
+	private void onLinksChanged(){
+		BigraphIndex idx = indexProxy.softGet();
+		if(idx != null){
+			idx.onStructureChanged();
+		}
 	}
 	
 	public Collection<EditableEdge> provideEdges() {
@@ -555,6 +595,75 @@ final public class Bigraph implements
 	public Collection<? extends Edge> getEdges() {
 		return this.edgesProxy.get();
 	}
+
+	/* Indices over nodes and handles are handled like nodes, see getNodes() */
+	CachingProxy<BigraphIndex> indexProxy = new CachingProxy<>(
+			new Provider<BigraphIndex>() {
+				@Override
+				public BigraphIndex get() {
+					return new BigraphIndex(Bigraph.this);
+				}
+			});
+
+	/**
+	 * Returns the nodes of this bigraph having the given control. The
+	 * collection is read-only and computed once for all the controls of the
+	 * bigraph, hence looking up the nodes of a control does not require to
+	 * visit the bigraph.
+	 * 
+	 * @param control
+	 *            the control of the nodes.
+	 * @return the nodes with the given control.
+	 */
+	public Collection<? extends Node> getNodes(Control control) {
+		if (control == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		return indexProxy.get().nodes(control);
+	}
+
+	/**
+	 * Returns the handles (i.e. edges and outer names) of this bigraph having
+	 * exactly the given number of points, ports and inner names alike. The
+	 * collection is read-only and computed once for all the degrees.
+	 * 
+	 * @param degree
+	 *            the number of points of the handles.
+	 * @return the handles with the given degree.
+	 */
+	public Collection<? extends Handle> getHandles(int degree) {
+		if (degree < 0) {
+			throw new IllegalArgumentException(
+					"The degree should be a non-negative integer.");
+		}
+		return indexProxy.get().handles(degree);
+	}
+
+	/**
+	 * Returns the nodes of this bigraph at the given depth of the place
+	 * graph. Children of roots are at depth 1 and children of a node at depth
+	 * d are at depth d + 1. The collection is read-only and computed once for
+	 * all the depths.
+	 * 
+	 * @param depth
+	 *            the depth of the nodes.
+	 * @return the nodes at the given depth.
+	 */
+	public Collection<? extends Node> getNodesAtDepth(int depth) {
+		if (depth < 1) {
+			throw new IllegalArgumentException(
+					"The depth should be a positive integer.");
+		}
+		return indexProxy.get().nodesAtDepth(depth);
+	}
+
+	/*
+	 * Returns the profile of this bigraph, used by matchers to rule out
+	 * redexes that can not occur in it (cf. BigraphProfile).
+	 */
+	BigraphProfile getProfile() {
+		return indexProxy.get().profile();
+	}
 	
 	private Map<Child, Collection<Parent>> ancestors = new WeakHashMap<>();
 	
@@ -33,7 +33,7 @@ final public class BigraphBuilder implements
 	 *            the signature to be used.
 	 */
 	public BigraphBuilder(Signature sig) {
-		this.big = Bigraph.makeEmpty(sig);
+		this.big = Bigraph.makeEmpty(sig).setOwner(this);
 	}
 
 	/**
@@ -121,6 +121,16 @@ final public class BigraphBuilder implements
 					"The operation is not supported by a closed BigraphBuilder");
 	}
 
+	/**
+	 * The owner cell of the working bigraph, whose owner is this builder as
+	 * long as the builder is open.
+	 * 
+	 * @return the owner cell of the entities of this builder.
+	 */
+	OwnerCell ownership() {
+		return this.big.ownership;
+	}
+
 	@Override
 	public BigraphBuilder clone() {
 		assertOpen();
@@ -1064,6 +1074,11 @@ final public class BigraphBuilder implements
 		Bigraph b = in; // this BB
 		Collection<EditableEdge> es = a.edgesProxy.get();
 		Collection<EditableNode> ns = a.nodesProxy.get();
+		// the roots of a are adopted first so that the children of the roots
+		// of b are glued to parents already sharing their owner
+		for (EditableOwned o : a.roots) {
+			o.setOwner(this);
+		}
 		// iterates over sites and roots of a and b respectively and glues them
 		Iterator<EditableRoot> ir = b.roots.iterator();
 		Iterator<EditableSite> is = a.sites.iterator();
@@ -1095,9 +1110,6 @@ final public class BigraphBuilder implements
 		clearOwnedCollection(b.roots);// .clear();
 		b.outers.putAll(a.outers);
 		b.roots.addAll(a.roots);
-		for (EditableOwned o : b.roots) {
-			o.setOwner(this);
-		}
 		for (EditableOwned o : b.outers.values()) {
 			o.setOwner(this);
 		}
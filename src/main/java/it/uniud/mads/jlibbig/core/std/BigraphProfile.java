@@ -0,0 +1,106 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+/*
+ * Summarises the shape of a bigraph for telling cheaply whether a redex can
+ * not occur in it. For every control the profile records how many nodes
+ * have it, how deep they are and how many children they have; for edges it
+ * records how many points they have. An embedding maps the nodes of a
+ * compiled redex injectively on nodes with the same control, at least as
+ * deep and with exactly as many children if no site is below them, and the
+ * edges without inner names on edges with exactly as many points; a redex
+ * asking for more than the profile offers has no match (cf. admits).
+ *
+ * Profiles are computed in a single visit of the bigraph and kept by its
+ * index (cf. BigraphIndex), hence they are rebuilt only after a change.
+ */
+final class BigraphProfile {
+
+	// for each control, the number of nodes having k children (sites too)
+	private final Map<Control, int[]> children = new HashMap<>();
+	// for each control, the number of its nodes
+	private final Map<Control, Integer> counts = new HashMap<>();
+	// for each control, the depth of its deepest node
+	private final Map<Control, Integer> depths = new HashMap<>();
+	// the number of edges having k points
+	private int[] edges = new int[0];
+	// the largest number of points of a handle
+	private int max_degree = 0;
+
+	BigraphProfile(Bigraph big) {
+		Deque<Parent> q = new ArrayDeque<Parent>(big.getRoots());
+		int d = 0;
+		while (!q.isEmpty()) {
+			// the queue holds exactly the parents at depth d
+			d++;
+			for (int k = q.size(); k > 0; k--) {
+				for (Child c : q.poll().getChildren()) {
+					if (c.isNode()) {
+						Node n = (Node) c;
+						Control ctrl = n.getControl();
+						Integer m = counts.get(ctrl);
+						counts.put(ctrl, (m == null) ? 1 : m + 1);
+						depths.put(ctrl, d);
+						int s = n.getChildren().size();
+						int[] hs = children.get(ctrl);
+						if (hs == null || hs.length <= s) {
+							hs = (hs == null) ? new int[s + 1] : Arrays
+									.copyOf(hs, s + 1);
+							children.put(ctrl, hs);
+						}
+						hs[s]++;
+						q.add(n);
+					}
+				}
+			}
+		}
+		for (Handle h : big.getEdges()) {
+			int s = h.getPoints().size();
+			if (edges.length <= s)
+				edges = Arrays.copyOf(edges, s + 1);
+			edges[s]++;
+			max_degree = Math.max(max_degree, s);
+		}
+		for (Handle h : big.getOuterNames()) {
+			max_degree = Math.max(max_degree, h.getPoints().size());
+		}
+	}
+
+	/*
+	 * Tells whether the redex may occur in the bigraph described by this
+	 * profile. The test is necessary but not sufficient: false means there
+	 * are no matches, true means there may be some. Nodes are assumed to be
+	 * matched only on nodes with the same control.
+	 */
+	boolean admits(CompiledRedex redex) {
+		for (Map.Entry<Control, Integer> e : redex.controls.entrySet()) {
+			Control c = e.getKey();
+			Integer m = counts.get(c);
+			if (m == null || m < e.getValue()
+					|| depths.get(c) < redex.depths.get(c))
+				return false;
+			int[] hs = children.get(c);
+			Integer l = redex.least_children.get(c);
+			if (l != null && hs.length <= l)
+				return false;
+			int[] rhs = redex.exact_children.get(c);
+			if (rhs == null)
+				continue;
+			if (hs.length < rhs.length)
+				return false;
+			for (int k = 0; k < rhs.length; k++) {
+				if (hs[k] < rhs[k])
+					return false;
+			}
+		}
+		int[] res = redex.edge_degrees;
+		if (edges.length < res.length)
+			return false;
+		for (int k = 1; k < res.length; k++) {
+			if (edges[k] < res[k])
+				return false;
+		}
+		return max_degree >= redex.open_ports;
+	}
+}
@@ -0,0 +1,710 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+import it.uniud.mads.jlibbig.core.Owned;
+import it.uniud.mads.jlibbig.core.Owner;
+import it.uniud.mads.jlibbig.core.util.NameGenerator;
+
+/**
+ * An immutable bigraph stored as a handful of arrays of integers rather than
+ * as a graph of objects. Instances are meant for keeping many bigraphs in
+ * memory at once, e.g. the states explored by a rewriting system, and are
+ * created from a {@link Bigraph} and turned back into one in linear time (cf.
+ * {@link #CompactBigraph(Bigraph)} and {@link #toBigraph()}).
+ *
+ * Entities are not stored: roots, sites, nodes, ports, edges and names
+ * returned by this class are read-only views created on demand and two views
+ * are equal whenever they describe the same entity of the same bigraph.
+ * Nodes and edges keep the numbers their names are rendered from, hence
+ * names are rendered only when views are printed.
+ *
+ * Matching and rewriting are defined on {@link Bigraph} only: compact
+ * bigraphs are meant for storing states, not for searching them, and are
+ * converted by {@link #toBigraph()} before being matched.
+ */
+/*
+ * Parents are numbered roots first and then nodes, children nodes first and
+ * then sites; nodes are numbered in the order of a breadth first visit, hence
+ * a node always follows its parent. Handles are numbered outer names first
+ * and then edges, points ports first and then inner names; the ports of a
+ * node are numbered consecutively. The children of a parent and the points
+ * of a handle are stored as compressed rows (offsets into a single array).
+ */
+public final class CompactBigraph implements
+		it.uniud.mads.jlibbig.core.Bigraph<Control> {
+
+	private final Signature signature;
+
+	private final int roots;
+	private final int sites;
+	private final int outers;
+	// for every child, the parent it is placed in
+	private final int[] parent;
+	// the children of parent p are child_list[child_offset[p] ..
+	// child_offset[p + 1])
+	private final int[] child_offset;
+	private final int[] child_list;
+	// for every node, its control as an index of controls
+	private final int[] control;
+	private final Control[] controls;
+	// the numbers names are rendered from, cf. NameGenerator
+	private final long[] node_ids;
+	// the ports of node k are port_offset[k] .. port_offset[k + 1] - 1
+	private final int[] port_offset;
+	// for every point, the handle it is linked to
+	private final int[] point_handle;
+	// the points of handle h are point_list[point_offset[h] ..
+	// point_offset[h + 1])
+	private final int[] point_offset;
+	private final int[] point_list;
+	private final String[] outer_names;
+	private final String[] inner_names;
+	private final long[] edge_ids;
+
+	/**
+	 * Creates a compact copy of the given bigraph. As for
+	 * {@link Bigraph#clone()}, edges without points are not copied.
+	 *
+	 * @param big
+	 *            the bigraph to be copied.
+	 */
+	public CompactBigraph(Bigraph big) {
+		if (big == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		this.signature = big.signature;
+		this.roots = big.roots.size();
+		this.sites = big.sites.size();
+		this.outers = big.outers.size();
+		int n = big.getNodes().size();
+		// place graph
+		Map<Child, Integer> children = new IdentityHashMap<>(n + sites);
+		for (int k = 0; k < sites; k++) {
+			children.put(big.sites.get(k), n + k);
+		}
+		Map<Control, Integer> ctrls = new HashMap<>();
+		List<EditableNode> nodes = new ArrayList<>(n);
+		this.parent = new int[n + sites];
+		this.child_offset = new int[roots + n + 1];
+		this.child_list = new int[n + sites];
+		this.control = new int[n];
+		this.node_ids = new long[n];
+		this.port_offset = new int[n + 1];
+		int c = 0;
+		for (int p = 0; p < roots + n; p++) {
+			Parent f = (p < roots) ? big.roots.get(p) : nodes.get(p - roots);
+			for (Child ch : f.getChildren()) {
+				int i;
+				if (ch.isNode()) {
+					EditableNode m = (EditableNode) ch;
+					i = nodes.size();
+					nodes.add(m);
+					Integer t = ctrls.get(m.getControl());
+					if (t == null) {
+						t = ctrls.size();
+						ctrls.put(m.getControl(), t);
+					}
+					control[i] = t;
+					node_ids[i] = m.getId();
+					port_offset[i + 1] = port_offset[i]
+							+ m.getControl().getArity();
+				} else {
+					i = children.get(ch);
+				}
+				parent[i] = p;
+				child_list[c++] = i;
+			}
+			child_offset[p + 1] = c;
+		}
+		this.controls = new Control[ctrls.size()];
+		for (Map.Entry<Control, Integer> e : ctrls.entrySet()) {
+			controls[e.getValue()] = e.getKey();
+		}
+		// link graph
+		int q = port_offset[n];
+		Map<Handle, Integer> handles = new IdentityHashMap<>();
+		List<EditableEdge> edges = new ArrayList<>();
+		this.outer_names = new String[outers];
+		for (EditableOuterName o : big.outers.values()) {
+			outer_names[handles.size()] = o.getName();
+			handles.put(o, handles.size());
+		}
+		this.inner_names = new String[big.inners.size()];
+		this.point_handle = new int[q + inner_names.length];
+		List<EditablePoint> points = new ArrayList<>(point_handle.length);
+		for (EditableNode m : nodes) {
+			points.addAll(m.getPortsForEdit());
+		}
+		for (EditableInnerName i : big.inners.values()) {
+			inner_names[points.size() - q] = i.getName();
+			points.add(i);
+		}
+		for (int t = 0; t < point_handle.length; t++) {
+			EditableHandle h = points.get(t).getHandle();
+			Integer k = handles.get(h);
+			if (k == null) {
+				k = handles.size();
+				handles.put(h, k);
+				edges.add((EditableEdge) h);
+			}
+			point_handle[t] = k;
+		}
+		this.edge_ids = new long[edges.size()];
+		for (int e = 0; e < edge_ids.length; e++) {
+			edge_ids[e] = edges.get(e).getId();
+		}
+		this.point_offset = new int[handles.size() + 1];
+		this.point_list = new int[point_handle.length];
+		for (int t = 0; t < point_handle.length; t++) {
+			point_offset[point_handle[t] + 1]++;
+		}
+		for (int h = 0; h < handles.size(); h++) {
+			point_offset[h + 1] += point_offset[h];
+		}
+		int[] next = Arrays.copyOf(point_offset, handles.size());
+		for (int t = 0; t < point_handle.length; t++) {
+			point_list[next[point_handle[t]]++] = t;
+		}
+	}
+
+	/**
+	 * Creates a {@link Bigraph} equivalent to this one. Nodes and edges of
+	 * the outcome are fresh, hence their names differ from the ones of the
+	 * bigraph this has been created from.
+	 *
+	 * @return a bigraph equivalent to this one.
+	 */
+	public Bigraph toBigraph() {
+		Bigraph big = new Bigraph(this.signature);
+		int n = control.length;
+		EditableHandle[] hs = new EditableHandle[outers + edge_ids.length];
+		for (int h = 0; h < outers; h++) {
+			EditableOuterName o = new EditableOuterName(outer_names[h]);
+			o.setOwner(big);
+			big.outers.put(o.getName(), o);
+			hs[h] = o;
+		}
+		for (int h = outers; h < hs.length; h++) {
+			hs[h] = new EditableEdge(big);
+		}
+		EditableParent[] ps = new EditableParent[roots + n];
+		for (int p = 0; p < roots; p++) {
+			EditableRoot r = new EditableRoot(big);
+			big.roots.add(r);
+			ps[p] = r;
+		}
+		// parents precede their children
+		for (int k = 0; k < n; k++) {
+			EditableNode m = new EditableNode(controls[control[k]],
+					ps[parent[k]]);
+			for (int t = port_offset[k]; t < port_offset[k + 1]; t++) {
+				m.getPort(t - port_offset[k]).setHandle(hs[point_handle[t]]);
+			}
+			ps[roots + k] = m;
+		}
+		for (int k = 0; k < sites; k++) {
+			big.sites.add(new EditableSite(ps[parent[n + k]]));
+		}
+		int q = port_offset[n];
+		for (int k = 0; k < inner_names.length; k++) {
+			EditableInnerName i = new EditableInnerName(inner_names[k],
+					hs[point_handle[q + k]]);
+			big.inners.put(i.getName(), i);
+		}
+		return big;
+	}
+
+	@Override
+	public Signature getSignature() {
+		return this.signature;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return roots == 0 && sites == 0 && outers == 0
+				&& inner_names.length == 0;
+	}
+
+	@Override
+	public boolean isGround() {
+		return sites == 0 && inner_names.length == 0;
+	}
+
+	@Override
+	public List<? extends it.uniud.mads.jlibbig.core.Root> getRoots() {
+		return new IndexList<CompactRoot>(0, roots) {
+			@Override
+			CompactRoot at(int k) {
+				return new CompactRoot(k);
+			}
+		};
+	}
+
+	@Override
+	public List<? extends it.uniud.mads.jlibbig.core.Site> getSites() {
+		int n = control.length;
+		return new IndexList<CompactSite>(n, n + sites) {
+			@Override
+			CompactSite at(int k) {
+				return new CompactSite(k);
+			}
+		};
+	}
+
+	@Override
+	public Collection<? extends it.uniud.mads.jlibbig.core.OuterName> getOuterNames() {
+		return new IndexList<CompactOuterName>(0, outers) {
+			@Override
+			CompactOuterName at(int k) {
+				return new CompactOuterName(k);
+			}
+		};
+	}
+
+	@Override
+	public Collection<? extends it.uniud.mads.jlibbig.core.InnerName> getInnerNames() {
+		int q = port_offset[control.length];
+		return new IndexList<CompactInnerName>(q, q + inner_names.length) {
+			@Override
+			CompactInnerName at(int k) {
+				return new CompactInnerName(k);
+			}
+		};
+	}
+
+	@Override
+	public Collection<? extends it.uniud.mads.jlibbig.core.Node<Control>> getNodes() {
+		return new IndexList<CompactNode>(0, control.length) {
+			@Override
+			CompactNode at(int k) {
+				return new CompactNode(k);
+			}
+		};
+	}
+
+	@Override
+	public Collection<? extends it.uniud.mads.jlibbig.core.Edge> getEdges() {
+		return new IndexList<CompactEdge>(outers, outers + edge_ids.length) {
+			@Override
+			CompactEdge at(int k) {
+				return new CompactEdge(k);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		String nl = System.getProperty("line.separator");
+		StringBuilder b = new StringBuilder();
+		b.append(signature.getUSID()).append(" :: <").append(sites)
+				.append(",").append(getInnerNames()).append("> -> <")
+				.append(roots).append(",").append(getOuterNames()).append(">");
+		for (it.uniud.mads.jlibbig.core.Handle h : getOuterNames()) {
+			b.append(nl).append(h).append(":o <- ").append(h.getPoints());
+		}
+		for (it.uniud.mads.jlibbig.core.Handle h : getEdges()) {
+			b.append(nl).append(h).append(":e <- ").append(h.getPoints());
+		}
+		for (int p = 0; p < child_offset.length - 1; p++) {
+			b.append(nl).append(parentAt(p)).append(" <- ")
+					.append(childrenOf(p));
+		}
+		return b.toString();
+	}
+
+	private it.uniud.mads.jlibbig.core.Parent parentAt(int p) {
+		return (p < roots) ? new CompactRoot(p) : new CompactNode(p - roots);
+	}
+
+	private it.uniud.mads.jlibbig.core.Child childAt(int c) {
+		return (c < control.length) ? new CompactNode(c) : new CompactSite(c);
+	}
+
+	private it.uniud.mads.jlibbig.core.Handle handleAt(int h) {
+		return (h < outers) ? new CompactOuterName(h) : new CompactEdge(h);
+	}
+
+	private it.uniud.mads.jlibbig.core.Point pointAt(int t) {
+		return (t < port_offset[control.length]) ? new CompactPort(t)
+				: new CompactInnerName(t);
+	}
+
+	private List<? extends it.uniud.mads.jlibbig.core.Child> childrenOf(
+			final int p) {
+		return new IndexList<it.uniud.mads.jlibbig.core.Child>(
+				child_offset[p], child_offset[p + 1]) {
+			@Override
+			it.uniud.mads.jlibbig.core.Child at(int k) {
+				return childAt(child_list[k]);
+			}
+		};
+	}
+
+	/*
+	 * Read-only list of the entities with indices in [from, to).
+	 */
+	static abstract class IndexList<E> extends AbstractList<E>
+			implements RandomAccess {
+		private final int from;
+		private final int to;
+
+		IndexList(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		abstract E at(int k);
+
+		@Override
+		public E get(int index) {
+			if (index < 0 || index >= to - from) {
+				throw new IndexOutOfBoundsException("Index: " + index
+						+ ", Size: " + (to - from));
+			}
+			return at(from + index);
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+	}
+
+	/*
+	 * Views are identified by their class, bigraph and index.
+	 */
+	private abstract class View implements Owned {
+		final int index;
+
+		View(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Owner getOwner() {
+			return CompactBigraph.this;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			View other = (View) obj;
+			return index == other.index && getOwner() == other.getOwner();
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(getOwner()) + index;
+		}
+
+		public boolean isParent() {
+			return false;
+		}
+
+		public boolean isChild() {
+			return false;
+		}
+
+		public boolean isRoot() {
+			return false;
+		}
+
+		public boolean isSite() {
+			return false;
+		}
+
+		public boolean isNode() {
+			return false;
+		}
+
+		public boolean isHandle() {
+			return false;
+		}
+
+		public boolean isPoint() {
+			return false;
+		}
+
+		public boolean isPort() {
+			return false;
+		}
+
+		public boolean isInnerName() {
+			return false;
+		}
+
+		public boolean isOuterName() {
+			return false;
+		}
+
+		public boolean isEdge() {
+			return false;
+		}
+	}
+
+	private final class CompactRoot extends View implements
+			it.uniud.mads.jlibbig.core.Root {
+
+		CompactRoot(int index) {
+			super(index);
+		}
+
+		@Override
+		public Collection<? extends it.uniud.mads.jlibbig.core.Child> getChildren() {
+			return childrenOf(index);
+		}
+
+		@Override
+		public boolean isParent() {
+			return true;
+		}
+
+		@Override
+		public boolean isRoot() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return index + ":r";
+		}
+	}
+
+	private final class CompactSite extends View implements
+			it.uniud.mads.jlibbig.core.Site {
+
+		CompactSite(int index) {
+			super(index);
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Parent getParent() {
+			return parentAt(parent[index]);
+		}
+
+		@Override
+		public boolean isChild() {
+			return true;
+		}
+
+		@Override
+		public boolean isSite() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return (index - control.length) + ":s";
+		}
+	}
+
+	private final class CompactNode extends View implements
+			it.uniud.mads.jlibbig.core.Node<Control> {
+
+		CompactNode(int index) {
+			super(index);
+		}
+
+		@Override
+		public Collection<? extends it.uniud.mads.jlibbig.core.Child> getChildren() {
+			return childrenOf(roots + index);
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Parent getParent() {
+			return parentAt(parent[index]);
+		}
+
+		@Override
+		public List<? extends it.uniud.mads.jlibbig.core.Port<Control>> getPorts() {
+			return new IndexList<CompactPort>(port_offset[index],
+					port_offset[index + 1]) {
+				@Override
+				CompactPort at(int k) {
+					return new CompactPort(k);
+				}
+			};
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Port<Control> getPort(int index) {
+			return getPorts().get(index);
+		}
+
+		@Override
+		public Control getControl() {
+			return controls[control[index]];
+		}
+
+		@Override
+		public boolean isParent() {
+			return true;
+		}
+
+		@Override
+		public boolean isChild() {
+			return true;
+		}
+
+		@Override
+		public boolean isNode() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "N_" + NameGenerator.render(node_ids[index]) + ":"
+					+ getControl().getName();
+		}
+	}
+
+	private final class CompactPort extends View implements
+			it.uniud.mads.jlibbig.core.Port<Control> {
+
+		CompactPort(int index) {
+			super(index);
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Node<Control> getNode() {
+			// the last node whose ports start at or before this one
+			int l = 0;
+			int r = control.length - 1;
+			while (l < r) {
+				int m = (l + r + 1) >>> 1;
+				if (port_offset[m] <= index)
+					l = m;
+				else
+					r = m - 1;
+			}
+			return new CompactNode(l);
+		}
+
+		@Override
+		public int getNumber() {
+			return index - port_offset[((CompactNode) getNode()).index];
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Handle getHandle() {
+			return handleAt(point_handle[index]);
+		}
+
+		@Override
+		public boolean isPoint() {
+			return true;
+		}
+
+		@Override
+		public boolean isPort() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return getNumber() + "@" + getNode();
+		}
+	}
+
+	private abstract class CompactHandle extends View implements
+			it.uniud.mads.jlibbig.core.Handle {
+
+		CompactHandle(int index) {
+			super(index);
+		}
+
+		@Override
+		public Collection<? extends it.uniud.mads.jlibbig.core.Point> getPoints() {
+			return new IndexList<it.uniud.mads.jlibbig.core.Point>(
+					point_offset[index], point_offset[index + 1]) {
+				@Override
+				it.uniud.mads.jlibbig.core.Point at(int k) {
+					return pointAt(point_list[k]);
+				}
+			};
+		}
+
+		@Override
+		public boolean isHandle() {
+			return true;
+		}
+	}
+
+	private final class CompactEdge extends CompactHandle implements
+			it.uniud.mads.jlibbig.core.Edge {
+
+		CompactEdge(int index) {
+			super(index);
+		}
+
+		@Override
+		public boolean isEdge() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "E_" + NameGenerator.render(edge_ids[index - outers]);
+		}
+	}
+
+	private final class CompactOuterName extends CompactHandle implements
+			it.uniud.mads.jlibbig.core.OuterName {
+
+		CompactOuterName(int index) {
+			super(index);
+		}
+
+		@Override
+		public String getName() {
+			return outer_names[index];
+		}
+
+		@Override
+		public boolean isOuterName() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+
+	private final class CompactInnerName extends View implements
+			it.uniud.mads.jlibbig.core.InnerName {
+
+		CompactInnerName(int index) {
+			super(index);
+		}
+
+		@Override
+		public String getName() {
+			return inner_names[index - port_offset[control.length]];
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Handle getHandle() {
+			return handleAt(point_handle[index]);
+		}
+
+		@Override
+		public boolean isPoint() {
+			return true;
+		}
+
+		@Override
+		public boolean isInnerName() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+}
@@ -0,0 +1,477 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+/**
+ * Describes the structure of a redex that does not depend on the agent it is
+ * matched against. Matchers compute this information before looking for
+ * embeddings of the redex; rules match the same redex against many agents and
+ * hence compile it once and reuse the result (cf.
+ * {@link Matcher#match(Bigraph, CompiledRedex)}).
+ *
+ * Nodes are numbered densely following a breadth first visit of the place
+ * graph where, among siblings, the most constrained nodes (i.e. those with
+ * more ports and descendants) come first. Every node therefore comes after
+ * its parent and the order can be used to drive searches top-down.
+ *
+ * Bigraphs are immutable, hence a compiled redex remains valid as long as
+ * the redex it describes.
+ */
+public final class CompiledRedex {
+
+	final Bigraph redex;
+
+	final List<? extends Root> roots;
+	final List<? extends Site> sites;
+	// nodes sorted such that parents come before their children
+	final List<Node> nodes;
+	final Collection<? extends Edge> edges;
+	/*
+	 * Handles are not ordered, but the use of a list simplifies some
+	 * constraints for f_vars
+	 */
+	final List<Handle> handles;
+	final List<InnerName> inners;
+	// ports followed by inner names
+	final Collection<Point> points;
+	final List<OuterName> idle_outers = new ArrayList<>();
+	// edges with some inner name
+	final Set<Handle> edge_inners = Collections
+			.newSetFromMap(new IdentityHashMap<Handle, Boolean>());
+
+	// position of roots in roots and of nodes in nodes
+	final Map<PlaceEntity, Integer> index = new IdentityHashMap<>();
+	final Map<Parent, List<Node>> node_children = new IdentityHashMap<>();
+	final Map<Parent, List<Site>> site_children = new IdentityHashMap<>();
+	// for each node, whether its k-th port is attached to an edge
+	final boolean[][] edge_ports;
+	// number of nodes for each control
+	final Map<Control, Integer> controls = new HashMap<>();
+	/*
+	 * What the images of the redex require of the agent (cf. BigraphProfile):
+	 * for each control, the depth of its deepest node, the number of nodes
+	 * without sites below them having k children and the largest number of
+	 * node children of a node with sites below it; the number of edges
+	 * without inner names having k ports; the largest number of ports of the
+	 * other handles.
+	 */
+	final Map<Control, Integer> depths = new HashMap<>();
+	final Map<Control, int[]> exact_children = new HashMap<>();
+	final Map<Control, Integer> least_children = new HashMap<>();
+	final int[] edge_degrees;
+	final int open_ports;
+	/*
+	 * for each node, the index of the previous node of its symmetry class or
+	 * -1 if there is none; computed on demand
+	 */
+	private volatile int[] sym_prev;
+	// the components of the redex; computed on demand
+	private volatile RedexComponents components;
+
+	/*
+	 * naming policy for sizes: r- redex -rs roots -ns nodes -ss sites -hs
+	 * handles -ps points -prs ports -ins inners
+	 */
+	final int rrs, rns, rss, rhs, rps, rprs, rins;
+
+	/**
+	 * Compiles the given redex.
+	 *
+	 * @param redex
+	 *            the redex to be compiled.
+	 */
+	public CompiledRedex(Bigraph redex) {
+		if (redex == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		this.redex = redex;
+		this.roots = redex.getRoots();
+		this.sites = redex.getSites();
+		this.edges = redex.getEdges();
+		this.handles = new ArrayList<Handle>(edges);
+		handles.addAll(redex.getOuterNames());
+		this.inners = new ArrayList<>(redex.getInnerNames());
+
+		final Map<Node, Integer> weights = new IdentityHashMap<>();
+		for (Node n : redex.getNodes()) {
+			weightOf(n, weights);
+		}
+		Comparator<Node> bySelectivity = new Comparator<Node>() {
+			@Override
+			public int compare(Node n1, Node n2) {
+				return weights.get(n2) - weights.get(n1);
+			}
+		};
+
+		this.nodes = new ArrayList<>(weights.size());
+		Deque<Parent> q = new ArrayDeque<>();
+		int k = 0;
+		for (Root r : roots) {
+			index.put(r, k++);
+			q.add(r);
+		}
+		k = 0;
+		while (!q.isEmpty()) {
+			Parent p = q.poll();
+			List<Node> ns = new ArrayList<>();
+			List<Site> ss = new ArrayList<>();
+			for (Child c : p.getChildren()) {
+				if (c.isNode()) {
+					ns.add((Node) c);
+				} else {
+					ss.add((Site) c);
+				}
+			}
+			Collections.sort(ns, bySelectivity);
+			for (Node n : ns) {
+				nodes.add(n);
+				index.put(n, k++);
+				q.add(n);
+			}
+			node_children.put(p, ns);
+			site_children.put(p, ss);
+		}
+
+		this.edge_ports = new boolean[nodes.size()][];
+		this.points = new HashSet<>(2 * nodes.size());
+		int[] depth = new int[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++) {
+			Node n = nodes.get(i);
+			Control c = n.getControl();
+			Integer m = controls.get(c);
+			controls.put(c, (m == null) ? 1 : m + 1);
+			// parents come first, hence their depth is known
+			Parent p = n.getParent();
+			depth[i] = (p.isRoot()) ? 1 : depth[index.get(p)] + 1;
+			m = depths.get(c);
+			if (m == null || m < depth[i])
+				depths.put(c, depth[i]);
+			int s = node_children.get(n).size();
+			if (site_children.get(n).isEmpty()) {
+				int[] hs = exact_children.get(c);
+				if (hs == null || hs.length <= s) {
+					hs = (hs == null) ? new int[s + 1] : Arrays.copyOf(hs,
+							s + 1);
+					exact_children.put(c, hs);
+				}
+				hs[s]++;
+			} else {
+				m = least_children.get(c);
+				if (m == null || m < s)
+					least_children.put(c, s);
+			}
+			boolean[] es = new boolean[c.getArity()];
+			for (int j = 0; j < es.length; j++) {
+				es[j] = n.getPort(j).getHandle().isEdge();
+			}
+			edge_ports[i] = es;
+			points.addAll(n.getPorts());
+		}
+		for (InnerName i : inners) {
+			if (i.getHandle().isEdge())
+				edge_inners.add(i.getHandle());
+		}
+		for (OuterName o : redex.getOuterNames()) {
+			if (o.getPoints().isEmpty())
+				idle_outers.add(o);
+		}
+		int[] es = new int[0];
+		int ps = 0;
+		for (Handle h : handles) {
+			int s = 0;
+			for (Point x : h.getPoints()) {
+				if (x.isPort())
+					s++;
+			}
+			if (h.isEdge() && !edge_inners.contains(h)) {
+				// idle edges are not required to have an image
+				if (s == 0)
+					continue;
+				if (es.length <= s)
+					es = Arrays.copyOf(es, s + 1);
+				es[s]++;
+			} else {
+				ps = Math.max(ps, s);
+			}
+		}
+		this.edge_degrees = es;
+		this.open_ports = ps;
+
+		rrs = roots.size();
+		rns = nodes.size();
+		rss = sites.size();
+		rhs = handles.size();
+		rprs = points.size(); // only ports
+		points.addAll(inners);
+		rps = points.size();
+		rins = rps - rprs;
+	}
+
+	/*
+	 * The weight of a node is its arity plus the size of the subtree it
+	 * roots: heavier nodes have less candidates and are searched first.
+	 */
+	private static int weightOf(Node n, Map<Node, Integer> weights) {
+		Integer w = weights.get(n);
+		if (w == null) {
+			int s = n.getControl().getArity() + 1;
+			for (Child c : n.getChildren()) {
+				if (c.isNode())
+					s += weightOf((Node) c, weights);
+			}
+			w = s;
+			weights.put(n, w);
+		}
+		return w;
+	}
+
+	/**
+	 * Returns the redex described by this object.
+	 *
+	 * @return the compiled redex.
+	 */
+	public Bigraph getRedex() {
+		return redex;
+	}
+
+	/**
+	 * Returns the number of nodes of the redex having the given control.
+	 *
+	 * @param control
+	 *            the control to be counted.
+	 * @return the number of nodes with the given control.
+	 */
+	public int countNodes(Control control) {
+		Integer n = controls.get(control);
+		return (n == null) ? 0 : n;
+	}
+
+	/**
+	 * Tells whether the redex has some non-trivial automorphism swapping
+	 * sibling nodes, hence whether matching it up to automorphisms (cf.
+	 * {@link it.uniud.mads.jlibbig.core.MatcherOptions#withSymmetryBreaking})
+	 * may yield less matches.
+	 *
+	 * @return a boolean indicating whether the redex has symmetries.
+	 */
+	public boolean hasSymmetries() {
+		for (int k : symmetries()) {
+			if (k >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Index of the node preceding the i-th one in its symmetry class, or -1
+	 * if the node is the first of its class. Nodes of a class are siblings
+	 * and any two of them can be swapped, together with their descendants,
+	 * by an automorphism of the redex that fixes its interfaces. Hence every
+	 * occurrence of the redex has an embedding where the images of a class
+	 * are sorted (cf. compareImages) and matchers can look for this one only.
+	 */
+	int symmetricPredecessor(int i) {
+		return symmetries()[i];
+	}
+
+	/**
+	 * Returns the number of components of the redex, i.e. of groups of roots
+	 * whose nodes are linked only to nodes of the same group. Matchers split
+	 * redexes with more than one component and match each of them on its own
+	 * (cf. {@link it.uniud.mads.jlibbig.core.MatcherOptions#withDecomposition}
+	 * ); redexes that can not be split count as a single component.
+	 *
+	 * @return the number of components of the redex.
+	 */
+	public int countComponents() {
+		int k = components().parts.size();
+		return (k == 0) ? 1 : k;
+	}
+
+	RedexComponents components() {
+		RedexComponents cs = components;
+		if (cs == null) {
+			cs = RedexComponents.of(this);
+			components = cs;
+		}
+		return cs;
+	}
+
+	private int[] symmetries() {
+		int[] prev = sym_prev;
+		if (prev == null) {
+			prev = computeSymmetries();
+			sym_prev = prev;
+		}
+		return prev;
+	}
+
+	/*
+	 * Groups siblings with isomorphic subtrees without sites and joins them
+	 * when swapping them is an automorphism, i.e. it can be extended to the
+	 * handles preserving the link map. Classes are joined along such swaps
+	 * and hence they are closed under any permutation of their members.
+	 */
+	private int[] computeSymmetries() {
+		int[] prev = new int[nodes.size()];
+		Arrays.fill(prev, -1);
+		Map<Node, String> shapes = new IdentityHashMap<>();
+		List<Parent> parents = new ArrayList<Parent>(roots);
+		parents.addAll(nodes);
+		for (Parent p : parents) {
+			Map<String, List<Node>> groups = new HashMap<>();
+			for (Node n : node_children.get(p)) {
+				String s = shapeOf(n, shapes);
+				if (s == null)
+					continue;
+				List<Node> g = groups.get(s);
+				if (g == null) {
+					g = new ArrayList<>();
+					groups.put(s, g);
+				}
+				g.add(n);
+			}
+			for (List<Node> g : groups.values()) {
+				if (g.size() < 2)
+					continue;
+				// every class is represented by its first member
+				List<Node> reps = new ArrayList<>();
+				Map<Node, Node> last = new IdentityHashMap<>();
+				for (Node n : g) {
+					Node rep = null;
+					for (Node r : reps) {
+						if (isSwappable(r, n, shapes)) {
+							rep = r;
+							break;
+						}
+					}
+					if (rep == null) {
+						reps.add(n);
+					} else {
+						prev[index.get(n)] = index.get(last.get(rep));
+					}
+					last.put((rep == null) ? n : rep, n);
+				}
+			}
+		}
+		return prev;
+	}
+
+	/*
+	 * Describes the subtree rooted in the node up to the order of siblings;
+	 * null if the subtree contains some site.
+	 */
+	private String shapeOf(Node n, Map<Node, String> shapes) {
+		if (shapes.containsKey(n))
+			return shapes.get(n);
+		String s = null;
+		if (site_children.get(n).isEmpty()) {
+			List<String> cs = new ArrayList<>();
+			for (Node c : node_children.get(n)) {
+				String t = shapeOf(c, shapes);
+				if (t == null) {
+					cs = null;
+					break;
+				}
+				cs.add(t);
+			}
+			if (cs != null) {
+				Collections.sort(cs);
+				StringBuilder b = new StringBuilder(n.getControl().getName());
+				b.append('(');
+				for (String t : cs) {
+					b.append(t).append(',');
+				}
+				s = b.append(')').toString();
+			}
+		}
+		shapes.put(n, s);
+		return s;
+	}
+
+	/*
+	 * Tells whether swapping the subtrees of the two sibling nodes, which
+	 * have the same shape, is an automorphism of the redex. Outer names and
+	 * edges with inner names are part of the interfaces and must be fixed.
+	 */
+	private boolean isSwappable(Node n1, Node n2, Map<Node, String> shapes) {
+		Map<Node, Node> swap = new IdentityHashMap<>();
+		pair(n1, n2, swap, shapes);
+		Map<Handle, Handle> img = new IdentityHashMap<>();
+		Map<Handle, Handle> pre = new IdentityHashMap<>();
+		for (Node n : nodes) {
+			Node m = swap.containsKey(n) ? swap.get(n) : n;
+			for (int k = n.getControl().getArity() - 1; 0 <= k; k--) {
+				Handle h = n.getPort(k).getHandle();
+				Handle g = m.getPort(k).getHandle();
+				if (h != g
+						&& (!h.isEdge() || !g.isEdge()
+								|| edge_inners.contains(h) || edge_inners
+									.contains(g)))
+					return false;
+				Handle h2 = img.get(h);
+				Handle g2 = pre.get(g);
+				if ((h2 != null && h2 != g) || (g2 != null && g2 != h))
+					return false;
+				img.put(h, g);
+				pre.put(g, h);
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Pairs the nodes of two subtrees with the same shape in both directions.
+	 */
+	private void pair(Node n1, Node n2, Map<Node, Node> swap,
+			final Map<Node, String> shapes) {
+		swap.put(n1, n2);
+		swap.put(n2, n1);
+		Comparator<Node> byShape = new Comparator<Node>() {
+			@Override
+			public int compare(Node m1, Node m2) {
+				return shapes.get(m1).compareTo(shapes.get(m2));
+			}
+		};
+		List<Node> cs1 = new ArrayList<>(node_children.get(n1));
+		List<Node> cs2 = new ArrayList<>(node_children.get(n2));
+		Collections.sort(cs1, byShape);
+		Collections.sort(cs2, byShape);
+		for (int i = 0; i < cs1.size(); i++) {
+			pair(cs1.get(i), cs2.get(i), swap, shapes);
+		}
+	}
+
+	/*
+	 * Compares agent nodes by the numbers their names are rendered from,
+	 * which are unique, without rendering the names. The order does
+	 * not depend on the search, hence distinct searches (e.g. pinned ones)
+	 * agree on which embedding of an occurrence has sorted images.
+	 */
+	static int compareImages(Node n1, Node n2) {
+		return Long.compare(((EditableNode) n1).getId(),
+				((EditableNode) n2).getId());
+	}
+
+	/*
+	 * Number of children of the given redex parent that are nodes.
+	 */
+	int nodeChildrenCount(Parent p) {
+		return node_children.get(p).size();
+	}
+
+	/*
+	 * Tells whether every child of the given redex parent is a node.
+	 */
+	boolean hasOnlyNodeChildren(Parent p) {
+		return site_children.get(p).isEmpty();
+	}
+
+	/*
+	 * Tells whether the k-th port of the given redex node is attached to an
+	 * edge.
+	 */
+	boolean isEdgePort(Node n, int k) {
+		return edge_ports[index.get(n)][k];
+	}
+}
@@ -9,17 +9,21 @@ import it.uniud.mads.jlibbig.core.attachedProperties.ReplicationListener;
 import it.uniud.mads.jlibbig.core.attachedProperties.ReplicationListenerContainer;
 
 class EditableEdge implements Edge, EditableHandle, Replicable {
+	// the name is rendered from the id when first needed
+	private final long id;
 	private String name;
 
 	private Collection<EditablePoint> points = Collections
 			.newSetFromMap(new IdentityHashMap<EditablePoint, Boolean>());
 	private final Collection<? extends Point> ro_points = Collections
 			.unmodifiableCollection(this.points);
-	private Owner owner;
-	private final ReplicationListenerContainer rep = new ReplicationListenerContainer();
+	// the cell of the bigraph the handle belongs to (cf. OwnerCell)
+	private OwnerCell owner;
+	// allocated on first use, most edges have no listeners
+	private ReplicationListenerContainer rep;
 
 	EditableEdge() {
-		name = "E_" + NameGenerator.DEFAULT.generate();
+		id = NameGenerator.DEFAULT.generateId();
 	}
 
 	EditableEdge(Owner owner) {
@@ -29,7 +33,7 @@ class EditableEdge implements Edge, EditableHandle, Replicable {
 
 	@Override
 	public String toString() {
-		return this.name;
+		return this.getName();
 	}
 
 	@Override
@@ -64,43 +68,58 @@ class EditableEdge implements Edge, EditableHandle, Replicable {
 	@Override
 	public EditableEdge replicate() {
 		EditableEdge copy = new EditableEdge();
-		rep.tellReplicated(this, copy);
+		if (rep != null)
+			rep.tellReplicated(this, copy);
 		return copy;
 	}
 
 	@Override
 	public void registerListener(ReplicationListener listener) {
+		if (rep == null)
+			rep = new ReplicationListenerContainer();
 		rep.registerListener(listener);
 	}
 	
 	@Override
 	public boolean isListenerRegistered(ReplicationListener listener) {
-		return rep.isListenerRegistered(listener);
+		return rep != null && rep.isListenerRegistered(listener);
 	}
 
 	@Override
 	public boolean unregisterListener(ReplicationListener listener) {
-		return rep.unregisterListener(listener);
+		return rep != null && rep.unregisterListener(listener);
 	}
 
 	@Override
 	public Owner getOwner() {
-		return this.owner;
+		return (this.owner == null) ? null : this.owner.get();
 	}
 	
 	String getName() {
-		return name;
+		String n = this.name;
+		if (n == null) {
+			n = "E_" + NameGenerator.render(this.id);
+			this.name = n;
+		}
+		return n;
+	}
+
+	/*
+	 * The number the name of this edge is rendered from, unique as the name.
+	 */
+	long getId() {
+		return this.id;
 	}
 
 	@Override
 	public void setOwner(Owner value) {
-		this.owner = value;
+		this.owner = OwnerCell.of(value);
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 83;
-		return prime * name.hashCode();
+		return prime * (int) (id ^ (id >>> 32));
 	}
 
 	@Override
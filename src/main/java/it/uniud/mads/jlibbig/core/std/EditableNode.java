@@ -14,13 +14,15 @@ class EditableNode implements Node, EditableParent, EditableChild {
 	private Control control;
 	private final List<EditablePort> ports;
 	private EditableParent parent; // redundant with parentProp
+	// children and their read-only view are allocated with the first child
 	private Collection<EditableChild> children;
-	private final List<? extends Port> ro_ports;
-	private final Collection<? extends Child> ro_chd;
+	private Collection<? extends Child> ro_chd;
+	// the name is rendered from the id when first needed
+	private final long id;
 	private String name;
 
-	private final DelegatedProperty.PropertySetter<Owner> ownerSetter;
-	private final DelegatedProperty<Owner> ownerProp;
+	// allocated with the properties, on first use (cf. getProperties)
+	private DelegatedProperty.PropertySetter<Owner> ownerSetter;
 
 	// private final ProtectedProperty.ValueSetter<EditableParent> parentSetter;
 	// private final ProtectedProperty<EditableParent> parentProp;
@@ -28,33 +30,34 @@ class EditableNode implements Node, EditableParent, EditableChild {
 	// private final ReplicatingProperty<String> alias = new
 	// ReplicatingProperty<String>(PROPERTY_ALIAS);
 
-	private final ReplicationListenerContainer rep = new ReplicationListenerContainer();
-	private final PropertyContainer props = new PropertyContainer(this);
+	/*
+	 * Most nodes have neither properties other than their owner nor
+	 * replication listeners: their containers are allocated on first use.
+	 */
+	private ReplicationListenerContainer rep;
+	private PropertyContainer props;
 	
 	EditableNode(Control control) {
-		this.name = "N_" + NameGenerator.DEFAULT.generate();
+		this.id = NameGenerator.DEFAULT.generateId();
 		this.control = control;
-		List<EditablePort> ports = new ArrayList<>();
-		for (int i = 0; i < control.getArity(); i++) {
-			ports.add(new EditablePort(i));
+		int arity = control.getArity();
+		if (arity == 0) {
+			this.ports = Collections.emptyList();
+		} else {
+			List<EditablePort> ports = new ArrayList<>(arity);
+			for (int i = 0; i < arity; i++) {
+				ports.add(new EditablePort(i));
+			}
+			this.ports = Collections.unmodifiableList(ports);
 		}
-		this.ports = Collections.unmodifiableList(ports);
-		this.children = new HashSet<>();
-		this.ro_ports = Collections.unmodifiableList(this.ports);
-		this.ro_chd = Collections.unmodifiableCollection(this.children);
 
 		// this.alias.set(name);
 
-		this.ownerSetter = new DelegatedProperty.PropertySetter<>();
-		this.ownerProp = new DelegatedProperty<Owner>(PROPERTY_OWNER, true,
-				ownerSetter);
-
 		// this.parentSetter = new
 		// ProtectedProperty.ValueSetter<EditableParent>();
 		// this.parentProp = new
 		// ProtectedProperty<EditableParent>(PROPERTY_PARENT, parentSetter);
 
-		props.attachProperty(this.ownerProp);
 		// props.attachProperty(this.parentProp);
 		// props.attachProperty(this.alias);
 	}
@@ -81,7 +84,19 @@ class EditableNode implements Node, EditableParent, EditableChild {
 	}
 
 	String getName() {
-		return name;
+		String n = this.name;
+		if (n == null) {
+			n = "N_" + NameGenerator.render(this.id);
+			this.name = n;
+		}
+		return n;
+	}
+
+	/*
+	 * The number the name of this node is rendered from, unique as the name.
+	 */
+	long getId() {
+		return this.id;
 	}
 
 	// public String getAlias(){
@@ -98,7 +113,7 @@ class EditableNode implements Node, EditableParent, EditableChild {
 		StringBuilder builder = new StringBuilder();
 		// String alias = getAlias();
 		// if(alias == null){
-		builder.append(this.name).append(':').append(this.control.getName());
+		builder.append(this.getName()).append(':').append(this.control.getName());
 		// }else{
 		// builder.append(alias)
 		// .append('(')
@@ -117,12 +132,13 @@ class EditableNode implements Node, EditableParent, EditableChild {
 
 	@Override
 	public Collection<? extends Child> getChildren() {
-		return this.ro_chd;
+		return (this.ro_chd == null) ? Collections.<Child> emptySet()
+				: this.ro_chd;
 	}
 
 	@Override
 	public List<? extends Port> getPorts() {
-		return this.ro_ports;
+		return this.ports;
 	}
 
 	public List<EditablePort> getPortsForEdit() {
@@ -149,8 +165,10 @@ class EditableNode implements Node, EditableParent, EditableChild {
 			}
 			if (parent != null) {
 				parent.addChild(this);
-				this.ownerSetter
-						.set(parent.<Owner> getProperty(PROPERTY_OWNER));
+				if (this.ownerSetter != null) {
+					this.ownerSetter.set(parent
+							.<Owner> getProperty(PROPERTY_OWNER));
+				}
 			}
 			//this.parentSetter.set(parent);
 		}
@@ -160,6 +178,10 @@ class EditableNode implements Node, EditableParent, EditableChild {
 	public void addChild(EditableChild child) {
 		if (child == null)
 			return;
+		if (this.children == null) {
+			this.children = new HashSet<>();
+			this.ro_chd = Collections.unmodifiableCollection(this.children);
+		}
 		this.children.add(child);
 		if (this != child.getParent()) {
 			child.setParent(this);
@@ -168,7 +190,7 @@ class EditableNode implements Node, EditableParent, EditableChild {
 
 	@Override
 	public void removeChild(EditableChild child) {
-		if (child == null)
+		if (child == null || this.children == null)
 			return;
 		this.children.remove(child);
 		if (this == child.getParent())
@@ -177,7 +199,8 @@ class EditableNode implements Node, EditableParent, EditableChild {
 
 	@Override
 	public Collection<EditableChild> getEditableChildren() {
-		return this.children;
+		return (this.children == null) ? Collections
+				.<EditableChild> emptySet() : this.children;
 	}
 
 	@Override
@@ -188,23 +211,43 @@ class EditableNode implements Node, EditableParent, EditableChild {
 	@Override
 	public EditableNode replicate() {
 		EditableNode copy = new EditableNode(this.control);
-		rep.tellReplicated(this, copy);
+		if (rep != null)
+			rep.tellReplicated(this, copy);
 		return copy;
 	}
 
 	@Override
 	public boolean isListenerRegistered(ReplicationListener listener) {
-		return rep.isListenerRegistered(listener);
+		return rep != null && rep.isListenerRegistered(listener);
 	}
 	
 	@Override
 	public void registerListener(ReplicationListener listener) {
+		if (rep == null)
+			rep = new ReplicationListenerContainer();
 		rep.registerListener(listener);
 	}
 
 	@Override
 	public boolean unregisterListener(ReplicationListener listener) {
-		return rep.unregisterListener(listener);
+		return rep != null && rep.unregisterListener(listener);
+	}
+
+	/*
+	 * Allocates the properties of this node and its owner property, which
+	 * delegates to the owner property of the parent.
+	 */
+	private PropertyContainer props() {
+		if (props == null) {
+			props = new PropertyContainer(this);
+			ownerSetter = new DelegatedProperty.PropertySetter<>();
+			props.attachProperty(new DelegatedProperty<Owner>(PROPERTY_OWNER,
+					true, ownerSetter));
+			if (parent != null) {
+				ownerSetter.set(parent.<Owner> getProperty(PROPERTY_OWNER));
+			}
+		}
+		return props;
 	}
 
 	@Override
@@ -215,7 +258,7 @@ class EditableNode implements Node, EditableParent, EditableChild {
 		if (PROPERTY_OWNER.equals(name))// || PROPERTY_PARENT.equals(name))
 			throw new IllegalArgumentException("Property '" + name
 					+ "' can not be substituted");
-		return props.attachProperty(prop);
+		return props().attachProperty(prop);
 	}
 
 	@Override
@@ -230,27 +273,41 @@ class EditableNode implements Node, EditableParent, EditableChild {
 		if (PROPERTY_OWNER.equals(name))// || PROPERTY_PARENT.equals(name))
 			throw new IllegalArgumentException("Property '" + name
 					+ "' can not be detached");
-		return props.detachProperty(name);
+		return (props == null) ? null : props.detachProperty(name);
 	}
 
 	@Override
 	public <V> Property<V> getProperty(String name) {
-		return props.getProperty(name);
+		if (props == null && !PROPERTY_OWNER.equals(name))
+			return null;
+		return props().getProperty(name);
 	}
 
 	@Override
 	public Collection<Property<?>> getProperties() {
-		return props.getProperties();
+		return props().getProperties();
 	}
 
 	@Override
 	public Collection<String> getPropertyNames() {
-		return props.getPropertyNames();
+		return props().getPropertyNames();
 	}
 
 	@Override
 	public Owner getOwner() {
-		return this.ownerProp.get();
+		OwnerCell cell = getOwnerCell();
+		return (cell == null) ? null : cell.get();
+	}
+
+	/*
+	 * Nodes do not store the cell but ask their parent for it: moving a
+	 * subtree is then independent of its size, while the lookup takes time
+	 * proportional to the depth of the node (as the delegation of the owner
+	 * property does).
+	 */
+	@Override
+	public OwnerCell getOwnerCell() {
+		return (this.parent == null) ? null : this.parent.getOwnerCell();
 	}
 
 	@Override
@@ -287,7 +344,7 @@ class EditableNode implements Node, EditableParent, EditableChild {
 	public int hashCode() {
 		final int prime = 41;
 		int result = 1;
-		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + (int) (id ^ (id >>> 32));
 		return result;
 	}
 
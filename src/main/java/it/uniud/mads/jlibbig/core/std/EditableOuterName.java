@@ -11,7 +11,8 @@ class EditableOuterName extends EditableLinkFacet implements OuterName,
 			.newSetFromMap(new IdentityHashMap<EditablePoint, Boolean>());
 	private final Collection<? extends Point> ro_points = Collections
 			.unmodifiableCollection(this.points);
-	private Owner owner;
+	// the cell of the bigraph the handle belongs to (cf. OwnerCell)
+	private OwnerCell owner;
 
 	EditableOuterName(String name) {
 		super(name);
@@ -58,12 +59,12 @@ class EditableOuterName extends EditableLinkFacet implements OuterName,
 
 	@Override
 	public Owner getOwner() {
-		return this.owner;
+		return (this.owner == null) ? null : this.owner.get();
 	}
 
 	@Override
 	public void setOwner(Owner value) {
-		this.owner = value;
+		this.owner = OwnerCell.of(value);
 	}
 
 	@Override
@@ -33,6 +33,14 @@ interface EditableParent extends Parent, Replicable, Owned, PropertyTarget {
 
 	public abstract EditableRoot getRoot();
 
+	/**
+	 * Get the cell holding the owner of this parent and of its descendants
+	 * (cf. {@link OwnerCell}).
+	 * 
+	 * @return the owner cell of this parent or null if it has no owner
+	 */
+	public abstract OwnerCell getOwnerCell();
+
 	/**
 	 * @see Replicable#replicate()
 	 */
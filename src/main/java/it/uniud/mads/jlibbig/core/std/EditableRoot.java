@@ -15,24 +15,26 @@ class EditableRoot implements EditableParent, Root, EditableOwned {
 	private final Set<? extends Child> ro_chd = Collections
 			.unmodifiableSet(this.children);
 
-	private final ProtectedProperty.ValueSetter<Owner> ownerSetter = new ProtectedProperty.ValueSetter<>();
-	private final ProtectedProperty<Owner> owner = new ProtectedProperty<Owner>(
-			PROPERTY_OWNER, null, ownerSetter);
+	// the cell of the bigraph the root belongs to (cf. OwnerCell)
+	private OwnerCell owner;
+	private final DelegatedProperty.PropertySetter<Owner> ownerSetter = new DelegatedProperty.PropertySetter<>();
+	private final DelegatedProperty<Owner> ownerProp = new DelegatedProperty<Owner>(
+			PROPERTY_OWNER, false, ownerSetter);
 
 	private final ReplicationListenerContainer rep = new ReplicationListenerContainer();
 	private final PropertyContainer props = new PropertyContainer(this);
 
-	private final String name;
+	private final long id;
 
 	EditableRoot() {
 		this(null);
 	}
 
 	EditableRoot(Owner owner) {
-		this.name = "R_" + NameGenerator.DEFAULT.generate();
-		props.attachProperty(this.owner);
+		this.id = NameGenerator.DEFAULT.generateId();
+		props.attachProperty(this.ownerProp);
 		if (owner != null)
-			ownerSetter.set(owner);
+			setOwner(owner);
 	}
 	
 	@Override
@@ -44,7 +46,7 @@ class EditableRoot implements EditableParent, Root, EditableOwned {
 			if(i >= 0)
 				return i + ":r";
 		}
-		return this.name;
+		return "R_" + NameGenerator.render(this.id);
 	}
 
 	@Override
@@ -146,12 +148,21 @@ class EditableRoot implements EditableParent, Root, EditableOwned {
 
 	@Override
 	public Owner getOwner() {
-		return this.owner.get();
+		return (this.owner == null) ? null : this.owner.get();
 	}
 
 	@Override
 	public void setOwner(Owner value) {
-		this.ownerSetter.set(value);
+		OwnerCell cell = OwnerCell.of(value);
+		if (this.owner == cell)
+			return;
+		this.owner = cell;
+		this.ownerSetter.set(cell.property());
+	}
+
+	@Override
+	public OwnerCell getOwnerCell() {
+		return this.owner;
 	}
 
 	@Override
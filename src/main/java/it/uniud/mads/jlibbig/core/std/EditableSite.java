@@ -20,10 +20,10 @@ class EditableSite implements EditableChild, Site {
 	private final ReplicationListenerContainer rep = new ReplicationListenerContainer();
 	private final PropertyContainer props = new PropertyContainer();
 
-	private final String name;
+	private final long id;
 	
 	EditableSite() {
-		this.name = "S_" + NameGenerator.DEFAULT.generate();
+		this.id = NameGenerator.DEFAULT.generateId();
 		this.ownerSetter = new DelegatedProperty.PropertySetter<>();
 		this.ownerProp = new DelegatedProperty<Owner>(PROPERTY_OWNER, true, ownerSetter);
 	
@@ -48,7 +48,7 @@ class EditableSite implements EditableChild, Site {
 			if(i >= 0)
 				return i + ":s";
 		}
-		return this.name;
+		return "S_" + NameGenerator.render(this.id);
 	}
 	
 	@Override
@@ -58,7 +58,9 @@ class EditableSite implements EditableChild, Site {
 
 	@Override
 	public Owner getOwner() {
-		return this.ownerProp.get();
+		// the owner property is not updated when the owner cell changes
+		return (this.parent == null) ? this.ownerProp.get() : this.parent
+				.getOwner();
 	}
 
 	@Override
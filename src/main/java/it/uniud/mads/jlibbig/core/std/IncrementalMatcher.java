@@ -0,0 +1,550 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+/**
+ * Keeps the matches of a redex up to date along a sequence of rewrites. After
+ * a rewrite step most of the agent is left as it was and so are most of its
+ * matches: instead of matching the redex against the whole result, this class
+ * takes the matches of the previous agent, the match that was rewritten and
+ * the result and
+ * <ul>
+ * <li>keeps the matches that do not touch the rewritten region, moving them
+ * to the result;</li>
+ * <li>looks for new matches only around the nodes and edges of the result
+ * that are new or changed by the rewrite.</li>
+ * </ul>
+ * The outcome is the same set of matches computed by {@link Matcher} on the
+ * result, although they may be listed in a different order.
+ *
+ * Matches are related to the result by means of the nodes copied from the
+ * agent to the result, hence the result has to be computed by
+ * {@link RewritingRule#rewrite} from a match tracked by an instance of this
+ * class (possibly of another redex, as in the case of a system with many
+ * rules) whose redex has no inner names. Otherwise, and for redexes whose
+ * matches are not confined to a region of the agent (i.e. redexes with inner
+ * names, idle names or several roots and redexes with roots without nodes),
+ * matches are computed from scratch. Only agents with an empty inner
+ * interface are tracked.
+ *
+ * Searches around the rewritten region are carried out by {@link Matcher} and
+ * {@link BacktrackingMatcher}, unless they redefine which nodes are
+ * matchable; other matchers always compute matches from scratch.
+ *
+ * @see RewritingRule#rewrite
+ */
+public class IncrementalMatcher {
+
+	final Matcher matcher;
+	final CompiledRedex redex;
+
+	// whether matches can be updated only around the rewritten region
+	private final boolean local;
+	// whether the root of the redex has some site
+	private final boolean root_sites;
+	// the number of points of the largest redex edge
+	private final int edge_degree;
+
+	/**
+	 * Creates an incremental matcher for the redex of the given rule using
+	 * the matcher of the rule.
+	 *
+	 * @param rule
+	 *            the rule whose redex has to be matched.
+	 */
+	public IncrementalMatcher(RewritingRule rule) {
+		this(rule.getMatcher(), rule.getCompiledRedex());
+	}
+
+	/**
+	 * Creates an incremental matcher for the given redex using
+	 * {@link Matcher#DEFAULT}.
+	 *
+	 * @param redex
+	 *            the redex to be matched.
+	 */
+	public IncrementalMatcher(CompiledRedex redex) {
+		this(Matcher.DEFAULT, redex);
+	}
+
+	/**
+	 * Creates an incremental matcher for the given redex.
+	 *
+	 * @param matcher
+	 *            the matcher used to look for matches.
+	 * @param redex
+	 *            the redex to be matched.
+	 */
+	public IncrementalMatcher(Matcher matcher, CompiledRedex redex) {
+		if (matcher == null || redex == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		this.matcher = matcher;
+		this.redex = redex;
+
+		int d = 0;
+		boolean idle = false;
+		for (Handle h : redex.handles) {
+			int n = h.getPoints().size();
+			idle |= (n == 0);
+			if (h.isEdge())
+				d = Math.max(d, n);
+		}
+		this.edge_degree = d;
+		// searches around the rewritten region are pinned to its nodes
+		this.local = matcher.splits(redex) && redex.rrs == 1 && redex.rins == 0 && !idle
+				&& redex.nodeChildrenCount(redex.roots.get(0)) > 0;
+		this.root_sites = redex.rrs == 1
+				&& !redex.hasOnlyNodeChildren(redex.roots.get(0));
+	}
+
+	/**
+	 * Returns the redex looked for.
+	 *
+	 * @return the compiled redex.
+	 */
+	public CompiledRedex getRedex() {
+		return this.redex;
+	}
+
+	/**
+	 * Returns the matcher used to look for matches.
+	 *
+	 * @return the matcher.
+	 */
+	public Matcher getMatcher() {
+		return this.matcher;
+	}
+
+	/**
+	 * Computes all the matches of the redex in the given agent.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @return the matches of the redex in the agent.
+	 */
+	public MatchSet match(Bigraph agent) {
+		List<Match> ms = new ArrayList<>();
+		boolean tracked = true;
+		for (Match m : matcher.match(agent, redex)) {
+			Matcher.Embedding e = m.getEmbedding();
+			if (e instanceof Matcher.SolvedEmbedding) {
+				ms.add(new Match(agent, redex.redex,
+						(Matcher.SolvedEmbedding) e, true));
+			} else {
+				ms.add(m);
+				tracked = false;
+			}
+		}
+		return new MatchSet(this, agent, ms, tracked);
+	}
+
+	/**
+	 * Computes the matches of the redex in the result of a rewrite from the
+	 * matches in the agent rewritten. If the match rewritten, possibly of
+	 * another redex, is not tracked then matches are computed from scratch.
+	 *
+	 * @param previous
+	 *            the matches of the redex in the agent before the rewrite.
+	 * @param rewrite
+	 *            the rewrite of a match in the agent.
+	 * @return the matches of the redex in the result.
+	 */
+	public MatchSet rematch(MatchSet previous, RewritingRule.Rewrite rewrite) {
+		Match applied = rewrite.getMatch();
+		Bigraph result = rewrite.getResult();
+		if (previous.owner != this) {
+			throw new IllegalArgumentException(
+					"The matches were not computed by this incremental matcher.");
+		}
+		if (applied.getRetainedEmbedding() == null) {
+			return match(result);
+		}
+		if (applied.getSourceAgent() != previous.agent) {
+			throw new IllegalArgumentException(
+					"The match does not refer to the agent of the given matches.");
+		}
+		/*
+		 * the rewritten redex must have no inner names, otherwise the links
+		 * of the parameters may change.
+		 */
+		RewritingRule.Trace trace = rewrite.trace;
+		if (!local || !previous.tracked || trace == null
+				|| !applied.getSourceRedex().inners.isEmpty()
+				|| !isGround(previous.agent) || !isGround(result)
+				|| previous.agent.roots.size() != result.roots.size()) {
+			return match(result);
+		}
+		return new Delta(result, trace).rematch(previous);
+	}
+
+	private static boolean isGround(Bigraph big) {
+		return big.sites.isEmpty() && big.inners.isEmpty();
+	}
+
+	/*
+	 * Tells whether the given parent and all its ancestors are active, i.e.
+	 * whether it may host a redex root.
+	 */
+	private static boolean isActive(Parent p, Map<Parent, Boolean> memo) {
+		Deque<Parent> path = new ArrayDeque<>();
+		Boolean b = null;
+		while (b == null) {
+			b = memo.get(p);
+			if (b != null)
+				break;
+			if (p.isRoot()) {
+				b = true;
+				memo.put(p, b);
+				break;
+			}
+			Node n = (Node) p;
+			if (!n.getControl().isActive()) {
+				b = false;
+				memo.put(p, b);
+				break;
+			}
+			path.push(p);
+			p = n.getParent();
+		}
+		while (!path.isEmpty()) {
+			memo.put(path.pop(), b);
+		}
+		return b;
+	}
+
+	/*
+	 * Relates the matches of the agent and of the result of a rewrite. A node
+	 * of the agent is stable if it is copied to the result together with its
+	 * parent and children and its copy can host the root of the redex exactly
+	 * when the node does; an edge is stable if its points are copied to
+	 * exactly the points of its copy. Since matches depend only on the
+	 * entities they place, an embedding placing only stable nodes (and
+	 * mapping redex edges to stable edges) is valid in the agent iff its copy
+	 * is valid in the result. Matches of the result are therefore the copies
+	 * of the matches of the agent placing only stable entities and the
+	 * matches of the result placing some node that is not stable; the latter
+	 * are found by searches pinned to these nodes.
+	 *
+	 * The rewrite keeps the links of the context and of the parameters (the
+	 * redex rewritten has no inner names) as well as their place graph but
+	 * for the parents and children of nodes removed or added and of the
+	 * parameters. Stability is therefore decided by visiting only these
+	 * nodes, their neighbours and the parameters moved from an active context
+	 * to a passive one or vice versa.
+	 */
+	private class Delta {
+		final Bigraph result;
+		final RewritingRule.Trace trace;
+
+		// agent nodes that are not stable
+		final Set<Node> unstable = Collections
+				.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+		// agent parents copied whose children are not copied exactly
+		final Set<Parent> changed = Collections
+				.newSetFromMap(new IdentityHashMap<Parent, Boolean>());
+		// handles with some point removed from the agent or added to the result
+		final Set<Handle> agent_touched = Collections
+				.newSetFromMap(new IdentityHashMap<Handle, Boolean>());
+		final Set<Handle> result_touched = Collections
+				.newSetFromMap(new IdentityHashMap<Handle, Boolean>());
+		// agent handles to their copies, if any
+		final Map<Handle, Handle> handles = new IdentityHashMap<>();
+
+		final Map<Parent, Boolean> agent_active = new IdentityHashMap<>();
+		final Map<Parent, Boolean> result_active = new IdentityHashMap<>();
+
+		Delta(Bigraph result, RewritingRule.Trace trace) {
+			this.result = result;
+			this.trace = trace;
+			for (Node n1 : trace.removed) {
+				unstable.add(n1);
+				touch(n1, agent_touched);
+				Parent p1 = n1.getParent();
+				if (trace.copies.containsKey(p1))
+					changed.add(p1);
+			}
+			for (Node n2 : trace.added) {
+				touch(n2, result_touched);
+				PlaceEntity p1 = trace.origins.get(n2.getParent());
+				if (p1 != null)
+					changed.add((Parent) p1);
+			}
+			for (Node n1 : trace.moved) {
+				moved(n1);
+			}
+			for (Parent p1 : changed) {
+				if (p1.isNode())
+					unstable.add((Node) p1);
+			}
+		}
+
+		private void touch(Node n, Set<Handle> touched) {
+			for (Port p : n.getPorts()) {
+				touched.add(p.getHandle());
+			}
+		}
+
+		/*
+		 * The given node may be copied under a different parent: if only one
+		 * of the parents can host redex roots, the whole subtree is unstable.
+		 */
+		private void moved(Node n1) {
+			unstable.add(n1);
+			Node n2 = (Node) trace.copies.get(n1);
+			Parent p1 = n1.getParent();
+			if (trace.copies.containsKey(p1))
+				changed.add(p1);
+			PlaceEntity p2 = trace.origins.get(n2.getParent());
+			if (p2 != null)
+				changed.add((Parent) p2);
+			if (isActive(n1.getParent(), agent_active) == isActive(
+					n2.getParent(), result_active))
+				return;
+			Deque<Node> q = new ArrayDeque<>();
+			q.add(n1);
+			while (!q.isEmpty()) {
+				for (Child c : q.poll().getChildren()) {
+					unstable.add((Node) c);
+					q.add((Node) c);
+				}
+			}
+		}
+
+		/*
+		 * The copy of the given agent handle i.e. the handle of the copy of
+		 * any of its points; points that are not copied belong to nodes
+		 * removed by the rewrite.
+		 */
+		Handle copyOf(Handle h1) {
+			Handle h2 = handles.get(h1);
+			if (h2 == null && !handles.containsKey(h1)) {
+				for (Point p : h1.getPoints()) {
+					Port o = (Port) p;
+					Node n2 = (Node) trace.copies.get(o.getNode());
+					if (n2 != null) {
+						h2 = n2.getPort(o.getNumber()).getHandle();
+						break;
+					}
+				}
+				handles.put(h1, h2);
+			}
+			return h2;
+		}
+
+		/*
+		 * The handle the given result handle is a copy of, if any.
+		 */
+		Handle originOf(Handle h2) {
+			for (Point p : h2.getPoints()) {
+				Port o = (Port) p;
+				Node n1 = (Node) trace.origins.get(o.getNode());
+				if (n1 != null) {
+					Handle h1 = n1.getPort(o.getNumber()).getHandle();
+					return (copyOf(h1) == h2) ? h1 : null;
+				}
+			}
+			return null;
+		}
+
+		boolean isStableEdge(Handle h1) {
+			if (agent_touched.contains(h1))
+				return false;
+			Handle h2 = copyOf(h1);
+			return h2 != null && !result_touched.contains(h2);
+		}
+
+		/*
+		 * Tells whether the embedding into the agent places only stable
+		 * entities or, if inverse is set, whether the embedding into the
+		 * result places only copies of stable entities.
+		 */
+		boolean isClean(Matcher.SolvedEmbedding emb, boolean inverse) {
+			for (Map.Entry<PlaceEntity, List<PlaceEntity>> e : emb.places
+					.entrySet()) {
+				PlaceEntity f = e.getKey();
+				if (inverse)
+					f = trace.origins.get(f);
+				for (PlaceEntity g : e.getValue()) {
+					if (g.isNode()) {
+						if (f == null || unstable.contains(f))
+							return false;
+					} else if (g.isRoot() && root_sites) {
+						if (f == null || changed.contains(f))
+							return false;
+					}
+				}
+			}
+			for (Map.Entry<Handle, Handle> e : emb.handles.entrySet()) {
+				Handle h = e.getValue();
+				if (inverse)
+					h = originOf(h);
+				else if (copyOf(h) == null)
+					h = null;
+				if (h == null || (e.getKey().isEdge() && !isStableEdge(h)))
+					return false;
+			}
+			return true;
+		}
+
+		MatchSet rematch(MatchSet previous) {
+			List<Match> ms = new ArrayList<>();
+			for (Match m : previous.matches) {
+				Matcher.SolvedEmbedding emb = m.getRetainedEmbedding();
+				if (isClean(emb, false)) {
+					emb = emb.rename(trace.copies, handles);
+					if (emb != null)
+						ms.add(new Match(result, redex.redex, emb, true));
+				}
+			}
+
+			/*
+			 * Every match of the result that is not a copy of some match of
+			 * the agent places some node collected here: nodes that are not
+			 * stable, nodes attached to edges that are not stable and
+			 * children of parents whose children changed. Each of these
+			 * matches is taken from the search pinned to the first of them.
+			 */
+			List<Node> dirty = new ArrayList<>();
+			Map<Node, Integer> index = new IdentityHashMap<>();
+			for (Node n2 : trace.added) {
+				mark(n2, dirty, index);
+			}
+			for (Node n1 : unstable) {
+				PlaceEntity n2 = trace.copies.get(n1);
+				if (n2 != null)
+					mark((Node) n2, dirty, index);
+			}
+			if (edge_degree > 0) {
+				List<Handle> hs = new ArrayList<>(result_touched);
+				for (Handle h1 : agent_touched) {
+					Handle h2 = copyOf(h1);
+					if (h2 != null)
+						hs.add(h2);
+				}
+				for (Handle h2 : hs) {
+					if (!h2.isEdge() || h2.getPoints().size() > edge_degree)
+						continue;
+					for (Point p : h2.getPoints()) {
+						mark(((Port) p).getNode(), dirty, index);
+					}
+				}
+			}
+			if (root_sites) {
+				List<Parent> ps = new ArrayList<Parent>(trace.added);
+				for (Parent p1 : changed) {
+					ps.add((Parent) trace.copies.get(p1));
+				}
+				for (Parent p2 : ps) {
+					for (Child c : p2.getChildren()) {
+						mark((Node) c, dirty, index);
+					}
+				}
+			}
+			for (int i = 0; i < dirty.size(); i++) {
+				Node d = dirty.get(i);
+				for (Node j : redex.nodes) {
+					if (!j.getControl().equals(d.getControl()))
+						continue;
+					for (Match m : matcher.match(result, redex, j, d)) {
+						Matcher.SolvedEmbedding emb = (Matcher.SolvedEmbedding) m
+								.getEmbedding();
+						if (isClean(emb, true) || firstDirty(emb, index) != i)
+							continue;
+						ms.add(new Match(result, redex.redex, emb, true));
+					}
+				}
+			}
+			return new MatchSet(IncrementalMatcher.this, result, ms, true);
+		}
+
+		private void mark(Node n, List<Node> dirty, Map<Node, Integer> index) {
+			if (!index.containsKey(n)) {
+				index.put(n, dirty.size());
+				dirty.add(n);
+			}
+		}
+
+		private int firstDirty(Matcher.SolvedEmbedding emb,
+				Map<Node, Integer> index) {
+			int k = Integer.MAX_VALUE;
+			for (Map.Entry<PlaceEntity, List<PlaceEntity>> e : emb.places
+					.entrySet()) {
+				Integer i = index.get(e.getKey());
+				if (i == null || i >= k)
+					continue;
+				for (PlaceEntity g : e.getValue()) {
+					if (g.isNode())
+						k = i;
+				}
+			}
+			return k;
+		}
+	}
+
+	/**
+	 * The matches of a redex in an agent as computed by an
+	 * {@link IncrementalMatcher}. Matches can be rewritten by
+	 * {@link RewritingRule#rewrite} and the rewrite passed to
+	 * {@link IncrementalMatcher#rematch} in order to compute the next set of
+	 * matches.
+	 */
+	public static final class MatchSet implements Iterable<Match> {
+		final IncrementalMatcher owner;
+		final Bigraph agent;
+		final List<Match> matches;
+		// whether every match retains its embedding
+		final boolean tracked;
+
+		MatchSet(IncrementalMatcher owner, Bigraph agent, List<Match> matches,
+				boolean tracked) {
+			this.owner = owner;
+			this.agent = agent;
+			this.matches = Collections.unmodifiableList(matches);
+			this.tracked = tracked;
+		}
+
+		/**
+		 * Returns the agent these matches refer to.
+		 *
+		 * @return the agent.
+		 */
+		public Bigraph getAgent() {
+			return this.agent;
+		}
+
+		/**
+		 * Returns the number of matches.
+		 *
+		 * @return the number of matches.
+		 */
+		public int size() {
+			return matches.size();
+		}
+
+		/**
+		 * Tells whether there are no matches.
+		 *
+		 * @return a boolean indicating whether there are no matches.
+		 */
+		public boolean isEmpty() {
+			return matches.isEmpty();
+		}
+
+		/**
+		 * Returns the match at the given position.
+		 *
+		 * @param index
+		 *            the position of the match.
+		 * @return the match.
+		 */
+		public Match get(int index) {
+			return matches.get(index);
+		}
+
+		@Override
+		public Iterator<Match> iterator() {
+			return matches.iterator();
+		}
+	}
+}
@@ -95,6 +95,15 @@ public class InstantiationMap implements it.uniud.mads.jlibbig.core.Instantiatio
 	}
 
 	Iterable<Bigraph> instantiate(Bigraph parameters, boolean reuse) {
+		return instantiate(parameters, reuse, null);
+	}
+
+	/*
+	 * As above, additionally mapping each node of the parameters to its first
+	 * copy, if any, unless the given map is null.
+	 */
+	Iterable<Bigraph> instantiate(Bigraph parameters, boolean reuse,
+			Map<Node, Node> copies) {
 		if (parameters.roots.size() < this.cod) {
 			throw new IncompatibleInterfaceException();
 		}
@@ -164,6 +173,8 @@ public class InstantiationMap implements it.uniud.mads.jlibbig.core.Instantiatio
 					n2s[i] = (reuse && i > 0) ? n1 : n1.replicate();
 					n2s[i].setParent(s.ps[i]);
 				}
+				if (copies != null && n2s.length > 0)
+					copies.put(n1, n2s[0]);
 				for (int j = n1.getControl().getArity() - 1; 0 <= j; j--) {
 					EditablePort p1 = n1.getPort(j);
 					EditableHandle h1 = p1.getHandle();
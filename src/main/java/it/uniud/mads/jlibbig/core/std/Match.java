@@ -21,6 +21,15 @@ public class Match extends it.uniud.mads.jlibbig.core.AbstractMatch<Bigraph> {
 
 	private BidMap<Node, Node> emb_nodes;
 
+	/*
+	 * Lazily built matches keep the agent, the redex and the embedding found
+	 * by the matcher until some component is requested. Retained matches keep
+	 * them for good (cf. IncrementalMatcher).
+	 */
+	private Bigraph src_agent, src_redex;
+	private volatile Matcher.Embedding embedding;
+	private final Matcher.SolvedEmbedding retained;
+
 	protected Match(Bigraph context, Bigraph redexImage,
 			Bigraph redexId, Bigraph param, BidMap<Node, Node> nodeEmbedding) {
 		super(context, null, param);
@@ -32,6 +41,7 @@ public class Match extends it.uniud.mads.jlibbig.core.AbstractMatch<Bigraph> {
 		this.rdxImage = redexImage;
 		this.rdxId = (redexId != null) ? redexId : Bigraph.makeEmpty(sig);
 		this.emb_nodes = nodeEmbedding;// new HashMap<>(nodesEmbedding);
+		this.retained = null;
 
 		// if (!redexImage.signature.equals(sig)
 		// || !redexLeftId.signature.equals(sig)
@@ -41,6 +51,104 @@ public class Match extends it.uniud.mads.jlibbig.core.AbstractMatch<Bigraph> {
 		// "Components of a matching should have the same signature.");
 	}
 
+	/*
+	 * Creates a match whose components are built from the given embedding
+	 * on first access.
+	 */
+	Match(Bigraph agent, Bigraph redex, Matcher.Embedding embedding) {
+		super(null, null, null);
+		this.src_agent = agent;
+		this.src_redex = redex;
+		this.embedding = embedding;
+		this.retained = null;
+	}
+
+	/*
+	 * Creates a lazily built match that retains the given embedding after
+	 * its components are built.
+	 */
+	Match(Bigraph agent, Bigraph redex, Matcher.SolvedEmbedding embedding,
+			boolean retain) {
+		super(null, null, null);
+		this.src_agent = agent;
+		this.src_redex = redex;
+		this.embedding = embedding;
+		this.retained = (retain) ? embedding : null;
+	}
+
+	/**
+	 * Builds the components of a lazily created match; the method has no
+	 * effect on matches which are already built. Subclasses accessing the
+	 * fields describing the match should invoke this method first.
+	 */
+	protected final void materialize() {
+		if (this.embedding == null)
+			return;
+		synchronized (this) {
+			if (this.embedding != null) {
+				build(this.src_agent, this.src_redex, this.embedding);
+				if (this.retained == null) {
+					this.src_agent = null;
+					this.src_redex = null;
+				}
+				this.embedding = null;
+			}
+		}
+	}
+
+	/*
+	 * Sets the components of this match to the ones described by the given
+	 * embedding.
+	 */
+	void build(Bigraph agent, Bigraph redex, Matcher.Embedding embedding) {
+		assign(Matcher.buildMatch(agent, redex, embedding));
+	}
+
+	/*
+	 * The embedding of a lazily built match, null once it is built.
+	 */
+	Matcher.Embedding getEmbedding() {
+		return this.embedding;
+	}
+
+	/*
+	 * The embedding retained by this match, if any.
+	 */
+	Matcher.SolvedEmbedding getRetainedEmbedding() {
+		return this.retained;
+	}
+
+	/*
+	 * The agent and the redex of a retained match.
+	 */
+	Bigraph getSourceAgent() {
+		return this.src_agent;
+	}
+
+	Bigraph getSourceRedex() {
+		return this.src_redex;
+	}
+
+	void assign(Match match) {
+		this.context = match.context;
+		this.param = match.param;
+		this.rdxImage = match.rdxImage;
+		this.rdxId = match.rdxId;
+		this.emb_nodes = match.emb_nodes;
+	}
+
+	@Override
+	public Bigraph getContext() {
+		materialize();
+		return this.context;
+	}
+
+	@Override
+	public Bigraph getParam() {
+		materialize();
+		return this.param;
+	}
+
 	/**
 	 * This object describes a match of F in G computed from two objects
 	 * describing these two bigraphs. The object returned by
@@ -56,6 +164,7 @@ public class Match extends it.uniud.mads.jlibbig.core.AbstractMatch<Bigraph> {
 	 * @return the image of the given node in the match redex.
 	 */
 	public Node getImage(Node node) {
+		materialize();
 		return emb_nodes.get(node);
 	}
 
@@ -66,11 +175,13 @@ public class Match extends it.uniud.mads.jlibbig.core.AbstractMatch<Bigraph> {
 	 * @return the image of the given node in the redex.
 	 */
 	public Node getPreImage(Node node) {
+		materialize();
 		return emb_nodes.getKey(node);
 	}
 
 	@Override
 	public Bigraph getRedex() {
+		materialize();
 		if (super.redex == null) {
 			super.redex = Bigraph.juxtapose(this.rdxImage, this.rdxId);
 		}
@@ -84,6 +195,7 @@ public class Match extends it.uniud.mads.jlibbig.core.AbstractMatch<Bigraph> {
 	 * @return the redex image in the match.
 	 */
 	public Bigraph getRedexImage() {
+		materialize();
 		return this.rdxImage;
 	}
 
@@ -94,11 +206,13 @@ public class Match extends it.uniud.mads.jlibbig.core.AbstractMatch<Bigraph> {
 	 * @return the id part of the match redex.
 	 */
 	public Bigraph getRedexId() {
+		materialize();
 		return this.rdxId;
 	}
 
 	@Override
 	public String toString() {
+		materialize();
 		StringBuilder builder = new StringBuilder();
 		builder.append("Match:\ncontext = ").append(context)
 				.append("\nredexImage = ").append(rdxImage)
@@ -0,0 +1,114 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/*
+ * Splittable source of the matches of a redex, backing Matcher#matchStream.
+ * As in ParallelMatcher, a node of the redex is pinned and the agent nodes it
+ * may be placed on are listed; every spliterator covers a range of these
+ * images and looks for the matches placing the pin on each of them in turn,
+ * hence every match is found by exactly one spliterator. Splitting hands over
+ * the first half of the images that are still to be searched, together with
+ * the search in progress, so that the order of the matches is preserved.
+ *
+ * Searches start lazily, when a match is requested; the information on the
+ * agent shared by spliterators running on different threads is computed
+ * beforehand.
+ */
+final class MatchSpliterator implements Spliterator<Match> {
+
+	static final int CHARACTERISTICS = ORDERED | DISTINCT | NONNULL;
+
+	private final Matcher matcher;
+	private final Bigraph agent;
+	private final CompiledRedex redex;
+	private final AgentIndex index;
+	private final Node pin;
+	private final List<Node> images;
+
+	// images yet to be searched are the ones in [next, end)
+	private int next;
+	private final int end;
+	// matches of the search in progress, if any
+	private Iterator<? extends Match> current;
+
+	MatchSpliterator(Matcher matcher, Bigraph agent, CompiledRedex redex) {
+		// the redex node with the fewest candidates is pinned
+		Node pin = null;
+		Collection<? extends Node> images = null;
+		for (Node n : redex.nodes) {
+			Collection<? extends Node> ns = agent.getNodes(n.getControl());
+			if (images == null || ns.size() < images.size()) {
+				pin = n;
+				images = ns;
+			}
+		}
+		this.matcher = matcher;
+		this.agent = agent;
+		this.redex = redex;
+		this.pin = pin;
+		this.images = new ArrayList<Node>(images);
+		this.next = 0;
+		this.end = this.images.size();
+		// collections shared by the spliterators are computed beforehand
+		agent.getNodes();
+		agent.getEdges();
+		this.index = new AgentIndex(agent);
+		index.hosts();
+	}
+
+	private MatchSpliterator(MatchSpliterator from, int end) {
+		this.matcher = from.matcher;
+		this.agent = from.agent;
+		this.redex = from.redex;
+		this.index = from.index;
+		this.pin = from.pin;
+		this.images = from.images;
+		this.next = from.next;
+		this.end = end;
+		this.current = from.current;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Match> action) {
+		if (action == null) {
+			throw new NullPointerException();
+		}
+		while (current == null || !current.hasNext()) {
+			if (next == end) {
+				current = null;
+				return false;
+			}
+			current = matcher.match(agent, redex, pin, images.get(next++),
+					index).iterator();
+		}
+		action.accept(current.next());
+		return true;
+	}
+
+	@Override
+	public Spliterator<Match> trySplit() {
+		int mid = (next + end) >>> 1;
+		if (mid == next)
+			return null;
+		MatchSpliterator prefix = new MatchSpliterator(this, mid);
+		this.current = null;
+		this.next = mid;
+		return prefix;
+	}
+
+	/*
+	 * Images are a rough estimate of the matches, yet they let parallel
+	 * streams split the search in a number of parts proportional to them.
+	 */
+	@Override
+	public long estimateSize() {
+		return end - next + ((current == null) ? 0 : 1);
+	}
+
+	@Override
+	public int characteristics() {
+		return CHARACTERISTICS;
+	}
+}
@@ -1,16 +1,20 @@
 package it.uniud.mads.jlibbig.core.std;
 
 import java.util.*;
+import java.util.stream.*;
 
 import it.uniud.mads.jlibbig.core.std.EditableNode.EditablePort;
 import it.uniud.mads.jlibbig.core.util.BidMap;
+import it.uniud.mads.jlibbig.core.util.SparseModel;
 
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+import it.uniud.mads.jlibbig.core.exceptions.MatchLimitException;
 import org.chocosolver.solver.Model;
 import org.chocosolver.solver.Solver;
 import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.expression.discrete.arithmetic.ArExpression;
 import org.chocosolver.solver.variables.IntVar;
-import org.chocosolver.solver.variables.Variable;
 
 /**
  * Provides services for computing matches of bigraphs with abstract
@@ -37,11 +41,279 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 	 */
 	public final static Matcher DEFAULT = new Matcher();
 
+	private final MatcherOptions options;
+	// nodes are matched by control unless areMatchable is overridden
+	final boolean matchesByControl = !overridesMatchable();
+
+	/**
+	 * Creates a matcher with the default options (cf.
+	 * {@link MatcherOptions#DEFAULT}).
+	 */
+	public Matcher() {
+		this(MatcherOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates a matcher with the given options describing the strategy and
+	 * the limits of its searches.
+	 *
+	 * @param options
+	 *            the options of the matcher.
+	 */
+	public Matcher(MatcherOptions options) {
+		if (options == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		this.options = options;
+	}
+
+	/**
+	 * Returns the options of this matcher.
+	 *
+	 * @return the options of the matcher.
+	 */
+	public MatcherOptions getOptions() {
+		return options;
+	}
+
 	@Override
 	public Iterable<? extends Match> match(Bigraph agent, Bigraph redex) {
+		return match(agent, new CompiledRedex(redex));
+	}
+
+	/**
+	 * Computes the matches of a compiled redex in the agent. Only the work
+	 * depending on the agent is carried out, hence this method should be
+	 * preferred when the same redex is matched against several agents.
+	 * Inheriting classes changing how matches are computed are expected to
+	 * override this method.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the compiled redex to look up for.
+	 * @return the matches of the redex in the agent.
+	 */
+	public Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex) {
+		if (!mayOccur(agent, redex))
+			return Collections.<Match> emptyList();
+		RedexComponents cs = componentsOf(agent, redex);
+		if (cs != null)
+			return cs.match(this, agent);
 		return new MatchIterable(agent, redex);
 	}
 
+	/**
+	 * Computes the matches of the redex lying below the given anchors, cf.
+	 * {@link #match(Bigraph, CompiledRedex, Collection, Map)}.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @param anchors
+	 *            the agent roots and nodes whose subtrees may host the redex
+	 *            roots.
+	 * @return the matches of the redex in the agent below the anchors.
+	 */
+	public Iterable<? extends Match> match(Bigraph agent, Bigraph redex,
+			Collection<? extends Parent> anchors) {
+		return match(agent, new CompiledRedex(redex), anchors, null);
+	}
+
+	/**
+	 * Computes the matches of the redex lying below the given anchors and
+	 * placing some redex nodes on the given agent nodes, cf.
+	 * {@link #match(Bigraph, CompiledRedex, Collection, Map)}.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @param anchors
+	 *            the agent roots and nodes whose subtrees may host the redex
+	 *            roots or {@code null} for the whole agent.
+	 * @param placements
+	 *            the agent nodes some redex nodes may be placed on or
+	 *            {@code null}.
+	 * @return the matches of the redex in the agent satisfying the anchors
+	 *         and placements.
+	 */
+	public Iterable<? extends Match> match(Bigraph agent, Bigraph redex,
+			Collection<? extends Parent> anchors,
+			Map<? extends Node, ? extends Collection<? extends Node>> placements) {
+		return match(agent, new CompiledRedex(redex), anchors, placements);
+	}
+
+	/**
+	 * Computes the matches of a compiled redex occurring in a given region of
+	 * the agent. Every redex root is hosted by an agent root or node in the
+	 * subtree of some anchor (the anchor included) and every redex node
+	 * mapped by the placements is placed on one of the agent nodes it is
+	 * mapped to. These are exactly the matches computed by
+	 * {@link #match(Bigraph, CompiledRedex)} that satisfy both conditions,
+	 * but only the anchored region of the agent contributes to the search,
+	 * hence its cost depends on the size of the region rather than on the
+	 * size of the agent. Inheriting classes changing how matches are computed
+	 * are expected to override this method.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the compiled redex to look up for.
+	 * @param anchors
+	 *            the agent roots and nodes whose subtrees may host the redex
+	 *            roots or {@code null} for the whole agent.
+	 * @param placements
+	 *            the agent nodes some redex nodes may be placed on or
+	 *            {@code null}.
+	 * @return the matches of the redex in the agent satisfying the anchors
+	 *         and placements.
+	 */
+	public Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex,
+			Collection<? extends Parent> anchors,
+			Map<? extends Node, ? extends Collection<? extends Node>> placements) {
+		if (agent == null || redex == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		if (anchors == null && placements == null)
+			return match(agent, redex);
+		Anchoring anchoring = new Anchoring(agent, redex.redex, anchors,
+				placements);
+		if (!mayOccur(agent, redex))
+			return Collections.<Match> emptyList();
+		return new MatchIterable(agent, redex, anchoring, null);
+	}
+
+	/**
+	 * Tells whether the redex occurs in the agent. The search stops at the
+	 * first solution and, unlike {@link #match}, no match is built; this
+	 * makes the method convenient for rules used as guards.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return a boolean indicating whether there is a match of the redex in
+	 *         the agent.
+	 */
+	public boolean exists(Bigraph agent, Bigraph redex) {
+		CompiledRedex compiled = new CompiledRedex(redex);
+		if (!mayOccur(agent, compiled))
+			return false;
+		RedexComponents cs = componentsOf(agent, compiled);
+		if (cs != null)
+			return cs.count(this, agent, 1) > 0;
+		return new MatchIterable(agent, compiled).exists();
+	}
+
+	/**
+	 * Computes a match of the redex in the agent, if any. Only the first
+	 * solution is looked for and only its match is built.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return the first match found or {@code null} if there are none.
+	 */
+	public Match matchFirst(Bigraph agent, Bigraph redex) {
+		Iterator<? extends Match> it = match(agent, redex).iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * Counts the matches of the redex in the agent. Solutions are enumerated
+	 * without building any match; this is much cheaper than iterating over
+	 * {@link #match}.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return the number of matches of the redex in the agent.
+	 */
+	public int count(Bigraph agent, Bigraph redex) {
+		return count(agent, redex, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Counts the matches of the redex in the agent stopping as soon as the
+	 * given bound is reached.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @param bound
+	 *            the maximum number of matches to count.
+	 * @return the number of matches of the redex in the agent or
+	 *         {@code bound} if there are more.
+	 */
+	public int count(Bigraph agent, Bigraph redex, int bound) {
+		if (bound < 0) {
+			throw new IllegalArgumentException(
+					"The bound should be a non-negative integer.");
+		}
+		CompiledRedex compiled = new CompiledRedex(redex);
+		if (!mayOccur(agent, compiled))
+			return 0;
+		RedexComponents cs = componentsOf(agent, compiled);
+		if (cs != null)
+			return cs.count(this, agent, bound);
+		return new MatchIterable(agent, compiled).count(bound);
+	}
+
+	/**
+	 * Returns a stream of the matches of the redex in the agent, cf.
+	 * {@link #matchStream(Bigraph, CompiledRedex)}.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @return a stream of the matches of the redex in the agent.
+	 */
+	public Stream<Match> matchStream(Bigraph agent, Bigraph redex) {
+		return matchStream(agent, new CompiledRedex(redex));
+	}
+
+	/**
+	 * Returns a stream of the matches of a compiled redex in the agent.
+	 * Matches are looked for only as the stream is consumed, hence
+	 * short-circuiting operations (e.g. {@code limit} or {@code findAny})
+	 * stop the search early. The stream is sequential but, unless
+	 * {@link #areMatchable} is redefined, it can be split among threads: a
+	 * node of the redex is pinned and the agent nodes it may be placed on are
+	 * searched by different threads (cf. {@link ParallelMatcher}).
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the compiled redex to look up for.
+	 * @return a stream of the matches of the redex in the agent.
+	 */
+	public Stream<Match> matchStream(final Bigraph agent,
+			final CompiledRedex redex) {
+		if (agent == null || redex == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		if (!agent.signature.equals(redex.redex.signature)) {
+			throw new UnsupportedOperationException(
+					"Agent and redex should have the same singature.");
+		}
+		if (!mayOccur(agent, redex))
+			return Stream.empty();
+		if (!splits(redex)) {
+			return StreamSupport.stream(() -> Spliterators
+					.<Match> spliteratorUnknownSize(match(agent, redex)
+							.iterator(), MatchSpliterator.CHARACTERISTICS),
+					MatchSpliterator.CHARACTERISTICS, false);
+		}
+		return StreamSupport.stream(() -> new MatchSpliterator(this, agent,
+				redex), MatchSpliterator.CHARACTERISTICS, false);
+	}
+
 	/**
 	 * The method is called to asses if a pair of nodes (one from the redex and
 	 * the other from the agent bigraph) is a potential match or not. The
@@ -66,33 +338,179 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 		return fromAgent.getControl().equals(fromRedex.getControl());
 	}
 
+	private boolean overridesMatchable() {
+		for (Class<?> c = getClass(); c != Matcher.class; c = c
+				.getSuperclass()) {
+			try {
+				c.getDeclaredMethod("areMatchable", Bigraph.class, Node.class,
+						Bigraph.class, Node.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Tells whether the search of the redex can be split into the searches
+	 * placing one of its nodes on each agent node with the same control (cf.
+	 * MatchSpliterator, ParallelMatcher and IncrementalMatcher). Inheriting
+	 * classes whose matches are not the union of the ones of these searches
+	 * redefine this method.
+	 */
+	boolean splits(CompiledRedex redex) {
+		return matchesByControl && redex.rns > 0;
+	}
+
+	/*
+	 * Computes the matches of the redex that place the redex node pin on the
+	 * agent node image. The search is confined to the subtree where the root
+	 * above pin would be hosted, hence its cost does not depend on the size of
+	 * the agent (cf. IncrementalMatcher).
+	 */
+	Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex,
+			Node pin, Node image) {
+		return match(agent, redex, pin, image, null);
+	}
+
+	/*
+	 * As above, reusing the information on the agent collected by the given
+	 * index, if any, for the redex roots other than the one above pin (cf.
+	 * ParallelMatcher).
+	 */
+	Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex,
+			Node pin, Node image, AgentIndex index) {
+		return new MatchIterable(agent, redex, Anchoring.pin(pin, image),
+				index);
+	}
+
+	/*
+	 * Computes the matches of the redex reusing the information on the agent
+	 * collected by the given index (cf. RuleSetMatcher). The index looks up
+	 * nodes by control, hence matchers redefining areMatchable are asked
+	 * through the public method.
+	 */
+	Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex,
+			AgentIndex index) {
+		if (!matchesByControl || componentsOf(agent, redex) != null)
+			return match(agent, redex);
+		if (!mayOccur(agent, redex))
+			return Collections.<Match> emptyList();
+		return new MatchIterable(agent, redex, null, index);
+	}
+
+	/*
+	 * Computes the matches of the redex charging the effort of the search to
+	 * the given budget, e.g. the one of the search of a redex the redex is a
+	 * component of (cf. RedexComponents). Matchers redefining areMatchable
+	 * are asked through the public method.
+	 */
+	Iterable<? extends Match> match(Bigraph agent, CompiledRedex redex,
+			SearchControl.Budget budget) {
+		if (!matchesByControl || budget == null)
+			return match(agent, redex);
+		if (!mayOccur(agent, redex))
+			return Collections.<Match> emptyList();
+		return new MatchIterable(agent, redex, null, null, budget);
+	}
+
+	/*
+	 * Tells whether the redex may occur in the agent by comparing the profile
+	 * of the agent with what the redex requires of it (cf. BigraphProfile);
+	 * if it may not, there are no matches and no search is needed. Matchers
+	 * redefining areMatchable may match nodes with different controls, hence
+	 * their redexes are not filtered.
+	 */
+	boolean mayOccur(Bigraph agent, CompiledRedex redex) {
+		if (!matchesByControl)
+			return true;
+		// mismatching signatures are reported by the search
+		if (!agent.signature.equals(redex.redex.signature))
+			return true;
+		return agent.getProfile().admits(redex);
+	}
+
+	/*
+	 * Returns the components of the redex if its matches are to be computed
+	 * by combining the matches of its components, null otherwise (cf.
+	 * RedexComponents).
+	 */
+	RedexComponents componentsOf(Bigraph agent, CompiledRedex redex) {
+		if (!options.hasDecomposition() || !agent.getInnerNames().isEmpty())
+			return null;
+		RedexComponents cs = redex.components();
+		return (cs.isSplit()) ? cs : null;
+	}
+
+	/*
+	 * Returns the agent parent hosting the root of the redex when the redex
+	 * node pin is placed on the agent node image, or null if there is none or
+	 * it is not in an active context.
+	 */
+	static Parent hostOf(Node pin, Node image) {
+		Parent f = image.getParent();
+		for (Parent g = pin.getParent(); g.isNode(); g = ((Node) g)
+				.getParent()) {
+			if (f.isRoot())
+				return null;
+			f = ((Node) f).getParent();
+		}
+		for (Parent p = f; p.isNode(); p = ((Node) p).getParent()) {
+			if (!((Node) p).getControl().isActive())
+				return null;
+		}
+		return f;
+	}
+
+	/*
+	 * Collects the roots and nodes of the agent whose ancestors are all
+	 * active since only these can host redex roots.
+	 */
+	static List<Parent> activeParents(Bigraph agent) {
+		List<Parent> ps = new ArrayList<>();
+		Deque<Parent> q = new ArrayDeque<Parent>(agent.getRoots());
+		while (!q.isEmpty()) {
+			Parent f = q.poll();
+			ps.add(f);
+			for (Child c : f.getChildren()) {
+				if (c.isNode() && ((Node) c).getControl().isActive()) {
+					q.add((Node) c);
+				}
+			}
+		}
+		return ps;
+	}
+
 	private class MatchIterable implements Iterable<Match> {
 		
 		final Bigraph agent, redex;
+		final CompiledRedex compiled;
 
 		// boolean agent_ancestors_is_empty = true;
 		// final Map<Child, Collection<Parent>> agent_ancestors;
 
-		// caches some collections of entities (e.g. nodes and edges are
-		// computed on the fly)
-		final List<? extends Root> agent_roots;
-		final List<? extends Site> agent_sites;
-		final Collection<? extends Node> agent_nodes;
-		final Collection<Port> agent_ports;
-		final Collection<Point> agent_points;
-		final Collection<? extends Edge> agent_edges;
 		/*
-		 * Handles are not ordered, but the use of a list simplifies some
-		 * constraints for f_vars
+		 * caches some collections of entities; collections spanning the whole
+		 * agent (e.g. nodes and handles) are computed on demand since pinned
+		 * searches never look at them
 		 */
-		final List<Handle> agent_handles;
+		final List<? extends Root> agent_roots;
+		final List<? extends Site> agent_sites;
+
+		// if not null, where the redex may be placed in the agent
+		final Anchoring anchoring;
+		// if not null, agent information shared with other searches
+		final AgentIndex index;
+		// if not null, the budget the search is charged to
+		final SearchControl.Budget budget;
 
+		// redex collections are taken from its compiled form
 		final List<? extends Root> redex_roots;
 		final List<? extends Site> redex_sites;
-		final Collection<? extends Node> redex_nodes;
+		final List<Node> redex_nodes;
 		final Collection<Point> redex_points;
-		final Collection<? extends Edge> redex_edges;
 		final List<Handle> redex_handles;
+		final List<InnerName> redex_inners;
 
 		// final boolean[] neededParam;
 
@@ -100,61 +518,54 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 		 * naming policy for sizes: a- agent r- redex -rs roots -ns nodes -ss
 		 * sites -hs handles -ps points -prs ports -ins inners -ots outers
 		 */
-		final int ars, ans, ass, ahs, aps, aprs, rrs, rns, rss, rhs, rps, rprs, rins;
+		final int ars, ass, rrs, rns, rss, rhs, rps, rprs, rins;
 
-		private MatchIterable(Bigraph agent, Bigraph redex) {
+		private MatchIterable(Bigraph agent, CompiledRedex redex) {
+			this(agent, redex, null, null);
+		}
+
+		private MatchIterable(Bigraph agent, CompiledRedex redex,
+				Anchoring anchoring, AgentIndex index) {
+			this(agent, redex, anchoring, index, null);
+		}
+
+		private MatchIterable(Bigraph agent, CompiledRedex redex,
+				Anchoring anchoring, AgentIndex index,
+				SearchControl.Budget budget) {
 			// boolean[] neededParams) {
-			if (!agent.signature.equals(redex.signature)) {
+			if (!agent.signature.equals(redex.redex.signature)) {
 				throw new UnsupportedOperationException(
 						"Agent and redex should have the same singature.");
 			}
 			this.agent = agent;
-			this.redex = redex;
+			this.redex = redex.redex;
+			this.compiled = redex;
+			this.anchoring = anchoring;
+			this.index = index;
+			this.budget = budget;
 
 			this.agent_roots = agent.getRoots();
-			this.agent_nodes = agent.getNodes();
 			this.agent_sites = agent.getSites();
-			this.agent_edges = agent.getEdges();//agent_nodes);
-			this.agent_handles = new LinkedList<Handle>(agent_edges);
-			agent_handles.addAll(agent.getOuterNames());
 
 			ars = agent_roots.size();
-			ans = agent_nodes.size();
 			ass = agent_sites.size();
-			ahs = agent_handles.size();
-
-			this.agent_ports = new HashSet<>(2*ans);
-			this.agent_points = new HashSet<>(2*ans);
-			for (Node n : agent_nodes) {
-				agent_ports.addAll(n.getPorts());
-			}
-			aprs = agent_ports.size();
-			agent_points.addAll(agent_ports);
-			agent_points.addAll(agent.getInnerNames());
-			aps = agent_points.size();
 
 			// this.agent_ancestors = new HashMap<>(ans);
 
-			this.redex_roots = redex.getRoots();
-			this.redex_sites = redex.getSites();
-			this.redex_nodes = redex.getNodes();
-			this.redex_edges = redex.getEdges();//redex_nodes);
-			this.redex_handles = new LinkedList<Handle>(redex_edges);
-			redex_handles.addAll(redex.getOuterNames());
-
-			rrs = redex_roots.size();
-			rns = redex_nodes.size();
-			rss = redex_sites.size();
-			rhs = redex_handles.size();
-
-			this.redex_points = new HashSet<>(rns);
-			for (Node n : redex_nodes) {
-				redex_points.addAll(n.getPorts());
-			}
-			rprs = redex_points.size(); // only ports
-			redex_points.addAll(redex.getInnerNames());
-			rps = redex_points.size();
-			rins = rps - rprs;
+			this.redex_roots = redex.roots;
+			this.redex_sites = redex.sites;
+			this.redex_nodes = redex.nodes;
+			this.redex_handles = redex.handles;
+			this.redex_points = redex.points;
+			this.redex_inners = redex.inners;
+
+			rrs = redex.rrs;
+			rns = redex.rns;
+			rss = redex.rss;
+			rhs = redex.rhs;
+			rprs = redex.rprs;
+			rps = redex.rps;
+			rins = redex.rins;
 
 			// this.neededParam = new boolean[rss];
 			// for (int i = 0; i < this.neededParam.length; i++) {
@@ -162,11 +573,44 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 			// }
 		}
 
+		/*
+		 * Handles are not ordered, but the use of a list simplifies some
+		 * constraints for f_vars
+		 */
+		private List<Handle> agentHandles() {
+			List<Handle> hs = new ArrayList<Handle>(agent.getEdges());
+			hs.addAll(agent.getOuterNames());
+			return hs;
+		}
+
+		private Collection<Point> agentPoints() {
+			Collection<Point> ps = new ArrayList<>();
+			for (Node n : agent.getNodes()) {
+				ps.addAll(n.getPorts());
+			}
+			ps.addAll(agent.getInnerNames());
+			return ps;
+		}
+
 		@Override
 		public Iterator<Match> iterator() {
 			return new MatchIterator();
 		}
 
+		/*
+		 * Looks for a single solution of the CSP without building its match.
+		 */
+		boolean exists() {
+			return new MatchIterator().countSolutions(1) > 0;
+		}
+
+		/*
+		 * Counts the solutions of the CSP up to the given bound.
+		 */
+		int count(int bound) {
+			return new MatchIterator().countSolutions(bound);
+		}
+
 		private class MatchIterator implements Iterator<Match> {
 
 			private boolean mayHaveNext = true;
@@ -176,19 +620,33 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 
 			final private Model model;
 			final private Solver solver;
+			// allocates the place variables and posts sums over them
+			final private SparseModel<PlaceEntity> sparse;
 			/*
 			 * variables for the place embedding problem the following variables
 			 * are indexed over pairs where the first entity is from the agent
-			 * and the second from the redex
+			 * and the second from the redex. Rows are sparse: missing rows and
+			 * entries stand for variables fixed to zero.
 			 */
-			final Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars = new IdentityHashMap<>(
-					ars + ans + ass);
+			final Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars;
+			/*
+			 * agent place entities having a variable in p_vars indexed by the
+			 * redex entity they may be placed on
+			 */
+			final Map<PlaceEntity, List<PlaceEntity>> p_cands;
 			/*
 			 * variables for the multiflux problem desrcibing the link embedding
-			 * these are indexed by redex handles and then by agent handles
+			 * these are indexed by redex handles and then by agent handles.
+			 * Agent points without a row always bypass the redex.
+			 */
+			final Map<LinkEntity, Map<LinkEntity, IntVar>> e_vars = new IdentityHashMap<>();
+			/*
+			 * variables of e_vars indexed by their redex point; for inner names
+			 * e_port_cols retains only those from agent ports
 			 */
-			final Map<LinkEntity, Map<LinkEntity, IntVar>> e_vars = new IdentityHashMap<>(
-					ahs * rhs + aps * (1 + rps));
+			final Map<Point, List<IntVar>> e_cols = new IdentityHashMap<>(rps);
+			final Map<Point, List<IntVar>> e_port_cols = new IdentityHashMap<>(
+					rins);
 			/*
 			 * variables for flux separation implicitly describing the handles
 			 * embedding these are indexed from the source to target of the flux
@@ -196,10 +654,25 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 			final Map<Handle, Map<Handle, IntVar>> f_vars = new IdentityHashMap<>(
 					rhs);
 
+			private int var_count = 0;
+
+			// statistics of the search, if there is a listener
+			final private MatchStats stats;
+
 			MatchIterator() {
+				this.stats = SearchControl.newStats(options, Matcher.this,
+						redex);
+				long t = (stats == null) ? 0 : System.nanoTime();
 				this.model = new Model();
+				this.sparse = new SparseModel<>(model);
+				this.p_vars = sparse.getPlaceVars();
+				this.p_cands = sparse.getCandidates();
 
 				solver = instantiateModel();
+				SearchControl.configure(options, budget, solver, placeVars());
+				if (stats != null)
+					stats.recordModel(model.getNbVars(), model.getNbCstrs(),
+							System.nanoTime() - t);
 
 				if (DEBUG) {
 					System.out.println("- MODEL CREATED ---------------------");
@@ -211,505 +684,368 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 				}
 			}
 
-			private Variable findVariable(String name, Variable[] vars) {
-				for (Variable v : vars) {
-					if (name.equals(v.getName())) {
-						return v;
-					}
-				}
-				// We should't encounter this case.
-				return null;
+			/*
+			 * Solution values are read straight from the variables: once the
+			 * solver stops on a solution they are all instantiated.
+			 */
+			private boolean isSet(IntVar var) {
+				return var != null && var.getValue() == 1;
 			}
 
-			private Solver instantiateModel() {
-				// MODEL
-				// ///////////////////////////////////////////////////////////
+			private int valueOf(IntVar var) {
+				return (var == null) ? 0 : var.getValue();
+			}
 
-				// int ki = 0, kj = 0, kk = 0;
-				// IntegerExpressionVariable[] vars1, vars2;
+			private <K, V> Map<K, V> rowOf(Map<K, Map<K, V>> vars, K key) {
+				Map<K, V> row = vars.get(key);
+				return (row == null) ? Collections.<K, V> emptyMap() : row;
+			}
 
-				{
-					int ki = 0;
-					for (Root i : agent_roots) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rrs + rns + rss);
-						for (Root j : redex_roots) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						// 1 // these will always be zero
-						for (Node j : redex_nodes) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							model.arithm(var, "=", 0).post();
-							row.put(j, var);
-						}
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							model.arithm(var, "=", 0).post();
-							row.put(j, var);
-						}
-						p_vars.put(i, row);
-						ki++;
-					}
-					for (Node i : agent_nodes) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rrs + rns + rss);
-						for (Root j : redex_roots) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						for (Node j : redex_nodes) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
+			/*
+			 * Records the embedding described by the current solution of the
+			 * CSP so that the match can be built after the search moves on.
+			 */
+			private Embedding snapshot() {
+				SolvedEmbedding emb = new SolvedEmbedding();
+				for (Map.Entry<PlaceEntity, Map<PlaceEntity, IntVar>> r : p_vars
+						.entrySet()) {
+					for (Map.Entry<PlaceEntity, IntVar> c : r.getValue()
+							.entrySet()) {
+						if (isSet(c.getValue())) {
+							emb.place(r.getKey(), c.getKey());
 						}
-						p_vars.put(i, row);
-						ki++;
 					}
-
-					for (Site i : agent_sites) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rss); // rrs + rns + rss);
-						/*
-						 * for (Root j : redex_roots) { IntVar var =
-						 * Choco.makeBooleanVar(ki + "_" + kj++);
-						 * model.addVariable(var); row.put(j, var); } /*for
-						 * (Node j : redex_nodes) { IntVar var =
-						 * Choco.makeBooleanVar(ki + "_" + kj++);
-						 * model.addVariable(var); row.put(j, var); }
-						 */
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
+				}
+				for (Map.Entry<Handle, Map<Handle, IntVar>> r : f_vars
+						.entrySet()) {
+					for (Map.Entry<Handle, IntVar> c : r.getValue().entrySet()) {
+						if (isSet(c.getValue())) {
+							emb.mapHandle(r.getKey(), c.getKey());
 						}
-						p_vars.put(i, row);
-						ki++;
 					}
 				}
-
-				{
-					int ki = 0;
-					for (Handle hr : redex_handles) {
-						int kj = 0;
-						Map<Handle, IntVar> row = new IdentityHashMap<>(
-								ahs);
-						for (Handle ha : agent_handles) {
-							IntVar var = model.boolVar("F_" + ki + "_" + kj++);
-							row.put(ha, var);
+				for (Map.Entry<LinkEntity, Map<LinkEntity, IntVar>> r : e_vars
+						.entrySet()) {
+					if (!r.getKey().isPoint())
+						continue;
+					Point p = (Point) r.getKey();
+					Map<LinkEntity, IntVar> row = r.getValue();
+					if (isSet(row.get(p.getHandle())))
+						continue;
+					emb.bind(p);
+					for (Map.Entry<LinkEntity, IntVar> c : row.entrySet()) {
+						if (c.getKey().isInnerName() && isSet(c.getValue())) {
+							emb.link(p, (InnerName) c.getKey());
 						}
-						f_vars.put(hr, row);
-						ki++;
 					}
+				}
+				return emb;
+			}
 
-					// vars for agent point flux
-					ki = 0;
-					for (Point pi : agent_points) {
-						int kj = 0;
-						Map<LinkEntity, IntVar> row = new IdentityHashMap<>(
-								rps + 1);
-						Handle hi = pi.getHandle();
-						IntVar var = model.boolVar("PH_" + ki);
-						row.put(hi, var);
-						for (Point pj : redex_points) {
-							var = model.boolVar("PP_" + ki + "_" + kj++);
-							row.put(pj, var);
-						}
-						e_vars.put(pi, row);
-						ki++;
-					}
+			/*
+			 * Records that the agent point pa may be linked to the redex point
+			 * pr by means of var. The row for pa and its bypass variable are
+			 * created on demand as is the flux variable between the two
+			 * handles involved.
+			 */
+			private void newPointVar(Point pa, Point pr, IntVar var) {
+				Map<LinkEntity, IntVar> row = e_vars.get(pa);
+				if (row == null) {
+					row = new IdentityHashMap<>();
+					row.put(pa.getHandle(), model.boolVar("PH_" + var_count++));
+					e_vars.put(pa, row);
+				}
+				row.put(pr, var);
+				e_cols.get(pr).add(var);
+				if (pr.isInnerName() && pa.isPort()) {
+					e_port_cols.get(pr).add(var);
+				}
+				Map<Handle, IntVar> f_row = f_vars.get(pr.getHandle());
+				if (!f_row.containsKey(pa.getHandle())) {
+					f_row.put(pa.getHandle(), model.boolVar("F_" + var_count++));
+				}
+			}
 
-					// vars for redex handles flux
-					ki = 0;
-					for (Handle hj : redex_handles) {
-						int kj = 0;
-						Map<LinkEntity, IntVar> row = new IdentityHashMap<>(
-								ahs);
-						for (Handle hi : agent_handles) {
-							IntVar var = model.intVar("HH_"
-									+ ki + "_" + kj++, 0, hi.getPoints().size());
-							row.put(hi, var);
-						}
-						e_vars.put(hj, row);
-						ki++;
-					}
+			/*
+			 * Tells whether the agent child can be placed on the redex one
+			 * assuming their parents are. This covers the node compatibility
+			 * (constraint 2), the handle types of their ports (constraint 8)
+			 * and the child counting of constraints 7 and 8 (every child of an
+			 * image is either an image or in a parameter).
+			 */
+			private boolean isFeasible(Child i, Child j) {
+				if (j.isSite()) {
+					return true;
+				}
+				if (!i.isNode()) {
+					return false;
+				}
+				Node ni = (Node) i;
+				Node nj = (Node) j;
+				if (ni.getControl().getArity() < nj.getControl().getArity()
+						|| !areMatchable(agent, ni, redex, nj)) {
+					return false;
 				}
+				for (int k = nj.getControl().getArity() - 1; 0 <= k; k--) {
+					// redex edges can not be matched to agent outers
+					if (compiled.isEdgePort(nj, k)
+							&& ni.getPort(k).getHandle().isOuterName())
+						return false;
+				}
+				int cs = compiled.nodeChildrenCount(nj);
+				int ci = ni.getChildren().size();
+				return compiled.hasOnlyNodeChildren(nj) ? ci == cs : ci >= cs;
+			}
 
-				// PLACE CONSTRAINTS //////////////////////////////////////////
+			private Solver instantiateModel() {
+				// VARIABLES //////////////////////////////////////////////////
 
-				// 2 // M_ij = 0 if nodes are different in the sense of this.eq
-				// merged with interplay constraints
 				/*
-				 * { for (Node i : agent_nodes) { Map<PlaceEntity,
-				 * IntVar> row = p_vars.get(i); for (Node j :
-				 * redex_nodes) { IntVar var = row.get(j); if
-				 * (!areMatchable(agent, i, redex, j)) {
-				 * model.addConstraint(Choco.eq(0, var)); } } }}
+				 * Variables are allocated only for pairs that pass the
+				 * structural checks below, any pair missing from p_vars,
+				 * e_vars or f_vars is implicitly zero. Candidates are
+				 * propagated top-down along the redex place graph (cf.
+				 * SparseModel): redex roots can be hosted by agent roots and
+				 * nodes in an active context (constraint 4), redex nodes and
+				 * sites by children of the candidates for their parent
+				 * (constraint 3).
 				 */
-				// ////////////////////////////////////////////////////////////
-
-				// 3 // M_ij <= M_fg if f = prnt(i) and g = prnt(j)
 				{
-					for (Node i : agent_nodes) {
-						Parent f = i.getParent();
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						Map<PlaceEntity, IntVar> f_row = p_vars.get(f);
-						for (Child j : redex_nodes) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g))
-								.post();
-						}
-						for (Child j : redex_sites) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g))
-								.post();
-						}
-					}
-					for (Site i : agent_sites) {
-						Parent f = i.getParent();
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						Map<PlaceEntity, IntVar> f_row = p_vars.get(f);
-						for (Child j : redex_sites) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g))
-								.post();
-						}
+					/*
+					 * Anchored nodes (e.g. a pin) leave few candidate hosts
+					 * for the root above them and anchors confine the others;
+					 * the whole agent is visited only if neither applies.
+					 */
+					List<Parent> hosts = (anchoring == null) ? null
+							: anchoring.hosts();
+					for (Root g : redex_roots) {
+						int cs = compiled.nodeChildrenCount(g);
+						List<Parent> fs = (anchoring == null) ? null
+								: anchoring.hostsOf(g);
+						if (fs == null) {
+							if (hosts == null)
+								hosts = (index == null) ? activeParents(agent)
+										: index.hosts();
+							fs = hosts;
+						}
+						sparse.addRoot(g, fs, cs);
 					}
 				}
-				// ////////////////////////////////////////////////////////////
+				// redex nodes come after their parents
+				{
+					List<Child> rchildren = new ArrayList<>(rns + rss);
+					rchildren.addAll(redex_nodes);
+					rchildren.addAll(redex_sites);
+					sparse.addChildren(rchildren, (i, j) -> (anchoring == null
+							|| anchoring.admits(j, i)) && isFeasible(i, j));
+				}
 
-				// 4 // M_ij = 0 if j is a root and i is not in an active
-				// context //
+				for (Point p : redex_points) {
+					e_cols.put(p, new ArrayList<IntVar>());
+				}
+				for (InnerName p : redex_inners) {
+					e_port_cols.put(p, new ArrayList<IntVar>());
+				}
+				for (Handle hr : redex_handles) {
+					f_vars.put(hr, new IdentityHashMap<Handle, IntVar>());
+					e_vars.put(hr, new IdentityHashMap<LinkEntity, IntVar>());
+				}
 
-				{
-					/*
-					 * Descends the agent parent map deactivating matching (with
-					 * redex roots) below every passive node. Nodes in qa were
-					 * found in an active context whereas children in qp are in
-					 * passive contexts or passive nodes.
-					 */
-					Deque<Node> qa = new ArrayDeque<>();
-					Deque<Child> qp = new ArrayDeque<>();
-					for (Root r : agent_roots) {
-						for (Child c : r.getChildren()) {
-							if (c.isNode()) {
-								qa.add((Node) c);
-							}
+				/*
+				 * The k-th port of an agent node is linked to the k-th port of
+				 * a redex node iff the nodes are matched, hence the place
+				 * variable is shared (interplay constraints for ports).
+				 */
+				for (Node nj : redex_nodes) {
+					for (PlaceEntity i : p_cands.get(nj)) {
+						Node ni = (Node) i;
+						IntVar m = p_vars.get(ni).get(nj);
+						for (int k = 0; k < nj.getControl().getArity(); k++) {
+							newPointVar(ni.getPort(k), nj.getPort(k), m);
 						}
 					}
-					while (!qa.isEmpty()) {
-						Node n = qa.poll();
-						if (n.getControl().isActive()) {
-							for (Child c : n.getChildren()) {
-								if (c.isNode()) {
-									qa.add((Node) c);
-								}
+				}
+
+				/*
+				 * Agent nodes that may end up in a parameter, i.e. candidates
+				 * for redex sites and their descendants, with the variables
+				 * placing them or one of their ancestors in a site. These are
+				 * needed only to link inner names; roots are kept apart from
+				 * parameters by PlaceEmbeddingPropagator.
+				 */
+				Map<Node, List<IntVar>> param_vars = new IdentityHashMap<>();
+				List<Node> param_nodes = new ArrayList<>();
+				for (Site j : (rins > 0) ? redex_sites : Collections
+						.<Site> emptyList()) {
+					for (PlaceEntity i : p_cands.get(j)) {
+						if (!i.isNode())
+							continue;
+						IntVar v = p_vars.get(i).get(j);
+						Deque<Node> q = new ArrayDeque<>();
+						q.add((Node) i);
+						while (!q.isEmpty()) {
+							Node n = q.poll();
+							List<IntVar> vs = param_vars.get(n);
+							if (vs == null) {
+								vs = new ArrayList<>();
+								param_vars.put(n, vs);
+								param_nodes.add(n);
 							}
-						} else {
-							qp.add(n);
-						}
-					}
-					qa.clear();
-					while (!qp.isEmpty()) {
-						Child i = qp.poll();
-						Map<PlaceEntity, IntVar> row = p_vars.get(i);
-						for (Root j : redex_roots) {
-							model.arithm(row.get(j), "=", 0).post();
-						}
-						if (i.isNode()) {
-							for (Child c : ((Node) i).getChildren()) {
+							vs.add(v);
+							for (Child c : n.getChildren()) {
 								if (c.isNode()) {
-									qp.add((Node) c);
+									q.add((Node) c);
 								}
 							}
 						}
 					}
 				}
 
-				// /////////////////////////////////////////////////////////////////
-
-				// 5 // sum M_ij = 1 if j not in sites
+				/*
+				 * Redex inner names can be linked only to ports of nodes in a
+				 * parameter and to agent inner names. Points of agent outer
+				 * names can not reach inner names on redex edges (constraint
+				 * 8).
+				 */
 				{
-					IntVar[] vars = new IntVar[ars + ans];
-					for (Root j : redex_roots) {
-						int k = 0;
-						for (PlaceEntity i : p_vars.keySet()) {
-							if (i.isSite())
-								continue;
-							vars[k++] = p_vars.get(i).get(j);
-						}
-						model.sum(vars, "=", 1).post();
+					List<Point> ps = new ArrayList<>();
+					for (Node n : param_nodes) {
+						ps.addAll(n.getPorts());
 					}
-					vars = new IntVar[ans + ass];
-					for (Node j : redex_nodes) {
-						int k = 0;
-						for (PlaceEntity i : p_vars.keySet()) {
-							if (i.isRoot())
+					ps.addAll(agent.getInnerNames());
+					for (Point pa : ps) {
+						for (InnerName pr : redex_inners) {
+							if (pr.getHandle().isEdge()
+									&& pa.getHandle().isOuterName())
 								continue;
-							vars[k++] = p_vars.get(i).get(j);
-						}
-						model.sum(vars, "=", 1).post();
-					}
-				}
-				// //////////////////////////////////////////////////////////////////
-
-				// 6 // n sum(j not root) M_ij + sum(j root) M_ij <= n if i in
-				// nodes
-				{
-					for (Node i : agent_nodes) {
-						Map<PlaceEntity, IntVar> row = p_vars.get(i);
-						IntVar[] vars = new IntVar[rns + rss];
-						int k = 0;
-						for (PlaceEntity j : redex_nodes) {
-							vars[k++] = row.get(j);
+							newPointVar(pa, pr,
+									model.boolVar("PP_" + var_count++));
 						}
-						for (PlaceEntity j : redex_sites) {
-							vars[k++] = row.get(j);
-						}
-						IntVar t1 = model.intVar(rrs);
-						IntVar c = model.intVar(0);
-						for (IntVar v : vars) {
-							c = c.add(v).intVar();
-						}
-						c = c.mul(t1).intVar();
-
-						vars = new IntVar[rrs];
-						k = 0;
-						for (Root j : redex_roots) {
-							vars[k++] = row.get(j);
-						}
-
-						t1 = model.intVar(0);
-						for (IntVar v : vars) {
-							t1 = t1.add(v).intVar();
-						}
-						t1 = t1.add(c).intVar();
-						model.arithm(t1, "<=", rrs).post();
 					}
-					/*
-					 * for (Site i : agent_sites) { Map<PlaceEntity,
-					 * IntVar> row = p_vars.get(i); IntVar[]
-					 * vars = new IntVar[rss]; int k = 0; for
-					 * (PlaceEntity j : redex_sites) { vars[k++] = row.get(j); }
-					 * IntegerExpressionVariable c = Choco.mult(rrs,
-					 * Choco.sum(vars));
-					 * 
-					 * vars = new IntVar[rrs]; k = 0; for (Root j :
-					 * redex_roots) { vars[k++] = row.get(j); }
-					 * model.addConstraint(Choco.geq(rrs, Choco.sum(c,
-					 * Choco.sum(vars)))); }
-					 */
 				}
-				// /////////////////////////////////////////////////////////////////
 
-				// 7 // |chld(f)| M_fg <= sum(i chld(f), j in chld(g)) M_ij if
-				// f,g in nodes
+				// idle redex handles may be matched with idle agent handles
 				{
-					for (Parent f : agent_nodes) {
-						Collection<? extends Child> cf = f.getChildren();
-						for (Parent g : redex_nodes) {
-							Collection<? extends Child> cg = g.getChildren();
-							IntVar[] vars = new IntVar[cf
-									.size() * cg.size()];
-							int k = 0;
-							for (PlaceEntity i : cf) {
-								for (PlaceEntity j : cg) {
-									vars[k++] = p_vars.get(i).get(j);
+					List<Handle> idles = null;
+					for (Handle hr : redex_handles) {
+						if (!hr.getPoints().isEmpty())
+							continue;
+						if (idles == null) {
+							if (index != null) {
+								idles = index.idleHandles();
+							} else {
+								idles = new ArrayList<>();
+								for (Handle ha : agentHandles()) {
+									if (ha.getPoints().isEmpty())
+										idles.add(ha);
 								}
 							}
-							IntVar chld = p_vars.get(f).get(g);
-							model.sum(vars, ">=", chld.mul(cf.size()).intVar()).post();
+						}
+						Map<Handle, IntVar> f_row = f_vars.get(hr);
+						for (Handle ha : idles) {
+							if (hr.isEdge() && ha.isOuterName())
+								continue;
+							f_row.put(ha, model.boolVar("F_" + var_count++));
 						}
 					}
 				}
-				// /////////////////////////////////////////////////////////////////
 
-				// 8 // |chld(g) not sites| M_fg <= sum(i chld(f), j chld(g) not
-				// sites) if g in roots
-				{
-					Map<Root, Collection<? extends Child>> cgs = new HashMap<>(
-							rrs);
-					for (Root g : redex_roots) {
-						Collection<? extends Child> cg = new HashSet<>(
-								g.getChildren());
-						cg.removeAll(redex_sites);
-						cgs.put(g, cg);
-					}
-					for (PlaceEntity f : p_vars.keySet()) {
-						if (f.isSite())
+				// vars for redex handles flux
+				Map<Handle, List<IntVar>> hh_cols = new IdentityHashMap<>();
+				for (Handle hr : redex_handles) {
+					if (hr.getPoints().isEmpty())
+						continue;
+					Map<LinkEntity, IntVar> row = e_vars.get(hr);
+					for (Handle ha : f_vars.get(hr).keySet()) {
+						int n = ha.getPoints().size();
+						if (n == 0)
 							continue;
-						Collection<? extends Child> cf = ((Parent) f)
-								.getChildren();
-						for (Root g : redex_roots) {
-							Collection<? extends Child> cg = cgs.get(g);
-							IntVar[] vars = new IntVar[cf
-									.size() * cg.size()];
-							int k = 0;
-							for (Child i : cf) {
-								for (Child j : cg) {
-									vars[k++] = p_vars.get(i).get(j);
-								}
-							}
-							IntVar chld = p_vars.get(f).get(g);
-							model.sum(vars, ">=", chld.mul(cg.size()).intVar()).post();
-						}
+						IntVar var = model.intVar("HH_" + var_count++, 0, n);
+						row.put(ha, var);
+						List<IntVar> col = hh_cols.get(ha);
+						if (col == null) {
+							col = new ArrayList<>();
+							hh_cols.put(ha, col);
+						}
+						col.add(var);
 					}
 				}
-				// /////////////////////////////////////////////////////////////////
 
+				// PLACE CONSTRAINTS //////////////////////////////////////////
+
+				// 2 // M_ij = 0 if nodes are different in the sense of this.eq
+				// ! implicit, see isFeasible //
+
+				// 3 // M_ij <= M_fg if f = prnt(i) and g = prnt(j)
+				// 4 // M_ij = 0 if j is a root and i is not in an active
+				// context
+				// ! implicit, see the allocation of variables //
+				// 5 // sum M_ij = 1 if j not in sites
+				// 6 // n sum(j not root) M_ij + sum(j root) M_ij <= n if i in
+				// nodes
+				// 7 // |chld(f)| M_fg <= sum(i chld(f), j in chld(g)) M_ij if
+				// f,g in nodes
+				// 8 // |chld(g) not sites| M_fg <= sum(i chld(f), j chld(g) not
+				// sites) if g in roots
 				// 9 // sum(f in ancs(i)\{i}, g in m) M_fg + M_ij <= 1 if j in
 				// roots
-/* The class bigraph provides ancestor for us				
- 				if (agent_ancestors_is_empty) {
-					
-					 * acquire agent_ancestors and re-check if it still is empty
-					 * if this is the case, descends the agent parent map and
-					 * builds agent_ancestors
-					 
-					synchronized (agent_ancestors) {
-						if (agent_ancestors_is_empty) {
-							Stack<Parent> ancs = new Stack<>();
-							Stack<Parent> visit = new Stack<>();
-							for (Root r : agent_roots) {
-								ancs.clear();
-								visit.add(r);
-								while (!visit.isEmpty()) {
-									Parent p = visit.pop();
-									if (p.isNode()) {
-										Node n = (Node) p;
-										while (!ancs.isEmpty()
-												&& ancs.peek() != n.getParent())
-											ancs.pop();
-									}
-									// put itself as an ancestor and
-									// process each of its children
-									ancs.push(p);
-									for (Child c : p.getChildren()) {
-										if (c.isParent()) {
-											visit.add((Parent) c);
-										}
-										agent_ancestors.put(c, new ArrayList<>(
-												ancs));
-									}
-								}
-							}
-							agent_ancestors_is_empty = false;
-						}
-					}
-				}*/
-				{
-					for (Node i : agent_nodes) {
-						Collection<Parent> ancs = agent.getAncestors(i);
-						IntVar[] vars = new IntVar[(ancs.size()) * rss];
-						int k = 0;
-						for (Parent f : ancs) {
-							if (f.isNode()) {
-								Map<PlaceEntity, IntVar> f_row = p_vars
-										.get(f);
-								for (Site g : redex_sites) {
-									vars[k++] = f_row.get(g);
-								}
-							}
-						}
-						
-						IntVar sum = model.intVar(0);
-						for (IntVar v : vars) {
-							sum = sum.add(v).intVar();
-						}
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						for (Root j : redex_roots) {
-							model.arithm(sum.add(i_row.get(j)).intVar(), 
-									"<=", 1).post();
-						}
-					}
-				}
+				// 10 // sum M_ij <= 1 if i in sites
+				// ! all enforced by a single propagator reasoning on the
+				// place graphs, see PlaceEmbeddingPropagator //
+				PlaceEmbeddingPropagator.constraint(model, compiled, p_vars,
+						p_cands).post();
 
-				// 10 //
-				{
-					IntVar[] vars = new IntVar[rrs + rns + rss];
-					for (Site i : agent_sites) {
-						vars = p_vars.get(i).values().toArray(vars);
-						model.sum(vars, "<=", 1).post();
-					}
-				}
 				// LINK CONSTRAINTS ///////////////////////////////////////////
 
 				// 1 // source constraints
 				{
-					IntVar[] vars = new IntVar[rps + 1];
-					for (Point p : agent_points) {
-						vars = e_vars.get(p).values().toArray(vars);
-						model.sum(vars, "=", 1).post();
+					for (Map.Entry<LinkEntity, Map<LinkEntity, IntVar>> r : e_vars
+							.entrySet()) {
+						if (r.getKey().isPoint()) {
+							sparse.postSum(r.getValue().values(), "=", 1);
+						}
 					}
 				}
 				// 2 // sink constraints
+				// points without a row always bypass
 				{
-					for (Handle ha : agent_handles) {
+					List<IntVar> vars = new ArrayList<>();
+					for (Map.Entry<Handle, List<IntVar>> c : hh_cols.entrySet()) {
+						Handle ha = c.getKey();
 						Collection<? extends Point> ps = ha.getPoints();
-						IntVar[] vars1 = new IntVar[rhs
-								+ ps.size()];
-						int k = 0;
+						int n = ps.size();
+						vars.clear();
 						for (Point p : ps) {
-							vars1[k++] = e_vars.get(p).get(ha);
-						}
-						for (Handle hr : redex_handles) {
-							vars1[k++] = e_vars.get(hr).get(ha);
+							Map<LinkEntity, IntVar> row = e_vars.get(p);
+							if (row == null) {
+								n--;
+							} else {
+								vars.add(row.get(ha));
+							}
 						}
-						model.sum(vars1, "=", ps.size()).post();
+						vars.addAll(c.getValue());
+						sparse.postSum(vars, "=", n);
 					}
 				}
 
 				// 3 // flux preservation
 				{
-					IntVar[] vars1 = new IntVar[ahs];
+					List<IntVar> vars = new ArrayList<>();
 					for (Handle hr : redex_handles) {
-						Collection<? extends Point> ps = hr.getPoints();
-						int k = 0;
-						IntVar[] vars2 = new IntVar[aps * ps.size()];
-						for (Point pa : agent_points) {
-							Map<LinkEntity, IntVar> row = e_vars
-									.get(pa);
-							for (Point pr : ps) {
-								vars2[k++] = row.get(pr);
-							}
-						}
-						vars1 = e_vars.get(hr).values().toArray(vars1);
-						IntVar sum1 = model.intVar(0);
-						for (IntVar v : vars1) {
-							sum1 = sum1.add(v).intVar();
-						}
-						model.sum(vars2, "=", sum1).post();
-					}
-				}
-
-				// 4 // redex ports as "sources"
-				{
-					IntVar[] vars = new IntVar[aps];
-					for (Point pr : redex_points) {
-						if (pr.isPort()) {
-							int k = 0;
-							for (Point pa : agent_points) {
-								vars[k++] = e_vars.get(pa).get(pr);
-							}
-							model.sum(vars, "=", 1).post();
+						vars.clear();
+						for (Point pr : hr.getPoints()) {
+							vars.addAll(e_cols.get(pr));
 						}
+						sparse.postDiff(vars, 1, e_vars.get(hr).values(), "=");
 					}
 				}
+
+				// 4 // redex ports as "sources"
+				// ! implied by place constraint 5 since the variables for
+				// ports are shared //
 				{
-					IntVar[] vars = new IntVar[aprs];
-					for (Point pr : redex_points) {
-						if (pr.isInnerName()) {
-							int k = 0;
-							for (Point pa : agent_ports) {
-								vars[k++] = e_vars.get(pa).get(pr);
-							}
-							model.sum(vars, "=", 1).post();
-						}
+					for (List<IntVar> col : e_port_cols.values()) {
+						sparse.postSum(col, "=", 1);
 					}
 				}
 
@@ -717,48 +1053,54 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 				{
 					for (Handle hr : redex_handles) {
 						Map<Handle, IntVar> f_row = f_vars.get(hr);
-						Map<LinkEntity, IntVar> e_row = e_vars.get(hr);
-						if (!hr.getPoints().isEmpty()) {
-							for (Handle ha : agent_handles) {
-								if (!ha.getPoints().isEmpty()) {
-									IntVar vf = f_row.get(ha);
-									IntVar ve = e_row.get(ha);
-									model.arithm(ve, "<=", 
-											vf.mul(ha.getPoints().size())
-											.intVar()).post();
-									model.arithm(vf, "<=", ve).post();
-								}
-							}
+						for (Map.Entry<LinkEntity, IntVar> c : e_vars.get(hr)
+								.entrySet()) {
+							Handle ha = (Handle) c.getKey();
+							IntVar vf = f_row.get(ha);
+							IntVar ve = c.getValue();
+							sparse.postDiff(Collections.singletonList(ve), ha
+									.getPoints().size(), Collections
+									.singletonList(vf), "<=");
+							model.arithm(vf, "<=", ve).post();
 						}
 					}
 				}
 				// 6 // relation between f_vars and e_vars for points
 				{
+					List<IntVar> vars = new ArrayList<>();
 					for (Handle hr : redex_handles) {
-						Map<Handle, IntVar> f_row = f_vars.get(hr);
 						Collection<? extends Point> ps = hr.getPoints();
-						for (Handle ha : agent_handles) {
-							IntVar vf = f_row.get(ha);
-							int k = 0;
-							IntVar[] vars = new IntVar[ps
-									.size() * ha.getPoints().size()];
+						if (ps.isEmpty())
+							continue;
+						for (Map.Entry<Handle, IntVar> c : f_vars.get(hr)
+								.entrySet()) {
+							Handle ha = c.getKey();
+							IntVar vf = c.getValue();
+							vars.clear();
 							for (Point pa : ha.getPoints()) {
-								Map<LinkEntity, IntVar> e_row = e_vars
-										.get(pa);
+								Map<LinkEntity, IntVar> e_row = e_vars.get(pa);
+								if (e_row == null) {
+									// pa bypasses ha
+									if (hr.isEdge()) {
+										model.arithm(vf, "=", 0).post();
+									}
+									continue;
+								}
 								for (Point pr : ps) {
 									IntVar ve = e_row.get(pr);
-									vars[k++] = ve;
-									model.arithm(ve, "<=", vf).post();
+									if (ve != null) {
+										vars.add(ve);
+										model.arithm(ve, "<=", vf).post();
+									}
 								}
 								// // constraint 10
 								if (hr.isEdge()) {
-									model.arithm(
-											vf.add(e_vars.get(pa).get(ha)).intVar(), 
-											"<=", 1).post();
+									model.arithm(vf, "+", e_row.get(ha), "<=",
+											1).post();
 								}
 							}
-							if (!ps.isEmpty() || !ha.getPoints().isEmpty())
-								model.sum(vars, ">=", vf).post();
+							sparse.postDiff(vars, 1, Collections
+									.singletonList(vf), ">=");
 						}
 					}
 				}
@@ -768,149 +1110,138 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 					 * Redex handles can be matched to at most one handle of the
 					 * redex
 					 */
-					IntVar[] vars = new IntVar[ahs];
 					for (Handle hr : redex_handles) {
 						Map<Handle, IntVar> f_row = f_vars.get(hr);
-						model.sum(f_row.values().toArray(vars), "<=", 1)
-							.post();
+						if (f_row.size() > 1) {
+							sparse.postSum(f_row.values(), "<=", 1);
+						}
 					}
 				}
 
 				// 8 // handles type
+				// 9 // embeddings are injective w.r.t edges
 				{
 					/*
-					 * Redex handles can not be matched to agent outers
+					 * Redex edges can not be matched to agent outers (implicit)
+					 * and agent handles can not be the image of both edges and
+					 * outer names.
 					 */
-					ListIterator<Handle> ir1 = redex_handles.listIterator(0);
-					while (ir1.hasNext()) {
-						Handle hr1 = ir1.next();
-						Map<Handle, IntVar> f_row1 = f_vars.get(hr1);
-						if (hr1.isEdge()) {
-							for (Handle ha : agent_handles) {
-								// edges belongs to edges
-								if (ha.isOuterName())
-									model.arithm(f_row1.get(ha), "=", 0)
-										.post();
-							}
-						}
-						ListIterator<Handle> ir2 = redex_handles
-								.listIterator(ir1.nextIndex());
-						while (ir2.hasNext()) {
-							Handle hr2 = ir2.next();
-							Map<Handle, IntVar> f_row2 = f_vars
-									.get(hr2);
-							if (hr1.isEdge() != hr2.isEdge()) {
-								for (Handle ha : agent_handles) {
-									model.arithm(f_row1.get(ha)
-											.add(f_row2.get(ha)).intVar(), 
-											"<=", 1).post();
-								}
+					Map<Handle, List<IntVar>> edge_cols = new IdentityHashMap<>();
+					Map<Handle, List<IntVar>> outer_cols = new IdentityHashMap<>();
+					for (Handle hr : redex_handles) {
+						Map<Handle, List<IntVar>> cols = (hr.isEdge()) ? edge_cols
+								: outer_cols;
+						for (Map.Entry<Handle, IntVar> c : f_vars.get(hr)
+								.entrySet()) {
+							List<IntVar> col = cols.get(c.getKey());
+							if (col == null) {
+								col = new ArrayList<>();
+								cols.put(c.getKey(), col);
 							}
+							col.add(c.getValue());
 						}
 					}
-				}
-				// 9 // embeddings are injective w.r.t edges
-				{
-					IntVar[] vars = new IntVar[redex_edges.size()];
-					for (Handle ha : agent_handles) {
-						int k = 0;
-						for (Handle hr : redex_edges) {
-							vars[k++] = f_vars.get(hr).get(ha);
+					List<IntVar> vars = new ArrayList<>();
+					for (Map.Entry<Handle, List<IntVar>> c : edge_cols
+							.entrySet()) {
+						List<IntVar> col = c.getValue();
+						if (col.size() > 1) {
+							sparse.postSum(col, "<=", 1);
+						}
+						List<IntVar> outers = outer_cols.get(c.getKey());
+						if (outers == null)
+							continue;
+						for (IntVar v : outers) {
+							vars.clear();
+							vars.addAll(col);
+							vars.add(v);
+							sparse.postSum(vars, "<=", 1);
 						}
-						model.sum(vars, "<=", 1).post();
 					}
 				}
 				// 10 // points of handles mapped to redex edges can not bypass
 				// it
 				// ! merged with constraint 6 //
-				/*
-				 * { for (Handle hr : redex_edges) { Map<Handle,
-				 * IntVar> f_row = f_vars.get(hr); for (Handle ha :
-				 * agent_handles) { IntVar vf = f_row.get(ha); for
-				 * (Point p : ha.getPoints()) { model.addConstraint(Choco.geq(1,
-				 * Choco.sum(e_vars.get(p).get(ha), vf))); } } } }
-				 */
 
 				// INTERPLAY CONSTRAINTS //////////////////////////////////////
+
+				// bound nodes and their ports
+				// ! implicit, see the allocation of variables //
 				{
-					// bound nodes and their ports
-					for (Node ni : agent_nodes) {
-						Map<PlaceEntity, IntVar> p_row = p_vars
-								.get(ni);
-						for (Node nj : redex_nodes) {
-							IntVar m = p_row.get(nj);
-							boolean comp = areMatchable(agent, ni, redex, nj);
-							// ! Place constraint 2 //
-							if (!comp) {
-								model.arithm(m, "=", 0).post();
+					/*
+					 * a port can match an inner name in the redex if its node
+					 * is in the params.
+					 */
+					List<IntVar> vars = new ArrayList<>();
+					for (Node ni : param_nodes) {
+						for (Port pi : ni.getPorts()) {
+							Map<LinkEntity, IntVar> row = e_vars.get(pi);
+							if (row == null)
+								continue;
+							vars.clear();
+							for (InnerName in : redex_inners) {
+								IntVar v = row.get(in);
+								if (v != null)
+									vars.add(v);
 							}
-							for (int i = ni.getControl().getArity() - 1; 0 <= i; i--) {
-								Map<LinkEntity, IntVar> e_row = e_vars
-										.get(ni.getPort(i));
-								for (int j = nj.getControl().getArity() - 1; 0 <= j; j--) {
-									if (comp && i == j) {
-										/* ni <-> nj iff ni[k] <-> nj[k] */
-										model.arithm(e_row.get(nj.getPort(j)),
-												"=", m).post();
-									} else {
-										/* ni[f] <!> nj[g] if ni<!>nj || f != g */
-										model.arithm(e_row.get(nj.getPort(j)),
-												"=", 0).post();
-									}
-								}
+							if (!vars.isEmpty()) {
+								sparse.postDiff(vars, 1, param_vars.get(ni),
+										"<=");
 							}
 						}
 					}
 				}
-				{
-					for (Node ni : agent_nodes) {
-						// sum over ni anchestors and redex roots
-						Collection<Parent> ancs = agent.getAncestors(ni);
-						IntVar[] vars2 = new IntVar[(1 + ancs
-								.size()) * rss];
-						int k2 = 0;
-						for (Parent f : ancs) {
-							Map<PlaceEntity, IntVar> row = p_vars
-									.get(f);
-							for (Site g : redex_sites) {
-								vars2[k2++] = row.get(g);
-							}
-						}
-						{// ancs does not include ni
-							Map<PlaceEntity, IntVar> row = p_vars
-									.get(ni);
-							for (Site g : redex_sites) {
-								vars2[k2++] = row.get(g);
-							}
-						}
-						IntVar sum2 = model.intVar(0);
-						for (IntVar v : vars2) {
-							sum2 = sum2.add(v).intVar();
-						}
+				// SYMMETRY BREAKING //////////////////////////////////////////
 
-						for (Port pi : ni.getPorts()) {
-							Map<LinkEntity, IntVar> row = e_vars
-									.get(pi);
-							// all the redex points
-							// IntVar[] vars3 = new
-							// IntVar[rprs];
-							IntVar[] vars4 = new IntVar[rins];
-							// int k3 = 0;
-							int k4 = 0;
-							for (Point in : redex.getInnerNames()) {
-								IntVar var = row.get(in);
-								vars4[k4++] = var;
+				/*
+				 * Nodes of a symmetry class of the redex are placed on agent
+				 * nodes sorted by CompiledRedex.compareImages: the images
+				 * are numbered following this order and the number of the
+				 * image of each node must exceed that of its predecessor.
+				 */
+				if (options.hasSymmetryBreaking()) {
+					for (int j = 0; j < rns; j++) {
+						int i = compiled.symmetricPredecessor(j);
+						if (i < 0)
+							continue;
+						Node nj = redex_nodes.get(j);
+						Node ni = redex_nodes.get(i);
+						List<Node> fs = new ArrayList<>();
+						for (PlaceEntity f : p_cands.get(ni)) {
+							fs.add((Node) f);
+						}
+						for (PlaceEntity f : p_cands.get(nj)) {
+							fs.add((Node) f);
+						}
+						Collections.sort(fs, new Comparator<Node>() {
+							@Override
+							public int compare(Node n1, Node n2) {
+								return CompiledRedex.compareImages(n1, n2);
 							}
-							/*
-							 * a port can match an inner name in the redex if
-							 * its node is in the params.
-							 */
-							model.sum(vars4, "<=", sum2).post();
-						}
+						});
+						Map<Node, Integer> ord = new IdentityHashMap<>();
+						for (Node f : fs) {
+							if (!ord.containsKey(f))
+								ord.put(f, ord.size() + 1);
+						}
+						IntVar[] vars = new IntVar[fs.size()];
+						int[] coeffs = new int[fs.size()];
+						int n = 0;
+						for (PlaceEntity f : p_cands.get(nj)) {
+							coeffs[n] = ord.get(f);
+							vars[n++] = p_vars.get(f).get(nj);
+						}
+						for (PlaceEntity f : p_cands.get(ni)) {
+							coeffs[n] = -ord.get(f);
+							vars[n++] = p_vars.get(f).get(ni);
+						}
+						if (n > 0)
+							model.scalar(vars, coeffs, ">=", 1).post();
 					}
 				}
+
 				// END OF CONSTRAINTS /////////////////////////////////////////
-				
+
 				return model.getSolver();
 			}
 
@@ -939,7 +1270,61 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 
 			private void noMoreSolutions() {
 				this.mayHaveNext = false;
+				if (budget != null)
+					budget.charge(solver.getNodeCount(), solver.getFailCount());
 				this.solver.hardReset();
+				if (stats != null)
+					stats.recordEnd();
+			}
+
+			/*
+			 * Looks for the next solution of the CSP. A search stopped by a
+			 * limit or a cancellation ends the enumeration and is reported to
+			 * the caller, since it does not prove there are no more solutions.
+			 */
+			private boolean solve() {
+				long t = (stats == null) ? 0 : System.nanoTime();
+				boolean found = solver.solve();
+				if (stats != null)
+					stats.recordSolve(found, System.nanoTime() - t,
+							solver.getNodeCount(), solver.getBackTrackCount(),
+							solver.getFailCount());
+				if (found)
+					return true;
+				MatcherOptions opts = options;
+				if (SearchControl.isStopped(solver)) {
+					MatchLimitException e = SearchControl.limitReached(
+							opts, budget, solver);
+					noMoreSolutions();
+					throw e;
+				}
+				return false;
+			}
+
+			/*
+			 * The variables describing the place embedding; some strategies
+			 * decide them before the others.
+			 */
+			private IntVar[] placeVars() {
+				List<IntVar> vs = new ArrayList<>();
+				for (Map<PlaceEntity, IntVar> row : p_vars.values()) {
+					vs.addAll(row.values());
+				}
+				return vs.toArray(new IntVar[vs.size()]);
+			}
+
+			/*
+			 * Counts the solutions of the CSP up to the given bound without
+			 * building their matches; the iterator is exhausted afterwards.
+			 */
+			private int countSolutions(int bound) {
+				firstRun = false;
+				int count = 0;
+				while (count < bound && solve()) {
+					count++;
+				}
+				noMoreSolutions();
+				return count;
 			}
 
 			private void fetchSolution() {
@@ -947,7 +1332,7 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 				if (DEBUG_PRINT_SOLUTION_FETCH)
 					System.out.println("fetch solution has been invoked...");
 				// look for a solution for the CSP
-				boolean hasSolution = solver.solve();
+				boolean hasSolution = solve();
 				if (!hasSolution) {
 					if (DEBUG_PRINT_SOLUTION_FETCH)
 						System.out
@@ -956,6 +1341,10 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 					return;
 				}
 				if (DEBUG_PRINT_CSP_SOLUTIONS) {
+					Collection<? extends Node> agent_nodes = agent.getNodes();
+					Collection<Point> agent_points = agentPoints();
+					List<Handle> agent_handles = agentHandles();
+					int ahs = agent_handles.size();
 					System.out.println("Solution: #"
 							+ solver.getSolutionCount());
 					System.out.print('\n');
@@ -987,59 +1376,53 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 								+ "d|", i);
 						c = 1;
 						Root ri = agent_roots.get(i);
-						Map<PlaceEntity, IntVar> row = p_vars.get(ri);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, ri);
 						for (int j = 0; j < rrs; j++) {
 							Root rj = redex_roots.get(j);
-							IntVar v = findVariable(row.get(rj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(rj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (Node nj : redex_nodes) {
-							IntVar v = findVariable(row.get(nj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(nj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (int j = 0; j < rss; j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(sj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					for (Node ni : agent_nodes) {
 						System.out.printf("\n%-" + p_cell_width[0] + "s|", ni);
 						c = 1;
-						Map<PlaceEntity, IntVar> row = p_vars.get(ni);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, ni);
 						for (int j = 0; j < rrs; j++) {
 							Root rj = redex_roots.get(j);
-							IntVar v = findVariable(row.get(rj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(rj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (Node nj : redex_nodes) {
-							IntVar v = findVariable(row.get(nj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(nj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (int j = 0; j < rss; j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(sj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					for (int i = 0; i < ass; i++) {
 						System.out.printf("\nS_%-" + (p_cell_width[0] - 2)
 								+ "d|", i);
 						c = 1;
-						Root ri = agent_roots.get(i);
-						Map<PlaceEntity, IntVar> row = p_vars.get(ri);
+						Site si = agent_sites.get(i);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, si);
 						for (int j = 0; j < rrs; j++) {
 							System.out.printf("%" + p_cell_width[c++] + "d|",
 									' ');
@@ -1050,10 +1433,9 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 						}
 						for (int j = 0; j < rss; j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(sj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					System.out.println('\n');
@@ -1085,19 +1467,17 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 					for (Point pi : agent_points) {
 						System.out.printf("\n%-" + e_cell_width[0] + "s|", pi);
 						c = 1;
-						Map<LinkEntity, IntVar> row = e_vars.get(pi);
+						Map<LinkEntity, IntVar> row = rowOf(e_vars, pi);
 						for (Point pj : redex_points) {
-							IntVar v = findVariable(row.get(pj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(pj));
 							System.out.printf("%" + e_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (Handle hj : agent_handles) {
 							if (row.containsKey(hj)) {
-								IntVar v = findVariable(row.get(hj).getName(), 
-										model.getVars()).asIntVar();
+								int v = valueOf(row.get(hj));
 								System.out.printf("%" + e_cell_width[c++]
-										+ "d|", v.getValue());
+										+ "d|", v);
 							} else {
 								System.out.printf("%" + e_cell_width[c++]
 										+ "c|", ' ');
@@ -1113,10 +1493,9 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 									' ');
 						}
 						for (Handle hj : agent_handles) {
-							IntVar v = findVariable(row.get(hj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(hj));
 							System.out.printf("%" + e_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 
@@ -1134,498 +1513,674 @@ public class Matcher implements it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigr
 						c = 1;
 						Map<Handle, IntVar> row = f_vars.get(hi);
 						for (Handle hj : agent_handles) {
-							IntVar v = findVariable(row.get(hj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(hj));
 							System.out.printf("%" + f_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					System.out.println('\n');
 				}
 
-				/*
-				 * Visit the agent and clones it adding replicas to context,
-				 * redex or params bigraphs depending on the seolution of the
-				 * CSP above
-				 */
+				long t = (stats == null) ? 0 : System.nanoTime();
+				this.nextMatch = new Match(agent, redex, snapshot());
+				if (stats != null)
+					stats.recordExtraction(System.nanoTime() - t);
+			}
+		}
+	}
 
-				// context
-				Bigraph ctx = new Bigraph(agent.signature);
-				// redex
-				Bigraph rdx = new Bigraph(agent.signature);
-				// parameters
-				Bigraph prm = new Bigraph(agent.signature);
-				Bigraph id = new Bigraph(agent.signature);
-				// an injective map from redex's nodes to rdx's ones
-				BidMap<Node, Node> nEmb = new BidMap<>(rns);
-
-				// replicated sites and roots
-				EditableSite ctx_sites_dic[] = new EditableSite[rrs];
-				EditableSite rdx_sites_dic[] = new EditableSite[rss];
-				EditableRoot rdx_roots_dic[] = new EditableRoot[rrs];
-				EditableRoot prm_roots_dic[] = new EditableRoot[rss];
-				EditableSite prm_sites_dic[] = new EditableSite[ass];
-
-				// replicated handles lookup tables
-				Map<Handle, EditableHandle> ctx_hnd_dic = new IdentityHashMap<>();
-				Map<Handle, EditableHandle> rdx_hnd_dic = new IdentityHashMap<>();
-				Map<Handle, EditableHandle> prm_hnd_dic = new IdentityHashMap<>();
-
-				Map<Handle, EditableHandle> handle_img = new IdentityHashMap<>(
-						rhs);
-
-				class VState {
-					final PlaceEntity c; // the agent root/node to be visited
-					final PlaceEntity i; // if present, is the image of c in the
-											// redex
-					final EditableParent p; // the replicated parent
-					final Bigraph b;
-
-					VState(Bigraph b, EditableParent p, PlaceEntity c) {
-						this(b, p, c, null);
-					}
+	/**
+	 * Describes an embedding of a redex into an agent, i.e. a solution of the
+	 * matching problem, in the terms used by {@link #buildMatch} to split the
+	 * agent into context, redex image, identity and parameter. Queries are
+	 * always issued with the first argument from the agent and the second
+	 * from the redex.
+	 */
+	interface Embedding {
+		/**
+		 * Tells whether the agent place entity is placed on the redex one:
+		 * for redex roots it means that the agent root or node hosts the root,
+		 * for redex nodes that the agent node is their image and for redex
+		 * sites that the agent child is a top-level entity of the parameter
+		 * under the site.
+		 */
+		boolean isPlaced(PlaceEntity fromAgent, PlaceEntity fromRedex);
 
-					VState(Bigraph b, EditableParent p, PlaceEntity c,
-							PlaceEntity i) {
-						this.i = i;
-						this.c = c;
-						this.p = p;
-						this.b = b;
-					}
+		/**
+		 * Returns the agent handle the given redex handle is mapped to, if
+		 * any.
+		 */
+		Handle getHandleImage(Handle fromRedex);
 
-					// @Override
-					// public String toString() {
-					// return "[p=" +this.p + ", c=" + this.c + ", i=" + this.i
-					// + "]";
-					// }
+		/**
+		 * Tells whether the agent point (an inner name or a port of a node in
+		 * the parameter) bypasses the redex.
+		 */
+		boolean isBypassing(Point fromAgent);
+
+		/**
+		 * Tells whether the agent point (an inner name or a port of a node in
+		 * the parameter) is linked to the given redex inner name.
+		 */
+		boolean isLinked(Point fromAgent, InnerName fromRedex);
+	}
+
+	/*
+	 * An embedding recorded once and for all, e.g. from a solution that the
+	 * search is about to discard. Lazily built matches keep one of these
+	 * instead of the solver that found it.
+	 */
+	static final class SolvedEmbedding implements Embedding {
+		// agent place entities to the redex ones they are placed on
+		final Map<PlaceEntity, List<PlaceEntity>> places = new IdentityHashMap<>();
+		// redex handles to their images
+		final Map<Handle, Handle> handles = new IdentityHashMap<>();
+		private final Map<Point, InnerName> links = new IdentityHashMap<>();
+		// agent points that do not bypass the redex
+		private final Set<Point> bound = Collections
+				.newSetFromMap(new IdentityHashMap<Point, Boolean>());
+
+		void place(PlaceEntity fromAgent, PlaceEntity fromRedex) {
+			List<PlaceEntity> l = places.get(fromAgent);
+			if (l == null) {
+				l = new ArrayList<>(1);
+				places.put(fromAgent, l);
+			}
+			l.add(fromRedex);
+		}
+
+		void mapHandle(Handle fromRedex, Handle fromAgent) {
+			handles.put(fromRedex, fromAgent);
+		}
+
+		void bind(Point fromAgent) {
+			bound.add(fromAgent);
+		}
+
+		void link(Point fromAgent, InnerName fromRedex) {
+			bound.add(fromAgent);
+			links.put(fromAgent, fromRedex);
+		}
+
+		/*
+		 * Adds the embedding of a component of the redex whose entities are
+		 * mapped to the ones of the redex by the given maps (cf.
+		 * RedexComponents).
+		 */
+		void include(SolvedEmbedding part,
+				Map<PlaceEntity, PlaceEntity> placeMap,
+				Map<Handle, Handle> handleMap,
+				Map<InnerName, InnerName> innerMap) {
+			for (Map.Entry<PlaceEntity, List<PlaceEntity>> e : part.places
+					.entrySet()) {
+				for (PlaceEntity r : e.getValue()) {
+					place(e.getKey(), placeMap.get(r));
 				}
-				Deque<VState> q = new ArrayDeque<>();
+			}
+			for (Map.Entry<Handle, Handle> e : part.handles.entrySet()) {
+				mapHandle(handleMap.get(e.getKey()), e.getValue());
+			}
+			for (Point p : part.bound) {
+				InnerName i = part.links.get(p);
+				if (i == null)
+					bind(p);
+				else
+					link(p, innerMap.get(i));
+			}
+		}
+
+		/*
+		 * Returns the same embedding for another agent whose entities are the
+		 * images of these under the given maps; ports follow the nodes they
+		 * belong to. Returns null if some entity has no image.
+		 */
+		SolvedEmbedding rename(Map<PlaceEntity, PlaceEntity> placeMap,
+				Map<Handle, Handle> handleMap) {
+			SolvedEmbedding emb = new SolvedEmbedding();
+			for (Map.Entry<PlaceEntity, List<PlaceEntity>> e : places
+					.entrySet()) {
+				PlaceEntity f = placeMap.get(e.getKey());
+				if (f == null)
+					return null;
+				emb.places.put(f, new ArrayList<>(e.getValue()));
+			}
+			for (Map.Entry<Handle, Handle> e : handles.entrySet()) {
+				Handle h = handleMap.get(e.getValue());
+				if (h == null)
+					return null;
+				emb.handles.put(e.getKey(), h);
+			}
+			for (Point p : bound) {
+				Point q = renamePort(p, placeMap);
+				if (q == null)
+					return null;
+				InnerName i = links.get(p);
+				if (i == null)
+					emb.bind(q);
+				else
+					emb.link(q, i);
+			}
+			return emb;
+		}
+
+		private static Point renamePort(Point p,
+				Map<PlaceEntity, PlaceEntity> placeMap) {
+			if (!p.isPort())
+				return null;
+			Port o = (Port) p;
+			PlaceEntity n = placeMap.get(o.getNode());
+			return (n == null) ? null : ((Node) n).getPort(o.getNumber());
+		}
 
-				for (EditableOuterName o1 : agent.outers.values()) {
-					EditableOuterName o2 = o1.replicate();
-					ctx.outers.put(o2.getName(), o2);
-					o2.setOwner(ctx);
-					ctx_hnd_dic.put(o1, o2);
+		@Override
+		public boolean isPlaced(PlaceEntity fromAgent, PlaceEntity fromRedex) {
+			List<PlaceEntity> l = places.get(fromAgent);
+			if (l != null) {
+				for (PlaceEntity e : l) {
+					if (e == fromRedex)
+						return true;
 				}
-				for (EditableOuterName o0 : redex.outers.values()) {
-					// replicate the handle
-					String name = o0.getName();
-					EditableOuterName o2 = new EditableOuterName(name);
-					rdx.outers.put(name, o2);
-					o2.setOwner(rdx);
-					rdx_hnd_dic.put(o0, o2);
-					// update ctx inner face
-					EditableInnerName i1 = new EditableInnerName(name);
-					ctx.inners.put(name, i1);
-					// find the handle for i1
-					EditableHandle h1 = handle_img.get(o0);
-					if (h1 == null) {
-						// cache miss
-						Map<Handle, IntVar> f_row = f_vars.get(o0);
-						for (Handle h : agent_handles) {
-							IntVar var = findVariable(f_row.get(h).getName(),
-									model.getVars()).asIntVar();
-							if (var.getValue() == 1) {
-								h1 = h.getEditable();
-								break;
-							}
-						}
-						if (h1 == null) {
-							h1 = new EditableEdge();
+			}
+			return false;
+		}
+
+		@Override
+		public Handle getHandleImage(Handle fromRedex) {
+			return handles.get(fromRedex);
+		}
+
+		@Override
+		public boolean isBypassing(Point fromAgent) {
+			return !bound.contains(fromAgent);
+		}
+
+		@Override
+		public boolean isLinked(Point fromAgent, InnerName fromRedex) {
+			return links.get(fromAgent) == fromRedex;
+		}
+	}
+
+	/**
+	 * Splits the agent into the context, redex image, identity and parameter
+	 * of a match as described by the given embedding of the redex.
+	 * 
+	 * @param agent
+	 *            the bigraph describing the agent.
+	 * @param redex
+	 *            the bigraph describing the redex.
+	 * @param emb
+	 *            the embedding of the redex into the agent.
+	 * @return the match.
+	 */
+	static Match buildMatch(Bigraph agent, Bigraph redex, Embedding emb) {
+		return buildMatch(agent, redex, emb, null, null);
+	}
+
+	/*
+	 * As above, additionally recording the replicas of the agent nodes that
+	 * end up in the context and in the parameter, unless the given maps are
+	 * null.
+	 */
+	static Match buildMatch(Bigraph agent, Bigraph redex, Embedding emb,
+			Map<Node, Node> ctxReplicas, Map<Node, Node> prmReplicas) {
+		List<? extends Root> redex_roots = redex.getRoots();
+		List<? extends Site> redex_sites = redex.getSites();
+		List<? extends Site> agent_sites = agent.getSites();
+		int rrs = redex_roots.size();
+		int rss = redex_sites.size();
+		int ass = agent_sites.size();
+
+		/*
+		 * Visit the agent and clones it adding replicas to context,
+		 * redex or params bigraphs depending on the given embedding
+		 */
+
+		// context
+		Bigraph ctx = new Bigraph(agent.signature);
+		// redex
+		Bigraph rdx = new Bigraph(agent.signature);
+		// parameters
+		Bigraph prm = new Bigraph(agent.signature);
+		Bigraph id = new Bigraph(agent.signature);
+		// an injective map from redex's nodes to rdx's ones
+		BidMap<Node, Node> nEmb = new BidMap<>(redex.getNodes().size());
+
+		// replicated sites and roots
+		EditableSite ctx_sites_dic[] = new EditableSite[rrs];
+		EditableSite rdx_sites_dic[] = new EditableSite[rss];
+		EditableRoot rdx_roots_dic[] = new EditableRoot[rrs];
+		EditableRoot prm_roots_dic[] = new EditableRoot[rss];
+		EditableSite prm_sites_dic[] = new EditableSite[ass];
+
+		// replicated handles lookup tables
+		Map<Handle, EditableHandle> ctx_hnd_dic = new IdentityHashMap<>();
+		Map<Handle, EditableHandle> rdx_hnd_dic = new IdentityHashMap<>();
+		Map<Handle, EditableHandle> prm_hnd_dic = new IdentityHashMap<>();
+
+		Map<Handle, EditableHandle> handle_img = new IdentityHashMap<>();
+		// ports of the parameters bypassing the redex and their replicas
+		List<EditablePort> bypassing = new ArrayList<>();
+
+		class VState {
+			final PlaceEntity c; // the agent root/node to be visited
+			final PlaceEntity i; // if present, is the image of c in the
+									// redex
+			final EditableParent p; // the replicated parent
+			final Bigraph b;
+
+			VState(Bigraph b, EditableParent p, PlaceEntity c) {
+				this(b, p, c, null);
+			}
+
+			VState(Bigraph b, EditableParent p, PlaceEntity c,
+					PlaceEntity i) {
+				this.i = i;
+				this.c = c;
+				this.p = p;
+				this.b = b;
+			}
+
+			// @Override
+			// public String toString() {
+			// return "[p=" +this.p + ", c=" + this.c + ", i=" + this.i
+			// + "]";
+			// }
+		}
+		Deque<VState> q = new ArrayDeque<>();
+
+		for (EditableOuterName o1 : agent.outers.values()) {
+			EditableOuterName o2 = o1.replicate();
+			ctx.outers.put(o2.getName(), o2);
+			o2.setOwner(ctx);
+			ctx_hnd_dic.put(o1, o2);
+		}
+		for (EditableOuterName o0 : redex.outers.values()) {
+			// replicate the handle
+			String name = o0.getName();
+			EditableOuterName o2 = new EditableOuterName(name);
+			rdx.outers.put(name, o2);
+			o2.setOwner(rdx);
+			rdx_hnd_dic.put(o0, o2);
+			// update ctx inner face
+			EditableInnerName i1 = new EditableInnerName(name);
+			ctx.inners.put(name, i1);
+			// find the handle for i1
+			EditableHandle h1 = handle_img.get(o0);
+			if (h1 == null) {
+				// cache miss
+				Handle h = emb.getHandleImage(o0);
+				h1 = (h == null) ? new EditableEdge() : h.getEditable();
+				handle_img.put(o0, h1);
+			}
+			EditableHandle h2 = ctx_hnd_dic.get(h1);
+			if (h2 == null) {
+				h2 = h1.replicate();
+				h2.setOwner(ctx);
+				ctx_hnd_dic.put(h1, h2);
+			}
+			i1.setHandle(h2);
+		}
+		for (EditableInnerName i0 : redex.inners.values()) {
+			String name = i0.getName();
+			EditableInnerName i2 = new EditableInnerName(name);
+			// set replicated handle for i2
+			EditableHandle h0 = i0.getHandle();
+			// looks for an existing replica
+			EditableHandle h2 = rdx_hnd_dic.get(h0);
+			if (h2 == null) {
+				EditableHandle h1 = handle_img.get(h0);
+				if (h1 == null) {
+					// cache miss
+					Handle h = emb.getHandleImage(h0);
+					h1 = (h == null) ? new EditableEdge() : h.getEditable();
+					handle_img.put(h0, h1);
+				}
+				h2 = h1.replicate();
+				h2.setOwner(rdx);
+				rdx_hnd_dic.put(h0, h2);
+			}
+			i2.setHandle(h2);
+			rdx.inners.put(name, i2);
+
+			EditableOuterName o2 = new EditableOuterName(name);
+			o2.setOwner(prm);
+			prm.outers.put(name, o2);
+		}
+		for (EditableRoot r0 : agent.roots) {
+			q.add(new VState(ctx, null, r0));
+		}
+		Collection<Root> unseen_rdx_roots = new LinkedList<>(
+				redex_roots);
+		while (!q.isEmpty()) {
+			VState v = q.poll();
+			if (v.b == ctx) {
+				// the entity visited belongs to the context
+				EditableParent p1 = (EditableParent) v.c;
+				EditableParent p2 = p1.replicate();
+				if (p1.isRoot()) {
+					// ordering is ensured by the queue
+					EditableRoot r2 = (EditableRoot) p2;
+					ctx.roots.add(r2);
+					r2.setOwner(ctx);
+				} else { // isNode()
+					EditableNode n1 = (EditableNode) p1;
+					// unseen_agt_nodes.remove(n1);
+					EditableNode n2 = (EditableNode) p2;
+					n2.setParent(v.p);
+					if (ctxReplicas != null)
+						ctxReplicas.put(n1, n2);
+					// replicate links from node ports
+					for (int i = n1.getControl().getArity() - 1; -1 < i; i--) {
+						EditablePort o = n1.getPort(i);
+						EditableHandle h1 = o.getHandle();
+						// looks for an existing replica
+						EditableHandle h2 = ctx_hnd_dic.get(h1);
+						if (h2 == null) {
+							h2 = h1.replicate();
+							h2.setOwner(ctx);
+							ctx_hnd_dic.put(h1, h2);
 						}
-						handle_img.put(o0, h1);
+						n2.getPort(i).setHandle(h2);
 					}
-					EditableHandle h2 = ctx_hnd_dic.get(h1);
-					if (h2 == null) {
-						h2 = h1.replicate();
-						h2.setOwner(ctx);
-						ctx_hnd_dic.put(h1, h2);
-					}
-					i1.setHandle(h2);
 				}
-				for (EditableInnerName i0 : redex.inners.values()) {
-					String name = i0.getName();
-					EditableInnerName i2 = new EditableInnerName(name);
-					// set replicated handle for i2
-					EditableHandle h0 = i0.getHandle();
-					// looks for an existing replica
-					EditableHandle h2 = rdx_hnd_dic.get(h0);
-					if (h2 == null) {
-						EditableHandle h1 = handle_img.get(h0);
-						if (h1 == null) {
-							// cache miss
-							Map<Handle, IntVar> f_row = f_vars.get(h0);
-							for (Handle h : agent_handles) {
-								IntVar var = findVariable(f_row.get(h).getName(),
-										model.getVars()).asIntVar();
-								if (var.getValue() == 1) {
-									h1 = h.getEditable();
-									break;
+				// enqueue children, if necessary
+				Collection<Child> rcs = new HashSet<>(p1.getChildren());
+				Iterator<Root> ir = unseen_rdx_roots.iterator();
+				while (ir.hasNext()) {
+					Root r0 = ir.next();
+					// make a site for each root whose image is p1
+					if (emb.isPlaced(p1, r0)) {
+						// root_img.put(r0, p1);
+						ir.remove();
+						int k = redex_roots.indexOf(r0);
+						EditableSite s = new EditableSite();
+						s.setParent(p2);
+						ctx_sites_dic[k] = s;
+						EditableRoot r2 = new EditableRoot();
+						r2.setOwner(rdx);
+						rdx_roots_dic[k] = r2;
+						for (Child c0 : r0.getChildren()) {
+							Iterator<Child> ic = rcs.iterator();
+							boolean notMatched = true;
+							while (ic.hasNext()) {
+								Child c1 = ic.next();
+								if (emb.isPlaced(c1, c0)) {
+									notMatched = false;
+									q.add(new VState(rdx, r2, c1, c0));
+									ic.remove();
 								}
 							}
-							if (h1 == null) {
-								h1 = new EditableEdge();
+							if (notMatched && c0.isSite()) {
+								// closed site
+								q.add(new VState(rdx, r2, null, c0));
 							}
-							handle_img.put(h0, h1);
 						}
-						h2 = h1.replicate();
-						h2.setOwner(rdx);
-						rdx_hnd_dic.put(h0, h2);
 					}
-					i2.setHandle(h2);
-					rdx.inners.put(name, i2);
-
-					EditableOuterName o2 = new EditableOuterName(name);
-					o2.setOwner(prm);
-					prm.outers.put(name, o2);
 				}
-				for (EditableInnerName i1 : agent.inners.values()) {
-					String name1 = i1.getName();
-					EditableInnerName i2 = new EditableInnerName(name1);
-					EditableHandle h2 = null;
-					Map<LinkEntity, IntVar> row = e_vars.get(i1);
-					EditableHandle h1 = i1.getHandle();
-
-					IntVar var = findVariable(row.get(h1).getName(),
-							model.getVars()).asIntVar();
-					if (var.getValue() == 1) {
-						/*
-						 * this inner name bypasses the redex. Checks if the
-						 * handle already has an image in this parameter
-						 * otherwise creates a suitable name in prm. This may
-						 * require some additional step if the handle already
-						 * has an image in the context.
-						 */
-						h2 = prm_hnd_dic.get(h1);
+				for (Child c1 : rcs) {
+					q.add(new VState(ctx, p2, c1));
+				}
+			} else if (v.b == rdx) {
+				// the entity visited is the image of something in the
+				// redex
+				if (v.i.isNode()) {
+					EditableNode n0 = (EditableNode) v.i;
+					EditableNode n1 = (EditableNode) v.c;
+					EditableNode n2 = n1.replicate();
+					nEmb.put(n0, n1);
+					n2.setParent(v.p);
+					// replicate links from node ports
+					for (int i = n0.getControl().getArity() - 1; -1 < i; i--) {
+						EditablePort o0 = n0.getPort(i);
+						EditableHandle h0 = o0.getHandle();
+						// looks for an existing replica
+						EditableHandle h2 = rdx_hnd_dic.get(h0);
 						if (h2 == null) {
-							EditableHandle h3 = ctx_hnd_dic.get(h1);
-							if (h3 != null) {
-								/*
-								 * h1 has an image in the context, add an inner
-								 * to it and link it down to the parameter
-								 * passing through id
-								 */
-								EditableInnerName i3 = new EditableInnerName();
-								i3.setHandle(h3);
-								String name2 = i3.getName();
-								ctx.inners.put(name2, i3);
-								// add it also to id
-								EditableOuterName o4 = new EditableOuterName(
-										name2);
-								o4.setOwner(id);
-								id.outers.put(name2, o4);
-								EditableInnerName i4 = new EditableInnerName(
-										name2);
-								i4.setHandle(o4);
-								id.inners.put(name2, i4);
-
-								EditableOuterName o2 = new EditableOuterName(
-										name2);
-								o2.setOwner(prm);
-								prm.outers.put(name2, o2);
-								h2 = o2;
-							} else {
-								/*
-								 * this handle is not required by the context,
-								 * use an edge to reduce the interface of id
-								 */
-								h2 = new EditableEdge(prm);
+							h2 = n1.getPort(i).getHandle().replicate();
+							h2.setOwner(rdx);
+							rdx_hnd_dic.put(h0, h2);
+						}
+						n2.getPort(i).setHandle(h2);
+					}
+					Collection<Child> cs1 = new HashSet<>(
+							n1.getChildren());
+					for (Child c0 : n0.getChildren()) {
+						Iterator<Child> ic = cs1.iterator();
+						boolean notMatched = true;
+						while (ic.hasNext()) {
+							Child c1 = ic.next();
+							if (emb.isPlaced(c1, c0)) {
+								notMatched = false;
+								q.add(new VState(rdx, n2, c1, c0));
+								ic.remove();
 							}
-							prm_hnd_dic.put(h1, h2);
 						}
-					} else {
+						if (notMatched && c0.isSite()) {
+							// closed site
+							q.add(new VState(rdx, n2, null, c0));
+						}
+					}
+				} else {
+					EditableSite s0 = (EditableSite) v.i;
+					int k = redex_sites.indexOf(s0);
+					if (rdx_sites_dic[k] == null) {
+						EditableSite s2 = new EditableSite();
+						s2.setParent(v.p);
+						rdx_sites_dic[k] = s2;
+					}
+					// if (neededParam[k]) {
+					if (prm_roots_dic[k] == null) {
+						prm_roots_dic[k] = new EditableRoot(prm);
+					}
+					EditableRoot r2 = prm_roots_dic[k];
+					if (v.c != null)
+						q.add(new VState(prm, r2, v.c));
+					// }
+				}
+			} else {
+				// the entity visited belongs to some parameter
+				if (v.c.isNode()) {
+					EditableNode n1 = (EditableNode) v.c;
+					EditableNode n2 = n1.replicate();
+					n2.setParent(v.p);
+					if (prmReplicas != null)
+						prmReplicas.put(n1, n2);
+					for (int i = n1.getControl().getArity() - 1; -1 < i; i--) {
+						EditablePort p1 = n1.getPort(i);
+						EditablePort p2 = n2.getPort(i);
+
+						if (emb.isBypassing(p1)) {
+							/*
+							 * this port bypasses the redex, it is linked
+							 * once the whole context is replicated (see
+							 * below).
+							 */
+							bypassing.add(p1);
+							bypassing.add(p2);
+							continue;
+						}
+						EditableHandle h2 = null;
 						for (InnerName i0 : redex.inners.values()) {
-							IntVar v = findVariable(row.get(i0).getName(),
-									model.getVars()).asIntVar();
-							if (v.getValue() == 1) {
+							if (emb.isLinked(p1, i0)) {
 								/*
-								 * this port is attached to the redex inner i0.
-								 * Add it as an outer of prm, if it is not
-								 * already present, and link it to p2 resp.
+								 * this port is attached to the
+								 * redex inner i0. Add it as an
+								 * outer of prm, if it is not
+								 * already present, and link it to
+								 * p2 resp.
 								 */
 								String name = i0.getName();
 								h2 = prm.outers.get(name);
 								if (h2 == null) {
 									EditableOuterName o2 = new EditableOuterName(
 											name);
-									o2.setOwner(prm);
-									prm.outers.put(name, o2);
+									o2.setOwner(v.b);
+									v.b.outers.put(name, o2);
 									h2 = o2;
 								}
 								break;
 							}
 						}
+						p2.setHandle(h2);
+					}
+					for (Child c1 : n1.getChildren()) {
+						q.add(new VState(v.b, n2, c1));
 					}
-					i2.setHandle(h2);
-					prm.inners.put(name1, i2);
+				} else {
+					// v.c.isSite()
+					EditableSite s1 = (EditableSite) v.c;
+					EditableSite s2 = s1.replicate();
+					s2.setParent(v.p);
+					prm_sites_dic[agent_sites.indexOf(s1)] = s2;
 				}
-				for (EditableRoot r0 : agent.roots) {
-					q.add(new VState(ctx, null, r0));
+			}
+		}
+
+		/*
+		 * Ports of the parameters bypassing the redex are linked once the
+		 * whole context is replicated: the context may share their handles
+		 * only through nodes visited after them.
+		 */
+		for (int k = 0; k < bypassing.size(); k += 2) {
+			EditableHandle h1 = bypassing.get(k).getHandle();
+			/*
+			 * Checks if the handle already has an image in the parameters
+			 * otherwise creates a suitable name in prm. This may require
+			 * some additional step if the handle already has an image in
+			 * the context.
+			 */
+			EditableHandle h2 = prm_hnd_dic.get(h1);
+			if (h2 == null) {
+				EditableHandle h3 = ctx_hnd_dic.get(h1);
+				if (h3 != null) {
+					/*
+					 * h1 has an image in the context, add an inner to it
+					 * and link it down to the parameter passing through id
+					 */
+					EditableInnerName i3 = new EditableInnerName();
+					i3.setHandle(h3);
+					String name = i3.getName();
+					ctx.inners.put(name, i3);
+					// add it also to id
+					EditableOuterName o4 = new EditableOuterName(name);
+					o4.setOwner(id);
+					id.outers.put(name, o4);
+					EditableInnerName i4 = new EditableInnerName(name);
+					i4.setHandle(o4);
+					id.inners.put(name, i4);
+
+					EditableOuterName o2 = new EditableOuterName(name);
+					o2.setOwner(prm);
+					prm.outers.put(name, o2);
+					h2 = o2;
+				} else {
+					/*
+					 * this handle is not required by the context, use an
+					 * edge to reduce the interface of id
+					 */
+					h2 = new EditableEdge(prm);
 				}
-				Collection<Root> unseen_rdx_roots = new LinkedList<>(
-						redex_roots);
-				while (!q.isEmpty()) {
-					VState v = q.poll();
-					if (v.b == ctx) {
-						// the entity visited belongs to the context
-						EditableParent p1 = (EditableParent) v.c;
-						EditableParent p2 = p1.replicate();
-						if (p1.isRoot()) {
-							// ordering is ensured by the queue
-							EditableRoot r2 = (EditableRoot) p2;
-							ctx.roots.add(r2);
-							r2.setOwner(ctx);
-						} else { // isNode()
-							EditableNode n1 = (EditableNode) p1;
-							// unseen_agt_nodes.remove(n1);
-							EditableNode n2 = (EditableNode) p2;
-							n2.setParent(v.p);
-							// replicate links from node ports
-							for (int i = n1.getControl().getArity() - 1; -1 < i; i--) {
-								EditablePort o = n1.getPort(i);
-								EditableHandle h1 = o.getHandle();
-								// looks for an existing replica
-								EditableHandle h2 = ctx_hnd_dic.get(h1);
-								if (h2 == null) {
-									h2 = h1.replicate();
-									h2.setOwner(ctx);
-									ctx_hnd_dic.put(h1, h2);
-								}
-								n2.getPort(i).setHandle(h2);
-							}
-						}
-						// enqueue children, if necessary
-						Collection<Child> rcs = new HashSet<>(p1.getChildren());
-						Map<PlaceEntity, IntVar> p_row = p_vars
-								.get(p1);
-						Iterator<Root> ir = unseen_rdx_roots.iterator();
-						while (ir.hasNext()) {
-							Root r0 = ir.next();
-							// make a site for each root whose image is p1
-							IntVar var_tmp = findVariable(p_row.get(r0).getName(),
-									model.getVars()).asIntVar();
-							if (var_tmp.getValue() == 1) {
-								// root_img.put(r0, p1);
-								ir.remove();
-								int k = redex_roots.indexOf(r0);
-								EditableSite s = new EditableSite();
-								s.setParent(p2);
-								ctx_sites_dic[k] = s;
-								EditableRoot r2 = new EditableRoot();
-								r2.setOwner(rdx);
-								rdx_roots_dic[k] = r2;
-								for (Child c0 : r0.getChildren()) {
-									Iterator<Child> ic = rcs.iterator();
-									boolean notMatched = true;
-									while (ic.hasNext()) {
-										Child c1 = ic.next();
-										IntVar var = findVariable(p_vars.get(c1)
-												.get(c0).getName(),
-												model.getVars()).asIntVar();
-										if (var.getValue() == 1) {
-											notMatched = false;
-											q.add(new VState(rdx, r2, c1, c0));
-											ic.remove();
-										}
-									}
-									if (notMatched && c0.isSite()) {
-										// closed site
-										q.add(new VState(rdx, r2, null, c0));
-									}
-								}
-							}
-						}
-						for (Child c1 : rcs) {
-							q.add(new VState(ctx, p2, c1));
-						}
-					} else if (v.b == rdx) {
-						// the entity visited is the image of something in the
-						// redex
-						if (v.i.isNode()) {
-							EditableNode n0 = (EditableNode) v.i;
-							EditableNode n1 = (EditableNode) v.c;
-							EditableNode n2 = n1.replicate();
-							nEmb.put(n0, n1);
-							n2.setParent(v.p);
-							// replicate links from node ports
-							for (int i = n0.getControl().getArity() - 1; -1 < i; i--) {
-								EditablePort o0 = n0.getPort(i);
-								EditableHandle h0 = o0.getHandle();
-								// looks for an existing replica
-								EditableHandle h2 = rdx_hnd_dic.get(h0);
-								if (h2 == null) {
-									h2 = n1.getPort(i).getHandle().replicate();
-									h2.setOwner(rdx);
-									rdx_hnd_dic.put(h0, h2);
-								}
-								n2.getPort(i).setHandle(h2);
-							}
-							Collection<Child> cs1 = new HashSet<>(
-									n1.getChildren());
-							for (Child c0 : n0.getChildren()) {
-								Iterator<Child> ic = cs1.iterator();
-								boolean notMatched = true;
-								while (ic.hasNext()) {
-									Child c1 = ic.next();
-									IntVar var = findVariable(p_vars.get(c1)
-											.get(c0).getName(),
-											model.getVars()).asIntVar();
-									if (var.getValue() == 1) {
-										notMatched = false;
-										q.add(new VState(rdx, n2, c1, c0));
-										ic.remove();
-									}
-								}
-								if (notMatched && c0.isSite()) {
-									// closed site
-									q.add(new VState(rdx, n2, null, c0));
-								}
-							}
-						} else {
-							EditableSite s0 = (EditableSite) v.i;
-							int k = redex_sites.indexOf(s0);
-							if (rdx_sites_dic[k] == null) {
-								EditableSite s2 = new EditableSite();
-								s2.setParent(v.p);
-								rdx_sites_dic[k] = s2;
-							}
-							// if (neededParam[k]) {
-							if (prm_roots_dic[k] == null) {
-								prm_roots_dic[k] = new EditableRoot(prm);
-							}
-							EditableRoot r2 = prm_roots_dic[k];
-							if (v.c != null)
-								q.add(new VState(prm, r2, v.c));
-							// }
-						}
+				prm_hnd_dic.put(h1, h2);
+			}
+			bypassing.get(k + 1).setHandle(h2);
+		}
+		for (EditableInnerName i1 : agent.inners.values()) {
+			String name1 = i1.getName();
+			EditableInnerName i2 = new EditableInnerName(name1);
+			EditableHandle h2 = null;
+			EditableHandle h1 = i1.getHandle();
+
+			if (emb.isBypassing(i1)) {
+				/*
+				 * this inner name bypasses the redex. Checks if the
+				 * handle already has an image in this parameter
+				 * otherwise creates a suitable name in prm. This may
+				 * require some additional step if the handle already
+				 * has an image in the context.
+				 */
+				h2 = prm_hnd_dic.get(h1);
+				if (h2 == null) {
+					EditableHandle h3 = ctx_hnd_dic.get(h1);
+					if (h3 != null) {
+						/*
+						 * h1 has an image in the context, add an inner
+						 * to it and link it down to the parameter
+						 * passing through id
+						 */
+						EditableInnerName i3 = new EditableInnerName();
+						i3.setHandle(h3);
+						String name2 = i3.getName();
+						ctx.inners.put(name2, i3);
+						// add it also to id
+						EditableOuterName o4 = new EditableOuterName(
+								name2);
+						o4.setOwner(id);
+						id.outers.put(name2, o4);
+						EditableInnerName i4 = new EditableInnerName(
+								name2);
+						i4.setHandle(o4);
+						id.inners.put(name2, i4);
+
+						EditableOuterName o2 = new EditableOuterName(
+								name2);
+						o2.setOwner(prm);
+						prm.outers.put(name2, o2);
+						h2 = o2;
 					} else {
-						// the entity visited belongs to some parameter
-						if (v.c.isNode()) {
-							EditableNode n1 = (EditableNode) v.c;
-							EditableNode n2 = n1.replicate();
-							n2.setParent(v.p);
-							for (int i = n1.getControl().getArity() - 1; -1 < i; i--) {
-								EditablePort p1 = n1.getPort(i);
-								EditablePort p2 = n2.getPort(i);
-
-								EditableHandle h2 = null;
-								Map<LinkEntity, IntVar> row = e_vars
-										.get(p1);
-								EditableHandle h1 = p1.getHandle();
-
-								IntVar var = findVariable(row.get(h1).
-										getName(), model.getVars()).asIntVar();
-								if (var.getValue() == 1) {
-									/*
-									 * this port bypasses the redex. Checks if
-									 * the handle already has an image in this
-									 * parameter otherwise creates a suitable
-									 * name in prm. This may require some
-									 * additional step if the handle already has
-									 * an image in the context.
-									 */
-									h2 = prm_hnd_dic.get(h1);
-									if (h2 == null) {
-										EditableHandle h3 = ctx_hnd_dic.get(h1);
-										if (h3 != null) {
-											/*
-											 * h1 has an image in the context,
-											 * add an inner to it and link it
-											 * down to the parameter passing
-											 * through id
-											 */
-											EditableInnerName i3 = new EditableInnerName();
-											i3.setHandle(h3);
-											String name = i3.getName();
-											ctx.inners.put(name, i3);
-											// add it also to id
-											EditableOuterName o4 = new EditableOuterName(
-													name);
-											o4.setOwner(id);
-											id.outers.put(name, o4);
-											EditableInnerName i4 = new EditableInnerName(
-													name);
-											i4.setHandle(o4);
-											id.inners.put(name, i4);
-
-											EditableOuterName o2 = new EditableOuterName(
-													name);
-											o2.setOwner(v.b);
-											v.b.outers.put(name, o2);
-											h2 = o2;
-										} else {
-											/*
-											 * this handle is not required by
-											 * the context, use an edge to
-											 * reduce the interface of id
-											 */
-											h2 = new EditableEdge(prm);
-										}
-										prm_hnd_dic.put(h1, h2);
-									}
-								} else {
-									for (InnerName i0 : redex.inners.values()) {
-										IntVar var_tmp = findVariable(row.get(i0).
-												getName(), model.getVars()).asIntVar();
-										if (var_tmp.getValue() == 1) {
-											/*
-											 * this port is attached to the
-											 * redex inner i0. Add it as an
-											 * outer of prm, if it is not
-											 * already present, and link it to
-											 * p2 resp.
-											 */
-											String name = i0.getName();
-											h2 = prm.outers.get(name);
-											if (h2 == null) {
-												EditableOuterName o2 = new EditableOuterName(
-														name);
-												o2.setOwner(v.b);
-												v.b.outers.put(name, o2);
-												h2 = o2;
-											}
-											break;
-										}
-									}
-								}
-								p2.setHandle(h2);
-							}
-							for (Child c1 : n1.getChildren()) {
-								q.add(new VState(v.b, n2, c1));
-							}
-						} else {
-							// v.c.isSite()
-							EditableSite s1 = (EditableSite) v.c;
-							EditableSite s2 = s1.replicate();
-							s2.setParent(v.p);
-							prm_sites_dic[agent_sites.indexOf(s1)] = s2;
+						/*
+						 * this handle is not required by the context,
+						 * use an edge to reduce the interface of id
+						 */
+						h2 = new EditableEdge(prm);
+					}
+					prm_hnd_dic.put(h1, h2);
+				}
+			} else {
+				for (InnerName i0 : redex.inners.values()) {
+					if (emb.isLinked(i1, i0)) {
+						/*
+						 * this port is attached to the redex inner i0.
+						 * Add it as an outer of prm, if it is not
+						 * already present, and link it to p2 resp.
+						 */
+						String name = i0.getName();
+						h2 = prm.outers.get(name);
+						if (h2 == null) {
+							EditableOuterName o2 = new EditableOuterName(
+									name);
+							o2.setOwner(prm);
+							prm.outers.put(name, o2);
+							h2 = o2;
 						}
+						break;
 					}
 				}
+			}
+			i2.setHandle(h2);
+			prm.inners.put(name1, i2);
+		}
 
-				ctx.sites.addAll(Arrays.asList(ctx_sites_dic));
-				rdx.sites.addAll(Arrays.asList(rdx_sites_dic));
-				rdx.roots.addAll(Arrays.asList(rdx_roots_dic));
-				prm.roots.addAll(Arrays.asList(prm_roots_dic));
-				prm.sites.addAll(Arrays.asList(prm_sites_dic));
-
-				if (DEBUG_CONSISTENCY_CHECK) {
-					if (!ctx.isConsistent()) {
-						throw new RuntimeException("Inconsistent bigraph (ctx)");
-					}
-					if (!rdx.isConsistent()) {
-						throw new RuntimeException("Inconsistent bigraph (rdx)");
-					}
-					if (!id.isConsistent()) {
-						throw new RuntimeException("Inconsistent bigraph (id)");
-					}
-					if (!prm.isConsistent()) {
-						throw new RuntimeException("Inconsistent bigraph (prm)");
-					}
+		ctx.sites.addAll(Arrays.asList(ctx_sites_dic));
+		rdx.sites.addAll(Arrays.asList(rdx_sites_dic));
+		rdx.roots.addAll(Arrays.asList(rdx_roots_dic));
+		prm.roots.addAll(Arrays.asList(prm_roots_dic));
+		prm.sites.addAll(Arrays.asList(prm_sites_dic));
 
-				}
-				this.nextMatch = new Match(ctx, rdx, id, prm, nEmb);
+		if (DEBUG_CONSISTENCY_CHECK) {
+			if (!ctx.isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph (ctx)");
 			}
+			if (!rdx.isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph (rdx)");
+			}
+			if (!id.isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph (id)");
+			}
+			if (!prm.isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph (prm)");
+			}
+
 		}
+		return new Match(ctx, rdx, id, prm, nEmb);
 	}
 }
@@ -0,0 +1,60 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import it.uniud.mads.jlibbig.core.Owner;
+import it.uniud.mads.jlibbig.core.attachedProperties.*;
+
+/*
+ * Holds the owner of the entities of a bigraph. Every bigraph has its own
+ * cell and its roots, outer names and edges refer to it rather than to
+ * their owner, while nodes and sites reach it through their parent; hence
+ * handing the structure of a bigraph from a builder to the bigraph (and
+ * back) is a matter of setting the owner of the cell (cf.
+ * Bigraph#setOwner). Roots, outer names and edges moving from a bigraph to
+ * another one are pointed to the cell of their new bigraph (cf. of), nodes
+ * follow their root without being visited.
+ *
+ * The owner property of roots, and through them of nodes, delegates to the
+ * property of the cell, which is created on first use and notifies its
+ * listeners when the owner changes.
+ */
+final class OwnerCell {
+
+	private Owner owner;
+	private ProtectedProperty.ValueSetter<Owner> setter;
+	private ProtectedProperty<Owner> property;
+
+	OwnerCell(Owner owner) {
+		this.owner = owner;
+	}
+
+	/*
+	 * Returns the cell of the given owner: bigraphs and builders share their
+	 * cell with their entities, any other owner gets a cell of its own.
+	 */
+	static OwnerCell of(Owner owner) {
+		if (owner instanceof Bigraph)
+			return ((Bigraph) owner).ownership;
+		if (owner instanceof BigraphBuilder)
+			return ((BigraphBuilder) owner).ownership();
+		return new OwnerCell(owner);
+	}
+
+	Owner get() {
+		return this.owner;
+	}
+
+	void set(Owner owner) {
+		this.owner = owner;
+		if (setter != null)
+			setter.set(owner);
+	}
+
+	Property<Owner> property() {
+		if (property == null) {
+			setter = new ProtectedProperty.ValueSetter<>();
+			property = new ProtectedProperty<Owner>(EditableRoot.PROPERTY_OWNER,
+					owner, setter);
+		}
+		return property;
+	}
+}
@@ -0,0 +1,272 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Computes the matches of a redex by splitting the search among the threads
+ * of a {@link ForkJoinPool}. A node of the redex is chosen and the agent nodes
+ * it may be placed on are partitioned into tasks; each task looks for the
+ * matches placing the chosen node on the agent nodes of its part, hence
+ * every match is found by exactly one task. Tasks are submitted as an
+ * iterator is consumed, keeping only a few tasks for each thread of the pool
+ * ahead of it; each task collects the matches of its part and these are
+ * listed by the iterator once the task completes. Hence an iterator that is
+ * no longer consumed leaves at most that many tasks running, and the other
+ * parts are never searched.
+ *
+ * Matches can be listed as soon as their task completes or in the order of
+ * the tasks; in the second case the order does not depend on how tasks are
+ * scheduled and is the one a sequential search of the parts would yield.
+ *
+ * Searches are split only for {@link Matcher} and {@link BacktrackingMatcher}
+ * (and matchers extending them without redefining which nodes are
+ * matchable) and for redexes with some node; {@link WeightedMatcher},
+ * matchers redefining which nodes are matchable and redexes without nodes
+ * are matched on the calling thread as usual. The options of
+ * the matcher (cf. {@link it.uniud.mads.jlibbig.core.MatcherOptions}) apply
+ * to every task, limits included; a cancellation token stops all of them.
+ */
+public class ParallelMatcher implements
+		it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigraph> {
+
+	// tasks for each thread of the pool, for balancing their load
+	private final static int TASKS_PER_THREAD = 4;
+
+	// tasks for each thread of the pool running ahead of the iterator
+	private final static int WINDOW_PER_THREAD = 2;
+
+	private final Matcher matcher;
+	private final ForkJoinPool pool;
+	private final boolean ordered;
+
+	/**
+	 * Creates a parallel matcher running the default matcher on the common
+	 * pool. Matches are listed as soon as they are found.
+	 */
+	public ParallelMatcher() {
+		this(Matcher.DEFAULT, ForkJoinPool.commonPool(), false);
+	}
+
+	/**
+	 * Creates a parallel matcher running the given matcher on the given pool.
+	 *
+	 * @param matcher
+	 *            the matcher computing the matches.
+	 * @param pool
+	 *            the pool running the searches.
+	 * @param ordered
+	 *            whether matches are listed in the order of the tasks
+	 *            rather than as soon as they are found.
+	 */
+	public ParallelMatcher(Matcher matcher, ForkJoinPool pool, boolean ordered) {
+		if (matcher == null || pool == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		this.matcher = matcher;
+		this.pool = pool;
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Returns the matcher used to look for matches.
+	 *
+	 * @return the matcher.
+	 */
+	public Matcher getMatcher() {
+		return this.matcher;
+	}
+
+	/**
+	 * Returns the pool running the searches.
+	 *
+	 * @return the pool.
+	 */
+	public ForkJoinPool getPool() {
+		return this.pool;
+	}
+
+	/**
+	 * Tells whether matches are listed in the order of the tasks.
+	 *
+	 * @return a boolean indicating whether matches are ordered.
+	 */
+	public boolean isOrdered() {
+		return this.ordered;
+	}
+
+	@Override
+	public Iterable<? extends Match> match(Bigraph agent, Bigraph redex) {
+		return match(agent, new CompiledRedex(redex));
+	}
+
+	/**
+	 * Computes the matches of a compiled redex in the agent.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the compiled redex to look up for.
+	 * @return the matches of the redex in the agent.
+	 */
+	public Iterable<? extends Match> match(final Bigraph agent,
+			final CompiledRedex redex) {
+		if (agent == null || redex == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		if (!matcher.splits(redex)) {
+			return matcher.match(agent, redex);
+		}
+		if (!agent.signature.equals(redex.redex.signature)) {
+			throw new UnsupportedOperationException(
+					"Agent and redex should have the same singature.");
+		}
+		if (!matcher.mayOccur(agent, redex)) {
+			return Collections.<Match> emptyList();
+		}
+		// the redex node with the fewest candidates is pinned
+		Node pin = null;
+		Collection<? extends Node> images = null;
+		for (Node n : redex.nodes) {
+			Collection<? extends Node> ns = agent.getNodes(n.getControl());
+			if (images == null || ns.size() < images.size()) {
+				pin = n;
+				images = ns;
+			}
+		}
+		final Node pin_node = pin;
+		final List<Node> pin_images = new ArrayList<Node>(images);
+		// collections shared by the tasks are computed beforehand
+		agent.getNodes();
+		agent.getEdges();
+		final AgentIndex index = new AgentIndex(agent);
+		index.hosts();
+		return new Iterable<Match>() {
+			@Override
+			public Iterator<Match> iterator() {
+				return new MatchIterator(agent, redex, index, pin_node,
+						pin_images);
+			}
+		};
+	}
+
+	private class MatchIterator implements Iterator<Match> {
+
+		private final Bigraph agent;
+		private final CompiledRedex redex;
+		private final AgentIndex index;
+		private final Node pin;
+		private final List<List<Node>> parts;
+		private final int window;
+		private final List<Future<List<Match>>> tasks;
+		private final CompletionService<List<Match>> completed;
+		private int next_part = 0;
+		private int next_task = 0;
+		private Iterator<Match> matches = Collections.<Match> emptyIterator();
+		private volatile boolean cancelled = false;
+
+		MatchIterator(Bigraph agent, CompiledRedex redex, AgentIndex index,
+				Node pin, List<Node> images) {
+			this.agent = agent;
+			this.redex = redex;
+			this.index = index;
+			this.pin = pin;
+			int n = images.size();
+			int k = Math.max(1, pool.getParallelism() * TASKS_PER_THREAD);
+			int size = Math.max(1, (n + k - 1) / k);
+			this.parts = new ArrayList<>((n + size - 1) / size);
+			for (int i = 0; i < n; i += size) {
+				parts.add(images.subList(i, Math.min(n, i + size)));
+			}
+			this.window = Math.max(1, pool.getParallelism()
+					* WINDOW_PER_THREAD);
+			this.tasks = new ArrayList<>(parts.size());
+			this.completed = (ordered) ? null
+					: new ExecutorCompletionService<List<Match>>(pool);
+			submit();
+		}
+
+		/*
+		 * Submits the next parts until the window is full.
+		 */
+		private void submit() {
+			while (next_part < parts.size() && next_part - next_task < window) {
+				final List<Node> part = parts.get(next_part++);
+				Callable<List<Match>> task = new Callable<List<Match>>() {
+					@Override
+					public List<Match> call() {
+						List<Match> ms = new ArrayList<>();
+						for (Node image : part) {
+							// cancelled tasks stop at the next image
+							if (cancelled)
+								break;
+							for (Match m : matcher.match(agent, redex, pin,
+									image, index)) {
+								ms.add(m);
+							}
+						}
+						return ms;
+					}
+				};
+				tasks.add((ordered) ? pool.submit(task) : completed
+						.submit(task));
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!matches.hasNext()) {
+				if (next_task == parts.size())
+					return false;
+				matches = await(next_task++).iterator();
+				submit();
+			}
+			return true;
+		}
+
+		@Override
+		public Match next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return matches.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("");
+		}
+
+		/*
+		 * Waits for the i-th task or, if the order does not matter, for the
+		 * next task to complete. A failure in a task cancels the others and
+		 * is rethrown.
+		 */
+		private List<Match> await(int i) {
+			try {
+				return ((ordered) ? tasks.get(i) : completed.take()).get();
+			} catch (InterruptedException e) {
+				cancel();
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted while matching.");
+			} catch (ExecutionException e) {
+				cancel();
+				Throwable t = e.getCause();
+				if (t instanceof RuntimeException)
+					throw (RuntimeException) t;
+				if (t instanceof Error)
+					throw (Error) t;
+				throw new RuntimeException(t);
+			}
+		}
+
+		private void cancel() {
+			cancelled = true;
+			next_part = parts.size();
+			next_task = parts.size();
+			for (Future<?> f : tasks) {
+				f.cancel(true);
+			}
+		}
+	}
+}
@@ -0,0 +1,1248 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+import it.uniud.mads.jlibbig.core.Owned;
+import it.uniud.mads.jlibbig.core.Owner;
+import it.uniud.mads.jlibbig.core.std.EditableNode.EditablePort;
+import it.uniud.mads.jlibbig.core.util.NameGenerator;
+
+/**
+ * An immutable bigraph sharing with the bigraphs it is rewritten into all
+ * the structure the rewrite leaves untouched. Instances are meant for keeping
+ * in memory the states explored by a rewriting system: the memory taken by
+ * a successor created by {@link RewritingRule#apply(PersistentBigraph)} is
+ * proportional to the size of the rewrite rather than to the size of the
+ * bigraph it is rewritten from.
+ *
+ * As for {@link CompactBigraph}, roots, sites, nodes, ports, edges and names
+ * returned by this class are read-only views created on demand; views are
+ * backed by an index of the bigraph built on first access. Nodes and edges
+ * keep their names across rewrites, hence an entity left untouched by a
+ * rewrite has the same name in the bigraph and in its successor. Attached
+ * properties are not kept.
+ */
+/*
+ * Nodes are records kept in a persistent array (cf. Trie) and refer to their
+ * parent and to the handles of their ports by number: parents are the slot
+ * of a node or -1 - k for the k-th root, handles are the id of an edge (the
+ * number its name is rendered from) or -1 - k for the k-th outer name.
+ * Children and points are not stored, hence moving a subtree or relinking a
+ * port replaces a single record and the path of the trie leading to it; the
+ * remaining records and trie nodes are shared. Edges are the handles some
+ * point refers to. Removed nodes leave an empty slot; slots are renumbered
+ * once they outnumber the nodes by far.
+ */
+public final class PersistentBigraph implements
+		it.uniud.mads.jlibbig.core.Bigraph<Control> {
+
+	private final Signature signature;
+
+	private final int roots;
+	// the node records, by slot, and the number of nodes
+	private final Trie nodes;
+	private final int size;
+	// for every site, the parent it is placed in
+	private final int[] site_parent;
+	private final String[] outer_names;
+	private final String[] inner_names;
+	// for every inner name, the handle it is linked to
+	private final long[] inner_handle;
+
+	// built on first access to the entities (cf. index)
+	private volatile Index index;
+
+	/**
+	 * Creates a persistent copy of the given bigraph. Nodes and edges of the
+	 * copy have the names of the ones of the given bigraph. As for
+	 * {@link Bigraph#clone()}, edges without points are not copied.
+	 *
+	 * @param big
+	 *            the bigraph to be copied.
+	 */
+	public PersistentBigraph(Bigraph big) {
+		if (big == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		this.signature = big.signature;
+		this.roots = big.roots.size();
+		this.outer_names = new String[big.outers.size()];
+		Map<Handle, Long> handles = new IdentityHashMap<>();
+		for (EditableOuterName o : big.outers.values()) {
+			outer_names[handles.size()] = o.getName();
+			handles.put(o, -1L - handles.size());
+		}
+		Map<Parent, Integer> parents = new IdentityHashMap<>();
+		Map<Site, Integer> sites = new IdentityHashMap<>();
+		for (int k = 0; k < big.sites.size(); k++) {
+			sites.put(big.sites.get(k), k);
+		}
+		this.site_parent = new int[sites.size()];
+		// nodes are numbered in the order of a breadth first visit
+		List<NodeRecord> rs = new ArrayList<>();
+		Deque<EditableParent> q = new ArrayDeque<>();
+		for (int k = 0; k < roots; k++) {
+			EditableRoot r = big.roots.get(k);
+			parents.put(r, -1 - k);
+			q.add(r);
+		}
+		while (!q.isEmpty()) {
+			EditableParent p = q.poll();
+			int f = parents.get(p);
+			for (EditableChild c : p.getEditableChildren()) {
+				if (c.isNode()) {
+					EditableNode n = (EditableNode) c;
+					long[] hs = new long[n.getControl().getArity()];
+					for (int i = 0; i < hs.length; i++) {
+						hs[i] = refOf(n.getPort(i).getHandle(), handles);
+					}
+					parents.put(n, rs.size());
+					rs.add(new NodeRecord(n.getControl(), n.getId(), f, hs));
+					q.add(n);
+				} else {
+					site_parent[sites.get(c)] = f;
+				}
+			}
+		}
+		this.nodes = Trie.of(rs);
+		this.size = rs.size();
+		this.inner_names = new String[big.inners.size()];
+		this.inner_handle = new long[inner_names.length];
+		int k = 0;
+		for (EditableInnerName i : big.inners.values()) {
+			inner_names[k] = i.getName();
+			inner_handle[k++] = refOf(i.getHandle(), handles);
+		}
+	}
+
+	private PersistentBigraph(Signature signature, int roots, Trie nodes,
+			int size, int[] site_parent, String[] outer_names,
+			String[] inner_names, long[] inner_handle) {
+		this.signature = signature;
+		this.roots = roots;
+		this.nodes = nodes;
+		this.size = size;
+		this.site_parent = site_parent;
+		this.outer_names = outer_names;
+		this.inner_names = inner_names;
+		this.inner_handle = inner_handle;
+	}
+
+	private static long refOf(EditableHandle h, Map<Handle, Long> handles) {
+		Long r = handles.get(h);
+		if (r == null) {
+			r = ((EditableEdge) h).getId();
+			handles.put(h, r);
+		}
+		return r;
+	}
+
+	/**
+	 * Creates a {@link Bigraph} equivalent to this one. Nodes and edges of
+	 * the outcome are fresh, hence their names differ from the ones of this
+	 * bigraph.
+	 *
+	 * @return a bigraph equivalent to this one.
+	 */
+	public Bigraph toBigraph() {
+		return expand().bigraph;
+	}
+
+	/*
+	 * A bigraph equivalent to a persistent one together with the slots its
+	 * nodes come from and the references its handles come from.
+	 */
+	static final class Expansion {
+		final Bigraph bigraph;
+		private final Map<Node, Integer> slots = new IdentityHashMap<>();
+		private final Map<Handle, Long> handles = new IdentityHashMap<>();
+
+		private Expansion(Bigraph bigraph) {
+			this.bigraph = bigraph;
+		}
+
+		int slotOf(Node node) {
+			return slots.get(node);
+		}
+
+		long refOf(Handle handle) {
+			return handles.get(handle);
+		}
+
+		int refOf(Parent parent) {
+			return (parent.isRoot()) ? -1 - bigraph.roots.indexOf(parent)
+					: slotOf((Node) parent);
+		}
+	}
+
+	/*
+	 * Creates a bigraph equivalent to this one keeping track of the slots and
+	 * references of its entities (cf. rewrite).
+	 */
+	Expansion expand() {
+		Index ix = this.index;
+		if (ix == null) {
+			// expansions are transient, the index is not kept
+			ix = new Index();
+		}
+		Expansion x = new Expansion(new Bigraph(this.signature));
+		Bigraph big = x.bigraph;
+		Map<Long, EditableHandle> hs = new HashMap<>();
+		for (int k = 0; k < outer_names.length; k++) {
+			EditableOuterName o = new EditableOuterName(outer_names[k]);
+			o.setOwner(big);
+			big.outers.put(o.getName(), o);
+			hs.put(-1L - k, o);
+			x.handles.put(o, -1L - k);
+		}
+		int n = ix.live.length;
+		EditableParent[] ps = new EditableParent[roots + n];
+		EditableSite[] ss = new EditableSite[site_parent.length];
+		int[] q = new int[roots + n];
+		int l = 0;
+		for (int p = 0; p < roots; p++) {
+			EditableRoot r = new EditableRoot(big);
+			big.roots.add(r);
+			ps[p] = r;
+			q[l++] = p;
+		}
+		// parents are created before their children
+		for (int t = 0; t < l; t++) {
+			int p = q[t];
+			for (int k = ix.child_offset[p]; k < ix.child_offset[p + 1]; k++) {
+				int c = ix.child_list[k];
+				if (c < 0) {
+					ss[-1 - c] = new EditableSite(ps[p]);
+					continue;
+				}
+				NodeRecord rec = ix.records[ix.pos[c]];
+				EditableNode m = new EditableNode(rec.control, ps[p]);
+				for (int i = 0; i < rec.handles.length; i++) {
+					m.getPort(i).setHandle(handleOf(rec.handles[i], hs, x));
+				}
+				x.slots.put(m, c);
+				ps[roots + ix.pos[c]] = m;
+				q[l++] = roots + ix.pos[c];
+			}
+		}
+		big.sites.addAll(Arrays.asList(ss));
+		for (int k = 0; k < inner_names.length; k++) {
+			EditableInnerName i = new EditableInnerName(inner_names[k],
+					handleOf(inner_handle[k], hs, x));
+			big.inners.put(i.getName(), i);
+		}
+		return x;
+	}
+
+	private static EditableHandle handleOf(long ref,
+			Map<Long, EditableHandle> hs, Expansion x) {
+		EditableHandle h = hs.get(ref);
+		if (h == null) {
+			h = new EditableEdge(x.bigraph);
+			hs.put(ref, h);
+			x.handles.put(h, ref);
+		}
+		return h;
+	}
+
+	/*
+	 * Rewrites this bigraph replacing the occurrence of the redex described
+	 * by the given embedding into its expansion with an instance of the
+	 * reactum. The outcome is the one of RewritingRule#rewrite up to the
+	 * names of nodes and edges; it shares with this bigraph the records of
+	 * the nodes that are neither removed, nor moved, nor relinked. Nodes
+	 * of the reactum and further instances of the parameters are fresh, the
+	 * first instance of a parameter is moved rather than copied.
+	 */
+	PersistentBigraph rewrite(Expansion x, Bigraph redex, Bigraph reactum,
+			InstantiationMap eta, Matcher.Embedding emb) {
+		Bigraph agent = x.bigraph;
+		int rss = redex.sites.size();
+		/*
+		 * Finds the parents hosting the redex roots, the redex image and the
+		 * top-level entities of the parameters visiting the context and the
+		 * redex image as Matcher#buildMatch does.
+		 */
+		int[] hosts = new int[redex.roots.size()];
+		List<EditableNode> image = new ArrayList<>();
+		List<List<EditableChild>> params = new ArrayList<>(rss);
+		for (int j = 0; j < rss; j++) {
+			params.add(new ArrayList<EditableChild>());
+		}
+		// pairs of agent and redex entities
+		Deque<PlaceEntity> rdx = new ArrayDeque<>();
+		Deque<EditableParent> ctx = new ArrayDeque<EditableParent>(
+				agent.roots);
+		Collection<EditableRoot> unseen = new LinkedList<>(redex.roots);
+		while (!ctx.isEmpty()) {
+			EditableParent p1 = ctx.poll();
+			Collection<EditableChild> cs1 = new ArrayList<>(
+					p1.getEditableChildren());
+			Iterator<EditableRoot> ir = unseen.iterator();
+			while (ir.hasNext()) {
+				EditableRoot r0 = ir.next();
+				if (emb.isPlaced(p1, r0)) {
+					ir.remove();
+					hosts[redex.roots.indexOf(r0)] = x.refOf(p1);
+					place(r0, cs1, rdx, emb);
+				}
+			}
+			for (EditableChild c1 : cs1) {
+				if (c1.isNode())
+					ctx.add((EditableNode) c1);
+			}
+		}
+		while (!rdx.isEmpty()) {
+			PlaceEntity c1 = rdx.poll();
+			PlaceEntity c0 = rdx.poll();
+			if (c0.isNode()) {
+				EditableNode n1 = (EditableNode) c1;
+				image.add(n1);
+				place((EditableNode) c0,
+						new ArrayList<>(n1.getEditableChildren()), rdx, emb);
+			} else {
+				params.get(redex.sites.indexOf(c0)).add((EditableChild) c1);
+			}
+		}
+		Trie ns = this.nodes;
+		int size = this.size;
+		for (EditableNode n : image) {
+			ns = ns.set(x.slotOf(n), null);
+			size--;
+		}
+		/*
+		 * Handles of the reactum are the images of the redex outer names
+		 * with the same name or fresh edges; points of the parameters
+		 * linked to a redex inner name are linked to the handle of the
+		 * reactum inner name with the same name.
+		 */
+		Map<String, EditableOuterName> redex_outers = new HashMap<>();
+		for (EditableOuterName o : redex.outers.values()) {
+			redex_outers.put(o.getName(), o);
+		}
+		Map<String, EditableInnerName> reactum_inners = new HashMap<>();
+		for (EditableInnerName i : reactum.inners.values()) {
+			reactum_inners.put(i.getName(), i);
+		}
+		Map<Handle, Long> links = new IdentityHashMap<>();
+		Map<Point, Long> relinks = new IdentityHashMap<>();
+		for (EditableInnerName i0 : redex.inners.values()) {
+			Handle h1 = emb.getHandleImage(i0.getHandle());
+			if (h1 == null)
+				continue;
+			EditableHandle h2 = reactum_inners.get(i0.getName()).getHandle();
+			for (Point p : h1.getPoints()) {
+				if (emb.isLinked(p, i0)) {
+					relinks.put(p, linkOf(h2, redex_outers, links, emb, x));
+				}
+			}
+		}
+		// instantiates the reactum under the parents hosting the redex
+		int[] rsite_parent = new int[reactum.sites.size()];
+		Deque<EditableChild> q = new ArrayDeque<>();
+		Deque<Integer> qp = new ArrayDeque<>();
+		for (int k = 0; k < hosts.length; k++) {
+			for (EditableChild c : reactum.roots.get(k).getEditableChildren()) {
+				q.add(c);
+				qp.add(hosts[k]);
+			}
+		}
+		while (!q.isEmpty()) {
+			EditableChild c = q.poll();
+			int f = qp.poll();
+			if (c.isSite()) {
+				rsite_parent[reactum.sites.indexOf(c)] = f;
+				continue;
+			}
+			EditableNode n0 = (EditableNode) c;
+			long[] hs = new long[n0.getControl().getArity()];
+			for (int i = 0; i < hs.length; i++) {
+				hs[i] = linkOf(n0.getPort(i).getHandle(), redex_outers,
+						links, emb, x);
+			}
+			int slot = ns.length;
+			ns = ns.add(new NodeRecord(n0.getControl(),
+					NameGenerator.DEFAULT.generateId(), f, hs));
+			size++;
+			for (EditableChild d : n0.getEditableChildren()) {
+				q.add(d);
+				qp.add(slot);
+			}
+		}
+		/*
+		 * Instantiates the parameters: the first instance is moved under
+		 * the reactum site, the others are copies and parameters without
+		 * instances are removed (cf. InstantiationMap#instantiate).
+		 */
+		List<List<Integer>> instances = new ArrayList<>(rss);
+		for (int j = 0; j < rss; j++) {
+			instances.add(new ArrayList<Integer>(1));
+		}
+		for (int i = 0; i < eta.getPlaceDomain(); i++) {
+			instances.get(eta.getPlaceInstance(i)).add(i);
+		}
+		Map<EditableChild, Integer> tops = new IdentityHashMap<>();
+		// slots of the copies of the nodes of the parameters, by instance
+		List<List<Map<Node, Integer>>> copies = new ArrayList<>(rss);
+		for (int j = 0; j < rss; j++) {
+			List<Integer> is = instances.get(j);
+			List<Map<Node, Integer>> cs = new ArrayList<>(is.size());
+			copies.add(cs);
+			for (EditableChild c : params.get(j)) {
+				tops.put(c, j);
+			}
+			if (is.isEmpty()) {
+				for (EditableChild c : params.get(j)) {
+					q.add(c);
+				}
+				while (!q.isEmpty()) {
+					EditableChild c = q.poll();
+					if (c.isNode()) {
+						ns = ns.set(x.slotOf((Node) c), null);
+						size--;
+						q.addAll(((EditableNode) c).getEditableChildren());
+					}
+				}
+				continue;
+			}
+			for (EditableChild c : params.get(j)) {
+				if (c.isNode()) {
+					int s = x.slotOf((Node) c);
+					ns = ns.set(s, ns.get(s).moveTo(rsite_parent[is.get(0)]));
+				}
+			}
+			cs.add(null);
+			for (int k = 1; k < is.size(); k++) {
+				Map<Node, Integer> copy = new IdentityHashMap<>();
+				cs.add(copy);
+				for (EditableChild c : params.get(j)) {
+					q.add(c);
+					qp.add(rsite_parent[is.get(k)]);
+				}
+				while (!q.isEmpty()) {
+					EditableChild c = q.poll();
+					int f = qp.poll();
+					if (c.isSite())
+						continue;
+					EditableNode n1 = (EditableNode) c;
+					NodeRecord rec = this.nodes.get(x.slotOf(n1));
+					long[] hs = rec.handles;
+					for (int i = 0; i < hs.length; i++) {
+						Long r = relinks.get(n1.getPort(i));
+						if (r != null) {
+							if (hs == rec.handles)
+								hs = hs.clone();
+							hs[i] = r;
+						}
+					}
+					int slot = ns.length;
+					ns = ns.add(new NodeRecord(rec.control,
+							NameGenerator.DEFAULT.generateId(), f, hs));
+					size++;
+					copy.put(n1, slot);
+					for (EditableChild d : n1.getEditableChildren()) {
+						q.add(d);
+						qp.add(slot);
+					}
+				}
+			}
+		}
+		long[] inner_handle = this.inner_handle;
+		for (Map.Entry<Point, Long> e : relinks.entrySet()) {
+			Point p = e.getKey();
+			if (p.isPort()) {
+				EditablePort o = (EditablePort) p;
+				int s = x.slotOf(o.getNode());
+				NodeRecord rec = ns.get(s);
+				if (rec != null) {
+					ns = ns.set(s, rec.relink(o.getNumber(), e.getValue()));
+				}
+			} else {
+				String name = ((InnerName) p).getName();
+				if (inner_handle == this.inner_handle)
+					inner_handle = inner_handle.clone();
+				for (int k = 0; k < inner_names.length; k++) {
+					if (inner_names[k].equals(name))
+						inner_handle[k] = e.getValue();
+				}
+			}
+		}
+		/*
+		 * Sites in a parameter are replicated along with it: the copies of
+		 * a site follow the site, parameters without instances lose theirs.
+		 */
+		int[] sp = new int[site_parent.length];
+		int l = 0;
+		for (int t = 0; t < site_parent.length; t++) {
+			EditableSite s = agent.sites.get(t);
+			EditableChild c = s;
+			Integer j = null;
+			while ((j = tops.get(c)) == null && c.getParent().isNode()) {
+				c = (EditableNode) c.getParent();
+			}
+			if (j == null) {
+				// the site is in the context
+				sp = ensure(sp, l);
+				sp[l++] = site_parent[t];
+				continue;
+			}
+			List<Integer> is = instances.get(j);
+			for (int k = 0; k < is.size(); k++) {
+				sp = ensure(sp, l);
+				if (c == s)
+					sp[l++] = rsite_parent[is.get(k)];
+				else if (k == 0)
+					sp[l++] = x.slotOf((Node) s.getParent());
+				else
+					sp[l++] = copies.get(j).get(k).get(s.getParent());
+			}
+		}
+		PersistentBigraph big = new PersistentBigraph(this.signature,
+				this.roots, ns, size, Arrays.copyOf(sp, l), this.outer_names,
+				this.inner_names, inner_handle);
+		return (ns.length > 2 * size + Trie.WIDTH) ? big.compact() : big;
+	}
+
+	/*
+	 * Queues the agent children placed on the children of the redex parent
+	 * removing them from the given ones.
+	 */
+	private static void place(EditableParent p0, Collection<EditableChild> cs1,
+			Deque<PlaceEntity> rdx, Matcher.Embedding emb) {
+		for (EditableChild c0 : p0.getEditableChildren()) {
+			Iterator<EditableChild> ic = cs1.iterator();
+			while (ic.hasNext()) {
+				EditableChild c1 = ic.next();
+				if (emb.isPlaced(c1, c0)) {
+					rdx.add(c1);
+					rdx.add(c0);
+					ic.remove();
+				}
+			}
+		}
+	}
+
+	private static long linkOf(EditableHandle h0,
+			Map<String, EditableOuterName> redex_outers,
+			Map<Handle, Long> links, Matcher.Embedding emb, Expansion x) {
+		Long r = links.get(h0);
+		if (r == null) {
+			Handle h1 = null;
+			if (h0 instanceof EditableOuterName) {
+				EditableOuterName o = redex_outers
+						.get(((EditableOuterName) h0).getName());
+				if (o != null)
+					h1 = emb.getHandleImage(o);
+			}
+			r = (h1 == null) ? NameGenerator.DEFAULT.generateId() : x
+					.refOf(h1);
+			links.put(h0, r);
+		}
+		return r;
+	}
+
+	private static int[] ensure(int[] a, int l) {
+		return (l < a.length) ? a : Arrays.copyOf(a, 2 * l + 1);
+	}
+
+	/*
+	 * An equivalent bigraph whose slots are all taken. Nothing is shared with
+	 * this bigraph but records of nodes which are not moved.
+	 */
+	private PersistentBigraph compact() {
+		int[] pos = new int[nodes.length];
+		int n = 0;
+		for (int s = 0; s < nodes.length; s++) {
+			if (nodes.get(s) != null)
+				pos[s] = n++;
+		}
+		List<NodeRecord> rs = new ArrayList<>(size);
+		for (int s = 0; s < nodes.length; s++) {
+			NodeRecord rec = nodes.get(s);
+			if (rec == null)
+				continue;
+			rs.add((rec.parent < 0 || pos[rec.parent] == rec.parent) ? rec
+					: rec.moveTo(pos[rec.parent]));
+		}
+		int[] sp = new int[site_parent.length];
+		for (int k = 0; k < sp.length; k++) {
+			int f = site_parent[k];
+			sp[k] = (f < 0) ? f : pos[f];
+		}
+		return new PersistentBigraph(signature, roots, Trie.of(rs), size, sp,
+				outer_names, inner_names, inner_handle);
+	}
+
+	@Override
+	public Signature getSignature() {
+		return this.signature;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return roots == 0 && site_parent.length == 0
+				&& outer_names.length == 0 && inner_names.length == 0;
+	}
+
+	@Override
+	public boolean isGround() {
+		return site_parent.length == 0 && inner_names.length == 0;
+	}
+
+	@Override
+	public List<? extends it.uniud.mads.jlibbig.core.Root> getRoots() {
+		return new CompactBigraph.IndexList<PersistentRoot>(0, roots) {
+			@Override
+			PersistentRoot at(int k) {
+				return new PersistentRoot(k);
+			}
+		};
+	}
+
+	@Override
+	public List<? extends it.uniud.mads.jlibbig.core.Site> getSites() {
+		return new CompactBigraph.IndexList<PersistentSite>(0,
+				site_parent.length) {
+			@Override
+			PersistentSite at(int k) {
+				return new PersistentSite(k);
+			}
+		};
+	}
+
+	@Override
+	public Collection<? extends it.uniud.mads.jlibbig.core.OuterName> getOuterNames() {
+		return new CompactBigraph.IndexList<PersistentOuterName>(0,
+				outer_names.length) {
+			@Override
+			PersistentOuterName at(int k) {
+				return new PersistentOuterName(k);
+			}
+		};
+	}
+
+	@Override
+	public Collection<? extends it.uniud.mads.jlibbig.core.InnerName> getInnerNames() {
+		return new CompactBigraph.IndexList<PersistentInnerName>(0,
+				inner_names.length) {
+			@Override
+			PersistentInnerName at(int k) {
+				return new PersistentInnerName(k);
+			}
+		};
+	}
+
+	@Override
+	public Collection<? extends it.uniud.mads.jlibbig.core.Node<Control>> getNodes() {
+		final Index ix = index();
+		return new CompactBigraph.IndexList<PersistentNode>(0, size) {
+			@Override
+			PersistentNode at(int k) {
+				return new PersistentNode(ix.live[k]);
+			}
+		};
+	}
+
+	@Override
+	public Collection<? extends it.uniud.mads.jlibbig.core.Edge> getEdges() {
+		final Index ix = index();
+		return new CompactBigraph.IndexList<PersistentEdge>(0,
+				ix.edges.length) {
+			@Override
+			PersistentEdge at(int k) {
+				return new PersistentEdge(ix.edges[k]);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		String nl = System.getProperty("line.separator");
+		StringBuilder b = new StringBuilder();
+		b.append(signature.getUSID()).append(" :: <")
+				.append(site_parent.length).append(",")
+				.append(getInnerNames()).append("> -> <").append(roots)
+				.append(",").append(getOuterNames()).append(">");
+		for (it.uniud.mads.jlibbig.core.Handle h : getOuterNames()) {
+			b.append(nl).append(h).append(":o <- ").append(h.getPoints());
+		}
+		for (it.uniud.mads.jlibbig.core.Handle h : getEdges()) {
+			b.append(nl).append(h).append(":e <- ").append(h.getPoints());
+		}
+		for (it.uniud.mads.jlibbig.core.Root r : getRoots()) {
+			b.append(nl).append(r).append(" <- ").append(r.getChildren());
+		}
+		for (it.uniud.mads.jlibbig.core.Node<Control> n : getNodes()) {
+			b.append(nl).append(n).append(" <- ").append(n.getChildren());
+		}
+		return b.toString();
+	}
+
+	private Index index() {
+		Index ix = this.index;
+		if (ix == null) {
+			ix = new Index();
+			this.index = ix;
+		}
+		return ix;
+	}
+
+	/*
+	 * The children of the parents and the points of the handles of this
+	 * bigraph. Parents are numbered roots first and then nodes in the order
+	 * of their slots; children are stored as compressed rows as in
+	 * CompactBigraph. Points are ports, as slot << 32 | number, and inner
+	 * names, as -1 - k.
+	 */
+	private final class Index {
+		// the slots taken, their records and the position of each slot
+		final int[] live = new int[size];
+		final NodeRecord[] records = new NodeRecord[size];
+		final int[] pos = new int[nodes.length];
+		final int[] child_offset = new int[roots + size + 1];
+		final int[] child_list = new int[size + site_parent.length];
+		// edges in the order they are first referred to
+		final long[] edges;
+		final Map<Long, long[]> points = new HashMap<>();
+
+		Index() {
+			int n = 0;
+			for (int s = 0; s < nodes.length; s++) {
+				NodeRecord rec = nodes.get(s);
+				if (rec != null) {
+					pos[s] = n;
+					live[n] = s;
+					records[n++] = rec;
+				}
+			}
+			for (int k = 0; k < size; k++) {
+				child_offset[parentOf(records[k].parent) + 1]++;
+			}
+			for (int f : site_parent) {
+				child_offset[parentOf(f) + 1]++;
+			}
+			for (int p = 0; p < roots + size; p++) {
+				child_offset[p + 1] += child_offset[p];
+			}
+			int[] next = Arrays.copyOf(child_offset, roots + size);
+			for (int k = 0; k < size; k++) {
+				child_list[next[parentOf(records[k].parent)]++] = live[k];
+			}
+			for (int k = 0; k < site_parent.length; k++) {
+				child_list[next[parentOf(site_parent[k])]++] = -1 - k;
+			}
+			// points, counted first
+			Map<Long, Integer> count = new LinkedHashMap<>();
+			for (int k = 0; k < outer_names.length; k++) {
+				count.put(-1L - k, 0);
+			}
+			for (NodeRecord rec : records) {
+				for (long h : rec.handles) {
+					Integer c = count.get(h);
+					count.put(h, (c == null) ? 1 : c + 1);
+				}
+			}
+			for (long h : inner_handle) {
+				Integer c = count.get(h);
+				count.put(h, (c == null) ? 1 : c + 1);
+			}
+			this.edges = new long[count.size() - outer_names.length];
+			int e = 0;
+			for (Map.Entry<Long, Integer> t : count.entrySet()) {
+				if (t.getKey() >= 0)
+					edges[e++] = t.getKey();
+				points.put(t.getKey(), new long[t.getValue()]);
+				t.setValue(0);
+			}
+			for (int k = 0; k < size; k++) {
+				long[] hs = records[k].handles;
+				for (int i = 0; i < hs.length; i++) {
+					int c = count.get(hs[i]);
+					points.get(hs[i])[c] = (long) live[k] << 32 | i;
+					count.put(hs[i], c + 1);
+				}
+			}
+			for (int k = 0; k < inner_handle.length; k++) {
+				int c = count.get(inner_handle[k]);
+				points.get(inner_handle[k])[c] = -1L - k;
+				count.put(inner_handle[k], c + 1);
+			}
+		}
+
+		int parentOf(int ref) {
+			return (ref < 0) ? -1 - ref : roots + pos[ref];
+		}
+	}
+
+	private it.uniud.mads.jlibbig.core.Parent parentAt(int ref) {
+		return (ref < 0) ? new PersistentRoot(-1 - ref) : new PersistentNode(
+				ref);
+	}
+
+	private it.uniud.mads.jlibbig.core.Handle handleAt(long ref) {
+		return (ref < 0) ? new PersistentOuterName((int) (-1 - ref))
+				: new PersistentEdge(ref);
+	}
+
+	private List<? extends it.uniud.mads.jlibbig.core.Child> childrenOf(int p) {
+		final Index ix = index();
+		return new CompactBigraph.IndexList<it.uniud.mads.jlibbig.core.Child>(
+				ix.child_offset[p], ix.child_offset[p + 1]) {
+			@Override
+			it.uniud.mads.jlibbig.core.Child at(int k) {
+				int c = ix.child_list[k];
+				return (c < 0) ? new PersistentSite(-1 - c)
+						: new PersistentNode(c);
+			}
+		};
+	}
+
+	/*
+	 * A node: its control, the number its name is rendered from, its parent
+	 * and the handles of its ports.
+	 */
+	private static final class NodeRecord {
+		final Control control;
+		final long id;
+		final int parent;
+		final long[] handles;
+
+		NodeRecord(Control control, long id, int parent, long[] handles) {
+			this.control = control;
+			this.id = id;
+			this.parent = parent;
+			this.handles = handles;
+		}
+
+		NodeRecord moveTo(int parent) {
+			return new NodeRecord(control, id, parent, handles);
+		}
+
+		NodeRecord relink(int port, long handle) {
+			long[] hs = handles.clone();
+			hs[port] = handle;
+			return new NodeRecord(control, id, parent, hs);
+		}
+	}
+
+	/*
+	 * A persistent array of node records: a trie of arrays of WIDTH entries
+	 * whose updates copy the path to the updated entry and share the rest.
+	 */
+	private static final class Trie {
+		private static final int BITS = 5;
+		static final int WIDTH = 1 << BITS;
+		private static final int MASK = WIDTH - 1;
+
+		final int length;
+		// levels below the root times BITS
+		private final int shift;
+		private final Object[] root;
+
+		private Trie(int length, int shift, Object[] root) {
+			this.length = length;
+			this.shift = shift;
+			this.root = root;
+		}
+
+		static Trie of(List<NodeRecord> rs) {
+			List<Object[]> level = new ArrayList<>();
+			for (int i = 0; i < rs.size(); i += WIDTH) {
+				level.add(rs.subList(i, Math.min(i + WIDTH, rs.size()))
+						.toArray(new Object[WIDTH]));
+			}
+			int shift = 0;
+			while (level.size() > 1) {
+				List<Object[]> up = new ArrayList<>();
+				for (int i = 0; i < level.size(); i += WIDTH) {
+					up.add(level.subList(i, Math.min(i + WIDTH, level.size()))
+							.toArray(new Object[WIDTH]));
+				}
+				level = up;
+				shift += BITS;
+			}
+			return new Trie(rs.size(), shift,
+					level.isEmpty() ? new Object[WIDTH] : level.get(0));
+		}
+
+		NodeRecord get(int i) {
+			Object[] a = root;
+			for (int s = shift; s > 0; s -= BITS) {
+				a = (Object[]) a[(i >>> s) & MASK];
+			}
+			return (NodeRecord) a[i & MASK];
+		}
+
+		Trie set(int i, NodeRecord rec) {
+			return new Trie(length, shift, set(root, shift, i, rec));
+		}
+
+		Trie add(NodeRecord rec) {
+			if (length == WIDTH << shift) {
+				Object[] a = new Object[WIDTH];
+				a[0] = root;
+				return new Trie(length + 1, shift + BITS, set(a, shift + BITS,
+						length, rec));
+			}
+			return new Trie(length + 1, shift, set(root, shift, length, rec));
+		}
+
+		private static Object[] set(Object[] a, int s, int i, NodeRecord rec) {
+			Object[] b = (a == null) ? new Object[WIDTH] : a.clone();
+			if (s == 0) {
+				b[i & MASK] = rec;
+			} else {
+				int k = (i >>> s) & MASK;
+				b[k] = set((Object[]) b[k], s - BITS, i, rec);
+			}
+			return b;
+		}
+	}
+
+	/*
+	 * Views are identified by their class, bigraph and key.
+	 */
+	private abstract class View implements Owned {
+		final long key;
+
+		View(long key) {
+			this.key = key;
+		}
+
+		@Override
+		public Owner getOwner() {
+			return PersistentBigraph.this;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			View other = (View) obj;
+			return key == other.key && getOwner() == other.getOwner();
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(getOwner())
+					+ (int) (key ^ (key >>> 32));
+		}
+
+		public boolean isParent() {
+			return false;
+		}
+
+		public boolean isChild() {
+			return false;
+		}
+
+		public boolean isRoot() {
+			return false;
+		}
+
+		public boolean isSite() {
+			return false;
+		}
+
+		public boolean isNode() {
+			return false;
+		}
+
+		public boolean isHandle() {
+			return false;
+		}
+
+		public boolean isPoint() {
+			return false;
+		}
+
+		public boolean isPort() {
+			return false;
+		}
+
+		public boolean isInnerName() {
+			return false;
+		}
+
+		public boolean isOuterName() {
+			return false;
+		}
+
+		public boolean isEdge() {
+			return false;
+		}
+	}
+
+	private final class PersistentRoot extends View implements
+			it.uniud.mads.jlibbig.core.Root {
+
+		PersistentRoot(int index) {
+			super(index);
+		}
+
+		@Override
+		public Collection<? extends it.uniud.mads.jlibbig.core.Child> getChildren() {
+			return childrenOf((int) key);
+		}
+
+		@Override
+		public boolean isParent() {
+			return true;
+		}
+
+		@Override
+		public boolean isRoot() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return key + ":r";
+		}
+	}
+
+	private final class PersistentSite extends View implements
+			it.uniud.mads.jlibbig.core.Site {
+
+		PersistentSite(int index) {
+			super(index);
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Parent getParent() {
+			return parentAt(site_parent[(int) key]);
+		}
+
+		@Override
+		public boolean isChild() {
+			return true;
+		}
+
+		@Override
+		public boolean isSite() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return key + ":s";
+		}
+	}
+
+	private final class PersistentNode extends View implements
+			it.uniud.mads.jlibbig.core.Node<Control> {
+
+		PersistentNode(int slot) {
+			super(slot);
+		}
+
+		private NodeRecord record() {
+			return nodes.get((int) key);
+		}
+
+		@Override
+		public Collection<? extends it.uniud.mads.jlibbig.core.Child> getChildren() {
+			return childrenOf(roots + index().pos[(int) key]);
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Parent getParent() {
+			return parentAt(record().parent);
+		}
+
+		@Override
+		public List<? extends it.uniud.mads.jlibbig.core.Port<Control>> getPorts() {
+			return new CompactBigraph.IndexList<PersistentPort>(0,
+					record().handles.length) {
+				@Override
+				PersistentPort at(int k) {
+					return new PersistentPort(key << 32 | k);
+				}
+			};
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Port<Control> getPort(int index) {
+			return getPorts().get(index);
+		}
+
+		@Override
+		public Control getControl() {
+			return record().control;
+		}
+
+		@Override
+		public boolean isParent() {
+			return true;
+		}
+
+		@Override
+		public boolean isChild() {
+			return true;
+		}
+
+		@Override
+		public boolean isNode() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			NodeRecord rec = record();
+			return "N_" + NameGenerator.render(rec.id) + ":"
+					+ rec.control.getName();
+		}
+	}
+
+	private final class PersistentPort extends View implements
+			it.uniud.mads.jlibbig.core.Port<Control> {
+
+		PersistentPort(long key) {
+			super(key);
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Node<Control> getNode() {
+			return new PersistentNode((int) (key >>> 32));
+		}
+
+		@Override
+		public int getNumber() {
+			return (int) key;
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Handle getHandle() {
+			return handleAt(nodes.get((int) (key >>> 32)).handles[getNumber()]);
+		}
+
+		@Override
+		public boolean isPoint() {
+			return true;
+		}
+
+		@Override
+		public boolean isPort() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return getNumber() + "@" + getNode();
+		}
+	}
+
+	private abstract class PersistentHandle extends View implements
+			it.uniud.mads.jlibbig.core.Handle {
+
+		PersistentHandle(long key) {
+			super(key);
+		}
+
+		@Override
+		public Collection<? extends it.uniud.mads.jlibbig.core.Point> getPoints() {
+			final long[] ps = index().points.get(handleRef());
+			return new CompactBigraph.IndexList<it.uniud.mads.jlibbig.core.Point>(
+					0, ps.length) {
+				@Override
+				it.uniud.mads.jlibbig.core.Point at(int k) {
+					return (ps[k] < 0) ? new PersistentInnerName(
+							(int) (-1 - ps[k])) : new PersistentPort(ps[k]);
+				}
+			};
+		}
+
+		abstract long handleRef();
+
+		@Override
+		public boolean isHandle() {
+			return true;
+		}
+	}
+
+	private final class PersistentEdge extends PersistentHandle implements
+			it.uniud.mads.jlibbig.core.Edge {
+
+		PersistentEdge(long id) {
+			super(id);
+		}
+
+		@Override
+		long handleRef() {
+			return key;
+		}
+
+		@Override
+		public boolean isEdge() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "E_" + NameGenerator.render(key);
+		}
+	}
+
+	private final class PersistentOuterName extends PersistentHandle implements
+			it.uniud.mads.jlibbig.core.OuterName {
+
+		PersistentOuterName(int index) {
+			super(index);
+		}
+
+		@Override
+		long handleRef() {
+			return -1L - key;
+		}
+
+		@Override
+		public String getName() {
+			return outer_names[(int) key];
+		}
+
+		@Override
+		public boolean isOuterName() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+
+	private final class PersistentInnerName extends View implements
+			it.uniud.mads.jlibbig.core.InnerName {
+
+		PersistentInnerName(int index) {
+			super(index);
+		}
+
+		@Override
+		public String getName() {
+			return inner_names[(int) key];
+		}
+
+		@Override
+		public it.uniud.mads.jlibbig.core.Handle getHandle() {
+			return handleAt(inner_handle[(int) key]);
+		}
+
+		@Override
+		public boolean isPoint() {
+			return true;
+		}
+
+		@Override
+		public boolean isInnerName() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+}
@@ -0,0 +1,540 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.constraints.Constraint;
+import org.chocosolver.solver.constraints.Propagator;
+import org.chocosolver.solver.constraints.PropagatorPriority;
+import org.chocosolver.solver.exception.ContradictionException;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.solver.variables.events.IntEventType;
+import org.chocosolver.util.ESat;
+
+/*
+ * Propagator for the place graph part of the embedding problem solved by the
+ * matchers of this package. Every variable places an agent entity i on a
+ * redex entity j (cf. the p_vars of the matchers) and the propagator enforces
+ * the place constraints that would otherwise be posted pair by pair:
+ *
+ * - placing i on j implies placing the parent of i on the parent of j
+ *   (constraint 3);
+ * - redex roots and nodes are placed exactly once (constraint 5);
+ * - agent nodes and sites are placed on at most one redex node or site and,
+ *   if they are, they host no redex root (constraints 6 and 10);
+ * - every child of the image of a redex node is placed on a child of the
+ *   node (constraint 7) and every node child of a redex root or node is
+ *   placed on a child of its image (constraint 8, for nodes it follows from
+ *   3 and 5 but pruning it directly saves some search);
+ * - redex roots are not hosted inside parameters (constraint 9).
+ *
+ * The forests are kept as arrays indexed by variable: the parent pair, the
+ * column of candidates for j, the row of placements of i and the groups
+ * behind constraints 7 and 8. A variable belongs to a bounded number of
+ * these, hence the propagator takes space linear in the number of
+ * variables. For constraint 9, agent entities are numbered in preorder: the
+ * subtree of a parameter is an interval and the redex roots hosted inside it
+ * are found by a binary search.
+ *
+ * The propagator reacts to the instantiation of single variables and keeps
+ * a queue of the ones it instantiated itself, since the solver does not
+ * notify a propagator of its own changes.
+ */
+final class PlaceEmbeddingPropagator extends Propagator<IntVar> {
+
+	private static final int[] NONE = new int[0];
+
+	// kind of the redex entity of a variable
+	private static final byte ROOT = 0, NODE = 1, SITE = 2;
+
+	private final byte[] kinds;
+	// the variable placing the parents of i and j, or -1 if j is a root
+	private final int[] parents;
+	// the variables whose parent pair is the given one
+	private final int[][] children;
+	// candidates for the redex entity of a variable
+	private final int[] col;
+	private final int[][] cols;
+	// whether the redex entity of a column is placed exactly once
+	private final boolean[] exact;
+	// placements of the agent entity of a variable
+	private final int[] row;
+	private final int[][] rows;
+	/*
+	 * Groups of variables, one of which must hold if their owner does: the
+	 * placements of a child of the image of a redex node on the children of
+	 * the node (cover) and the placements of a node child of a redex parent
+	 * on the children of its image (support).
+	 */
+	private final int[] cover, support;
+	private final int[] owners;
+	private final int[][] groups;
+	private final int[][] owned;
+
+	// whether redex roots must be kept apart from parameters
+	private final boolean separate;
+	// agent parents and the preorder intervals of their subtrees
+	private final int[] agent_parents;
+	private final int[] pre, last;
+	// variables hosting roots on agent nodes, sorted by the preorder of hosts
+	private final int[] hostings;
+	private final int[] hosting_pres;
+
+	// variables instantiated by this propagator and yet to be processed
+	private final int[] queue;
+	private int top = 0;
+
+	/*
+	 * Returns the place constraints for the given variables; the solver
+	 * does not accept propagators without variables, hence if there are
+	 * none the constraint is decided here.
+	 */
+	static Constraint constraint(Model model, CompiledRedex redex,
+			Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars,
+			Map<PlaceEntity, List<PlaceEntity>> p_cands) {
+		IntVar[] vs = placeVars(redex, p_vars, p_cands);
+		if (vs.length == 0) {
+			// redex roots and nodes have no candidate
+			return (redex.rrs + redex.rns > 0) ? model.falseConstraint()
+					: model.trueConstraint();
+		}
+		return new Constraint("PlaceEmbedding", new PlaceEmbeddingPropagator(
+				vs, redex, p_cands));
+	}
+
+	private PlaceEmbeddingPropagator(IntVar[] vs, CompiledRedex redex,
+			Map<PlaceEntity, List<PlaceEntity>> p_cands) {
+		super(vs, PropagatorPriority.LINEAR, true);
+		int n = vars.length;
+		this.kinds = new byte[n];
+		this.parents = new int[n];
+		this.children = new int[n][];
+		this.col = new int[n];
+		this.row = new int[n];
+		this.cover = new int[n];
+		this.support = new int[n];
+		this.owned = new int[n][];
+		this.queue = new int[n];
+
+		// variables of the pairs, agent entities and columns
+		Map<PlaceEntity, Map<PlaceEntity, Integer>> ids = new IdentityHashMap<>();
+		Map<PlaceEntity, Integer> agent_ids = new IdentityHashMap<>();
+		List<PlaceEntity> agents = new ArrayList<>();
+		PlaceEntity[] as = new PlaceEntity[n];
+		PlaceEntity[] rs = new PlaceEntity[n];
+		List<PlaceEntity> entities = entitiesOf(redex);
+		this.cols = new int[entities.size()][];
+		this.exact = new boolean[cols.length];
+		int v = 0;
+		for (int c = 0; c < cols.length; c++) {
+			PlaceEntity j = entities.get(c);
+			List<PlaceEntity> is = p_cands.get(j);
+			exact[c] = !j.isSite();
+			cols[c] = new int[is.size()];
+			for (int k = 0; k < is.size(); k++) {
+				PlaceEntity i = is.get(k);
+				Map<PlaceEntity, Integer> r = ids.get(i);
+				if (r == null) {
+					r = new IdentityHashMap<>();
+					ids.put(i, r);
+				}
+				r.put(j, v);
+				if (!agent_ids.containsKey(i)) {
+					agent_ids.put(i, agents.size());
+					agents.add(i);
+				}
+				as[v] = i;
+				rs[v] = j;
+				kinds[v] = j.isRoot() ? ROOT : j.isNode() ? NODE : SITE;
+				col[v] = c;
+				cols[c][k] = v++;
+			}
+		}
+
+		// redex roots must be kept apart from the parameters of other roots
+		this.separate = redex.rrs > 1;
+		if (separate) {
+			// ancestors of the candidates are numbered too
+			for (int k = 0; k < agents.size(); k++) {
+				PlaceEntity i = agents.get(k);
+				if (i.isRoot())
+					continue;
+				Parent p = ((Child) i).getParent();
+				if (!agent_ids.containsKey(p)) {
+					agent_ids.put(p, agents.size());
+					agents.add(p);
+				}
+			}
+		}
+		int m = agents.size();
+		this.agent_parents = new int[m];
+		List<List<Integer>> rls = new ArrayList<>(m);
+		for (int a = 0; a < m; a++) {
+			PlaceEntity i = agents.get(a);
+			Integer p = (i.isRoot()) ? null : agent_ids.get(((Child) i)
+					.getParent());
+			agent_parents[a] = (p == null) ? -1 : p;
+			rls.add(new ArrayList<Integer>());
+		}
+		for (v = 0; v < n; v++) {
+			row[v] = agent_ids.get(as[v]);
+			rls.get(row[v]).add(v);
+		}
+		this.rows = new int[m][];
+		for (int a = 0; a < m; a++) {
+			rows[a] = toArray(rls.get(a));
+		}
+
+		// parent pairs
+		List<List<Integer>> cls = new ArrayList<>(n);
+		for (v = 0; v < n; v++) {
+			cls.add(null);
+			if (kinds[v] == ROOT) {
+				parents[v] = -1;
+				continue;
+			}
+			int u = ids.get(((Child) as[v]).getParent()).get(
+					((Child) rs[v]).getParent());
+			parents[v] = u;
+			List<Integer> cs = cls.get(u);
+			if (cs == null) {
+				cs = new ArrayList<>();
+				cls.set(u, cs);
+			}
+			cs.add(v);
+		}
+		for (v = 0; v < n; v++) {
+			children[v] = toArray(cls.get(v));
+		}
+
+		// groups for constraints 7 and 8
+		Arrays.fill(cover, -1);
+		Arrays.fill(support, -1);
+		List<int[]> gs = new ArrayList<>();
+		List<Integer> os = new ArrayList<>();
+		List<Integer> ms = new ArrayList<>();
+		for (v = 0; v < n; v++) {
+			if (kinds[v] == SITE) {
+				owned[v] = NONE;
+				continue;
+			}
+			int first = gs.size();
+			Parent f = (Parent) as[v];
+			Parent g = (Parent) rs[v];
+			for (Node j : redex.node_children.get(g)) {
+				ms.clear();
+				for (Child i : f.getChildren()) {
+					Integer u = lookup(ids, i, j);
+					if (u != null)
+						ms.add(u);
+				}
+				for (int u : ms)
+					support[u] = gs.size();
+				gs.add(toArray(ms));
+				os.add(v);
+			}
+			if (kinds[v] == NODE) {
+				for (Child i : f.getChildren()) {
+					ms.clear();
+					for (Child j : g.getChildren()) {
+						Integer u = lookup(ids, i, j);
+						if (u != null)
+							ms.add(u);
+					}
+					for (int u : ms)
+						cover[u] = gs.size();
+					gs.add(toArray(ms));
+					os.add(v);
+				}
+			}
+			owned[v] = new int[gs.size() - first];
+			for (int k = 0; k < owned[v].length; k++) {
+				owned[v][k] = first + k;
+			}
+		}
+		this.groups = gs.toArray(new int[gs.size()][]);
+		this.owners = toArray(os);
+
+		// preorder numbering of the agent forest
+		if (separate) {
+			List<List<Integer>> acs = new ArrayList<>(m);
+			for (int a = 0; a < m; a++) {
+				acs.add(new ArrayList<Integer>());
+			}
+			Deque<Integer> stack = new ArrayDeque<>();
+			for (int a = m - 1; a >= 0; a--) {
+				if (agent_parents[a] < 0)
+					stack.push(a);
+				else
+					acs.get(agent_parents[a]).add(a);
+			}
+			this.pre = new int[m];
+			this.last = new int[m];
+			int count = 0;
+			while (!stack.isEmpty()) {
+				int a = stack.pop();
+				pre[a] = count++;
+				List<Integer> cs = acs.get(a);
+				for (int k = cs.size() - 1; k >= 0; k--) {
+					stack.push(cs.get(k));
+				}
+			}
+			// entities come after their ancestors, subtrees are closed
+			// bottom-up
+			for (int a = 0; a < m; a++) {
+				last[a] = pre[a];
+			}
+			Integer[] order = new Integer[m];
+			for (int a = 0; a < m; a++) {
+				order[a] = a;
+			}
+			Arrays.sort(order, (a, b) -> pre[b] - pre[a]);
+			for (int a : order) {
+				int p = agent_parents[a];
+				if (p >= 0 && last[p] < last[a])
+					last[p] = last[a];
+			}
+			List<Integer> hs = new ArrayList<>();
+			for (v = 0; v < n; v++) {
+				if (kinds[v] == ROOT && as[v].isNode())
+					hs.add(v);
+			}
+			Collections.sort(hs, (a, b) -> pre[row[a]] - pre[row[b]]);
+			this.hostings = toArray(hs);
+			this.hosting_pres = new int[hostings.length];
+			for (int k = 0; k < hostings.length; k++) {
+				hosting_pres[k] = pre[row[hostings[k]]];
+			}
+		} else {
+			this.pre = this.last = this.hostings = this.hosting_pres = NONE;
+		}
+	}
+
+	/*
+	 * Redex roots, nodes and sites; the variables follow this order and,
+	 * for each redex entity, the order of its candidates.
+	 */
+	private static List<PlaceEntity> entitiesOf(CompiledRedex redex) {
+		List<PlaceEntity> es = new ArrayList<>(redex.rrs + redex.rns
+				+ redex.rss);
+		es.addAll(redex.roots);
+		es.addAll(redex.nodes);
+		es.addAll(redex.sites);
+		return es;
+	}
+
+	private static IntVar[] placeVars(CompiledRedex redex,
+			Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars,
+			Map<PlaceEntity, List<PlaceEntity>> p_cands) {
+		List<IntVar> vs = new ArrayList<>();
+		for (PlaceEntity j : entitiesOf(redex)) {
+			for (PlaceEntity i : p_cands.get(j)) {
+				vs.add(p_vars.get(i).get(j));
+			}
+		}
+		return vs.toArray(new IntVar[vs.size()]);
+	}
+
+	private static Integer lookup(
+			Map<PlaceEntity, Map<PlaceEntity, Integer>> ids, PlaceEntity i,
+			PlaceEntity j) {
+		Map<PlaceEntity, Integer> r = ids.get(i);
+		return (r == null) ? null : r.get(j);
+	}
+
+	private static int[] toArray(List<Integer> xs) {
+		if (xs == null || xs.isEmpty())
+			return NONE;
+		int[] ys = new int[xs.size()];
+		for (int k = 0; k < ys.length; k++) {
+			ys[k] = xs.get(k);
+		}
+		return ys;
+	}
+
+	@Override
+	public int getPropagationConditions(int vIdx) {
+		return IntEventType.instantiation();
+	}
+
+	@Override
+	public void propagate(int evtmask) throws ContradictionException {
+		top = 0;
+		for (int v = 0; v < vars.length; v++) {
+			if (vars[v].isInstantiated())
+				queue[top++] = v;
+		}
+		for (int c = 0; c < cols.length; c++) {
+			checkColumn(c);
+		}
+		for (int g = 0; g < groups.length; g++) {
+			checkGroup(g);
+		}
+		drain();
+	}
+
+	@Override
+	public void propagate(int idxVarInProp, int mask)
+			throws ContradictionException {
+		top = 0;
+		queue[top++] = idxVarInProp;
+		drain();
+	}
+
+	private void drain() throws ContradictionException {
+		while (top > 0) {
+			react(queue[--top]);
+		}
+	}
+
+	private void setZero(int v) throws ContradictionException {
+		if (vars[v].instantiateTo(0, this))
+			queue[top++] = v;
+	}
+
+	private void setOne(int v) throws ContradictionException {
+		if (vars[v].instantiateTo(1, this))
+			queue[top++] = v;
+	}
+
+	/*
+	 * Draws the consequences of the instantiation of a variable.
+	 */
+	private void react(int v) throws ContradictionException {
+		if (vars[v].getValue() == 1) {
+			if (parents[v] >= 0)
+				setOne(parents[v]);
+			if (kinds[v] != SITE) {
+				for (int u : cols[col[v]]) {
+					if (u != v)
+						setZero(u);
+				}
+			}
+			for (int u : rows[row[v]]) {
+				if (u != v && (kinds[v] != ROOT || kinds[u] != ROOT))
+					setZero(u);
+			}
+			for (int g : owned[v]) {
+				checkGroup(g);
+			}
+			if (separate && kinds[v] == ROOT) {
+				// no ancestor of the host is in a parameter
+				for (int a = agent_parents[row[v]]; a >= 0; a = agent_parents[a]) {
+					for (int u : rows[a]) {
+						if (kinds[u] == SITE)
+							setZero(u);
+					}
+				}
+			} else if (separate && kinds[v] == SITE) {
+				// no root is hosted below the parameter
+				int a = row[v];
+				int k = Arrays.binarySearch(hosting_pres, pre[a]);
+				k = (k < 0) ? -k - 1 : k + 1;
+				for (; k < hostings.length && hosting_pres[k] <= last[a]; k++) {
+					setZero(hostings[k]);
+				}
+			}
+		} else {
+			for (int u : children[v]) {
+				setZero(u);
+			}
+			checkColumn(col[v]);
+			if (cover[v] >= 0)
+				checkGroup(cover[v]);
+			if (support[v] >= 0)
+				checkGroup(support[v]);
+		}
+	}
+
+	/*
+	 * A redex root or node with a single candidate left is placed on it.
+	 */
+	private void checkColumn(int c) throws ContradictionException {
+		if (!exact[c])
+			return;
+		int left = -1, count = 0;
+		for (int u : cols[c]) {
+			if (vars[u].isInstantiatedTo(1))
+				return;
+			if (!vars[u].isInstantiatedTo(0)) {
+				left = u;
+				count++;
+			}
+		}
+		if (count == 0)
+			fails();
+		if (count == 1)
+			setOne(left);
+	}
+
+	/*
+	 * A group with no variable left rules out its owner; a group with a
+	 * single variable left whose owner holds must be satisfied by it.
+	 */
+	private void checkGroup(int g) throws ContradictionException {
+		int w = owners[g];
+		if (vars[w].isInstantiatedTo(0))
+			return;
+		int left = -1, count = 0;
+		for (int u : groups[g]) {
+			if (vars[u].isInstantiatedTo(1))
+				return;
+			if (!vars[u].isInstantiatedTo(0)) {
+				left = u;
+				count++;
+			}
+		}
+		if (count == 0)
+			setZero(w);
+		else if (count == 1 && vars[w].isInstantiatedTo(1))
+			setOne(left);
+	}
+
+	@Override
+	public ESat isEntailed() {
+		for (IntVar x : vars) {
+			if (!x.isInstantiated())
+				return ESat.UNDEFINED;
+		}
+		for (int v = 0; v < vars.length; v++) {
+			if (vars[v].getValue() == 0)
+				continue;
+			if (parents[v] >= 0 && vars[parents[v]].getValue() == 0)
+				return ESat.FALSE;
+			for (int u : rows[row[v]]) {
+				if (u != v && vars[u].getValue() == 1
+						&& (kinds[v] != ROOT || kinds[u] != ROOT))
+					return ESat.FALSE;
+			}
+			if (separate && kinds[v] == ROOT) {
+				for (int a = agent_parents[row[v]]; a >= 0; a = agent_parents[a]) {
+					for (int u : rows[a]) {
+						if (kinds[u] == SITE && vars[u].getValue() == 1)
+							return ESat.FALSE;
+					}
+				}
+			}
+		}
+		for (int c = 0; c < cols.length; c++) {
+			if (!exact[c])
+				continue;
+			int count = 0;
+			for (int u : cols[c]) {
+				count += vars[u].getValue();
+			}
+			if (count != 1)
+				return ESat.FALSE;
+		}
+		for (int g = 0; g < groups.length; g++) {
+			if (vars[owners[g]].getValue() == 0)
+				continue;
+			int count = 0;
+			for (int u : groups[g]) {
+				count += vars[u].getValue();
+			}
+			if (count == 0)
+				return ESat.FALSE;
+		}
+		return ESat.TRUE;
+	}
+}
@@ -0,0 +1,493 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+import it.uniud.mads.jlibbig.core.std.EditableNode.EditablePort;
+
+/**
+ * Splits a redex into its components, i.e. the smallest groups of roots
+ * whose nodes share no handle with the nodes of the other roots, and
+ * computes the matches of the redex by combining the matches of its
+ * components. Components are matched independently of each other, hence the
+ * cost of the search is the sum of the costs of matching every component
+ * rather than their product. Matches of different components are combined
+ * when they occupy disjoint parts of the agent: no agent node is the image
+ * of two nodes or lies in the parameter of the other match, and no agent
+ * edge is the image of two edges.
+ *
+ * A redex is split only if it has no inner names, every root has some node
+ * and every handle with some point is linked to some port; idle outer names
+ * are matched together with the first component. Inner names are excluded
+ * since ports in the parameters of any component may be linked to them,
+ * whereas each would belong to a single component. Otherwise, or if the
+ * agent has inner names, the redex is matched as a whole (cf.
+ * {@link it.uniud.mads.jlibbig.core.MatcherOptions#withDecomposition}).
+ */
+final class RedexComponents {
+
+	final CompiledRedex redex;
+	// the components of the redex, empty if the redex is not split
+	final List<Part> parts;
+
+	private RedexComponents(CompiledRedex redex, List<Part> parts) {
+		this.redex = redex;
+		this.parts = parts;
+	}
+
+	/*
+	 * Groups the roots of the redex whose nodes are linked, directly or
+	 * through other roots.
+	 */
+	static RedexComponents of(CompiledRedex redex) {
+		List<Part> parts = new ArrayList<>();
+		if (redex.rrs < 2 || redex.rins > 0)
+			return new RedexComponents(redex, parts);
+		for (Root r : redex.roots) {
+			if (redex.node_children.get(r).isEmpty())
+				return new RedexComponents(redex, parts);
+		}
+		// union-find over the indices of the roots
+		int[] comp = new int[redex.rrs];
+		for (int i = 0; i < comp.length; i++) {
+			comp[i] = i;
+		}
+		int[] rootOf = new int[redex.rns];
+		for (int i = 0; i < redex.rns; i++) {
+			Parent p = redex.nodes.get(i).getParent();
+			rootOf[i] = (p.isRoot()) ? redex.index.get(p) : rootOf[redex.index
+					.get(p)];
+		}
+		for (Handle h : redex.handles) {
+			if (h.getPoints().isEmpty())
+				continue;
+			int k = -1;
+			for (Point p : h.getPoints()) {
+				if (!p.isPort())
+					continue;
+				int j = find(comp, rootOf[redex.index.get(((Port) p)
+						.getNode())]);
+				if (k < 0) {
+					k = j;
+				} else if (j != k) {
+					comp[j] = k;
+				}
+			}
+			if (k < 0)
+				return new RedexComponents(redex, parts);
+		}
+		Map<Integer, List<EditableRoot>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < comp.length; i++) {
+			int k = find(comp, i);
+			List<EditableRoot> rs = groups.get(k);
+			if (rs == null) {
+				rs = new ArrayList<>();
+				groups.put(k, rs);
+			}
+			rs.add(redex.redex.roots.get(i));
+		}
+		if (groups.size() > 1) {
+			// idle outer names are matched with the first component
+			List<OuterName> idle = redex.idle_outers;
+			for (List<EditableRoot> rs : groups.values()) {
+				parts.add(new Part(redex.redex, rs, idle));
+				idle = Collections.emptyList();
+			}
+		}
+		return new RedexComponents(redex, parts);
+	}
+
+	private static int find(int[] comp, int i) {
+		while (comp[i] != i) {
+			comp[i] = comp[comp[i]];
+			i = comp[i];
+		}
+		return i;
+	}
+
+	/*
+	 * Tells whether the redex has more than one component.
+	 */
+	boolean isSplit() {
+		return !parts.isEmpty();
+	}
+
+	/*
+	 * Computes the matches of the redex combining those of its components
+	 * found by the given matcher.
+	 */
+	Iterable<Match> match(final Matcher matcher, final Bigraph agent) {
+		if (!agent.signature.equals(redex.redex.signature)) {
+			throw new UnsupportedOperationException(
+					"Agent and redex should have the same singature.");
+		}
+		return new Iterable<Match>() {
+			@Override
+			public Iterator<Match> iterator() {
+				return new MatchIterator(new Join(matcher, agent));
+			}
+		};
+	}
+
+	/*
+	 * Counts the matches of the redex up to the given bound without building
+	 * any of them.
+	 */
+	int count(Matcher matcher, Bigraph agent, int bound) {
+		if (!agent.signature.equals(redex.redex.signature)) {
+			throw new UnsupportedOperationException(
+					"Agent and redex should have the same singature.");
+		}
+		Join join = new Join(matcher, agent);
+		int count = 0;
+		while (count < bound && join.advance()) {
+			count++;
+		}
+		return count;
+	}
+
+	/*
+	 * A component of the redex replicated as a bigraph of its own; the
+	 * entities of the replica are mapped to the ones of the redex.
+	 */
+	static final class Part {
+
+		final CompiledRedex compiled;
+		final Map<PlaceEntity, PlaceEntity> places = new IdentityHashMap<>();
+		final Map<Handle, Handle> handles = new IdentityHashMap<>();
+		final Map<InnerName, InnerName> inners = new IdentityHashMap<>();
+
+		Part(Bigraph redex, List<EditableRoot> roots, List<OuterName> idle) {
+			Bigraph big = new Bigraph(redex.signature);
+			Map<EditableHandle, EditableHandle> hnd_dic = new IdentityHashMap<>();
+			Map<EditableParent, EditableParent> prn_dic = new IdentityHashMap<>();
+			EditableSite[] sites = new EditableSite[redex.sites.size()];
+			Deque<EditableParent> q = new ArrayDeque<>();
+			for (OuterName o : idle) {
+				replicate(big, o.getEditable(), hnd_dic);
+			}
+			for (EditableRoot r1 : roots) {
+				EditableRoot r2 = r1.replicate();
+				big.roots.add(r2);
+				r2.setOwner(big);
+				places.put(r2, r1);
+				prn_dic.put(r1, r2);
+				q.add(r1);
+			}
+			while (!q.isEmpty()) {
+				EditableParent p1 = q.poll();
+				EditableParent p2 = prn_dic.get(p1);
+				for (EditableChild c : p1.getEditableChildren()) {
+					if (c.isNode()) {
+						EditableNode n1 = (EditableNode) c;
+						EditableNode n2 = n1.replicate();
+						n2.setParent(p2);
+						places.put(n2, n1);
+						prn_dic.put(n1, n2);
+						for (int i = n1.getControl().getArity() - 1; 0 <= i; i--) {
+							EditablePort o = n1.getPort(i);
+							n2.getPort(i).setHandle(
+									replicate(big, o.getHandle(), hnd_dic));
+						}
+						q.add(n1);
+					} else {
+						EditableSite s1 = (EditableSite) c;
+						EditableSite s2 = s1.replicate();
+						s2.setParent(p2);
+						places.put(s2, s1);
+						sites[redex.sites.indexOf(s1)] = s2;
+					}
+				}
+			}
+			for (EditableSite s : sites) {
+				if (s != null)
+					big.sites.add(s);
+			}
+			for (EditableInnerName i1 : redex.inners.values()) {
+				EditableHandle h2 = hnd_dic.get(i1.getHandle());
+				if (h2 == null)
+					continue;
+				EditableInnerName i2 = i1.replicate();
+				i2.setHandle(h2);
+				big.inners.put(i2.getName(), i2);
+				inners.put(i2, i1);
+			}
+			this.compiled = new CompiledRedex(big);
+		}
+
+		private EditableHandle replicate(Bigraph big, EditableHandle h1,
+				Map<EditableHandle, EditableHandle> hnd_dic) {
+			EditableHandle h2 = hnd_dic.get(h1);
+			if (h2 == null) {
+				if (h1.isOuterName()) {
+					EditableOuterName o2 = ((EditableOuterName) h1).replicate();
+					big.outers.put(o2.getName(), o2);
+					h2 = o2;
+				} else {
+					h2 = h1.replicate();
+				}
+				h2.setOwner(big);
+				hnd_dic.put(h1, h2);
+				handles.put(h2, h1);
+			}
+			return h2;
+		}
+	}
+
+	/*
+	 * A match of a component together with the agent entities it occupies:
+	 * the images of its nodes, the top-level entities of its parameters and
+	 * the images of its edges.
+	 */
+	private static final class Occurrence {
+
+		final Part part;
+		final Matcher.SolvedEmbedding embedding;
+		final List<Child> occupied = new ArrayList<>();
+		final List<Child> tops = new ArrayList<>();
+		final List<Handle> edges = new ArrayList<>();
+
+		Occurrence(Part part, Matcher.SolvedEmbedding embedding) {
+			this.part = part;
+			this.embedding = embedding;
+			for (Map.Entry<PlaceEntity, List<PlaceEntity>> e : embedding.places
+					.entrySet()) {
+				for (PlaceEntity r : e.getValue()) {
+					if (r.isNode()) {
+						occupied.add((Child) e.getKey());
+					} else if (r.isSite()) {
+						occupied.add((Child) e.getKey());
+						tops.add((Child) e.getKey());
+					}
+				}
+			}
+			for (Map.Entry<Handle, Handle> e : embedding.handles.entrySet()) {
+				if (e.getKey().isEdge())
+					edges.add(e.getValue());
+			}
+		}
+	}
+
+	/*
+	 * Enumerates the combinations of matches of the components occupying
+	 * disjoint parts of the agent by backtracking; components with less
+	 * matches are chosen first. The matches of every component are looked
+	 * for on the first move. The searches of the components and the
+	 * combination of their matches are charged to a single budget, if the
+	 * options of the matcher have limits: every match tried counts as a node
+	 * and every match rejected as a failure.
+	 */
+	private final class Join {
+
+		final Matcher matcher;
+		final Bigraph agent;
+		// null if the search is not limited
+		final SearchControl.Budget budget;
+
+		private List<List<Occurrence>> occs;
+		private Occurrence[] chosen;
+		private int[] next;
+		private int level = 0;
+
+		// the agent entities occupied by the chosen matches
+		private final Set<Child> occupied = Collections
+				.newSetFromMap(new IdentityHashMap<Child, Boolean>());
+		private final Set<Child> tops = Collections
+				.newSetFromMap(new IdentityHashMap<Child, Boolean>());
+		private final Set<Handle> edges = Collections
+				.newSetFromMap(new IdentityHashMap<Handle, Boolean>());
+		// agent nodes above some occupied entity and how many are below them
+		private final Map<Node, Integer> covered = new IdentityHashMap<>();
+
+		Join(Matcher matcher, Bigraph agent) {
+			this.matcher = matcher;
+			this.agent = agent;
+			MatcherOptions opts = matcher.getOptions();
+			if (SearchControl.isLimited(opts))
+				this.budget = new SearchControl.Budget(opts);
+			else
+				this.budget = null;
+		}
+
+		private void init() {
+			occs = new ArrayList<>(parts.size());
+			for (Part p : parts) {
+				List<Occurrence> os = new ArrayList<>();
+				for (Match m : matcher.match(agent, p.compiled, budget)) {
+					os.add(new Occurrence(p, (Matcher.SolvedEmbedding) m
+							.getEmbedding()));
+				}
+				if (os.isEmpty()) {
+					// no match of a component, no match of the redex
+					level = -1;
+					return;
+				}
+				occs.add(os);
+			}
+			Collections.sort(occs, new Comparator<List<Occurrence>>() {
+				@Override
+				public int compare(List<Occurrence> l1, List<Occurrence> l2) {
+					return l1.size() - l2.size();
+				}
+			});
+			chosen = new Occurrence[occs.size()];
+			next = new int[occs.size()];
+		}
+
+		/*
+		 * Moves to the next combination, if any.
+		 */
+		boolean advance() {
+			if (occs == null)
+				init();
+			check();
+			int n = occs.size();
+			if (level == n) {
+				remove(chosen[--level]);
+			}
+			while (level >= 0) {
+				List<Occurrence> os = occs.get(level);
+				Occurrence o = null;
+				while (next[level] < os.size()) {
+					check();
+					Occurrence c = os.get(next[level]++);
+					boolean fits = fits(c);
+					if (budget != null)
+						budget.charge(1, fits ? 0 : 1);
+					if (fits) {
+						o = c;
+						break;
+					}
+				}
+				if (o == null) {
+					next[level] = 0;
+					if (--level >= 0)
+						remove(chosen[level]);
+				} else {
+					add(o);
+					chosen[level++] = o;
+					if (level == n)
+						return true;
+				}
+			}
+			return false;
+		}
+
+		/*
+		 * Stops the search if the budget is exceeded.
+		 */
+		private void check() {
+			if (budget != null && budget.isExceeded(0, 0))
+				throw budget.limitReached(0, 0);
+		}
+
+		private boolean fits(Occurrence o) {
+			for (Child c : o.occupied) {
+				if (occupied.contains(c))
+					return false;
+				// c is in the parameter of a chosen match
+				for (Parent p = c.getParent(); p.isNode(); p = ((Node) p)
+						.getParent()) {
+					if (tops.contains(p))
+						return false;
+				}
+			}
+			for (Child c : o.tops) {
+				// some chosen match is in the parameter of o
+				if (covered.containsKey(c))
+					return false;
+			}
+			for (Handle h : o.edges) {
+				if (edges.contains(h))
+					return false;
+			}
+			return true;
+		}
+
+		private void add(Occurrence o) {
+			occupied.addAll(o.occupied);
+			tops.addAll(o.tops);
+			edges.addAll(o.edges);
+			for (Child c : o.occupied) {
+				for (Parent p = c.getParent(); p.isNode(); p = ((Node) p)
+						.getParent()) {
+					Integer k = covered.get(p);
+					covered.put((Node) p, (k == null) ? 1 : k + 1);
+				}
+			}
+		}
+
+		private void remove(Occurrence o) {
+			occupied.removeAll(o.occupied);
+			tops.removeAll(o.tops);
+			edges.removeAll(o.edges);
+			for (Child c : o.occupied) {
+				for (Parent p = c.getParent(); p.isNode(); p = ((Node) p)
+						.getParent()) {
+					int k = covered.get(p);
+					if (k == 1)
+						covered.remove(p);
+					else
+						covered.put((Node) p, k - 1);
+				}
+			}
+		}
+
+		/*
+		 * The embedding of the redex made of the chosen matches.
+		 */
+		Matcher.SolvedEmbedding embedding() {
+			Matcher.SolvedEmbedding emb = new Matcher.SolvedEmbedding();
+			for (Occurrence o : chosen) {
+				emb.include(o.embedding, o.part.places, o.part.handles,
+						o.part.inners);
+			}
+			return emb;
+		}
+	}
+
+	private class MatchIterator implements Iterator<Match> {
+
+		private final Join join;
+		private boolean mayHaveNext = true;
+		private Match nextMatch = null;
+
+		MatchIterator(Join join) {
+			this.join = join;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (mayHaveNext && nextMatch == null) {
+				boolean found = false;
+				try {
+					found = join.advance();
+				} finally {
+					// a stopped search ends the enumeration
+					if (!found)
+						mayHaveNext = false;
+				}
+				if (found) {
+					nextMatch = new Match(join.agent, redex.redex,
+							join.embedding());
+				}
+			}
+			return nextMatch != null;
+		}
+
+		@Override
+		public Match next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Match res = nextMatch;
+			nextMatch = null;
+			return res;
+		}
+
+		@Override
+		public void remove() throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("");
+		}
+	}
+}
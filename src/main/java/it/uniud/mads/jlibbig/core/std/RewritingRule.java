@@ -1,6 +1,7 @@
 package it.uniud.mads.jlibbig.core.std;
 
 import java.util.*;
+import java.util.stream.*;
 
 import it.uniud.mads.jlibbig.core.Owner;
 import it.uniud.mads.jlibbig.core.exceptions.*;
@@ -47,8 +48,12 @@ public class RewritingRule implements it.uniud.mads.jlibbig.core.RewritingRule<B
 	final Bigraph redex;
 	final Bigraph reactum;
 	final InstantiationMap eta;
+	// the redex is matched against every agent the rule is applied to
+	final CompiledRedex compiledRedex;
 
 	private Matcher matcher;
+	// persistent rewrites skip the instantiation of the reactum
+	private final boolean customInstantiation = overridesInstantiation();
 
 	public RewritingRule(Bigraph redex, Bigraph reactum, int... eta) {
 		this(Matcher.DEFAULT, redex, reactum,
@@ -111,6 +116,7 @@ public class RewritingRule implements it.uniud.mads.jlibbig.core.RewritingRule<B
 		this.redex = redex;
 		this.reactum = reactum;
 		this.eta = eta;
+		this.compiledRedex = new CompiledRedex(redex);
 
 		this.matcher = (matcher == null) ? Matcher.DEFAULT : matcher;
 	}
@@ -131,6 +137,19 @@ public class RewritingRule implements it.uniud.mads.jlibbig.core.RewritingRule<B
 			Match match) {
 	}
 
+	private boolean overridesInstantiation() {
+		for (Class<?> c = getClass(); c != RewritingRule.class; c = c
+				.getSuperclass()) {
+			try {
+				c.getDeclaredMethod("instantiateReactumNode", Node.class,
+						Node.class, Match.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Instantiates rule's reactum with respect to the given match.
 	 * 
@@ -237,6 +256,164 @@ public class RewritingRule implements it.uniud.mads.jlibbig.core.RewritingRule<B
 		return this.eta;
 	}
 	
+	/**
+	 * Returns the redex of the rule compiled for matching. The redex is
+	 * compiled once, when the rule is created.
+	 * 
+	 * @return the compiled redex.
+	 */
+	public CompiledRedex getCompiledRedex() {
+		return this.compiledRedex;
+	}
+
+	/**
+	 * Rewrites the agent of the given match replacing the occurrence of the
+	 * redex it describes with an instance of the reactum. Unlike
+	 * {@link #apply(Bigraph)}, the occurrence is chosen by the caller e.g.
+	 * among the matches tracked by an {@link IncrementalMatcher}; the match is
+	 * left untouched and can be rewritten again.
+	 * 
+	 * The rewrite of a match tracked by an {@link IncrementalMatcher} records
+	 * which nodes of the result are copies of nodes of the agent; passing the
+	 * rewrite returned to {@link IncrementalMatcher#rematch} allows to update
+	 * the matches of any redex without looking at the whole result. The
+	 * record is kept by the rewrite only, hence matches do not keep results
+	 * alive.
+	 * 
+	 * @param match
+	 *            a match of the redex of this rule.
+	 * @return the rewrite, carrying its result.
+	 */
+	public Rewrite rewrite(Match match) {
+		Matcher.SolvedEmbedding emb = match.getRetainedEmbedding();
+		Match m = match;
+		Map<Node, Node> ctx = null, prm = null, copies = null;
+		if (emb != null) {
+			if (match.getSourceRedex() != this.redex) {
+				throw new IllegalArgumentException(
+						"The match does not describe an occurrence of the redex of this rule.");
+			}
+			// fresh components whose nodes are traced back to the agent
+			ctx = new IdentityHashMap<>();
+			prm = new IdentityHashMap<>();
+			copies = new IdentityHashMap<>();
+			m = Matcher.buildMatch(match.getSourceAgent(), this.redex, emb,
+					ctx, prm);
+		}
+		Bigraph reactum = instantiateReactum(m);
+		Collection<Node> added = (emb != null) ? new ArrayList<Node>(
+				reactum.getNodes()) : null;
+		BigraphBuilder bb = new BigraphBuilder(reactum, true);
+		bb.leftJuxtapose(m.getRedexId(), m != match);
+		bb.outerCompose(m.getContext(), m != match);
+		Bigraph big = bb.makeBigraph(true);
+		Bigraph params = eta.instantiate(m.getParam(), false, copies)
+				.iterator().next();
+		if (emb != null)
+			added.addAll(params.getNodes());
+		Bigraph result = Bigraph.compose(big, params, true);
+		Trace t = null;
+		if (emb != null) {
+			t = new Trace();
+			Bigraph agent = match.getSourceAgent();
+			for (int i = 0; i < result.roots.size(); i++) {
+				t.relate(agent.roots.get(i), result.roots.get(i));
+			}
+			for (Map.Entry<Node, Node> e : ctx.entrySet()) {
+				t.relate(e.getKey(), e.getValue());
+			}
+			for (Map.Entry<Node, Node> e : prm.entrySet()) {
+				Node n = copies.get(e.getValue());
+				if (n == null)
+					t.removed.add(e.getKey());
+				else
+					t.relate(e.getKey(), n);
+			}
+			for (Map.Entry<PlaceEntity, List<PlaceEntity>> e : emb.places
+					.entrySet()) {
+				for (PlaceEntity f : e.getValue()) {
+					if (f.isNode()) {
+						t.removed.add((Node) e.getKey());
+						break;
+					}
+					if (f.isSite() && t.copies.containsKey(e.getKey())) {
+						t.moved.add((Node) e.getKey());
+						break;
+					}
+				}
+			}
+			for (Node n : added) {
+				if (!t.origins.containsKey(n))
+					t.added.add(n);
+			}
+		}
+		if (DEBUG_PRINT_RESULT)
+			System.out.println(result);
+		if (DEBUG_CONSISTENCY_CHECK && !result.isConsistent()) {
+			throw new RuntimeException("Inconsistent bigraph");
+		}
+		return new Rewrite(match, result, t);
+	}
+
+	/**
+	 * The rewrite of a match carried out by {@link RewritingRule#rewrite}:
+	 * its result and, if the match is tracked by an
+	 * {@link IncrementalMatcher}, how the result relates to the agent
+	 * rewritten (cf. {@link IncrementalMatcher#rematch}).
+	 */
+	public static final class Rewrite {
+		private final Match match;
+		private final Bigraph result;
+		// null unless the match retains its embedding
+		final Trace trace;
+
+		Rewrite(Match match, Bigraph result, Trace trace) {
+			this.match = match;
+			this.result = result;
+			this.trace = trace;
+		}
+
+		/**
+		 * Returns the match rewritten.
+		 * 
+		 * @return the match.
+		 */
+		public Match getMatch() {
+			return this.match;
+		}
+
+		/**
+		 * Returns the result of the rewrite.
+		 * 
+		 * @return the result.
+		 */
+		public Bigraph getResult() {
+			return this.result;
+		}
+	}
+
+	/*
+	 * Relates the agent and the result of a rewrite: the roots and nodes of
+	 * the agent copied to the result (i.e. the context and the parameters
+	 * instantiated at least once) and their copies, the nodes of the agent
+	 * that are not copied (the redex image and the parameters discarded),
+	 * the nodes of the result that are not copies (the reactum and further
+	 * instances of the parameters) and the topmost nodes of the parameters
+	 * copied, which may be copied under a different parent.
+	 */
+	static final class Trace {
+		final Map<PlaceEntity, PlaceEntity> copies = new IdentityHashMap<>();
+		final Map<PlaceEntity, PlaceEntity> origins = new IdentityHashMap<>();
+		final List<Node> removed = new ArrayList<>();
+		final List<Node> added = new ArrayList<>();
+		final List<Node> moved = new ArrayList<>();
+
+		private void relate(PlaceEntity p1, PlaceEntity p2) {
+			copies.put(p1, p2);
+			origins.put(p2, p1);
+		}
+	}
+
 	@Override
 	public Iterable<Bigraph> apply(Bigraph to) {
 		return this.apply(this.getMatcher(),to);
@@ -245,7 +422,88 @@ public class RewritingRule implements it.uniud.mads.jlibbig.core.RewritingRule<B
 	public Iterable<Bigraph> apply(Matcher m, Bigraph to) {
 		return new RewriteIterable(m,to);
 	}
+
+	/**
+	 * Returns a stream of the results of applying the rule to the given
+	 * bigraph, cf. {@link #applyStream(Matcher, Bigraph)}.
+	 * 
+	 * @param to
+	 *            the bigraph the rule is applied to.
+	 * @return a stream of the results.
+	 */
+	public Stream<Bigraph> applyStream(Bigraph to) {
+		return this.applyStream(this.getMatcher(), to);
+	}
+
+	/**
+	 * Returns a stream of the results of applying the rule to the given
+	 * bigraph, yielding the same results of {@link #apply(Matcher, Bigraph)}.
+	 * Matches are taken from {@link Matcher#matchStream} and rewritten as
+	 * the stream is consumed: short-circuiting operations stop the search
+	 * early and parallel streams look for and rewrite matches on several
+	 * threads.
+	 * 
+	 * @param m
+	 *            the matcher used to look for occurrences of the redex.
+	 * @param to
+	 *            the bigraph the rule is applied to.
+	 * @return a stream of the results.
+	 */
+	public Stream<Bigraph> applyStream(Matcher m, Bigraph to) {
+		return m.matchStream(to, compiledRedex).flatMap(
+				match -> StreamSupport.stream(Spliterators
+						.spliteratorUnknownSize(new Rewrites(match),
+								Spliterator.ORDERED | Spliterator.NONNULL),
+						false));
+	}
 	
+	/**
+	 * Returns the results of applying the rule to the given persistent
+	 * bigraph, cf. {@link #apply(Matcher, PersistentBigraph)}.
+	 * 
+	 * @param to
+	 *            the bigraph the rule is applied to.
+	 * @return the results.
+	 */
+	public Iterable<PersistentBigraph> apply(PersistentBigraph to) {
+		return this.apply(this.getMatcher(), to);
+	}
+
+	/**
+	 * Returns the results of applying the rule to the given persistent
+	 * bigraph. Results are equivalent to the ones of
+	 * {@link #apply(Matcher, Bigraph)} and share with the given bigraph the
+	 * structure the rewrite leaves untouched: the context is not copied and
+	 * the first instance of each parameter is moved rather than copied (cf.
+	 * {@link PersistentBigraph}).
+	 * 
+	 * Occurrences are looked for in a {@link Bigraph} equivalent to the
+	 * given one, built whenever the results are iterated. Matches not built
+	 * from an embedding, such as the ones of {@link AgentMatcher}, are
+	 * rewritten as in {@link #apply(Matcher, Bigraph)} and their results
+	 * copied. So are all matches when {@link #instantiateReactumNode} is
+	 * overridden, since the reactum is otherwise instantiated directly into
+	 * the results.
+	 * 
+	 * @param m
+	 *            the matcher used to look for occurrences of the redex.
+	 * @param to
+	 *            the bigraph the rule is applied to.
+	 * @return the results.
+	 */
+	public Iterable<PersistentBigraph> apply(final Matcher m,
+			final PersistentBigraph to) {
+		if (m == null || to == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		return new Iterable<PersistentBigraph>() {
+			@Override
+			public Iterator<PersistentBigraph> iterator() {
+				return new PersistentRewrites(m, to);
+			}
+		};
+	}
+
 	public Matcher getMatcher(){
 		return this.matcher;
 	}
@@ -270,7 +528,7 @@ public class RewritingRule implements it.uniud.mads.jlibbig.core.RewritingRule<B
 		@Override
 		public Iterator<Bigraph> iterator() {
 			if (mAble == null)
-				mAble = this.matcher.match(target, redex);
+				mAble = this.matcher.match(target, compiledRedex);
 			return new RewriteIterator();
 		}
 
@@ -278,8 +536,6 @@ public class RewritingRule implements it.uniud.mads.jlibbig.core.RewritingRule<B
 
 			Iterator<? extends Match> mTor = null;
 			Iterator<Bigraph> args = null;
-			// caches context+redex but not args
-			Bigraph big = null;
 
 			@Override
 			public boolean hasNext() {
@@ -294,33 +550,9 @@ public class RewritingRule implements it.uniud.mads.jlibbig.core.RewritingRule<B
 					throw new NoSuchElementException();
 				}
 				if (args == null || !args.hasNext()) {
-					// if (mTor.hasNext()) {
-					Match match = mTor.next();
-					if (DEBUG_PRINT_MATCH)
-						System.out.println(match);
-					BigraphBuilder bb = new BigraphBuilder(
-							instantiateReactum(match), true);
-					bb.leftJuxtapose(match.getRedexId(), true);
-					bb.outerCompose(match.getContext(), true);
-					big = bb.makeBigraph(true);
-					args = eta.instantiate(match.getParam()).iterator();
-					// }
+					args = new Rewrites(mTor.next());
 				}
-				if (args.hasNext()) {
-					Bigraph result;
-					Bigraph params = args.next();
-					if (args.hasNext())
-						result = Bigraph.compose(big.clone(), params, true);
-					else
-						result = Bigraph.compose(big, params, true);
-					if (DEBUG_PRINT_RESULT)
-						System.out.println(result);
-					if (DEBUG_CONSISTENCY_CHECK && !result.isConsistent()) {
-						throw new RuntimeException("Inconsistent bigraph");
-					}
-					return result;
-				}
-				throw new NoSuchElementException();
+				return args.next();
 			}
 
 			@Override
@@ -330,4 +562,117 @@ public class RewritingRule implements it.uniud.mads.jlibbig.core.RewritingRule<B
 
 		}
 	}
-}
\ No newline at end of file
+
+	/*
+	 * The results of rewriting the occurrence described by a match, one for
+	 * each instance of its parameters.
+	 */
+	private class Rewrites implements Iterator<Bigraph> {
+
+		private final Iterator<Bigraph> args;
+		// caches context+redex but not args
+		private final Bigraph big;
+
+		Rewrites(Match match) {
+			if (DEBUG_PRINT_MATCH)
+				System.out.println(match);
+			BigraphBuilder bb = new BigraphBuilder(instantiateReactum(match),
+					true);
+			bb.leftJuxtapose(match.getRedexId(), true);
+			bb.outerCompose(match.getContext(), true);
+			this.big = bb.makeBigraph(true);
+			this.args = eta.instantiate(match.getParam()).iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return args.hasNext();
+		}
+
+		@Override
+		public Bigraph next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Bigraph result;
+			Bigraph params = args.next();
+			if (args.hasNext())
+				result = Bigraph.compose(big.clone(), params, true);
+			else
+				result = Bigraph.compose(big, params, true);
+			if (DEBUG_PRINT_RESULT)
+				System.out.println(result);
+			if (DEBUG_CONSISTENCY_CHECK && !result.isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph");
+			}
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("");
+		}
+	}
+
+	/*
+	 * The results of applying the rule to a persistent bigraph: matches are
+	 * looked for in its expansion and rewritten into successors sharing its
+	 * structure when they carry the embedding they are built from.
+	 */
+	private class PersistentRewrites implements Iterator<PersistentBigraph> {
+
+		private final PersistentBigraph agent;
+		private final PersistentBigraph.Expansion expansion;
+		private final Iterator<? extends Match> matches;
+		// results of a match without embedding
+		private Iterator<Bigraph> args;
+
+		PersistentRewrites(Matcher m, PersistentBigraph agent) {
+			this.agent = agent;
+			this.expansion = agent.expand();
+			this.matches = m.match(expansion.bigraph, compiledRedex)
+					.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return (args != null && args.hasNext()) || matches.hasNext();
+		}
+
+		@Override
+		public PersistentBigraph next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (args != null && args.hasNext()) {
+				return new PersistentBigraph(args.next());
+			}
+			Match match = matches.next();
+			if (DEBUG_PRINT_MATCH)
+				System.out.println(match);
+			Matcher.Embedding emb = match.getEmbedding();
+			if (emb == null)
+				emb = match.getRetainedEmbedding();
+			if (customInstantiation || emb == null
+					|| match.getSourceRedex() != redex
+					|| match.getSourceAgent() != expansion.bigraph) {
+				args = new Rewrites(match);
+				return new PersistentBigraph(args.next());
+			}
+			PersistentBigraph result = agent.rewrite(expansion, redex,
+					getReactum(), eta, emb);
+			if (DEBUG_PRINT_RESULT)
+				System.out.println(result);
+			if (DEBUG_CONSISTENCY_CHECK
+					&& !result.toBigraph().isConsistent()) {
+				throw new RuntimeException("Inconsistent bigraph");
+			}
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("");
+		}
+	}
+}
\ No newline at end of file
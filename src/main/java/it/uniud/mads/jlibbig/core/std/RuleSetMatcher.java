@@ -0,0 +1,352 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import it.uniud.mads.jlibbig.core.ReactionRule;
+import it.uniud.mads.jlibbig.core.ReactiveSystem;
+
+/**
+ * Computes the matches of the redexes of a collection of rules in the same
+ * agent. The information on the agent that does not depend on the redex
+ * (e.g. which of its nodes are in an active context) is collected once for
+ * all the rules instead of once for each of them; redexes are matched in
+ * their compiled form (cf. {@link RewritingRule#getCompiledRedex()}) using
+ * the matcher of their rule.
+ *
+ * Matches are described by {@link RuleMatch} and can be enumerated lazily,
+ * one rule after the other, or computed eagerly by an executor, one task for
+ * each rule. In both cases they are listed following the order of the rules.
+ *
+ * The time spent looking for the matches of each rule and the number of
+ * matches found are recorded and can be inspected by
+ * {@link #getMatchingTime} and {@link #getMatchCount}.
+ *
+ * Only the shared information is computed by {@link Matcher} and
+ * {@link BacktrackingMatcher}, unless they redefine which nodes are
+ * matchable; rules using other matchers are matched as if they were alone.
+ */
+public class RuleSetMatcher {
+
+	private final List<RewritingRule> rules;
+	private final Map<RewritingRule, Statistics> stats = new IdentityHashMap<>();
+
+	/**
+	 * Creates a matcher for the given rules.
+	 *
+	 * @param rules
+	 *            the rules whose redexes have to be matched.
+	 */
+	public RuleSetMatcher(Collection<? extends RewritingRule> rules) {
+		if (rules == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		this.rules = Collections
+				.unmodifiableList(new ArrayList<RewritingRule>(rules));
+		for (RewritingRule r : this.rules) {
+			if (r == null) {
+				throw new IllegalArgumentException("Rules can not be null.");
+			}
+			if (!stats.containsKey(r))
+				stats.put(r, new Statistics());
+		}
+	}
+
+	/**
+	 * Creates a matcher for the rules of the given reactive system. Rules
+	 * have to be instances of {@link RewritingRule}.
+	 *
+	 * @param system
+	 *            the reactive system whose rules have to be matched.
+	 */
+	public RuleSetMatcher(ReactiveSystem<Bigraph> system) {
+		this(rulesOf(system));
+	}
+
+	private static List<RewritingRule> rulesOf(ReactiveSystem<Bigraph> system) {
+		if (system == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		List<RewritingRule> rs = new ArrayList<>();
+		for (ReactionRule<? extends Bigraph> r : system.getRules()) {
+			if (!(r instanceof RewritingRule)) {
+				throw new IllegalArgumentException(
+						"Rules should be instances of RewritingRule.");
+			}
+			rs.add((RewritingRule) r);
+		}
+		return rs;
+	}
+
+	/**
+	 * Returns the rules matched by this object, in the order their matches
+	 * are listed.
+	 *
+	 * @return the rules.
+	 */
+	public List<RewritingRule> getRules() {
+		return rules;
+	}
+
+	/**
+	 * Computes lazily the matches of all the rules in the given agent. Matches
+	 * are computed only as they are requested, one rule after the other.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @return the matches of all the rules in the agent.
+	 */
+	public Iterable<RuleMatch> match(final Bigraph agent) {
+		if (agent == null) {
+			throw new IllegalArgumentException("The argument can not be null.");
+		}
+		final AgentIndex index = new AgentIndex(agent);
+		return new Iterable<RuleMatch>() {
+			@Override
+			public Iterator<RuleMatch> iterator() {
+				return new RuleMatchIterator(agent, index);
+			}
+		};
+	}
+
+	/**
+	 * Computes the matches of all the rules in the given agent, one rule
+	 * after the other, on the calling thread.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @return the matches of all the rules in the agent.
+	 */
+	public List<RuleMatch> matchAll(Bigraph agent) {
+		List<RuleMatch> ms = new ArrayList<>();
+		for (RuleMatch m : match(agent)) {
+			ms.add(m);
+		}
+		return ms;
+	}
+
+	/**
+	 * Computes the matches of all the rules in the given agent by means of
+	 * the given executor, one task for each rule. The method returns when all
+	 * the tasks are completed and matches are listed in the order of their
+	 * rules, regardless of the order the tasks complete in. Rules are
+	 * matched concurrently, hence their matchers should not be stateful.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param executor
+	 *            the executor running the tasks e.g.
+	 *            {@link ForkJoinPool#commonPool()}.
+	 * @return the matches of all the rules in the agent.
+	 */
+	public List<RuleMatch> matchAll(final Bigraph agent,
+			ExecutorService executor) {
+		if (agent == null || executor == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		// collections shared by the tasks are computed beforehand
+		agent.getNodes();
+		agent.getEdges();
+		agent.getProfile();
+		final AgentIndex index = new AgentIndex(agent);
+		index.hosts();
+		List<Future<List<RuleMatch>>> fs = new ArrayList<>(rules.size());
+		try {
+			for (final RewritingRule r : rules) {
+				fs.add(executor.submit(new Callable<List<RuleMatch>>() {
+					@Override
+					public List<RuleMatch> call() {
+						return matchRule(r, agent, index);
+					}
+				}));
+			}
+			List<RuleMatch> ms = new ArrayList<>();
+			for (Future<List<RuleMatch>> f : fs) {
+				ms.addAll(f.get());
+			}
+			return ms;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while matching.");
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			throw new RuntimeException(t);
+		} finally {
+			for (Future<?> f : fs) {
+				f.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of matches found for the given rule since this
+	 * object was created or its statistics were last reset.
+	 *
+	 * @param rule
+	 *            one of the rules of this object.
+	 * @return the number of matches of the rule.
+	 */
+	public long getMatchCount(RewritingRule rule) {
+		return statisticsOf(rule).matches.sum();
+	}
+
+	/**
+	 * Returns the time, in nanoseconds, spent looking for the matches of the
+	 * given rule since this object was created or its statistics were last
+	 * reset. When matches are enumerated lazily, only the time spent
+	 * computing the requested ones is accounted.
+	 *
+	 * @param rule
+	 *            one of the rules of this object.
+	 * @return the time spent matching the rule.
+	 */
+	public long getMatchingTime(RewritingRule rule) {
+		return statisticsOf(rule).nanos.sum();
+	}
+
+	/**
+	 * Resets the number of matches and the matching time of every rule.
+	 */
+	public void resetStatistics() {
+		for (Statistics s : stats.values()) {
+			s.matches.reset();
+			s.nanos.reset();
+		}
+	}
+
+	private Statistics statisticsOf(RewritingRule rule) {
+		Statistics s = stats.get(rule);
+		if (s == null) {
+			throw new IllegalArgumentException(
+					"The rule does not belong to this matcher.");
+		}
+		return s;
+	}
+
+	/*
+	 * Matches the redex of the rule sharing the agent information collected
+	 * by the index, if its matcher is able to use it (cf. Matcher#match).
+	 */
+	private static Iterable<? extends Match> matchesOf(RewritingRule rule,
+			Bigraph agent, AgentIndex index) {
+		return rule.getMatcher().match(agent, rule.getCompiledRedex(), index);
+	}
+
+	private List<RuleMatch> matchRule(RewritingRule rule, Bigraph agent,
+			AgentIndex index) {
+		Statistics s = stats.get(rule);
+		long t = System.nanoTime();
+		List<RuleMatch> ms = new ArrayList<>();
+		for (Match m : matchesOf(rule, agent, index)) {
+			ms.add(new RuleMatch(rule, m));
+		}
+		s.nanos.add(System.nanoTime() - t);
+		s.matches.add(ms.size());
+		return ms;
+	}
+
+	private static class Statistics {
+		final LongAdder matches = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+	}
+
+	private class RuleMatchIterator implements Iterator<RuleMatch> {
+
+		private final Bigraph agent;
+		private final AgentIndex index;
+
+		private int next_rule = 0;
+		private RewritingRule rule = null;
+		private Iterator<? extends Match> matches = null;
+
+		RuleMatchIterator(Bigraph agent, AgentIndex index) {
+			this.agent = agent;
+			this.index = index;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (true) {
+				if (matches != null) {
+					Statistics s = stats.get(rule);
+					long t = System.nanoTime();
+					boolean more = matches.hasNext();
+					s.nanos.add(System.nanoTime() - t);
+					if (more)
+						return true;
+					matches = null;
+				}
+				if (next_rule == rules.size())
+					return false;
+				rule = rules.get(next_rule++);
+				Statistics s = stats.get(rule);
+				long t = System.nanoTime();
+				matches = matchesOf(rule, agent, index).iterator();
+				s.nanos.add(System.nanoTime() - t);
+			}
+		}
+
+		@Override
+		public RuleMatch next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Match m = matches.next();
+			stats.get(rule).matches.increment();
+			return new RuleMatch(rule, m);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("");
+		}
+	}
+
+	/**
+	 * A match of the redex of a rule in an agent, together with the rule.
+	 */
+	public static final class RuleMatch {
+
+		private final RewritingRule rule;
+		private final Match match;
+
+		RuleMatch(RewritingRule rule, Match match) {
+			this.rule = rule;
+			this.match = match;
+		}
+
+		/**
+		 * Returns the rule whose redex is matched.
+		 *
+		 * @return the rule.
+		 */
+		public RewritingRule getRule() {
+			return rule;
+		}
+
+		/**
+		 * Returns the match of the redex of the rule.
+		 *
+		 * @return the match.
+		 */
+		public Match getMatch() {
+			return match;
+		}
+
+		/**
+		 * Rewrites the agent replacing the occurrence described by this match
+		 * with an instance of the reactum of the rule (cf.
+		 * {@link RewritingRule#rewrite}).
+		 *
+		 * @return the rewrite, carrying its result.
+		 */
+		public RewritingRule.Rewrite rewrite() {
+			return rule.rewrite(match);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+import it.uniud.mads.jlibbig.core.exceptions.MatchLimitException;
+
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.Solver;
+import org.chocosolver.solver.search.SearchState;
+import org.chocosolver.solver.search.limits.FailCounter;
+import org.chocosolver.solver.search.strategy.Search;
+import org.chocosolver.solver.variables.IntVar;
+import org.chocosolver.util.criteria.Criterion;
+
+/*
+ * Applies the options of a matcher (cf. MatcherOptions) to its searches: the
+ * solver of the matchers based on a constraint solver is configured with the
+ * strategy, restarts and limits of the options, whereas the other matchers
+ * check the limits as their search goes on. Either way, a search stopped by
+ * a limit or a cancellation is reported by a MatchLimitException telling
+ * the reason. The same is done for directed bigraphs by
+ * ldb.DirectedSearchControl.
+ */
+final class SearchControl {
+
+	private SearchControl() {
+	}
+
+	/*
+	 * The effort spent by a search made of several searches, e.g. the ones
+	 * of the components of a redex followed by the combination of their
+	 * matches (cf. RedexComponents). Every search is charged the nodes and
+	 * failures it explores and time is counted from the creation of the
+	 * budget, hence the limits of the options apply to the search as a whole
+	 * rather than to each of its parts.
+	 */
+	static final class Budget {
+
+		final MatcherOptions options;
+		private final long start = System.nanoTime();
+		private long nodes = 0, fails = 0;
+
+		Budget(MatcherOptions options) {
+			this.options = options;
+		}
+
+		long millis() {
+			return (System.nanoTime() - start) / 1000000L;
+		}
+
+		void charge(long nodes, long fails) {
+			this.nodes += nodes;
+			this.fails += fails;
+		}
+
+		/*
+		 * Tells whether the effort spent, plus the given nodes and failures of
+		 * a search in progress, exceeds the limits.
+		 */
+		boolean isExceeded(long nodes, long fails) {
+			return SearchControl.isExceeded(options, millis(),
+					this.nodes + nodes, this.fails + fails);
+		}
+
+		/*
+		 * Describes why the search has been stopped, given the nodes and
+		 * failures of the search in progress.
+		 */
+		MatchLimitException limitReached(long nodes, long fails) {
+			return SearchControl.limitReached(options, this.nodes + nodes,
+					this.fails + fails);
+		}
+
+		/*
+		 * The part of a limit that is left, at least one unit; zero stands
+		 * for no limit.
+		 */
+		private static long left(long limit, long spent) {
+			return (limit > 0) ? Math.max(1, limit - spent) : 0;
+		}
+	}
+
+	/*
+	 * Creates the statistics of a search if the options have a listener.
+	 * Matchers invoke this method when a search begins and, if they get some
+	 * statistics, keep them up to date.
+	 */
+	static MatchStats newStats(MatcherOptions options,
+			it.uniud.mads.jlibbig.core.Matcher<Bigraph, Bigraph> matcher,
+			Bigraph redex) {
+		return (options.getListener() == null) ? null : new MatchStats(
+				options.getListener(), matcher, redex);
+	}
+
+	/*
+	 * Configures the solver of a matcher with the strategy, restarts and
+	 * limits of the options. The strategy decides the given place variables
+	 * before the other variables of the model, hence this method is meant to
+	 * be invoked once the model is complete.
+	 */
+	static void configure(MatcherOptions options, Solver solver,
+			IntVar[] placeVars) {
+		configure(options, null, solver, placeVars);
+	}
+
+	/*
+	 * As above, but the solver is given only the part of the limits the
+	 * budget has left, if any.
+	 */
+	static void configure(MatcherOptions options, Budget budget,
+			Solver solver, IntVar[] placeVars) {
+		Model model = solver.getModel();
+		IntVar[] vars = model.retrieveIntVars(true);
+		switch (options.getStrategy()) {
+		case PLACE_FIRST:
+			if (placeVars.length > 0 && vars.length > 0) {
+				solver.setSearch(Search.sequencer(
+						Search.domOverWDegSearch(placeVars),
+						Search.domOverWDegSearch(vars)));
+			}
+			break;
+		case DOM_WDEG:
+			if (vars.length > 0)
+				solver.setSearch(Search.domOverWDegSearch(vars));
+			break;
+		case FIRST_FAIL:
+			if (vars.length > 0)
+				solver.setSearch(Search.minDomLBSearch(vars));
+			break;
+		default:
+			break;
+		}
+		if (options.hasRestarts()) {
+			solver.setLubyRestart(500, new FailCounter(model, 0), 5000);
+			solver.setNoGoodRecordingFromRestarts();
+		}
+		long time = options.getTimeLimit();
+		long nodes = options.getNodeLimit();
+		long fails = options.getFailLimit();
+		if (budget != null) {
+			time = Budget.left(time, budget.millis());
+			nodes = Budget.left(nodes, budget.nodes);
+			fails = Budget.left(fails, budget.fails);
+		}
+		if (time > 0)
+			solver.limitTime(time);
+		if (nodes > 0)
+			solver.limitNode(nodes);
+		if (fails > 0)
+			solver.limitFail(fails);
+		if (options.getCancellation() != null) {
+			final MatcherOptions.Cancellation c = options.getCancellation();
+			solver.addStopCriterion(new Criterion() {
+				@Override
+				public boolean isMet() {
+					return c.isCancelled();
+				}
+			});
+		}
+	}
+
+	/*
+	 * Tells whether the options limit the effort of searches or allow to
+	 * cancel them.
+	 */
+	static boolean isLimited(MatcherOptions options) {
+		return options.getTimeLimit() > 0 || options.getNodeLimit() > 0
+				|| options.getFailLimit() > 0
+				|| options.getCancellation() != null;
+	}
+
+	/*
+	 * Tells whether the cancellation token of the options has been
+	 * cancelled.
+	 */
+	static boolean isCancelled(MatcherOptions options) {
+		MatcherOptions.Cancellation c = options.getCancellation();
+		return c != null && c.isCancelled();
+	}
+
+	/*
+	 * Tells whether the last search of a configured solver has been stopped
+	 * by a limit or cancelled, i.e. it failed to find a solution without
+	 * proving there is none.
+	 */
+	static boolean isStopped(Solver solver) {
+		return solver.getSearchState() == SearchState.STOPPED;
+	}
+
+	/*
+	 * Describes why the search of a configured solver has been stopped.
+	 */
+	static MatchLimitException limitReached(MatcherOptions options,
+			Solver solver) {
+		return limitReached(options, null, solver);
+	}
+
+	/*
+	 * As above, for a solver configured with the given budget, if any.
+	 */
+	static MatchLimitException limitReached(MatcherOptions options,
+			Budget budget, Solver solver) {
+		long nodes = solver.getNodeCount(), fails = solver.getFailCount();
+		if (budget != null) {
+			nodes += budget.nodes;
+			fails += budget.fails;
+		}
+		return limitReached(options, nodes, fails);
+	}
+
+	/*
+	 * Describes why a search that explored the given nodes and failures has
+	 * been stopped; the time limit is blamed when no other reason applies.
+	 */
+	static MatchLimitException limitReached(MatcherOptions options,
+			long nodes, long fails) {
+		MatchLimitException.Reason r;
+		if (isCancelled(options))
+			r = MatchLimitException.Reason.CANCELLED;
+		else if (options.getNodeLimit() > 0 && nodes >= options.getNodeLimit())
+			r = MatchLimitException.Reason.NODES;
+		else if (options.getFailLimit() > 0 && fails >= options.getFailLimit())
+			r = MatchLimitException.Reason.FAILS;
+		else
+			r = MatchLimitException.Reason.TIME;
+		return new MatchLimitException(r);
+	}
+
+	/*
+	 * Tells whether a search that run for the given time and explored the
+	 * given nodes and failures has to stop.
+	 */
+	static boolean isExceeded(MatcherOptions options, long millis,
+			long nodes, long fails) {
+		return isCancelled(options)
+				|| (options.getTimeLimit() > 0 && millis >= options
+						.getTimeLimit())
+				|| (options.getNodeLimit() > 0 && nodes >= options
+						.getNodeLimit())
+				|| (options.getFailLimit() > 0 && fails >= options
+						.getFailLimit());
+	}
+}
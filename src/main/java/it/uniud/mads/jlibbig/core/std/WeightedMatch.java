@@ -26,6 +26,7 @@ public class WeightedMatch extends Match {
 	
 	@Override
 	public String toString() {
+		materialize();
 		StringBuilder builder = new StringBuilder();
 		builder.append("Match:\nweight = ").append(weight)
 				.append("\ncontext = ").append(context)
@@ -4,13 +4,16 @@ import java.util.*;
 
 import it.uniud.mads.jlibbig.core.std.EditableNode.EditablePort;
 import it.uniud.mads.jlibbig.core.util.BidMap;
+import it.uniud.mads.jlibbig.core.util.SparseModel;
 
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+import it.uniud.mads.jlibbig.core.exceptions.MatchLimitException;
 import org.chocosolver.solver.Model;
 import org.chocosolver.solver.Solver;
 import org.chocosolver.solver.constraints.Constraint;
 import org.chocosolver.solver.expression.discrete.arithmetic.ArExpression;
 import org.chocosolver.solver.variables.IntVar;
-import org.chocosolver.solver.variables.Variable;
 /*
  * TODO: refactor matchers (Matcher, AgentMatcher ...)
  * 
@@ -57,15 +60,184 @@ public class WeightedMatcher extends Matcher {
 	}
 
 	public WeightedMatcher(boolean maximizing) {
-		super();
+		this(maximizing, MatcherOptions.DEFAULT);
+	}
+
+	/**
+	 * Creates a matcher with the given options describing the strategy and
+	 * the limits of its searches.
+	 *
+	 * @param maximizing
+	 *            whether matches of maximal, rather than minimal, weight
+	 *            are looked for.
+	 * @param options
+	 *            the options of the matcher.
+	 */
+	public WeightedMatcher(boolean maximizing, MatcherOptions options) {
+		super(options);
 		this.maximizing = maximizing;
 	}
 
 	@Override
 	public Iterable<? extends WeightedMatch> match(Bigraph agent, Bigraph redex) {
+		return match(agent, new CompiledRedex(redex));
+	}
+
+	@Override
+	public Iterable<? extends WeightedMatch> match(Bigraph agent,
+			CompiledRedex redex) {
+		if (!mayOccur(agent, redex))
+			return Collections.<WeightedMatch> emptyList();
 		return new MatchIterable(agent, redex);
 	}
 
+	@Override
+	public Iterable<? extends WeightedMatch> match(Bigraph agent,
+			Bigraph redex, Collection<? extends Parent> anchors) {
+		return match(agent, new CompiledRedex(redex), anchors, null);
+	}
+
+	@Override
+	public Iterable<? extends WeightedMatch> match(Bigraph agent,
+			Bigraph redex, Collection<? extends Parent> anchors,
+			Map<? extends Node, ? extends Collection<? extends Node>> placements) {
+		return match(agent, new CompiledRedex(redex), anchors, placements);
+	}
+
+	@Override
+	public Iterable<? extends WeightedMatch> match(Bigraph agent,
+			CompiledRedex redex, Collection<? extends Parent> anchors,
+			Map<? extends Node, ? extends Collection<? extends Node>> placements) {
+		if (agent == null || redex == null) {
+			throw new IllegalArgumentException("Arguments can not be null.");
+		}
+		if (anchors == null && placements == null)
+			return match(agent, redex);
+		Anchoring anchoring = new Anchoring(agent, redex.redex, anchors,
+				placements);
+		if (!mayOccur(agent, redex))
+			return Collections.<WeightedMatch> emptyList();
+		return new MatchIterable(agent, redex, anchoring);
+	}
+
+	@Override
+	public boolean exists(Bigraph agent, Bigraph redex) {
+		CompiledRedex compiled = new CompiledRedex(redex);
+		if (!mayOccur(agent, compiled))
+			return false;
+		return new MatchIterable(agent, compiled).exists();
+	}
+
+	/**
+	 * Counts the matches listed by {@link #match(Bigraph, Bigraph)}, i.e.
+	 * those the search finds while improving on their weight, stopping as
+	 * soon as the given bound is reached. These are not all the embeddings of
+	 * the redex in the agent, which are counted by {@link Matcher#DEFAULT}.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the bigraph to look up for.
+	 * @param bound
+	 *            the maximum number of matches to count.
+	 * @return the number of matches listed for the redex in the agent or
+	 *         {@code bound} if there are more.
+	 */
+	@Override
+	public int count(Bigraph agent, Bigraph redex, int bound) {
+		if (bound < 0) {
+			throw new IllegalArgumentException(
+					"The bound should be a non-negative integer.");
+		}
+		int n = 0;
+		for (Iterator<? extends WeightedMatch> it = match(agent, redex)
+				.iterator(); n < bound && it.hasNext(); it.next()) {
+			n++;
+		}
+		return n;
+	}
+
+	@Override
+	public WeightedMatch matchFirst(Bigraph agent, Bigraph redex) {
+		return (WeightedMatch) super.matchFirst(agent, redex);
+	}
+
+	/*
+	 * Only matches of optimal weight are found, hence searches are carried
+	 * out by this class as a whole: they are neither split among the agent
+	 * nodes a redex node may be placed on or among the components of the
+	 * redex nor charged to a budget nor fed with an agent index.
+	 */
+	@Override
+	boolean splits(CompiledRedex redex) {
+		return false;
+	}
+
+	@Override
+	RedexComponents componentsOf(Bigraph agent, CompiledRedex redex) {
+		return null;
+	}
+
+	@Override
+	Iterable<? extends WeightedMatch> match(Bigraph agent,
+			CompiledRedex redex, AgentIndex index) {
+		return match(agent, redex);
+	}
+
+	@Override
+	Iterable<? extends WeightedMatch> match(Bigraph agent,
+			CompiledRedex redex, SearchControl.Budget budget) {
+		return match(agent, redex);
+	}
+
+	/**
+	 * Computes a match of optimal weight of the redex in the agent. Branches
+	 * of the search that can not improve on the best match found so far are
+	 * pruned.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the redex to look up for.
+	 * @return a match of optimal weight or {@code null} if there is none.
+	 */
+	public WeightedMatch best(Bigraph agent, Bigraph redex) {
+		List<WeightedMatch> ms = topK(agent, redex, 1);
+		return (ms.isEmpty()) ? null : ms.get(0);
+	}
+
+	/**
+	 * Computes the k matches of best weight of the redex in the agent, or all
+	 * of them if there are fewer. Matches are sorted from the best one. If
+	 * more than k matches weigh at least as the k-th one, exactly k of them
+	 * are returned and which of those weighing as the k-th one are left out
+	 * is unspecified. Branches of the search that can not improve on the k-th
+	 * best match found so far are pruned, hence only a fraction of the
+	 * matches is built.
+	 *
+	 * @param agent
+	 *            the bigraph where to look for matches.
+	 * @param redex
+	 *            the redex to look up for.
+	 * @param k
+	 *            the number of matches to look for.
+	 * @return the k matches of best weight.
+	 */
+	public List<WeightedMatch> topK(Bigraph agent, Bigraph redex, int k) {
+		if (k < 0) {
+			throw new IllegalArgumentException(
+					"The number of matches can not be negative.");
+		}
+		if (k == 0) {
+			return new ArrayList<>(0);
+		}
+		CompiledRedex compiled = new CompiledRedex(redex);
+		if (!mayOccur(agent, compiled)) {
+			return new ArrayList<>(0);
+		}
+		return new MatchIterable(agent, compiled).top(k);
+	}
+
 	protected int matchingWeight(Bigraph agent, Node agentNode, Bigraph redex,
 			Node redexNode) {
 		return 0;
@@ -74,9 +246,9 @@ public class WeightedMatcher extends Matcher {
 	private class MatchIterable implements Iterable<WeightedMatch> {
 
 		final Bigraph agent, redex;
-
-		boolean agent_ancestors_is_empty = true;
-		final Map<Child, Collection<Parent>> agent_ancestors;
+		final CompiledRedex compiled;
+		// if not null, where the redex may be placed in the agent
+		final Anchoring anchoring;
 
 		// caches some collections of entities (e.g. nodes and edges are
 		// computed on the fly)
@@ -92,12 +264,13 @@ public class WeightedMatcher extends Matcher {
 		 */
 		final List<Handle> agent_handles;
 
+		// redex collections are taken from its compiled form
 		final List<? extends Root> redex_roots;
 		final List<? extends Site> redex_sites;
-		final Collection<? extends Node> redex_nodes;
+		final List<Node> redex_nodes;
 		final Collection<Point> redex_points;
-		final Collection<? extends Edge> redex_edges;
 		final List<Handle> redex_handles;
+		final List<InnerName> redex_inners;
 
 		// final boolean[] neededParam;
 
@@ -107,18 +280,25 @@ public class WeightedMatcher extends Matcher {
 		 */
 		final int ars, ans, ass, ahs, aps, rrs, rns, rss, rhs, rps, rprs, rins;
 
-		private MatchIterable(Bigraph agent, Bigraph redex) {
+		private MatchIterable(Bigraph agent, CompiledRedex redex) {
+			this(agent, redex, null);
+		}
+
+		private MatchIterable(Bigraph agent, CompiledRedex redex,
+				Anchoring anchoring) {
 			// boolean[] neededParams) {
 			if (!agent.isGround()) {
 				throw new UnsupportedOperationException(
 						"Agent should be a bigraph with empty inner interface i.e. ground.");
 			}
-			if (!agent.signature.equals(redex.signature)) {
+			if (!agent.signature.equals(redex.redex.signature)) {
 				throw new UnsupportedOperationException(
 						"Agent and redex should have the same singature.");
 			}
 			this.agent = agent;
-			this.redex = redex;
+			this.redex = redex.redex;
+			this.compiled = redex;
+			this.anchoring = anchoring;
 
 			this.agent_roots = agent.getRoots();
 			this.agent_nodes = agent.getNodes();
@@ -139,28 +319,20 @@ public class WeightedMatcher extends Matcher {
 			agent_points.addAll(agent.getInnerNames());
 			aps = agent_points.size();
 
-			this.agent_ancestors = new HashMap<>(ans);
-
-			this.redex_roots = redex.getRoots();
-			this.redex_sites = redex.getSites();
-			this.redex_nodes = redex.getNodes();
-			this.redex_edges = redex.getEdges();//redex_nodes);
-			this.redex_handles = new LinkedList<Handle>(redex_edges);
-			redex_handles.addAll(redex.getOuterNames());
-
-			rrs = redex_roots.size();
-			rns = redex_nodes.size();
-			rss = redex_sites.size();
-			rhs = redex_handles.size();
-
-			this.redex_points = new HashSet<>(rns);
-			for (Node n : redex_nodes) {
-				redex_points.addAll(n.getPorts());
-			}
-			rprs = redex_points.size(); // only ports
-			redex_points.addAll(redex.getInnerNames());
-			rps = redex_points.size();
-			rins = rps - rprs;
+			this.redex_roots = redex.roots;
+			this.redex_sites = redex.sites;
+			this.redex_nodes = redex.nodes;
+			this.redex_handles = redex.handles;
+			this.redex_points = redex.points;
+			this.redex_inners = redex.inners;
+
+			rrs = redex.rrs;
+			rns = redex.rns;
+			rss = redex.rss;
+			rhs = redex.rhs;
+			rprs = redex.rprs;
+			rps = redex.rps;
+			rins = redex.rins;
 
 			// this.neededParam = new boolean[rss];
 			// for (int i = 0; i < this.neededParam.length; i++) {
@@ -173,6 +345,58 @@ public class WeightedMatcher extends Matcher {
 			return new MatchIterator();
 		}
 
+		/*
+		 * Looks for a single solution of the CSP without building its match;
+		 * the solution need not be optimal.
+		 */
+		boolean exists() {
+			return new MatchIterator().countSolutions(1) > 0;
+		}
+
+		/*
+		 * Looks for the k solutions of best weight. The bound on the weight
+		 * follows the k-th best solution found so far instead of the best one
+		 * hence solutions are not required to improve until k are found; the
+		 * bound is then strict since k solutions weighing at least as the
+		 * k-th one are already kept, hence ties with it are not needed.
+		 */
+		List<WeightedMatch> top(final int k) {
+			// the worst of the matches kept is at the head
+			final PriorityQueue<WeightedMatch> kept = new PriorityQueue<>(k,
+					new Comparator<WeightedMatch>() {
+						@Override
+						public int compare(WeightedMatch m1, WeightedMatch m2) {
+							int c = Integer.compare(m1.getWeight(),
+									m2.getWeight());
+							return (maximizing) ? c : -c;
+						}
+					});
+			MatchIterator it = new MatchIterator();
+			it.solver.getObjectiveManager().setCutComputer(
+					new java.util.function.Function<Number, Number>() {
+						@Override
+						public Number apply(Number best) {
+							// the bounds of the domain of the weight, no cut
+							if (kept.size() < k)
+								return (maximizing) ? Short.MIN_VALUE
+										: Short.MAX_VALUE;
+							int w = kept.peek().getWeight();
+							return (maximizing) ? w + 1 : w - 1;
+						}
+					});
+			while (it.hasNext()) {
+				kept.add(it.next());
+				if (kept.size() > k)
+					kept.poll();
+			}
+			List<WeightedMatch> ms = new ArrayList<>(kept.size());
+			while (!kept.isEmpty()) {
+				ms.add(kept.poll());
+			}
+			Collections.reverse(ms);
+			return ms;
+		}
+
 		private class MatchIterator implements Iterator<WeightedMatch> {
 
 			private boolean mayHaveNext = true;
@@ -182,19 +406,30 @@ public class WeightedMatcher extends Matcher {
 
 			final private Model model;
 			final private Solver solver;
+			// allocates the place variables and posts sums over them
+			final private SparseModel<PlaceEntity> sparse;
 			/*
 			 * variables for the place embedding problem the following variables
 			 * are indexed over pairs where the first entity is from the agent
-			 * and the second from the redex
+			 * and the second from the redex. Rows are sparse: missing rows and
+			 * entries stand for variables fixed to zero.
+			 */
+			final Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars;
+			/*
+			 * agent place entities having a variable in p_vars indexed by the
+			 * redex entity they may be placed on
 			 */
-			final Map<PlaceEntity, Map<PlaceEntity, IntVar>> p_vars = new IdentityHashMap<>(
-					ars + ans + ass);
+			final Map<PlaceEntity, List<PlaceEntity>> p_cands;
 			/*
 			 * variables for the multiflux problem desrcibing the link embedding
-			 * these are indexed by redex handles and then by agent handles
+			 * these are indexed by redex handles and then by agent handles.
+			 * Agent points without a row always bypass the redex.
 			 */
-			final Map<LinkEntity, Map<LinkEntity, IntVar>> e_vars = new IdentityHashMap<>(
-					ahs * rhs + aps * (1 + rps));
+			final Map<LinkEntity, Map<LinkEntity, IntVar>> e_vars = new IdentityHashMap<>();
+			/*
+			 * variables of e_vars indexed by their redex point
+			 */
+			final Map<Point, List<IntVar>> e_cols = new IdentityHashMap<>(rps);
 			/*
 			 * variables for flux separation implicitly describing the handles
 			 * embedding these are indexed from the source to target of the flux
@@ -202,13 +437,28 @@ public class WeightedMatcher extends Matcher {
 			final Map<Handle, Map<Handle, IntVar>> f_vars = new IdentityHashMap<>(
 					rhs);
 
+			private int var_count = 0;
+
 			/* the cost expression */
 			private IntVar weight;
 
+			// statistics of the search, if there is a listener
+			final private MatchStats stats;
+
 			MatchIterator() {
+				this.stats = SearchControl.newStats(getOptions(),
+						WeightedMatcher.this, redex);
+				long t = (stats == null) ? 0 : System.nanoTime();
 				this.model = new Model();
+				this.sparse = new SparseModel<>(model);
+				this.p_vars = sparse.getPlaceVars();
+				this.p_cands = sparse.getCandidates();
 
 				solver = instantiateModel();
+				SearchControl.configure(getOptions(), solver, placeVars());
+				if (stats != null)
+					stats.recordModel(model.getNbVars(), model.getNbCstrs(),
+							System.nanoTime() - t);
 
 				if (DEBUG) {
 					System.out.println("- MODEL CREATED ---------------------");
@@ -220,541 +470,352 @@ public class WeightedMatcher extends Matcher {
 				}
 			}
 
-			private Variable findVariable(String name, Variable[] vars) {
-				for (Variable v : vars) {
-					if (name.equals(v.getName())) {
-						return v;
-					}
+			/*
+			 * Solution values are read straight from the variables: once the
+			 * solver stops on a solution they are all instantiated.
+			 */
+			private int valueOf(IntVar var) {
+				return (var == null) ? 0 : var.getValue();
+			}
+
+			private <K, V> Map<K, V> rowOf(Map<K, Map<K, V>> vars, K key) {
+				Map<K, V> row = vars.get(key);
+				return (row == null) ? Collections.<K, V> emptyMap() : row;
+			}
+
+			/*
+			 * Records that the agent point pa may be linked to the redex point
+			 * pr by means of var. The row for pa and its bypass variable are
+			 * created on demand as is the flux variable between the two
+			 * handles involved.
+			 */
+			private void newPointVar(Point pa, Point pr, IntVar var) {
+				Map<LinkEntity, IntVar> row = e_vars.get(pa);
+				if (row == null) {
+					row = new IdentityHashMap<>();
+					row.put(pa.getHandle(), model.boolVar("PH_" + var_count++));
+					e_vars.put(pa, row);
+				}
+				row.put(pr, var);
+				e_cols.get(pr).add(var);
+				Map<Handle, IntVar> f_row = f_vars.get(pr.getHandle());
+				if (!f_row.containsKey(pa.getHandle())) {
+					f_row.put(pa.getHandle(), model.boolVar("F_" + var_count++));
 				}
-				// We should't encounter this case.
-				return null;
 			}
 
-			private Solver instantiateModel() {
-				// MODEL
-				// ///////////////////////////////////////////////////////////
+			/*
+			 * Tells whether the agent child can be placed on the redex one
+			 * assuming their parents are. This covers the node compatibility
+			 * (constraint 2), the handle types of their ports (constraint 8)
+			 * and the child counting of constraints 7 and 8 (every child of an
+			 * image is either an image or in a parameter).
+			 */
+			private boolean isFeasible(Child i, Child j) {
+				if (j.isSite()) {
+					return true;
+				}
+				if (!i.isNode()) {
+					return false;
+				}
+				Node ni = (Node) i;
+				Node nj = (Node) j;
+				if (ni.getControl().getArity() < nj.getControl().getArity()
+						|| !areMatchable(agent, ni, redex, nj)) {
+					return false;
+				}
+				for (int k = nj.getControl().getArity() - 1; 0 <= k; k--) {
+					// redex edges can not be matched to agent outers
+					if (compiled.isEdgePort(nj, k)
+							&& ni.getPort(k).getHandle().isOuterName())
+						return false;
+				}
+				int cs = compiled.nodeChildrenCount(nj);
+				int ci = ni.getChildren().size();
+				return compiled.hasOnlyNodeChildren(nj) ? ci == cs : ci >= cs;
+			}
 
-				// int ki = 0, kj = 0, kk = 0;
-				// IntegerExpressionVariable[] vars1, vars2;
+			private Solver instantiateModel() {
+				// VARIABLES //////////////////////////////////////////////////
 
+				/*
+				 * Variables are allocated only for pairs that pass the
+				 * structural checks below, any pair missing from p_vars,
+				 * e_vars or f_vars is implicitly zero. Candidates are
+				 * propagated top-down along the redex place graph (cf.
+				 * SparseModel): redex roots can be hosted by agent roots and
+				 * nodes in an active context (constraint 4), redex nodes and
+				 * sites by children of the candidates for their parent
+				 * (constraint 3).
+				 */
 				{
-					int ki = 0;
-					for (Root i : agent_roots) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rrs + rns + rss);
-						for (Root j : redex_roots) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						// 1 // these will always be zero
-						for (Node j : redex_nodes) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							model.arithm(var, "=", 0).post();
-							row.put(j, var);
-						}
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							model.arithm(var, "=", 0).post();
-							row.put(j, var);
-						}
-						p_vars.put(i, row);
-						ki++;
-					}
-					for (Node i : agent_nodes) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rrs + rns + rss);
-						for (Root j : redex_roots) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						for (Node j : redex_nodes) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						p_vars.put(i, row);
-						ki++;
-					}
-
-					for (Site i : agent_sites) {
-						int kj = 0;
-						Map<PlaceEntity, IntVar> row = new HashMap<>(
-								rss); // rrs + rns + rss);
-						/*
-						 * for (Root j : redex_roots) { IntegerVariable var =
-						 * model.boolVar(ki + "_" + kj++);
-						 * model.addVariable(var); row.put(j, var); } /*for
-						 * (Node j : redex_nodes) { IntegerVariable var =
-						 * model.boolVar(ki + "_" + kj++);
-						 * model.addVariable(var); row.put(j, var); }
-						 */
-						for (Site j : redex_sites) {
-							IntVar var = model.boolVar(ki + "_" + kj++);
-							row.put(j, var);
-						}
-						p_vars.put(i, row);
-						ki++;
+					List<Parent> hosts = (anchoring == null) ? null
+							: anchoring.hosts();
+					if (hosts == null)
+						hosts = activeParents(agent);
+					for (Root g : redex_roots) {
+						int cs = compiled.nodeChildrenCount(g);
+						List<Parent> fs = (anchoring == null) ? null
+								: anchoring.hostsOf(g);
+						sparse.addRoot(g, (fs == null) ? hosts : fs, cs);
 					}
 				}
-
+				// redex nodes come after their parents
 				{
-					int ki = 0;
-					for (Handle hr : redex_handles) {
-						int kj = 0;
-						Map<Handle, IntVar> row = new IdentityHashMap<>(
-								ahs);
-						for (Handle ha : agent_handles) {
-							IntVar var = model.boolVar("F_" + ki + "_" + kj++);
-							row.put(ha, var);
-						}
-						f_vars.put(hr, row);
-						ki++;
-					}
-
-					// vars for agent point flux
-					ki = 0;
-					for (Point pi : agent_points) {
-						int kj = 0;
-						Map<LinkEntity, IntVar> row = new IdentityHashMap<>(
-								rps + 1);
-						Handle hi = pi.getHandle();
-						IntVar var = model.boolVar("PH_" + ki);
-						row.put(hi, var);
-						for (Point pj : redex_points) {
-							var = model.boolVar("PP_" + ki + "_" + kj++);
-							row.put(pj, var);
-						}
-						e_vars.put(pi, row);
-						ki++;
-					}
-
-					// vars for redex handles flux
-					ki = 0;
-					for (Handle hj : redex_handles) {
-						int kj = 0;
-						Map<LinkEntity, IntVar> row = new IdentityHashMap<>(
-								ahs);
-						for (Handle hi : agent_handles) {
-							IntVar var = model.intVar("HH_"
-									+ ki + "_" + kj++, 0, hi.getPoints().size());
-							row.put(hi, var);
-						}
-						e_vars.put(hj, row);
-						ki++;
-					}
+					List<Child> rchildren = new ArrayList<>(rns + rss);
+					rchildren.addAll(redex_nodes);
+					rchildren.addAll(redex_sites);
+					sparse.addChildren(rchildren, (i, j) -> (anchoring == null
+							|| anchoring.admits(j, i)) && isFeasible(i, j));
 				}
-				weight = model.intVar("OPT", Short.MIN_VALUE, 
-						Short.MAX_VALUE, true);
-				List<IntVar> weights = new LinkedList<>();
 
-				// PLACE CONSTRAINTS //////////////////////////////////////////
+				for (Point p : redex_points) {
+					e_cols.put(p, new ArrayList<IntVar>());
+				}
+				for (Handle hr : redex_handles) {
+					f_vars.put(hr, new IdentityHashMap<Handle, IntVar>());
+					e_vars.put(hr, new IdentityHashMap<LinkEntity, IntVar>());
+				}
 
-				// 2 // M_ij = 0 if nodes are different in the sense of this.eq
-				// merged with interplay constraints
 				/*
-				 * { for (Node i : agent_nodes) { Map<PlaceEntity,
-				 * IntegerVariable> row = p_vars.get(i); for (Node j :
-				 * redex_nodes) { IntegerVariable var = row.get(j); if
-				 * (!areMatchable(agent, i, redex, j)) {
-				 * model.addConstraint(Choco.eq(0, var)); } } }}
+				 * The k-th port of an agent node is linked to the k-th port of
+				 * a redex node iff the nodes are matched, hence the place
+				 * variable is shared (interplay constraints for ports).
 				 */
-				// ////////////////////////////////////////////////////////////
-
-				// 3 // M_ij <= M_fg if f = prnt(i) and g = prnt(j)
-				{
-					for (Node i : agent_nodes) {
-						Parent f = i.getParent();
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						Map<PlaceEntity, IntVar> f_row = p_vars.get(f);
-						for (Child j : redex_nodes) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g))
-								.post();
-						}
-						for (Child j : redex_sites) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g))
-								.post();
-						}
-					}
-					for (Site i : agent_sites) {
-						Parent f = i.getParent();
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						Map<PlaceEntity, IntVar> f_row = p_vars.get(f);
-						for (Child j : redex_sites) {
-							Parent g = j.getParent();
-							model.arithm(i_row.get(j), "<=", f_row.get(g))
-								.post();
+				for (Node nj : redex_nodes) {
+					for (PlaceEntity i : p_cands.get(nj)) {
+						Node ni = (Node) i;
+						IntVar m = p_vars.get(ni).get(nj);
+						for (int k = 0; k < nj.getControl().getArity(); k++) {
+							newPointVar(ni.getPort(k), nj.getPort(k), m);
 						}
 					}
 				}
-				// ////////////////////////////////////////////////////////////
-
-				// 4 // M_ij = 0 if j is a root and i is not in an active
-				// context //
 
-				{
-					/*
-					 * Descends the agent parent map deactivating matching (with
-					 * redex roots) below every passive node. Nodes in qa were
-					 * found in an active context whereas children in qp are in
-					 * passive contexts or passive nodes.
-					 */
-					Deque<Node> qa = new ArrayDeque<>();
-					Deque<Child> qp = new ArrayDeque<>();
-					for (Root r : agent_roots) {
-						for (Child c : r.getChildren()) {
-							if (c.isNode()) {
-								qa.add((Node) c);
+				/*
+				 * Agent nodes that may end up in a parameter, i.e. candidates
+				 * for redex sites and their descendants, with the variables
+				 * placing them or one of their ancestors in a site. These are
+				 * needed only to link inner names; roots are kept apart from
+				 * parameters by PlaceEmbeddingPropagator.
+				 */
+				Map<Node, List<IntVar>> param_vars = new IdentityHashMap<>();
+				List<Node> param_nodes = new ArrayList<>();
+				for (Site j : (rins > 0) ? redex_sites : Collections
+						.<Site> emptyList()) {
+					for (PlaceEntity i : p_cands.get(j)) {
+						if (!i.isNode())
+							continue;
+						IntVar v = p_vars.get(i).get(j);
+						Deque<Node> q = new ArrayDeque<>();
+						q.add((Node) i);
+						while (!q.isEmpty()) {
+							Node n = q.poll();
+							List<IntVar> vs = param_vars.get(n);
+							if (vs == null) {
+								vs = new ArrayList<>();
+								param_vars.put(n, vs);
+								param_nodes.add(n);
 							}
-						}
-					}
-					while (!qa.isEmpty()) {
-						Node n = qa.poll();
-						if (n.getControl().isActive()) {
+							vs.add(v);
 							for (Child c : n.getChildren()) {
 								if (c.isNode()) {
-									qa.add((Node) c);
-								}
-							}
-						} else {
-							qp.add(n);
-						}
-					}
-					qa.clear();
-					while (!qp.isEmpty()) {
-						Child i = qp.poll();
-						Map<PlaceEntity, IntVar> row = p_vars.get(i);
-						for (Root j : redex_roots) {
-							model.arithm(row.get(j), "=", 0).post();
-						}
-
-						if (i.isNode()) {
-							for (Child c : ((Node) i).getChildren()) {
-								if (c.isNode()) {
-									qp.add((Node) c);
+									q.add((Node) c);
 								}
 							}
 						}
 					}
 				}
 
-				// /////////////////////////////////////////////////////////////////
-
-				// 5 // sum M_ij = 1 if j not in sites
+				/*
+				 * Redex inner names can be linked only to ports of nodes in a
+				 * parameter. Ports on agent outer names can not reach inner
+				 * names on redex edges (constraint 8).
+				 */
 				{
-					IntVar[] vars = new IntVar[ars + ans];
-					for (Root j : redex_roots) {
-						int k = 0;
-						for (PlaceEntity i : p_vars.keySet()) {
-							if (i.isSite())
-								continue;
-							vars[k++] = p_vars.get(i).get(j);
-						}
-						model.sum(vars, "=", 1).post();
+					List<Port> ps = new ArrayList<>();
+					for (Node n : param_nodes) {
+						ps.addAll(n.getPorts());
 					}
-					vars = new IntVar[ans + ass];
-					for (Node j : redex_nodes) {
-						int k = 0;
-						for (PlaceEntity i : p_vars.keySet()) {
-							if (i.isRoot())
+					for (Port pa : ps) {
+						for (InnerName pr : redex_inners) {
+							if (pr.getHandle().isEdge()
+									&& pa.getHandle().isOuterName())
 								continue;
-							vars[k++] = p_vars.get(i).get(j);
+							newPointVar(pa, pr,
+									model.boolVar("PP_" + var_count++));
 						}
-						model.sum(vars, "=", 1).post();
 					}
 				}
-				// //////////////////////////////////////////////////////////////////
 
-				// 6 // n sum(j not root) M_ij + sum(j root) M_ij <= n if i in
-				// nodes
+				// idle redex handles may be matched with idle agent handles
 				{
-					for (Node i : agent_nodes) {
-						Map<PlaceEntity, IntVar> row = p_vars.get(i);
-						IntVar[] vars = new IntVar[rns + rss];
-						int k = 0;
-						for (PlaceEntity j : redex_nodes) {
-							vars[k++] = row.get(j);
-						}
-						for (PlaceEntity j : redex_sites) {
-							vars[k++] = row.get(j);
-						}
-						IntVar t1 = model.intVar(rrs);
-						IntVar c = model.intVar(0);
-						for (IntVar v : vars) {
-							c = c.add(v).intVar();
-						}
-						c = c.mul(t1).intVar();
-
-						vars = new IntVar[rrs];
-						k = 0;
-						for (Root j : redex_roots) {
-							vars[k++] = row.get(j);
-						}
-
-						t1 = model.intVar(0);
-						for (IntVar v : vars) {
-							t1 = t1.add(v).intVar();
-						}
-						t1 = t1.add(c).intVar();
-						model.arithm(t1, "<=", rrs).post();
+					List<Handle> idles = new ArrayList<>();
+					for (Handle ha : agent_handles) {
+						if (ha.getPoints().isEmpty())
+							idles.add(ha);
 					}
-					/*
-					 * for (Site i : agent_sites) { Map<PlaceEntity,
-					 * IntegerVariable> row = p_vars.get(i); IntegerVariable[]
-					 * vars = new IntegerVariable[rss]; int k = 0; for
-					 * (PlaceEntity j : redex_sites) { vars[k++] = row.get(j); }
-					 * IntegerExpressionVariable c = Choco.mult(rrs,
-					 * Choco.sum(vars));
-					 * 
-					 * vars = new IntegerVariable[rrs]; k = 0; for (Root j :
-					 * redex_roots) { vars[k++] = row.get(j); }
-					 * model.addConstraint(Choco.geq(rrs, Choco.sum(c,
-					 * Choco.sum(vars)))); }
-					 */
-				}
-				// /////////////////////////////////////////////////////////////////
-
-				// 7 // |chld(f)| M_fg <= sum(i chld(f), j in chld(g)) M_ij if
-				// f,g in nodes
-				{
-					for (Parent f : agent_nodes) {
-						Collection<? extends Child> cf = f.getChildren();
-						for (Parent g : redex_nodes) {
-							Collection<? extends Child> cg = g.getChildren();
-							IntVar[] vars = new IntVar[cf.size() * cg.size()];
-							int k = 0;
-							for (PlaceEntity i : cf) {
-								for (PlaceEntity j : cg) {
-									vars[k++] = p_vars.get(i).get(j);
-								}
-							}
-							IntVar chld = p_vars.get(f).get(g);
-							model.sum(vars, ">=", chld.mul(cf.size()).intVar()).post();
+					for (Handle hr : redex_handles) {
+						if (!hr.getPoints().isEmpty())
+							continue;
+						Map<Handle, IntVar> f_row = f_vars.get(hr);
+						for (Handle ha : idles) {
+							if (hr.isEdge() && ha.isOuterName())
+								continue;
+							f_row.put(ha, model.boolVar("F_" + var_count++));
 						}
 					}
 				}
-				// /////////////////////////////////////////////////////////////////
 
-				// 8 // |chld(g) not sites| M_fg <= sum(i chld(f), j chld(g) not
-				// sites) if g in roots
-				{
-					Map<Root, Collection<? extends Child>> cgs = new HashMap<>(
-							rrs);
-					for (Root g : redex_roots) {
-						Collection<? extends Child> cg = new HashSet<>(
-								g.getChildren());
-						cg.removeAll(redex_sites);
-						cgs.put(g, cg);
-					}
-					for (PlaceEntity f : p_vars.keySet()) {
-						if (f.isSite())
+				// vars for redex handles flux
+				Map<Handle, List<IntVar>> hh_cols = new IdentityHashMap<>();
+				for (Handle hr : redex_handles) {
+					if (hr.getPoints().isEmpty())
+						continue;
+					Map<LinkEntity, IntVar> row = e_vars.get(hr);
+					for (Handle ha : f_vars.get(hr).keySet()) {
+						int n = ha.getPoints().size();
+						if (n == 0)
 							continue;
-						Collection<? extends Child> cf = ((Parent) f)
-								.getChildren();
-						for (Root g : redex_roots) {
-							Collection<? extends Child> cg = cgs.get(g);
-							IntVar[] vars = new IntVar[cf.size() * cg.size()];
-							int k = 0;
-							for (Child i : cf) {
-								for (Child j : cg) {
-									vars[k++] = p_vars.get(i).get(j);
-								}
-							}
-							IntVar chld = p_vars.get(f).get(g);
-							model.sum(vars, ">=", chld.mul(cg.size()).intVar()).post();
-						}
+						IntVar var = model.intVar("HH_" + var_count++, 0, n);
+						row.put(ha, var);
+						List<IntVar> col = hh_cols.get(ha);
+						if (col == null) {
+							col = new ArrayList<>();
+							hh_cols.put(ha, col);
+						}
+						col.add(var);
 					}
 				}
-				// /////////////////////////////////////////////////////////////////
 
+				weight = model.intVar("OPT", Short.MIN_VALUE, 
+						Short.MAX_VALUE, true);
+
+				// PLACE CONSTRAINTS //////////////////////////////////////////
+
+				// 2 // M_ij = 0 if nodes are different in the sense of this.eq
+				// ! implicit, see isFeasible //
+
+				// 3 // M_ij <= M_fg if f = prnt(i) and g = prnt(j)
+				// 4 // M_ij = 0 if j is a root and i is not in an active
+				// context
+				// ! implicit, see the allocation of variables //
+				// 5 // sum M_ij = 1 if j not in sites
+				// 6 // n sum(j not root) M_ij + sum(j root) M_ij <= n if i in
+				// nodes
+				// 7 // |chld(f)| M_fg <= sum(i chld(f), j in chld(g)) M_ij if
+				// f,g in nodes
+				// 8 // |chld(g) not sites| M_fg <= sum(i chld(f), j chld(g) not
+				// sites) if g in roots
 				// 9 // sum(f in ancs(i)\{i}, g in m) M_fg + M_ij <= 1 if j in
 				// roots
-				if (agent_ancestors_is_empty) {
-					/*
-					 * acquire agent_ancestors and re-check if it still is empty
-					 * if this is the case, descends the agent parent map and
-					 * builds agent_ancestors
-					 */
-					synchronized (agent_ancestors) {
-						if (agent_ancestors_is_empty) {
-							Stack<Parent> ancs = new Stack<>();
-							Stack<Parent> visit = new Stack<>();
-							for (Root r : agent_roots) {
-								ancs.clear();
-								visit.add(r);
-								while (!visit.isEmpty()) {
-									Parent p = visit.pop();
-									if (p.isNode()) {
-										Node n = (Node) p;
-										while (!ancs.isEmpty()
-												&& ancs.peek() != n.getParent())
-											ancs.pop();
-									}
-									// put itself as an ancestor and
-									// process each of its children
-									ancs.push(p);
-									for (Child c : p.getChildren()) {
-										if (c.isParent()) {
-											visit.add((Parent) c);
-										}
-										agent_ancestors.put(c, new ArrayList<>(
-												ancs));
-									}
-								}
-							}
-							agent_ancestors_is_empty = false;
-						}
-					}
-				}
-				{
-					for (Node i : agent_nodes) {
-						Collection<Parent> ancs = agent_ancestors.get(i);
-						IntVar[] vars = new IntVar[(ancs.size() - 1) * rss];
-						int k = 0;
-						for (Parent f : ancs) {
-							if (f.isNode()) {
-								Map<PlaceEntity, IntVar> f_row = p_vars
-										.get(f);
-								for (Site g : redex_sites) {
-									vars[k++] = f_row.get(g);
-								}
-							}
-						}
-						IntVar sum = model.intVar(0);
-						for (IntVar v : vars) {
-							sum = sum.add(v).intVar();
-						}
-						Map<PlaceEntity, IntVar> i_row = p_vars.get(i);
-						for (Root j : redex_roots) {
-							model.arithm(sum.add(i_row.get(j)).intVar(), 
-									"<=", 1).post();
-						}
-					}
-				}
+				// 10 // sum M_ij <= 1 if i in sites
+				// ! all enforced by a single propagator reasoning on the
+				// place graphs, see PlaceEmbeddingPropagator //
+				PlaceEmbeddingPropagator.constraint(model, compiled, p_vars,
+						p_cands).post();
 
-				// 10 //
-				{
-					IntVar[] vars = new IntVar[rrs + rns + rss];
-					for (Site i : agent_sites) {
-						vars = p_vars.get(i).values().toArray(vars);
-						model.sum(vars, "<=", 1).post();
-					}
-				}
 				// LINK CONSTRAINTS ///////////////////////////////////////////
 
 				// 1 // source constraints
 				{
-					IntVar[] vars = new IntVar[rps + 1];
-					for (Point p : agent_points) {
-						vars = e_vars.get(p).values().toArray(vars);
-						model.sum(vars, "=", 1).post();
+					for (Map.Entry<LinkEntity, Map<LinkEntity, IntVar>> r : e_vars
+							.entrySet()) {
+						if (r.getKey().isPoint()) {
+							sparse.postSum(r.getValue().values(), "=", 1);
+						}
 					}
 				}
 				// 2 // sink constraints
+				// points without a row always bypass
 				{
-					for (Handle ha : agent_handles) {
+					List<IntVar> vars = new ArrayList<>();
+					for (Map.Entry<Handle, List<IntVar>> c : hh_cols.entrySet()) {
+						Handle ha = c.getKey();
 						Collection<? extends Point> ps = ha.getPoints();
-						IntVar[] vars1 = new IntVar[rhs + ps.size()];
-						int k = 0;
+						int n = ps.size();
+						vars.clear();
 						for (Point p : ps) {
-							vars1[k++] = e_vars.get(p).get(ha);
-						}
-						for (Handle hr : redex_handles) {
-							vars1[k++] = e_vars.get(hr).get(ha);
+							Map<LinkEntity, IntVar> row = e_vars.get(p);
+							if (row == null) {
+								n--;
+							} else {
+								vars.add(row.get(ha));
+							}
 						}
-						model.sum(vars1, "=", ps.size()).post();
+						vars.addAll(c.getValue());
+						sparse.postSum(vars, "=", n);
 					}
 				}
 
 				// 3 // flux preservation
 				{
-					IntVar[] vars1 = new IntVar[ahs];
+					List<IntVar> vars = new ArrayList<>();
 					for (Handle hr : redex_handles) {
-						Collection<? extends Point> ps = hr.getPoints();
-						int k = 0;
-						IntVar[] vars2 = new IntVar[aps * ps.size()];
-						for (Point pa : agent_points) {
-							Map<LinkEntity, IntVar> row = e_vars
-									.get(pa);
-							for (Point pr : ps) {
-								vars2[k++] = row.get(pr);
-							}
+						vars.clear();
+						for (Point pr : hr.getPoints()) {
+							vars.addAll(e_cols.get(pr));
 						}
-						vars1 = e_vars.get(hr).values().toArray(vars1);
-						IntVar sum1 = model.intVar(0);
-						for (IntVar v : vars1) {
-							sum1 = sum1.add(v).intVar();
-						}
-						model.sum(vars2, "=", sum1).post();
+						sparse.postDiff(vars, 1, e_vars.get(hr).values(), "=");
 					}
 				}
 
 				// 4 // redex ports as "sources"
-				{
-					IntVar[] vars = new IntVar[aps];
-					for (Point pr : redex_points) {
-						if (pr.isPort()) {
-							int k = 0;
-							for (Point pa : agent_points) {
-								vars[k++] = e_vars.get(pa).get(pr);
-							}
-							model.sum(vars, "=", 1).post();
-						}
-					}
-				}
+				// ! implied by place constraint 5 since the variables for
+				// ports are shared //
 
 				// 5 // relation between f_vars and e_vars for handles
 				{
 					for (Handle hr : redex_handles) {
 						Map<Handle, IntVar> f_row = f_vars.get(hr);
-						Map<LinkEntity, IntVar> e_row = e_vars.get(hr);
-						if (!hr.getPoints().isEmpty()) {
-							for (Handle ha : agent_handles) {
-								if (!ha.getPoints().isEmpty()) {
-									IntVar vf = f_row.get(ha);
-									IntVar ve = e_row.get(ha);
-									model.arithm(ve, "<=", 
-											vf.mul(ha.getPoints().size())
-											.intVar()).post();
-									model.arithm(vf, "<=", ve).post();
-								}
-							}
+						for (Map.Entry<LinkEntity, IntVar> c : e_vars.get(hr)
+								.entrySet()) {
+							Handle ha = (Handle) c.getKey();
+							IntVar vf = f_row.get(ha);
+							IntVar ve = c.getValue();
+							sparse.postDiff(Collections.singletonList(ve), ha
+									.getPoints().size(), Collections
+									.singletonList(vf), "<=");
+							model.arithm(vf, "<=", ve).post();
 						}
 					}
 				}
 				// 6 // relation between f_vars and e_vars for points
 				{
+					List<IntVar> vars = new ArrayList<>();
 					for (Handle hr : redex_handles) {
-						Map<Handle, IntVar> f_row = f_vars.get(hr);
 						Collection<? extends Point> ps = hr.getPoints();
-						for (Handle ha : agent_handles) {
-							IntVar vf = f_row.get(ha);
-							int k = 0;
-							IntVar[] vars = new IntVar[ps
-									.size() * ha.getPoints().size()];
+						if (ps.isEmpty())
+							continue;
+						for (Map.Entry<Handle, IntVar> c : f_vars.get(hr)
+								.entrySet()) {
+							Handle ha = c.getKey();
+							IntVar vf = c.getValue();
+							vars.clear();
 							for (Point pa : ha.getPoints()) {
-								Map<LinkEntity, IntVar> e_row = e_vars
-										.get(pa);
+								Map<LinkEntity, IntVar> e_row = e_vars.get(pa);
+								if (e_row == null) {
+									// pa bypasses ha
+									if (hr.isEdge()) {
+										model.arithm(vf, "=", 0).post();
+									}
+									continue;
+								}
 								for (Point pr : ps) {
 									IntVar ve = e_row.get(pr);
-									vars[k++] = ve;
-									model.arithm(ve, "<=", vf).post();
+									if (ve != null) {
+										vars.add(ve);
+										model.arithm(ve, "<=", vf).post();
+									}
 								}
 								// // constraint 10
 								if (hr.isEdge()) {
-									model.arithm(
-											vf.add(e_vars.get(pa).get(ha)).intVar(), 
-											"<=", 1).post();
+									model.arithm(vf, "+", e_row.get(ha), "<=",
+											1).post();
 								}
 							}
-							if (!ps.isEmpty() || !ha.getPoints().isEmpty())
-								model.sum(vars, ">=", vf).post();
+							sparse.postDiff(vars, 1, Collections
+									.singletonList(vf), ">=");
 						}
 					}
 				}
@@ -764,159 +825,112 @@ public class WeightedMatcher extends Matcher {
 					 * Redex handles can be matched to at most one handle of the
 					 * redex
 					 */
-					IntVar[] vars = new IntVar[ahs];
 					for (Handle hr : redex_handles) {
 						Map<Handle, IntVar> f_row = f_vars.get(hr);
-						model.sum(f_row.values().toArray(vars), "<=", 1)
-							.post();
+						if (f_row.size() > 1) {
+							sparse.postSum(f_row.values(), "<=", 1);
+						}
 					}
 				}
 
 				// 8 // handles type
+				// 9 // embeddings are injective w.r.t edges
 				{
 					/*
-					 * Redex handles can not be matched to agent outers.
+					 * Redex edges can not be matched to agent outers (implicit)
+					 * and agent handles can not be the image of both edges and
+					 * outer names.
 					 */
-					ListIterator<Handle> ir1 = redex_handles.listIterator(0);
-					while (ir1.hasNext()) {
-						Handle hr1 = ir1.next();
-						Map<Handle, IntVar> f_row1 = f_vars.get(hr1);
-						if (hr1.isEdge()) {
-							for (Handle ha : agent_handles) {
-								// edges belongs to edges
-								if (ha.isOuterName())
-									model.arithm(f_row1.get(ha), "=", 0)
-											.post();
-							}
-						}
-						ListIterator<Handle> ir2 = redex_handles
-								.listIterator(ir1.nextIndex());
-						while (ir2.hasNext()) {
-							Handle hr2 = ir2.next();
-							Map<Handle, IntVar> f_row2 = f_vars
-									.get(hr2);
-							if (hr1.isEdge() != hr2.isEdge()) {
-								for (Handle ha : agent_handles) {
-									model.arithm(f_row1.get(ha)
-											.add(f_row2.get(ha)).intVar(), 
-											"<=", 1).post();
-								}
+					Map<Handle, List<IntVar>> edge_cols = new IdentityHashMap<>();
+					Map<Handle, List<IntVar>> outer_cols = new IdentityHashMap<>();
+					for (Handle hr : redex_handles) {
+						Map<Handle, List<IntVar>> cols = (hr.isEdge()) ? edge_cols
+								: outer_cols;
+						for (Map.Entry<Handle, IntVar> c : f_vars.get(hr)
+								.entrySet()) {
+							List<IntVar> col = cols.get(c.getKey());
+							if (col == null) {
+								col = new ArrayList<>();
+								cols.put(c.getKey(), col);
 							}
+							col.add(c.getValue());
 						}
 					}
-				}
-				// 9 // embeddings are injective w.r.t edges
-				{
-					IntVar[] vars = new IntVar[redex_edges
-							.size()];
-					for (Handle ha : agent_handles) {
-						int k = 0;
-						for (Handle hr : redex_edges) {
-							vars[k++] = f_vars.get(hr).get(ha);
+					List<IntVar> vars = new ArrayList<>();
+					for (Map.Entry<Handle, List<IntVar>> c : edge_cols
+							.entrySet()) {
+						List<IntVar> col = c.getValue();
+						if (col.size() > 1) {
+							sparse.postSum(col, "<=", 1);
+						}
+						List<IntVar> outers = outer_cols.get(c.getKey());
+						if (outers == null)
+							continue;
+						for (IntVar v : outers) {
+							vars.clear();
+							vars.addAll(col);
+							vars.add(v);
+							sparse.postSum(vars, "<=", 1);
 						}
-						model.sum(vars, "<=", 1).post();
 					}
 				}
 				// 10 // points of handles mapped to redex edges can not bypass
 				// it
 				// ! merged with constraint 6 //
-				/*
-				 * { for (Handle hr : redex_edges) { Map<Handle,
-				 * IntegerVariable> f_row = f_vars.get(hr); for (Handle ha :
-				 * agent_handles) { IntegerVariable vf = f_row.get(ha); for
-				 * (Point p : ha.getPoints()) { model.addConstraint(Choco.geq(1,
-				 * Choco.sum(e_vars.get(p).get(ha), vf))); } } } }
-				 */
 
 				// INTERPLAY CONSTRAINTS //////////////////////////////////////
+
+				// bound nodes and their ports
+				// ! implicit, see the allocation of variables //
 				{
-					// bound nodes and their ports
-					for (Node ni : agent_nodes) {
-						Map<PlaceEntity, IntVar> p_row = p_vars
-								.get(ni);
-						for (Node nj : redex_nodes) {
-							IntVar m = p_row.get(nj);
-							boolean comp = areMatchable(agent, ni, redex, nj);
-							// ! Place constraint 2 //
-							if (comp) {
-								Integer w = matchingWeight(agent, ni, redex, nj);
-								if (w != 0) {
-									weights.add(m.mul(w).intVar());
-								}
-							} else {
-								model.arithm(m, "=", 0).post();
+					/*
+					 * a port can match an inner name in the redex if its node
+					 * is in the params.
+					 */
+					List<IntVar> vars = new ArrayList<>();
+					for (Node ni : param_nodes) {
+						for (Port pi : ni.getPorts()) {
+							Map<LinkEntity, IntVar> row = e_vars.get(pi);
+							if (row == null)
+								continue;
+							vars.clear();
+							for (InnerName in : redex_inners) {
+								IntVar v = row.get(in);
+								if (v != null)
+									vars.add(v);
 							}
-							for (int i = ni.getControl().getArity() - 1; 0 <= i; i--) {
-								Map<LinkEntity, IntVar> e_row = e_vars
-										.get(ni.getPort(i));
-								for (int j = nj.getControl().getArity() - 1; 0 <= j; j--) {
-									if (comp && i == j) {
-										/* ni <-> nj iff ni[k] <-> nj[k] */
-										model.arithm(m, "=", 
-												e_row.get(nj.getPort(j))).post();
-									} else {
-										/* ni[f] <!> nj[g] if ni<!>nj || f != g */
-										model.arithm(e_row.get(nj.getPort(j)), 
-												"=", 0).post();
-									}
-								}
+							if (!vars.isEmpty()) {
+								sparse.postDiff(vars, 1, param_vars.get(ni),
+										"<=");
 							}
 						}
 					}
 				}
+
+				// weight var
 				{
-					for (Node ni : agent_nodes) {
-						// sum over ni anchestors and redex roots
-						Collection<Parent> ancs = agent_ancestors.get(ni);
-						IntVar[] vars2 = new IntVar[(1 + ancs .size()) * rss];
-						int k2 = 0;
-						for (Parent f : ancs) {
-							Map<PlaceEntity, IntVar> row = p_vars
-									.get(f);
-							for (Site g : redex_sites) {
-								vars2[k2++] = row.get(g);
+					List<IntVar> vars = new ArrayList<>();
+					List<Integer> ws = new ArrayList<>();
+					for (Node nj : redex_nodes) {
+						for (PlaceEntity i : p_cands.get(nj)) {
+							int w = matchingWeight(agent, (Node) i, redex, nj);
+							if (w != 0) {
+								vars.add(p_vars.get(i).get(nj));
+								ws.add(w);
 							}
 						}
-						{
-							Map<PlaceEntity, IntVar> row = p_vars
-									.get(ni);
-							for (Site g : redex_sites) {
-								vars2[k2++] = row.get(g);
-							}
-						}
-						IntVar sum2 = model.intVar(0);
-						for (IntVar v : vars2) {
-							sum2 = sum2.add(v).intVar();
-						}
-
-						for (Port pi : ni.getPorts()) {
-							Map<LinkEntity, IntVar> row = e_vars
-									.get(pi);
-							// all the redex points
-							// IntegerVariable[] vars3 = new
-							// IntegerVariable[rprs];
-							IntVar[] vars4 = new IntVar[rins];
-							// int k3 = 0;
-							int k4 = 0;
-							for (Point in : redex.getInnerNames()) {
-								IntVar var = row.get(in);
-								vars4[k4++] = var;
-							}
-							/*
-							 * a port can match an inner name in the redex if
-							 * its node is in the params.
-							 */
-							model.sum(vars4, "<=", sum2).post();
+					}
+					if (vars.isEmpty()) {
+						model.arithm(weight, "=", 0).post();
+					} else {
+						int[] coeffs = new int[ws.size()];
+						for (int k = 0; k < coeffs.length; k++) {
+							coeffs[k] = ws.get(k);
 						}
+						model.scalar(vars.toArray(new IntVar[vars.size()]),
+								coeffs, "=", weight).post();
 					}
 				}
-
-				// weight var
-				{
-					IntVar[] vars = new IntVar[weights.size()];
-					vars = weights.toArray(vars);
-					model.sum(vars, "=", weight).post();
-				}
 				// END OF CONSTRAINTS /////////////////////////////////////////
 
 				model.setObjective(maximizing, weight);
@@ -951,6 +965,58 @@ public class WeightedMatcher extends Matcher {
 			private void noMoreSolutions() {
 				this.mayHaveNext = false;
 				this.solver.hardReset();
+				if (stats != null)
+					stats.recordEnd();
+			}
+
+			/*
+			 * Looks for the next solution of the CSP. A search stopped by a
+			 * limit or a cancellation ends the enumeration and is reported to
+			 * the caller, since it does not prove there are no more solutions.
+			 */
+			private boolean solve() {
+				long t = (stats == null) ? 0 : System.nanoTime();
+				boolean found = solver.solve();
+				if (stats != null)
+					stats.recordSolve(found, System.nanoTime() - t,
+							solver.getNodeCount(), solver.getBackTrackCount(),
+							solver.getFailCount());
+				if (found)
+					return true;
+				MatcherOptions opts = getOptions();
+				if (SearchControl.isStopped(solver)) {
+					MatchLimitException e = SearchControl.limitReached(
+							opts, solver);
+					noMoreSolutions();
+					throw e;
+				}
+				return false;
+			}
+
+			/*
+			 * The variables describing the place embedding; some strategies
+			 * decide them before the others.
+			 */
+			private IntVar[] placeVars() {
+				List<IntVar> vs = new ArrayList<>();
+				for (Map<PlaceEntity, IntVar> row : p_vars.values()) {
+					vs.addAll(row.values());
+				}
+				return vs.toArray(new IntVar[vs.size()]);
+			}
+
+			/*
+			 * Counts the solutions of the CSP up to the given bound without
+			 * building their matches; the iterator is exhausted afterwards.
+			 */
+			private int countSolutions(int bound) {
+				firstRun = false;
+				int count = 0;
+				while (count < bound && solve()) {
+					count++;
+				}
+				noMoreSolutions();
+				return count;
 			}
 
 			private void fetchSolution() {
@@ -959,7 +1025,7 @@ public class WeightedMatcher extends Matcher {
 				if (DEBUG_PRINT_SOLUTION_FETCH)
 					System.out.println("fetch solution has been invoked...");
 				// look for a solution for the CSP
-				if (!solver.solve()) {	
+				if (!solve()) {	
 					if (DEBUG_PRINT_SOLUTION_FETCH)
 						System.out
 								.println("...but no more solutions where found.");
@@ -967,7 +1033,8 @@ public class WeightedMatcher extends Matcher {
 					return;
 				}
 				
-				int mWeight = 0;
+				long t = (stats == null) ? 0 : System.nanoTime();
+				int mWeight = weight.getValue();
 				
 				if (DEBUG_PRINT_CSP_SOLUTIONS) {
 					System.out.println("Solution: #"
@@ -1001,51 +1068,45 @@ public class WeightedMatcher extends Matcher {
 								+ "d|", i);
 						c = 1;
 						Root ri = agent_roots.get(i);
-						Map<PlaceEntity, IntVar> row = p_vars.get(ri);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, ri);
 						for (int j = 0; j < rrs; j++) {
 							Root rj = redex_roots.get(j);
-							IntVar v = findVariable(row.get(rj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(rj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (Node nj : redex_nodes) {
-							IntVar v = findVariable(row.get(nj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(nj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (int j = 0; j < rss; j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(sj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					for (Node ni : agent_nodes) {
 						System.out.printf("\n%-" + p_cell_width[0] + "s|", ni);
 						c = 1;
-						Map<PlaceEntity, IntVar> row = p_vars.get(ni);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, ni);
 						for (int j = 0; j < rrs; j++) {
 							Root rj = redex_roots.get(j);
-							IntVar v = findVariable(row.get(rj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(rj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (Node nj : redex_nodes) {
-							IntVar v = findVariable(row.get(nj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(nj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (int j = 0; j < rss; j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(sj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					for (int i = 0; i < ass; i++) {
@@ -1053,7 +1114,7 @@ public class WeightedMatcher extends Matcher {
 								+ "d|", i);
 						c = 1;
 						Root ri = agent_roots.get(i);
-						Map<PlaceEntity, IntVar> row = p_vars.get(ri);
+						Map<PlaceEntity, IntVar> row = rowOf(p_vars, ri);
 						for (int j = 0; j < rrs; j++) {
 							System.out.printf("%" + p_cell_width[c++] + "d|",
 									' ');
@@ -1064,10 +1125,9 @@ public class WeightedMatcher extends Matcher {
 						}
 						for (int j = 0; j < rss; j++) {
 							Site sj = redex_sites.get(j);
-							IntVar v = findVariable(row.get(sj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(sj));
 							System.out.printf("%" + p_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 					
@@ -1100,19 +1160,17 @@ public class WeightedMatcher extends Matcher {
 					for (Point pi : agent_points) {
 						System.out.printf("\n%-" + e_cell_width[0] + "s|", pi);
 						c = 1;
-						Map<LinkEntity, IntVar> row = e_vars.get(pi);
+						Map<LinkEntity, IntVar> row = rowOf(e_vars, pi);
 						for (Point pj : redex_points) {
-							IntVar v = findVariable(row.get(pj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(pj));
 							System.out.printf("%" + e_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 						for (Handle hj : agent_handles) {
 							if (row.containsKey(hj)) {
-								IntVar v = findVariable(row.get(hj).getName(), 
-										model.getVars()).asIntVar();
+								int v = valueOf(row.get(hj));
 								System.out.printf("%" + e_cell_width[c++]
-										+ "d|", v.getValue());
+										+ "d|", v);
 							} else {
 								System.out.printf("%" + e_cell_width[c++]
 										+ "c|", ' ');
@@ -1128,10 +1186,9 @@ public class WeightedMatcher extends Matcher {
 									' ');
 						}
 						for (Handle hj : agent_handles) {
-							IntVar v = findVariable(row.get(hj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(hj));
 							System.out.printf("%" + e_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}
 
@@ -1149,16 +1206,12 @@ public class WeightedMatcher extends Matcher {
 						c = 1;
 						Map<Handle, IntVar> row = f_vars.get(hi);
 						for (Handle hj : agent_handles) {
-							IntVar v = findVariable(row.get(hj).getName(), 
-									model.getVars()).asIntVar();
+							int v = valueOf(row.get(hj));
 							System.out.printf("%" + f_cell_width[c++] + "d|",
-									v.getValue());
+									v);
 						}
 					}					
 
-					IntVar v = findVariable(weight.getName(), 
-							model.getVars()).asIntVar();
-					mWeight = v.getValue();
 					System.out.printf("\n\nOPT = %d\n\n",mWeight);
 				}
 
@@ -1242,9 +1295,7 @@ public class WeightedMatcher extends Matcher {
 						// cache miss
 						Map<Handle, IntVar> f_row = f_vars.get(o0);
 						for (Handle h : agent_handles) {
-							IntVar var = findVariable(f_row.get(h).getName(),
-									model.getVars()).asIntVar();
-							if (var.getValue() == 1) {
+							if (valueOf(f_row.get(h)) == 1) {
 								h1 = h.getEditable();
 								break;
 							}
@@ -1275,9 +1326,7 @@ public class WeightedMatcher extends Matcher {
 							// cache miss
 							Map<Handle, IntVar> f_row = f_vars.get(h0);
 							for (Handle h : agent_handles) {
-							IntVar var = findVariable(f_row.get(h).getName(),
-									model.getVars()).asIntVar();
-								if (var.getValue() == 1) {
+							if (valueOf(f_row.get(h)) == 1) {
 									h1 = h.getEditable();
 									break;
 								}
@@ -1305,9 +1354,7 @@ public class WeightedMatcher extends Matcher {
 					Map<LinkEntity, IntVar> row = e_vars.get(i1);
 					EditableHandle h1 = i1.getHandle();
 
-					IntVar var = findVariable(row.get(h1).getName(),
-							model.getVars()).asIntVar();
-					if (var.getValue() == 1) {
+					if (row == null || valueOf(row.get(h1)) == 1) {
 						/*
 						 * this inner name bypasses the redex. Checks if the
 						 * handle already has an image in this parameter
@@ -1354,9 +1401,7 @@ public class WeightedMatcher extends Matcher {
 						}
 					} else {
 						for (InnerName i0 : redex.inners.values()) {
-							IntVar v = findVariable(row.get(i0).getName(),
-									model.getVars()).asIntVar();
-							if (v.getValue() == 1) {
+							if (valueOf(row.get(i0)) == 1) {
 								/*
 								 * this port is attached to the redex inner i0.
 								 * Add it as an outer of prm, if it is not
@@ -1415,15 +1460,12 @@ public class WeightedMatcher extends Matcher {
 						}
 						// enqueue children, if necessary
 						Collection<Child> rcs = new HashSet<>(p1.getChildren());
-						Map<PlaceEntity, IntVar> p_row = p_vars
-								.get(p1);
+						Map<PlaceEntity, IntVar> p_row = rowOf(p_vars, p1);
 						Iterator<Root> ir = unseen_rdx_roots.iterator();
 						while (ir.hasNext()) {
 							Root r0 = ir.next();
 							// make a site for each root whose image is p1
-							IntVar var = findVariable(p_row.get(r0).getName(),
-									model.getVars()).asIntVar();
-							if (var.getValue() == 1) {
+							if (valueOf(p_row.get(r0)) == 1) {
 								// root_img.put(r0, p1);
 								ir.remove();
 								int k = redex_roots.indexOf(r0);
@@ -1438,11 +1480,7 @@ public class WeightedMatcher extends Matcher {
 									boolean notMatched = true;
 									while (ic.hasNext()) {
 										Child c1 = ic.next();
-										IntVar var_tmp = findVariable(
-												p_vars.get(c1).get(c0)
-												.getName(),
-												model.getVars()).asIntVar();
-										if (var_tmp.getValue() == 1) {
+										if (valueOf(rowOf(p_vars, c1).get(c0)) == 1) {
 											notMatched = false;
 											q.add(new VState(rdx, r2, c1, c0));
 											ic.remove();
@@ -1487,10 +1525,7 @@ public class WeightedMatcher extends Matcher {
 								boolean notMatched = true;
 								while (ic.hasNext()) {
 									Child c1 = ic.next();
-									IntVar var_tmp = findVariable(
-											p_vars.get(c1).get(c0).getName(),
-											model.getVars()).asIntVar();
-									if (var_tmp.getValue() == 1) {
+									if (valueOf(rowOf(p_vars, c1).get(c0)) == 1) {
 										notMatched = false;
 										q.add(new VState(rdx, n2, c1, c0));
 										ic.remove();
@@ -1532,10 +1567,7 @@ public class WeightedMatcher extends Matcher {
 								Map<LinkEntity, IntVar> row = e_vars.get(p1);
 								EditableHandle h1 = p1.getHandle();
 
-								IntVar var_tmp = findVariable(
-									row.get(h1).getName(),
-									model.getVars()).asIntVar();
-								if (var_tmp.getValue() == 1) {
+								if (row == null || valueOf(row.get(h1)) == 1) {
 									/*
 									 * this port bypasses the redex. Checks if
 									 * the handle already has an image in this
@@ -1585,10 +1617,7 @@ public class WeightedMatcher extends Matcher {
 									}
 								} else {
 									for (InnerName i0 : redex.inners.values()) {
-										IntVar var = findVariable(
-											row.get(i0).getName(),
-											model.getVars()).asIntVar();
-										if (var.getValue() == 1) {
+										if (valueOf(row.get(i0)) == 1) {
 											/*
 											 * this port is attached to the
 											 * redex inner i0. Add it as an
@@ -1646,6 +1675,8 @@ public class WeightedMatcher extends Matcher {
 
 				}
 				this.nextMatch = new WeightedMatch(ctx, rdx, id, prm, nEmb,mWeight);
+				if (stats != null)
+					stats.recordExtraction(System.nanoTime() - t);
 			}
 		}
 	}
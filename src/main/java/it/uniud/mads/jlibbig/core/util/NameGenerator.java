@@ -1,10 +1,12 @@
 package it.uniud.mads.jlibbig.core.util;
-import java.lang.ref.SoftReference;
 
-import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class for generating names. Names are unique with respect to each instance of the generator.
+ * Names are rendered from unique numbers (cf. {@link #generateId()} and {@link #render(long)}):
+ * entities that are named often but whose names are seldom read can store the number and
+ * render their name on demand.
  *
  */
 public class NameGenerator {
@@ -13,12 +15,17 @@ public class NameGenerator {
 	
 	public static final NameGenerator DEFAULT = new NameGenerator();
 
-	private BigInteger _sharedCounter = BigInteger.ZERO; 
+	private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private final AtomicLong _sharedCounter = new AtomicLong(); 
 	
-	private final ThreadLocal<SoftReference<BlockProxy>> _localBlock = new ThreadLocal<SoftReference<BlockProxy>>(){
+	private final ThreadLocal<BlockProxy> _localBlock = new ThreadLocal<BlockProxy>(){
 		@Override
-		protected SoftReference<BlockProxy> initialValue(){
-			return null;
+		protected BlockProxy initialValue(){
+			if(DEBUG){
+				System.out.println("New local block for thread " + Thread.currentThread().getId() + "-" + Thread.currentThread().getName());
+			}
+			return createLocalBlock();
 		}
 	};
 		
@@ -28,33 +35,47 @@ public class NameGenerator {
 	 * @return a name
 	 */
 	public String generate(){
-		SoftReference<BlockProxy> ref = this._localBlock.get();
-		if(ref == null){
-			if(DEBUG){
-				System.out.println("New local block for thread " + Thread.currentThread().getId() + "-" + Thread.currentThread().getName());
-			}
-			ref = new SoftReference<>(createLocalBlock());
-			this._localBlock.set(ref);
-		}
-		return ref.get().next();
+		return render(generateId());
+	}
+
+	/**
+	 * Generates a number unique with respect to this instance of the generator.
+	 * The number is the one {@link #generate()} would have rendered as a name.
+	 * 
+	 * @return a non negative number
+	 */
+	public long generateId(){
+		return this._localBlock.get().nextId();
+	}
+
+	/**
+	 * Renders a number generated by {@link #generateId()} as a name, i.e. as an
+	 * upper case hexadecimal numeral.
+	 * 
+	 * @param id the number
+	 * @return a name
+	 */
+	public static String render(long id){
+		char[] buf = new char[16];
+		int i = buf.length;
+		do{
+			buf[--i] = DIGITS[(int) (id & 0xF)];
+			id >>>= 4;
+		}while(id != 0);
+		return new String(buf, i, buf.length - i);
 	}
 		
-	private BigInteger getNewBlock(BigInteger size){
-		BigInteger block;
-		synchronized(this){
-			if(DEBUG){
-				System.out.println("Allocating a new block of size " + size.toString() + " for thread " + Thread.currentThread().getId() + "-" + Thread.currentThread().getName());
-			}
-			block = this._sharedCounter;
-			this._sharedCounter = block.add(size);
+	private long getNewBlock(long size){
+		if(DEBUG){
+			System.out.println("Allocating a new block of size " + size + " for thread " + Thread.currentThread().getId() + "-" + Thread.currentThread().getName());
 		}
-		return block;
+		return this._sharedCounter.getAndAdd(size);
 	}
 	
 	/**
 	 * Creates a proxy for name blocks for this thread.
 	 * Inherit this method to provide alternative implementations to Block.
-	 * Blocks are allocated invoking {@link getNewBlock}; the method is thread safe.
+	 * Blocks are allocated invoking {@link #getNewBlock}; the method is thread safe and lock free.
 	 * 
 	 * @return a proxy to be used by this thread.
 	 */
@@ -74,10 +95,9 @@ public class NameGenerator {
 		
 		private long _rem = 0;
 		private long _currentSize = MIN_BLOCK_SIZE*2;
-		private BigInteger _blockSize = BigInteger.valueOf(_currentSize);
 		private long _lastGenT = 0;
 		private int _genSinceLastSizeCng = -1;
-		private BigInteger _next = null;
+		private long _next = 0;
 		
 		BlockProxy(){}
 		
@@ -101,23 +121,24 @@ public class NameGenerator {
 			if(newBlockSize != _currentSize && newBlockSize >= MIN_BLOCK_SIZE){// && newBlockSize <= MAX_BLOCK_SIZE ){
 				_currentSize = newBlockSize;
 				_genSinceLastSizeCng = 0;
-				_blockSize = BigInteger.valueOf(_currentSize);
 			}else{
 				_lastGenT = System.currentTimeMillis();
 				_genSinceLastSizeCng += 1;
 			}
-			_next = getNewBlock(_blockSize);
+			_next = getNewBlock(_currentSize);
 			_rem = _currentSize;
 		}
 		
 		public String next(){
+			return render(nextId());
+		}
+
+		public long nextId(){
 			if(_rem < 1){
 				refill();
 			}
 			_rem -= 1;
-			String name = this._next.toString(16).toUpperCase();
-			this._next = this._next.add(BigInteger.ONE);
-			return name;
+			return this._next++;
 		}
 	}
 }
\ No newline at end of file
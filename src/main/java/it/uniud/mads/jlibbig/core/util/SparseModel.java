@@ -0,0 +1,217 @@
+package it.uniud.mads.jlibbig.core.util;
+
+import it.uniud.mads.jlibbig.core.Child;
+import it.uniud.mads.jlibbig.core.Parent;
+import it.uniud.mads.jlibbig.core.PlaceEntity;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.variables.IntVar;
+
+/**
+ * The place variables of the constraint model of a matcher, allocated only
+ * for the pairs of agent and redex place entities that may be matched; any
+ * pair without a variable stands for a variable fixed to zero. Candidates
+ * are propagated top-down along the redex place graph: redex roots may be
+ * hosted by the agent parents chosen by the matcher, redex nodes and sites by
+ * the children of the candidates for their parent that the matcher deems
+ * feasible. Constraints over these sparse rows are posted by
+ * {@link #postSum} and {@link #postDiff}, which accept empty sums.
+ *
+ * Matchers of bigraphs and of directed bigraphs share this encoding of the
+ * place graph; the type parameter is the place entity of their bigraphs.
+ *
+ * @param <E>
+ *            the type of place entities.
+ */
+public final class SparseModel<E extends PlaceEntity> {
+
+	private final Model model;
+	private final Map<E, Map<E, IntVar>> vars = new IdentityHashMap<>();
+	private final Map<E, List<E>> cands = new IdentityHashMap<>();
+	private int var_count = 0;
+
+	/**
+	 * @param model
+	 *            the model where variables are allocated and constraints
+	 *            posted.
+	 */
+	public SparseModel(Model model) {
+		this.model = model;
+	}
+
+	/**
+	 * Returns the place variables indexed by the agent entity and then by
+	 * the redex one. Missing rows and entries stand for variables fixed to
+	 * zero.
+	 *
+	 * @return the place variables.
+	 */
+	public Map<E, Map<E, IntVar>> getPlaceVars() {
+		return vars;
+	}
+
+	/**
+	 * Returns the agent entities having a place variable indexed by the
+	 * redex entity they may be placed on.
+	 *
+	 * @return the candidates of redex entities.
+	 */
+	public Map<E, List<E>> getCandidates() {
+		return cands;
+	}
+
+	/**
+	 * Allocates a variable for placing the agent entity i on the redex one j
+	 * and records i as a candidate for j.
+	 *
+	 * @param i
+	 *            the agent entity.
+	 * @param j
+	 *            the redex entity.
+	 * @return the new variable.
+	 */
+	public IntVar newPlaceVar(E i, E j) {
+		IntVar var = model.boolVar("P_" + var_count++);
+		Map<E, IntVar> row = vars.get(i);
+		if (row == null) {
+			row = new IdentityHashMap<>();
+			vars.put(i, row);
+		}
+		row.put(j, var);
+		candidatesOf(j).add(i);
+		return var;
+	}
+
+	/**
+	 * Allocates the variables placing a redex root on the given agent
+	 * parents, skipping those with fewer children than the node children of
+	 * the root.
+	 *
+	 * @param root
+	 *            the redex root.
+	 * @param hosts
+	 *            the agent parents that may host the root.
+	 * @param children
+	 *            the number of node children of the root.
+	 */
+	public void addRoot(E root, Iterable<? extends E> hosts, int children) {
+		candidatesOf(root);
+		for (E f : hosts) {
+			if (((Parent) f).getChildren().size() >= children) {
+				newPlaceVar(f, root);
+			}
+		}
+	}
+
+	/**
+	 * Allocates the variables placing the given redex children on the
+	 * children of the candidates for their parent that pass the given test.
+	 * Redex children are taken in order, hence parents should come first.
+	 *
+	 * @param children
+	 *            the redex children.
+	 * @param feasible
+	 *            tells whether an agent child can be placed on a redex one
+	 *            assuming their parents are.
+	 * @param <C>
+	 *            the type of children.
+	 */
+	@SuppressWarnings("unchecked")
+	public <C extends E> void addChildren(Iterable<? extends C> children,
+			BiPredicate<? super C, ? super C> feasible) {
+		for (C j : children) {
+			candidatesOf(j);
+			for (E f : candidatesOf((E) ((Child) j).getParent())) {
+				for (Child i : ((Parent) f).getChildren()) {
+					if (feasible.test((C) i, j)) {
+						newPlaceVar((C) i, j);
+					}
+				}
+			}
+		}
+	}
+
+	private List<E> candidatesOf(E j) {
+		List<E> cs = cands.get(j);
+		if (cs == null) {
+			cs = new ArrayList<>();
+			cands.put(j, cs);
+		}
+		return cs;
+	}
+
+	/**
+	 * Posts sum(vars) op value; an empty sum is zero and is checked here
+	 * since the solver does not accept empty sums.
+	 *
+	 * @param vars
+	 *            the variables to sum.
+	 * @param op
+	 *            the operator of the solver i.e. "=", "&lt;=" or "&gt;=".
+	 * @param value
+	 *            the right hand side.
+	 */
+	public void postSum(Collection<IntVar> vars, String op, int value) {
+		if (vars.isEmpty()) {
+			if (!holds(0, op, value)) {
+				model.falseConstraint().post();
+			}
+		} else {
+			model.sum(vars.toArray(new IntVar[vars.size()]), op, value).post();
+		}
+	}
+
+	/**
+	 * Posts sum(plus) - k * sum(minus) op 0.
+	 *
+	 * @param plus
+	 *            the variables to add.
+	 * @param k
+	 *            the coefficient of the variables to subtract.
+	 * @param minus
+	 *            the variables to subtract.
+	 * @param op
+	 *            the operator of the solver i.e. "=", "&lt;=" or "&gt;=".
+	 */
+	public void postDiff(Collection<IntVar> plus, int k,
+			Collection<IntVar> minus, String op) {
+		if (plus.isEmpty() && minus.isEmpty()) {
+			if (!holds(0, op, 0)) {
+				model.falseConstraint().post();
+			}
+			return;
+		}
+		IntVar[] vars = new IntVar[plus.size() + minus.size()];
+		int[] coeffs = new int[vars.length];
+		int n = 0;
+		for (IntVar v : plus) {
+			coeffs[n] = 1;
+			vars[n++] = v;
+		}
+		for (IntVar v : minus) {
+			coeffs[n] = -k;
+			vars[n++] = v;
+		}
+		model.scalar(vars, coeffs, op, 0).post();
+	}
+
+	/*
+	 * Evaluates a comparison between constants using the operators of the
+	 * solver.
+	 */
+	private static boolean holds(int left, String op, int right) {
+		switch (op) {
+		case "=":
+			return left == right;
+		case "<=":
+			return left <= right;
+		case ">=":
+			return left >= right;
+		default:
+			throw new IllegalArgumentException("Unsupported operator " + op);
+		}
+	}
+}
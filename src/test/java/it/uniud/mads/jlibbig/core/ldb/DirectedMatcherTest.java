@@ -0,0 +1,301 @@
+package it.uniud.mads.jlibbig.core.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import it.uniud.mads.jlibbig.core.std.Bigraph;
+import it.uniud.mads.jlibbig.core.std.BigraphBuilder;
+import it.uniud.mads.jlibbig.core.std.Match;
+import it.uniud.mads.jlibbig.core.std.Matcher;
+import it.uniud.mads.jlibbig.core.std.Signature;
+import it.uniud.mads.jlibbig.core.std.SignatureBuilder;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class DirectedMatcherTest {
+
+	/**
+	 * Place-only controls, active and passive, and a sender and a receiver
+	 * with an out port and an in port respectively.
+	 */
+	static final DirectedSignature SIGNATURE;
+	// the place-only controls as controls of standard bigraphs
+	static final Signature STD_SIGNATURE;
+
+	static {
+		DirectedSignatureBuilder sb = new DirectedSignatureBuilder();
+		sb.add("A", true, 0, 0);
+		sb.add("P", false, 0, 0);
+		sb.add("S", true, 1, 0);
+		sb.add("R", true, 0, 1);
+		SIGNATURE = sb.makeSignature();
+		SignatureBuilder ssb = new SignatureBuilder();
+		ssb.add("A", true, 0);
+		ssb.add("P", false, 0);
+		STD_SIGNATURE = ssb.makeSignature();
+	}
+
+	/*
+	 * The same random place graph as a directed and as a standard bigraph;
+	 * nodes are placed under random parents and, if sites are wanted, a site
+	 * is placed under each parent with probability one half.
+	 */
+	private static class PlaceGraph {
+		final DirectedBigraph directed;
+		final Bigraph standard;
+
+		PlaceGraph(Random rnd, int roots, int nodes, boolean sites) {
+			DirectedBigraphBuilder db = new DirectedBigraphBuilder(SIGNATURE);
+			BigraphBuilder sb = new BigraphBuilder(STD_SIGNATURE);
+			List<Parent> dps = new ArrayList<>();
+			List<it.uniud.mads.jlibbig.core.std.Parent> sps = new ArrayList<>();
+			for (int i = 0; i < roots; i++) {
+				dps.add(db.addRoot());
+				sps.add(sb.addRoot());
+			}
+			for (int i = 0; i < nodes; i++) {
+				int k = rnd.nextInt(dps.size());
+				String c = (rnd.nextInt(3) == 0) ? "P" : "A";
+				dps.add(db.addNode(c, dps.get(k)));
+				sps.add(sb.addNode(c, sps.get(k)));
+			}
+			for (int k = 0; sites && k < dps.size(); k++) {
+				if (rnd.nextBoolean()) {
+					db.addSite(dps.get(k));
+					sb.addSite(sps.get(k));
+				}
+			}
+			this.directed = db.makeBigraph();
+			this.standard = sb.makeBigraph();
+		}
+	}
+
+	/*
+	 * Describes a place graph up to isomorphism: nodes by their control and
+	 * sites by their index, siblings sorted.
+	 */
+	private static String formOf(
+			List<? extends it.uniud.mads.jlibbig.core.Root> roots,
+			List<? extends it.uniud.mads.jlibbig.core.Site> sites) {
+		StringBuilder s = new StringBuilder();
+		for (it.uniud.mads.jlibbig.core.Root r : roots) {
+			s.append(formOf(r, sites)).append('|');
+		}
+		return s.toString();
+	}
+
+	private static String formOf(it.uniud.mads.jlibbig.core.PlaceEntity p,
+			List<? extends it.uniud.mads.jlibbig.core.Site> sites) {
+		if (p instanceof it.uniud.mads.jlibbig.core.Site)
+			return "site" + sites.indexOf(p);
+		StringBuilder s = new StringBuilder();
+		if (p instanceof it.uniud.mads.jlibbig.core.Node)
+			s.append(((it.uniud.mads.jlibbig.core.Node<?>) p).getControl()
+					.getName());
+		List<String> cs = new ArrayList<>();
+		for (it.uniud.mads.jlibbig.core.Child c : ((it.uniud.mads.jlibbig.core.Parent) p)
+				.getChildren()) {
+			cs.add(formOf(c, sites));
+		}
+		Collections.sort(cs);
+		return s.append(cs).toString();
+	}
+
+	// describes matches by the forms of their context and parameter
+	private static List<String> directedForms(
+			Iterable<? extends DirectedMatch> matches) {
+		List<String> fs = new ArrayList<>();
+		for (DirectedMatch m : matches) {
+			DirectedBigraph c = m.getContext(), p = m.getParam();
+			fs.add(formOf(c.getRoots(), c.getSites()) + " / "
+					+ formOf(p.getRoots(), p.getSites()));
+		}
+		Collections.sort(fs);
+		return fs;
+	}
+
+	private static List<String> standardForms(Iterable<? extends Match> matches) {
+		List<String> fs = new ArrayList<>();
+		for (Match m : matches) {
+			Bigraph c = m.getContext(), p = m.getParam();
+			fs.add(formOf(c.getRoots(), c.getSites()) + " / "
+					+ formOf(p.getRoots(), p.getSites()));
+		}
+		Collections.sort(fs);
+		return fs;
+	}
+
+	private static int count(Iterable<? extends DirectedMatch> matches) {
+		int n = 0;
+		for (Iterator<? extends DirectedMatch> it = matches.iterator(); it
+				.hasNext(); it.next()) {
+			n++;
+		}
+		return n;
+	}
+
+	/*
+	 * A | A: the redex A occurs twice; matches used to be dropped as soon as
+	 * the solver found them.
+	 */
+	@Test
+	public void listsTheMatchesOfEachNode() {
+		DirectedBigraphBuilder ab = new DirectedBigraphBuilder(SIGNATURE);
+		Root r = ab.addRoot();
+		ab.addNode("A", r);
+		ab.addNode("A", r);
+		DirectedBigraph agent = ab.makeBigraph();
+		DirectedBigraphBuilder rb = new DirectedBigraphBuilder(SIGNATURE);
+		rb.addNode("A", rb.addRoot());
+		DirectedBigraph redex = rb.makeBigraph();
+
+		DirectedMatcher m = DirectedMatcher.DEFAULT;
+		Set<Node> images = Collections
+				.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+		Node a = redex.getNodes().iterator().next();
+		for (DirectedMatch match : m.match(agent, redex)) {
+			images.add(match.getImage(a));
+		}
+		assertEquals(2, images.size());
+		assertTrue(agent.getNodes().containsAll(images));
+		assertEquals(2, count(m.match(agent, redex)));
+		assertEquals(2, m.count(agent, redex));
+		assertTrue(m.exists(agent, redex));
+		assertNotNull(m.matchFirst(agent, redex));
+	}
+
+	/*
+	 * Without links, directed bigraphs are standard ones: the matches of the
+	 * two matchers have the same contexts and parameters.
+	 */
+	@Test
+	public void matchesPlaceGraphsAsTheStandardMatcher() {
+		DirectedParallelMatcher parallel = new DirectedParallelMatcher(
+				DirectedMatcher.DEFAULT, ForkJoinPool.commonPool(), true);
+		int matched = 0, empty = 0;
+		for (int seed = 0; seed < 300; seed++) {
+			Random rnd = new Random(seed);
+			PlaceGraph agent = new PlaceGraph(rnd, 1 + rnd.nextInt(2),
+					1 + rnd.nextInt(7), false);
+			PlaceGraph redex = new PlaceGraph(rnd, 1 + rnd.nextInt(2),
+					1 + rnd.nextInt(3), true);
+			List<String> expected = standardForms(Matcher.DEFAULT.match(
+					agent.standard, redex.standard));
+			DirectedMatcher m = DirectedMatcher.DEFAULT;
+			assertEquals("seed " + seed, expected, directedForms(m.match(
+					agent.directed, redex.directed)));
+			assertEquals("seed " + seed, expected.size(), m.count(
+					agent.directed, redex.directed));
+			assertEquals("seed " + seed, !expected.isEmpty(), m.exists(
+					agent.directed, redex.directed));
+			assertEquals("seed " + seed, expected, directedForms(parallel
+					.match(agent.directed, redex.directed)));
+			if (expected.isEmpty())
+				empty++;
+			else
+				matched++;
+		}
+		assertTrue(matched > 100);
+		assertTrue(empty > 30);
+	}
+
+	/*
+	 * S1 and S2 send to R1, S3 to R2 and S4 to nobody, i.e. to an edge of
+	 * its own: S1 | S2 | S3 | S4 | R1 | R2.
+	 */
+	private static DirectedBigraph senders() {
+		DirectedBigraphBuilder bb = new DirectedBigraphBuilder(SIGNATURE);
+		Root r = bb.addRoot();
+		Node r1 = bb.addNode("R", r);
+		Node r2 = bb.addNode("R", r);
+		// in ports are claimed by the builder when they are first linked
+		bb.relink(r1.getInPort(0), bb.addNode("S", r).getOutPort(0), bb
+				.addNode("S", r).getOutPort(0));
+		bb.relink(r2.getInPort(0), bb.addNode("S", r).getOutPort(0));
+		bb.addNode("S", r);
+		return bb.makeBigraph();
+	}
+
+	private static void assertMatches(int expected, DirectedBigraph agent,
+			DirectedBigraph redex) {
+		DirectedMatcher m = DirectedMatcher.DEFAULT;
+		assertEquals(expected, count(m.match(agent, redex)));
+		assertEquals(expected, m.count(agent, redex));
+		assertEquals(expected > 0, m.exists(agent, redex));
+		assertEquals(expected, count(new DirectedParallelMatcher(m,
+				ForkJoinPool.commonPool(), true).match(agent, redex)));
+	}
+
+	/*
+	 * The in port of a receiver in the redex takes no link from the context
+	 * unless a descending name of the redex exposes it.
+	 */
+	@Test
+	public void matchesInPortsExposedOrNot() {
+		DirectedBigraph agent = senders();
+
+		// S -> R: only S3 is the sole sender of its receiver
+		DirectedBigraphBuilder rb = new DirectedBigraphBuilder(SIGNATURE);
+		Root r = rb.addRoot();
+		Node rcv = rb.addNode("R", r);
+		rb.relink(rcv.getInPort(0), rb.addNode("S", r).getOutPort(0));
+		assertMatches(1, agent, rb.makeBigraph());
+
+		// the same, exposing the in port: any sender with its receiver
+		rb = new DirectedBigraphBuilder(SIGNATURE);
+		r = rb.addRoot();
+		rcv = rb.addNode("R", r);
+		rb.relink(rcv.getInPort(0), rb.addNode("S", r).getOutPort(0));
+		rb.addDescNameOuterInterface(0, "d", rcv.getInPort(0));
+		assertMatches(3, agent, rb.makeBigraph());
+
+		// R alone: every receiver has some sender
+		rb = new DirectedBigraphBuilder(SIGNATURE);
+		rb.addNode("R", rb.addRoot());
+		assertMatches(0, agent, rb.makeBigraph());
+
+		// R exposing its in port: each receiver
+		rb = new DirectedBigraphBuilder(SIGNATURE);
+		rcv = rb.addNode("R", rb.addRoot());
+		rb.addDescNameOuterInterface(0, "d", rcv.getInPort(0));
+		assertMatches(2, agent, rb.makeBigraph());
+	}
+
+	/*
+	 * The out port of a sender in the redex is linked to any handle of the
+	 * context through an ascending name, and to nothing else through an
+	 * edge.
+	 */
+	@Test
+	public void matchesOutPortsThroughNamesOrEdges() {
+		DirectedBigraph agent = senders();
+
+		DirectedBigraphBuilder rb = new DirectedBigraphBuilder(SIGNATURE);
+		Root r = rb.addRoot();
+		rb.addNode("S", r, rb.addAscNameOuterInterface(0, "x"));
+		assertMatches(4, agent, rb.makeBigraph());
+
+		rb = new DirectedBigraphBuilder(SIGNATURE);
+		rb.addNode("S", rb.addRoot());
+		assertMatches(1, agent, rb.makeBigraph());
+
+		// two senders sharing an edge: only S1 and S2 share their receiver
+		rb = new DirectedBigraphBuilder(SIGNATURE);
+		r = rb.addRoot();
+		Node s = rb.addNode("S", r);
+		rb.addNode("S", r, s.getOutPort(0).getHandle());
+		assertMatches(0, agent, rb.makeBigraph());
+
+		rb = new DirectedBigraphBuilder(SIGNATURE);
+		r = rb.addRoot();
+		OuterName x = rb.addAscNameOuterInterface(0, "x");
+		rb.addNode("S", r, x);
+		rb.addNode("S", r, x);
+		assertMatches(2, agent, rb.makeBigraph());
+	}
+}
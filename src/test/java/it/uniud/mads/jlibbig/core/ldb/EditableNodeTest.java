@@ -0,0 +1,43 @@
+package it.uniud.mads.jlibbig.core.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import it.uniud.mads.jlibbig.core.attachedProperties.Replicating;
+import it.uniud.mads.jlibbig.core.attachedProperties.ReplicationListener;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class EditableNodeTest {
+
+	private static final DirectedControl R = new DirectedControl("R", true,
+			0, 1);
+
+	// listeners are allocated on first use, in ports have none before
+	@Test
+	public void replicatesInPortsWithoutListeners() {
+		EditableNode n = new EditableNode(R);
+		assertNotNull(n.getInPort(0).getEditable().replicate());
+	}
+
+	@Test
+	public void tellsTheListenersOfTheNodeOfInPortReplicas() {
+		EditableNode n = new EditableNode(R);
+		final List<Replicating> told = new ArrayList<>();
+		ReplicationListener l = new ReplicationListener() {
+			@Override
+			public void onReplicated(Replicating original, Replicating copy) {
+				told.add(original);
+			}
+		};
+		EditableNode.EditableInPort p = n.getInPort(0).getEditable();
+		p.registerListener(l);
+		assertTrue(n.isListenerRegistered(l));
+		p.replicate();
+		n.replicate();
+		assertEquals(Arrays.<Replicating> asList(p, n), told);
+	}
+}
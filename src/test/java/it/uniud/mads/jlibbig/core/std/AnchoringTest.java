@@ -0,0 +1,156 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class AnchoringTest {
+
+	@Test
+	public void findsTheMatchesSatisfyingAnchorsAndPlacements() {
+		Matcher[] ms = { Matcher.DEFAULT, BacktrackingMatcher.DEFAULT };
+		int compared = 0;
+		for (int seed = 0; seed < 300; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					seed % 3 != 0);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (RandomBigraphs.tooMany(agent, redex))
+				continue;
+			List<Parent> parents = RandomBigraphs.parentsOf(agent);
+			List<Parent> anchors = null;
+			if (seed % 4 != 0) {
+				anchors = new ArrayList<>();
+				for (int k = 1 + rnd.nextInt(2); k > 0; k--) {
+					anchors.add(parents.get(rnd.nextInt(parents.size())));
+				}
+			}
+			Map<Node, List<Node>> placements = null;
+			if (seed % 4 != 1) {
+				List<Node> images = new ArrayList<>();
+				for (Parent p : parents) {
+					if (p.isNode() && rnd.nextBoolean())
+						images.add((Node) p);
+				}
+				List<Node> rs = new ArrayList<>();
+				for (Parent p : RandomBigraphs.parentsOf(redex)) {
+					if (p.isNode())
+						rs.add((Node) p);
+				}
+				placements = Collections.singletonMap(
+						rs.get(rnd.nextInt(rs.size())), images);
+			}
+			Set<Parent> region = regionOf(anchors, parents);
+			List<String> expected = new ArrayList<>();
+			for (Match m : Matcher.DEFAULT.match(agent, redex)) {
+				if (satisfies(m, region, placements))
+					expected.add(RandomBigraphs.keyOf(m));
+			}
+			Collections.sort(expected);
+			for (Matcher m : ms) {
+				assertEquals("seed " + seed, expected,
+						RandomBigraphs.keysOf(m.match(agent, redex, anchors,
+								placements)));
+			}
+			compared += expected.size();
+		}
+		assertTrue(compared > 50);
+	}
+
+	/*
+	 * D[D[C]] | D[C]: D[C] occurs on the inner D of the first tree, hosted by
+	 * the outer one, and on the second tree, hosted by the root.
+	 */
+	@Test
+	public void confinesMatchesToTheAnchoredSubtree() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		ab.addNode("C", ab.addNode("D", ab.addNode("D", r)));
+		ab.addNode("C", ab.addNode("D", r));
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addNode("C", rb.addNode("D", rb.addRoot()));
+		Bigraph redex = rb.makeBigraph();
+		// bigraphs own copies of the entities of their builders
+		r = agent.getRoots().get(0);
+		Node outer = null, inner = null, other = null;
+		for (Child c : r.getChildren()) {
+			Node n = (Node) c;
+			Node m = (Node) n.getChildren().iterator().next();
+			if (m.getControl().getName().equals("D")) {
+				outer = n;
+				inner = m;
+			} else {
+				other = n;
+			}
+		}
+		Node d = (Node) redex.getRoots().get(0).getChildren().iterator()
+				.next();
+
+		Matcher[] ms = { Matcher.DEFAULT, BacktrackingMatcher.DEFAULT };
+		for (Matcher m : ms) {
+			assertEquals(2, count(m, agent, redex, null, null));
+			assertEquals(2, count(m, agent, redex, Arrays.asList(r), null));
+			assertEquals(1, count(m, agent, redex, Arrays.asList(outer), null));
+			// the occurrence on inner is hosted by outer, above the anchor
+			assertEquals(0, count(m, agent, redex, Arrays.asList(inner), null));
+			assertEquals(1, count(m, agent, redex, null,
+					Collections.singletonMap(d, Arrays.asList(other))));
+			assertEquals(1, count(m, agent, redex, Arrays.asList(outer),
+					Collections.singletonMap(d, Arrays.asList(inner))));
+			assertEquals(0, count(m, agent, redex, Arrays.asList(outer),
+					Collections.singletonMap(d, Arrays.asList(other))));
+		}
+	}
+
+	private static int count(Matcher m, Bigraph agent, Bigraph redex,
+			List<? extends Parent> anchors, Map<Node, List<Node>> placements) {
+		return RandomBigraphs.count(m.match(agent, redex, anchors, placements));
+	}
+
+	// the anchors and their descendants
+	private static Set<Parent> regionOf(List<Parent> anchors,
+			List<Parent> parents) {
+		if (anchors == null)
+			return new HashSet<>(parents);
+		Set<Parent> region = new HashSet<>();
+		Deque<Parent> q = new ArrayDeque<>(anchors);
+		while (!q.isEmpty()) {
+			Parent p = q.poll();
+			if (region.add(p)) {
+				for (Child c : p.getChildren()) {
+					if (c.isNode())
+						q.add((Node) c);
+				}
+			}
+		}
+		return region;
+	}
+
+	private static boolean satisfies(Match m, Set<Parent> region,
+			Map<Node, List<Node>> placements) {
+		Matcher.Embedding emb = m.getEmbedding();
+		Bigraph agent = m.getSourceAgent();
+		List<Parent> parents = new ArrayList<Parent>(agent.getRoots());
+		parents.addAll(agent.getNodes());
+		for (Root r : m.getSourceRedex().getRoots()) {
+			for (Parent p : parents) {
+				if (emb.isPlaced(p, r) && !region.contains(p))
+					return false;
+			}
+		}
+		if (placements != null) {
+			for (Map.Entry<Node, List<Node>> e : placements.entrySet()) {
+				for (Node n : agent.getNodes()) {
+					if (emb.isPlaced(n, e.getKey())
+							&& !e.getValue().contains(n))
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,84 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class BacktrackingMatcherTest {
+
+	@Test
+	public void findsTheMatchesOfTheCspMatcher() {
+		int compared = 0;
+		for (int seed = 0; seed < 300; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					seed % 3 != 0);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (RandomBigraphs.tooMany(agent, redex))
+				continue;
+			List<String> expected = RandomBigraphs.keysOf(Matcher.DEFAULT
+					.match(agent, redex));
+			List<String> actual = RandomBigraphs
+					.keysOf(BacktrackingMatcher.DEFAULT.match(agent, redex));
+			assertEquals("seed " + seed, expected, actual);
+			assertEquals("seed " + seed, expected.size(),
+					BacktrackingMatcher.DEFAULT.count(agent, redex));
+			compared += expected.size();
+		}
+		// the random pairs are not all trivial
+		assertTrue(compared > 300);
+	}
+
+	/*
+	 * D[C | -] in D[C] | D[C | C] | D occurs once on the first D and twice on
+	 * the second, once for each C.
+	 */
+	@Test
+	public void matchesPlacesOfAHandBuiltAgent() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		ab.addNode("C", ab.addNode("D", r));
+		Node d = ab.addNode("D", r);
+		ab.addNode("C", d);
+		ab.addNode("C", d);
+		ab.addNode("D", r);
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		d = rb.addNode("D", rb.addRoot());
+		rb.addNode("C", d);
+		rb.addSite(d);
+		Bigraph redex = rb.makeBigraph();
+		assertEquals(3, BacktrackingMatcher.DEFAULT.count(agent, redex));
+		assertEquals(3, RandomBigraphs.count(BacktrackingMatcher.DEFAULT
+				.match(agent, redex)));
+	}
+
+	/*
+	 * A(x) | A(x) | A(e) | A(e) | A(f), where e and f are edges: A(y) occurs
+	 * on every A, whereas an A on an edge of its own only on the last one,
+	 * since x is an outer name and e has a point outside the redex.
+	 */
+	@Test
+	public void matchesLinksOfAHandBuiltAgent() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName x = ab.addOuterName("x");
+		Root r = ab.addRoot();
+		ab.addNode("A", r, x);
+		ab.addNode("A", r, x);
+		Node a = ab.addNode("A", r);
+		ab.addNode("A", r, a.getPort(0).getHandle());
+		ab.addNode("A", r);
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addNode("A", rb.addRoot(), rb.addOuterName("y"));
+		Bigraph open = rb.makeBigraph();
+		rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addNode("A", rb.addRoot());
+		Bigraph closed = rb.makeBigraph();
+		assertEquals(5, BacktrackingMatcher.DEFAULT.count(agent, open));
+		assertEquals(1, BacktrackingMatcher.DEFAULT.count(agent, closed));
+	}
+}
@@ -0,0 +1,97 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class BigraphIndexTest {
+
+	// A(y)[-] turns into B(y,-)[-] | D
+	private static RewritingRule rule() {
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName y = rb.addOuterName("y");
+		rb.addSite(rb.addNode("A", rb.addRoot(), y));
+		BigraphBuilder qb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		y = qb.addOuterName("y");
+		Root r = qb.addRoot();
+		qb.addSite(qb.addNode("B", r, y, null));
+		qb.addNode("D", r);
+		return new RewritingRule(rb.makeBigraph(), qb.makeBigraph(), 0);
+	}
+
+	private static int depthOf(Node n) {
+		int d = 1;
+		for (Parent p = n.getParent(); p.isNode(); p = ((Node) p).getParent()) {
+			d++;
+		}
+		return d;
+	}
+
+	// compares the indices of the bigraph with a visit of its entities
+	private static void check(String msg, Bigraph big) {
+		int depth = 0;
+		for (Node n : big.getNodes()) {
+			depth = Math.max(depth, depthOf(n));
+		}
+		for (Control c : big.getSignature()) {
+			Set<Node> expected = new HashSet<>();
+			for (Node n : big.getNodes()) {
+				if (n.getControl() == c)
+					expected.add(n);
+			}
+			assertEquals(msg, expected, new HashSet<>(big.getNodes(c)));
+			assertEquals(msg, expected.size(), big.getNodes(c).size());
+		}
+		for (int d = 1; d <= depth + 1; d++) {
+			Set<Node> expected = new HashSet<>();
+			for (Node n : big.getNodes()) {
+				if (depthOf(n) == d)
+					expected.add(n);
+			}
+			assertEquals(msg, expected, new HashSet<>(big.getNodesAtDepth(d)));
+		}
+		int degree = 0;
+		List<Handle> handles = new ArrayList<>(big.getOuterNames());
+		handles.addAll(big.getEdges());
+		for (Handle h : handles) {
+			degree = Math.max(degree, h.getPoints().size());
+		}
+		for (int k = 0; k <= degree + 1; k++) {
+			Set<Handle> expected = new HashSet<>();
+			for (Handle h : handles) {
+				if (h.getPoints().size() == k)
+					expected.add(h);
+			}
+			assertEquals(msg, expected, new HashSet<>(big.getHandles(k)));
+		}
+	}
+
+	@Test
+	public void indicesAgreeWithTheEntities() {
+		RewritingRule rule = rule();
+		int results = 0;
+		for (int seed = 0; seed < 100; seed++) {
+			Random rnd = new Random(seed);
+			check("seed " + seed, RandomBigraphs.agent(rnd,
+					5 + rnd.nextInt(20), false));
+			// matches can be built only in ground agents (cf. MatcherTest)
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			check("seed " + seed, agent);
+			for (Bigraph b : rule.apply(agent)) {
+				check("seed " + seed, b);
+				results++;
+			}
+			for (Match m : Matcher.DEFAULT.match(agent, rule.getRedex())) {
+				check("seed " + seed, m.getContext());
+				check("seed " + seed, m.getParam());
+				check("seed " + seed, Bigraph.compose(m.getContext(),
+						Bigraph.compose(m.getRedex(), m.getParam())));
+			}
+		}
+		assertTrue(results > 100);
+	}
+}
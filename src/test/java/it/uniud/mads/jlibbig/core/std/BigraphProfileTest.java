@@ -0,0 +1,107 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class BigraphProfileTest {
+
+	/*
+	 * Matchers redefining areMatchable are not filtered (cf.
+	 * Matcher#mayOccur), hence they tell the matches the filter may have
+	 * ruled out.
+	 */
+	@Test
+	public void neverRulesOutRedexesThatOccur() {
+		Matcher unfiltered = new Matcher() {
+			@Override
+			protected boolean areMatchable(Bigraph agent, Node fromAgent,
+					Bigraph redex, Node fromRedex) {
+				return super.areMatchable(agent, fromAgent, redex, fromRedex);
+			}
+		};
+		AgentMatcher agentUnfiltered = new AgentMatcher() {
+			@Override
+			protected boolean areMatchable(Bigraph agent, Node fromAgent,
+					Bigraph redex, Node fromRedex) {
+				return super.areMatchable(agent, fromAgent, redex, fromRedex);
+			}
+		};
+		int ruledOut = 0, matched = 0;
+		for (int seed = 0; seed < 400; seed++) {
+			Random rnd = new Random(seed);
+			boolean ground = seed % 2 == 0;
+			Bigraph agent = RandomBigraphs.agent(rnd, 3 + rnd.nextInt(15),
+					ground);
+			CompiledRedex redex = new CompiledRedex(RandomBigraphs.redex(rnd));
+			if (RandomBigraphs.tooMany(unfiltered, agent, redex.redex))
+				continue;
+			int count = unfiltered.count(agent, redex.redex);
+			if (!Matcher.DEFAULT.mayOccur(agent, redex)) {
+				assertEquals("seed " + seed, 0, count);
+				ruledOut++;
+			} else if (count > 0) {
+				matched++;
+			}
+			assertEquals("seed " + seed, count,
+					Matcher.DEFAULT.count(agent, redex.redex));
+			if (!ground)
+				continue;
+			int agentCount = RandomBigraphs.count(agentUnfiltered.match(agent,
+					redex.redex));
+			if (!AgentMatcher.DEFAULT.mayOccur(agent, redex))
+				assertEquals("seed " + seed, 0, agentCount);
+			assertEquals("seed " + seed, agentCount,
+					RandomBigraphs.count(AgentMatcher.DEFAULT.match(agent,
+					redex.redex)));
+		}
+		assertTrue(ruledOut > 100);
+		assertTrue(matched > 30);
+	}
+
+	/*
+	 * The agent D lacks the C of the redex: matchers extending the standard
+	 * ones rule it out unless they redefine which nodes are matchable, as
+	 * the one matching nodes with the same arity does.
+	 */
+	@Test
+	public void filtersSubclassesKeepingTheMatchableNodes() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		ab.addNode("D", ab.addRoot());
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addNode("C", rb.addRoot());
+		CompiledRedex redex = new CompiledRedex(rb.makeBigraph());
+
+		Matcher[] filtered = { new Matcher() {
+		}, new BacktrackingMatcher() {
+		}, new WeightedMatcher() {
+			@Override
+			protected int matchingWeight(Bigraph agent, Node agentNode,
+					Bigraph redex, Node redexNode) {
+				return 1;
+			}
+		} };
+		for (Matcher m : filtered) {
+			assertFalse(m.mayOccur(agent, redex));
+			assertEquals(0, m.count(agent, redex.redex));
+		}
+		assertFalse(new AgentMatcher() {
+		}.mayOccur(agent, redex));
+
+		Matcher byArity = new Matcher() {
+			@Override
+			protected boolean areMatchable(Bigraph agent, Node fromAgent,
+					Bigraph redex, Node fromRedex) {
+				return fromAgent.getControl().getArity() == fromRedex
+						.getControl().getArity();
+			}
+		};
+		assertTrue(byArity.mayOccur(agent, redex));
+		assertEquals(1, byArity.count(agent, redex.redex));
+	}
+}
@@ -0,0 +1,45 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import it.uniud.mads.jlibbig.core.util.NameGenerator;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Times the replication of a large agent, where every node and edge of the
+ * copy is given a fresh name, and the generation of a single name.
+ *
+ * Run with {@code gradle jmh -Pbench=CloneBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 3, jvmArgsAppend = { "-Xms3g", "-Xmx3g" })
+@State(Scope.Benchmark)
+public class CloneBenchmark {
+
+	@Param({ "50000" })
+	public int nodes;
+
+	private Bigraph agent;
+
+	@Setup
+	public void setUp() {
+		agent = MatchExtractionBenchmark.agent(
+				MatchExtractionBenchmark.signature(), new Random(0), nodes);
+	}
+
+	@Benchmark
+	public Bigraph cloneAgent() {
+		return agent.clone();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String generateName() {
+		return NameGenerator.DEFAULT.generate();
+	}
+}
@@ -0,0 +1,90 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class CompactBigraphTest {
+
+	@Test
+	public void convertsBackToAnEquivalentBigraph() {
+		for (int seed = 0; seed < 100; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph big = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					seed % 2 == 0);
+			CompactBigraph compact = new CompactBigraph(big);
+			assertEquals("seed " + seed, RandomBigraphs.canonicalForm(big),
+					RandomBigraphs.canonicalForm(compact.toBigraph()));
+			assertEquals(big.getNodes().size(), compact.getNodes().size());
+			assertEquals(big.getSites().size(), compact.getSites().size());
+			assertEquals(big.getInnerNames().size(), compact.getInnerNames()
+					.size());
+		}
+	}
+
+	@Test
+	public void printsTheNamesOfTheOriginalEntities() {
+		Bigraph big = RandomBigraphs.agent(new Random(0), 50, true);
+		Set<String> nodes = new HashSet<>();
+		for (Node n : big.getNodes()) {
+			nodes.add(n.toString());
+		}
+		Set<String> edges = new HashSet<>();
+		for (Edge e : big.getEdges()) {
+			if (!e.getPoints().isEmpty())
+				edges.add(e.toString());
+		}
+		CompactBigraph compact = new CompactBigraph(big);
+		Set<String> cnodes = new HashSet<>();
+		for (it.uniud.mads.jlibbig.core.Node<Control> n : compact.getNodes()) {
+			cnodes.add(n.toString());
+		}
+		Set<String> cedges = new HashSet<>();
+		for (it.uniud.mads.jlibbig.core.Edge e : compact.getEdges()) {
+			cedges.add(e.toString());
+		}
+		assertEquals(nodes, cnodes);
+		assertEquals(edges, cedges);
+	}
+
+	/*
+	 * D[A(x) | C] | B(x, e), where the edge e links the second port of B
+	 * alone: nodes are numbered breadth first, hence D and B come before A
+	 * and C.
+	 */
+	@Test
+	public void storesAHandBuiltBigraph() {
+		BigraphBuilder bb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName x = bb.addOuterName("x");
+		Root r = bb.addRoot();
+		Node d = bb.addNode("D", r);
+		bb.addNode("A", d, x);
+		bb.addNode("C", d);
+		bb.addNode("B", r, x, null);
+		Bigraph big = bb.makeBigraph();
+		CompactBigraph compact = new CompactBigraph(big);
+		assertEquals(1, compact.getRoots().size());
+		assertEquals(2, compact.getRoots().get(0).getChildren().size());
+		assertEquals(0, compact.getSites().size());
+		List<String> controls = new ArrayList<>();
+		for (it.uniud.mads.jlibbig.core.Node<Control> n : compact.getNodes()) {
+			controls.add(n.getControl().getName());
+		}
+		assertEquals(new HashSet<>(Arrays.asList("D", "B")), new HashSet<>(
+				controls.subList(0, 2)));
+		assertEquals(new HashSet<>(Arrays.asList("A", "C")), new HashSet<>(
+				controls.subList(2, 4)));
+		assertEquals(1, compact.getOuterNames().size());
+		it.uniud.mads.jlibbig.core.OuterName cx = compact.getOuterNames()
+				.iterator().next();
+		assertEquals("x", cx.getName());
+		assertEquals(2, cx.getPoints().size());
+		assertEquals(1, compact.getEdges().size());
+		assertEquals(1, compact.getEdges().iterator().next().getPoints()
+				.size());
+		assertEquals(RandomBigraphs.canonicalForm(big),
+				RandomBigraphs.canonicalForm(compact.toBigraph()));
+	}
+}
@@ -0,0 +1,155 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+
+import org.junit.Test;
+
+public class CompiledRedexTest {
+
+	@Test
+	public void canBeMatchedAgainstSeveralAgents() {
+		int compared = 0;
+		for (int seed = 0; seed < 100; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			CompiledRedex compiled = new CompiledRedex(redex);
+			for (int k = 0; k < 4; k++) {
+				Bigraph agent = RandomBigraphs.agent(rnd,
+						5 + rnd.nextInt(20), rnd.nextBoolean());
+				if (RandomBigraphs.tooMany(agent, redex))
+					continue;
+				List<String> expected = RandomBigraphs.keysOf(Matcher.DEFAULT
+						.match(agent, redex));
+				assertEquals("seed " + seed, expected, RandomBigraphs
+						.keysOf(Matcher.DEFAULT.match(agent, compiled)));
+				assertEquals("seed " + seed, expected,
+						RandomBigraphs.keysOf(BacktrackingMatcher.DEFAULT
+								.match(agent, compiled)));
+				compared += expected.size();
+			}
+		}
+		assertTrue(compared > 300);
+	}
+
+	@Test
+	public void countsTheNodesOfEachControl() {
+		for (int seed = 0; seed < 50; seed++) {
+			Bigraph redex = RandomBigraphs.redex(new Random(seed));
+			CompiledRedex compiled = new CompiledRedex(redex);
+			assertEquals(redex.getNodes().size(), compiled.nodes.size());
+			for (Control c : RandomBigraphs.SIGNATURE) {
+				int n = 0;
+				for (Node v : redex.getNodes()) {
+					if (v.getControl().equals(c))
+						n++;
+				}
+				assertEquals("seed " + seed, n, compiled.countNodes(c));
+			}
+			// parents come before their children
+			for (Node v : compiled.nodes) {
+				Parent p = v.getParent();
+				if (p.isNode())
+					assertTrue(compiled.index.get(p) < compiled.index.get(v));
+			}
+		}
+	}
+
+	@Test
+	public void symmetryBreakingKeepsOneMatchForEachOccurrence() {
+		MatcherOptions opts = MatcherOptions.DEFAULT.withSymmetryBreaking(true);
+		Matcher[] ms = { new Matcher(opts), new BacktrackingMatcher(opts) };
+		int symmetric = 0;
+		for (int seed = 0; seed < 600; seed++) {
+			Random rnd = new Random(seed);
+			boolean plain = seed % 2 == 0;
+			Bigraph agent = RandomBigraphs.agent(rnd,
+					(plain ? 5 : 20) + rnd.nextInt(20), seed % 3 != 0);
+			Bigraph redex = plain ? RandomBigraphs.redex(rnd)
+					: symmetricRedex(rnd);
+			if (RandomBigraphs.tooMany(agent, redex))
+				continue;
+			Set<String> expected = new TreeSet<>();
+			for (Match m : Matcher.DEFAULT.match(agent, redex)) {
+				expected.add(RandomBigraphs.occurrenceOf(m));
+			}
+			for (Matcher m : ms) {
+				List<String> actual = new ArrayList<>();
+				for (Match n : m.match(agent, redex)) {
+					actual.add(RandomBigraphs.occurrenceOf(n));
+				}
+				Collections.sort(actual);
+				assertEquals("seed " + seed, new ArrayList<>(expected), actual);
+				assertEquals("seed " + seed, expected.size(),
+						m.count(agent, redex));
+			}
+			if (new CompiledRedex(redex).hasSymmetries() && !expected.isEmpty())
+				symmetric++;
+		}
+		assertTrue(symmetric > 10);
+	}
+
+	/*
+	 * D | D | D has the six automorphisms permuting its leaves: in an agent
+	 * with four D there are 4 * 3 * 2 matches but only 4 occurrences, one for
+	 * each D left out.
+	 */
+	@Test
+	public void symmetryBreakingKeepsOneMatchForEachChoiceOfLeaves() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		for (int k = 0; k < 4; k++) {
+			ab.addNode("D", r);
+		}
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		r = rb.addRoot();
+		for (int k = 0; k < 3; k++) {
+			rb.addNode("D", r);
+		}
+		Bigraph redex = rb.makeBigraph();
+		assertTrue(new CompiledRedex(redex).hasSymmetries());
+		assertEquals(24, Matcher.DEFAULT.count(agent, redex));
+
+		MatcherOptions opts = MatcherOptions.DEFAULT.withSymmetryBreaking(true);
+		Matcher[] ms = { new Matcher(opts), new BacktrackingMatcher(opts) };
+		for (Matcher m : ms) {
+			assertEquals(4, m.count(agent, redex));
+			Set<String> occurrences = new HashSet<>();
+			for (Match n : m.match(agent, redex)) {
+				occurrences.add(RandomBigraphs.occurrenceOf(n));
+			}
+			assertEquals(4, occurrences.size());
+		}
+	}
+
+	/*
+	 * A root with two or three copies of the same node, possibly with a site;
+	 * the copies have no sites, which would tell them apart.
+	 */
+	private static Bigraph symmetricRedex(Random rnd) {
+		BigraphBuilder bb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName y = bb.addOuterName("y");
+		Root r = bb.addRoot();
+		String c = String.valueOf("ABD".charAt(rnd.nextInt(3)));
+		boolean child = rnd.nextInt(4) == 0;
+		for (int k = (rnd.nextInt(4) == 0) ? 3 : 2; k > 0; k--) {
+			Node n;
+			if (c.equals("A"))
+				n = bb.addNode(c, r, y);
+			else if (c.equals("B"))
+				n = bb.addNode(c, r, y, null);
+			else
+				n = bb.addNode(c, r);
+			if (child)
+				bb.addNode("D", n);
+		}
+		if (rnd.nextBoolean())
+			bb.addSite(r);
+		return bb.makeBigraph();
+	}
+}
@@ -0,0 +1,150 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import it.uniud.mads.jlibbig.core.MatchListener;
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+import org.junit.Test;
+
+public class IncrementalMatcherTest {
+
+	// A(y)[-] turns into B(y,-)[-]
+	private static RewritingRule swap() {
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName y = rb.addOuterName("y");
+		rb.addSite(rb.addNode("A", rb.addRoot(), y));
+		BigraphBuilder qb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		y = qb.addOuterName("y");
+		qb.addSite(qb.addNode("B", qb.addRoot(), y, null));
+		return new RewritingRule(rb.makeBigraph(), qb.makeBigraph(), 0);
+	}
+
+	// D[-] turns into D[D[-] | C]
+	private static RewritingRule grow() {
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		BigraphBuilder qb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Node d = qb.addNode("D", qb.addRoot());
+		qb.addSite(qb.addNode("D", d));
+		qb.addNode("C", d);
+		return new RewritingRule(rb.makeBigraph(), qb.makeBigraph(), 0);
+	}
+
+	@Test
+	public void keepsTheMatchesOfTheMatcher() {
+		RewritingRule[] rules = { swap(), grow() };
+		IncrementalMatcher[] ims = new IncrementalMatcher[rules.length];
+		for (int i = 0; i < rules.length; i++) {
+			ims[i] = new IncrementalMatcher(rules[i]);
+		}
+		int steps = 0;
+		for (int seed = 0; seed < 60; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			IncrementalMatcher.MatchSet[] sets = new IncrementalMatcher.MatchSet[rules.length];
+			for (int i = 0; i < rules.length; i++) {
+				sets[i] = ims[i].match(agent);
+			}
+			for (int k = 0; k < 8; k++) {
+				int r = rnd.nextInt(rules.length);
+				if (sets[r].isEmpty())
+					r = 1 - r;
+				if (sets[r].isEmpty())
+					break;
+				Match applied = sets[r].get(rnd.nextInt(sets[r].size()));
+				RewritingRule.Rewrite rw = rules[r].rewrite(applied);
+				Bigraph result = rw.getResult();
+				for (int i = 0; i < rules.length; i++) {
+					sets[i] = ims[i].rematch(sets[i], rw);
+					assertEquals("seed " + seed + " step " + k,
+							RandomBigraphs.keysOf(Matcher.DEFAULT.match(
+									result, rules[i].getRedex())),
+							RandomBigraphs.keysOf(sets[i]));
+				}
+				steps++;
+			}
+		}
+		assertTrue(steps > 200);
+	}
+
+	@Test
+	public void matchesDoNotKeepResultsAlive() {
+		RewritingRule rule = grow();
+		IncrementalMatcher im = new IncrementalMatcher(rule);
+		Bigraph agent = RandomBigraphs.agent(new Random(0), 20, true);
+		IncrementalMatcher.MatchSet set = im.match(agent);
+		RewritingRule.Rewrite rw = rule.rewrite(set.get(0));
+		IncrementalMatcher.MatchSet next = im.rematch(set, rw);
+		assertEquals(RandomBigraphs.keysOf(Matcher.DEFAULT.match(
+				rw.getResult(), rule.getRedex())), RandomBigraphs.keysOf(next));
+		WeakReference<Bigraph> ref = new WeakReference<>(rw.getResult());
+		rw = null;
+		next = null;
+		for (int k = 0; k < 20 && ref.get() != null; k++) {
+			System.gc();
+		}
+		assertNull(ref.get());
+	}
+
+	// counts the searches started
+	private static class Counter implements MatchListener {
+		int searches;
+
+		@Override
+		public void searchStarted(MatchStats stats) {
+			searches++;
+		}
+	}
+
+	/*
+	 * D | D[C] | A(x) | A(x): swapping either A leaves the matches of D
+	 * untouched, hence they are updated without any search, whichever
+	 * rewrites are carried out in between.
+	 */
+	@Test
+	public void rematchesAnyRewriteOfTheAgent() {
+		BigraphBuilder bb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName x = bb.addOuterName("x");
+		Root r = bb.addRoot();
+		bb.addNode("D", r);
+		bb.addNode("C", bb.addNode("D", r));
+		bb.addNode("A", r, x);
+		bb.addNode("A", r, x);
+		Bigraph agent = bb.makeBigraph();
+
+		RewritingRule swap = swap(), grow = grow();
+		Counter counter = new Counter();
+		IncrementalMatcher im = new IncrementalMatcher(new Matcher(
+				MatcherOptions.DEFAULT.withListener(counter)),
+				grow.getCompiledRedex());
+		IncrementalMatcher.MatchSet ds = im.match(agent);
+		assertEquals(2, ds.size());
+		IncrementalMatcher.MatchSet as = new IncrementalMatcher(swap)
+				.match(agent);
+		assertEquals(2, as.size());
+
+		// two candidate successors, the first one is picked
+		RewritingRule.Rewrite first = swap.rewrite(as.get(0));
+		RewritingRule.Rewrite second = swap.rewrite(as.get(1));
+		counter.searches = 0;
+		IncrementalMatcher.MatchSet next = im.rematch(ds, first);
+		assertEquals(0, counter.searches);
+		assertEquals(2, next.size());
+		assertEquals(RandomBigraphs.keysOf(Matcher.DEFAULT.match(
+				first.getResult(), grow.getRedex())),
+				RandomBigraphs.keysOf(next));
+		next = im.rematch(ds, second);
+		assertEquals(0, counter.searches);
+		assertEquals(RandomBigraphs.keysOf(Matcher.DEFAULT.match(
+				second.getResult(), grow.getRedex())),
+				RandomBigraphs.keysOf(next));
+	}
+}
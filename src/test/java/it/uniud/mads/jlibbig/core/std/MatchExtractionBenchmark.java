@@ -0,0 +1,108 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Times the matches of a redex made of a single node with two sites against
+ * random agents of growing size. The first match includes building and
+ * solving the model, whereas the following ones mostly read the solution
+ * and replicate the agent. Single runs are dominated by compilation and
+ * garbage collection, hence the benchmark is repeated in several forks.
+ *
+ * Run with {@code gradle jmh -Pbench=MatchExtractionBenchmark}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(value = 3, jvmArgsAppend = { "-Xms3g", "-Xmx3g" })
+@State(Scope.Benchmark)
+public class MatchExtractionBenchmark {
+
+	@Param({ "1000", "10000", "50000" })
+	public int nodes;
+
+	private Bigraph agent, redex;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Signature sig = signature();
+		agent = agent(sig, new Random(0), nodes);
+		BigraphBuilder bb = new BigraphBuilder(sig);
+		Node d = bb.addNode("D", bb.addRoot());
+		bb.addSite(d);
+		bb.addSite(d);
+		redex = bb.makeBigraph();
+	}
+
+	/**
+	 * A search that already found its first match.
+	 */
+	@State(Scope.Thread)
+	public static class Started {
+
+		private Iterator<? extends Match> matches;
+
+		@Setup(Level.Invocation)
+		public void start(MatchExtractionBenchmark b) {
+			matches = Matcher.DEFAULT.match(b.agent, b.redex).iterator();
+			matches.next();
+		}
+	}
+
+	@Benchmark
+	public Match first() {
+		return Matcher.DEFAULT.match(agent, redex).iterator().next();
+	}
+
+	@Benchmark
+	public Match next(Started s) {
+		return s.matches.next();
+	}
+
+	static Signature signature() {
+		SignatureBuilder sb = new SignatureBuilder();
+		sb.add("A", true, 1);
+		sb.add("B", true, 2);
+		sb.add("C", false, 0);
+		sb.add("D", true, 0);
+		return sb.makeSignature();
+	}
+
+	/*
+	 * A ground agent with a single root and the given number of nodes, each
+	 * placed under a random node already added; ports are linked to an outer
+	 * name or to the edge of some earlier port.
+	 */
+	static Bigraph agent(Signature sig, Random rnd, int nodes) {
+		BigraphBuilder bb = new BigraphBuilder(sig);
+		List<Parent> ps = new ArrayList<>();
+		ps.add(bb.addRoot());
+		List<Handle> hs = new ArrayList<>();
+		hs.add(bb.addOuterName("x"));
+		for (int i = 0; i < nodes; i++) {
+			Parent p = ps.get(rnd.nextInt(ps.size()));
+			Node n;
+			switch (rnd.nextInt(4)) {
+			case 0:
+				n = bb.addNode("A", p, hs.get(rnd.nextInt(hs.size())));
+				break;
+			case 1:
+				n = bb.addNode("B", p, hs.get(rnd.nextInt(hs.size())), null);
+				break;
+			case 2:
+				n = bb.addNode("C", p);
+				break;
+			default:
+				n = bb.addNode("D", p);
+			}
+			ps.add(n);
+			if (n.getControl().getArity() > 0 && rnd.nextInt(3) == 0)
+				hs.add(n.getPort(n.getControl().getArity() - 1).getHandle());
+		}
+		return bb.makeBigraph();
+	}
+}
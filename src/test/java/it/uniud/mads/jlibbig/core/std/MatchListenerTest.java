@@ -0,0 +1,146 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import it.uniud.mads.jlibbig.core.MatchListener;
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class MatchListenerTest {
+
+	// records the searches it is told of and checks the order of the events
+	private static class Recorder implements MatchListener {
+
+		final List<MatchStats> started = new ArrayList<>();
+		final List<MatchStats> ended = new ArrayList<>();
+
+		@Override
+		public void searchStarted(MatchStats stats) {
+			assertFalse(started.contains(stats));
+			started.add(stats);
+		}
+
+		@Override
+		public void solutionFound(MatchStats stats) {
+			assertTrue(started.contains(stats));
+			assertFalse(stats.isEnded());
+		}
+
+		@Override
+		public void matchExtracted(MatchStats stats) {
+			assertTrue(started.contains(stats));
+			assertTrue(stats.getMatches() <= stats.getSolutions());
+		}
+
+		@Override
+		public void searchEnded(MatchStats stats) {
+			assertFalse(ended.contains(stats));
+			ended.add(stats);
+		}
+	}
+
+	@Test
+	public void reportsEverySearchAndMatch() {
+		Recorder rec = new Recorder();
+		// a single search for each redex, hence a match for each extraction
+		MatcherOptions opts = MatcherOptions.DEFAULT.withDecomposition(false)
+				.withListener(rec);
+		Matcher[] ms = { new Matcher(opts), new BacktrackingMatcher(opts) };
+		int found = 0;
+		for (int seed = 0; seed < 200; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (RandomBigraphs.tooMany(agent, redex))
+				continue;
+			for (Matcher m : ms) {
+				rec.started.clear();
+				rec.ended.clear();
+				int count = 0;
+				for (Iterator<? extends Match> it = m.match(agent, redex)
+						.iterator(); it.hasNext(); it.next()) {
+					count++;
+				}
+				assertEquals("seed " + seed, rec.started, rec.ended);
+				long matches = 0;
+				for (MatchStats s : rec.ended) {
+					assertTrue(s.isEnded());
+					assertTrue(s.getMatcher() == m);
+					assertEquals(m instanceof BacktrackingMatcher,
+							s.getVariables() == 0);
+					assertTrue(s.getSolveTime() >= s.getLastSolveTime());
+					matches += s.getMatches();
+				}
+				assertEquals("seed " + seed, count, matches);
+				found += count;
+			}
+		}
+		assertTrue(found > 300);
+	}
+
+	@Test
+	public void searchesEndWhenNoMoreMatchesAreAskedFor() {
+		Recorder rec = new Recorder();
+		MatcherOptions opts = MatcherOptions.DEFAULT.withListener(rec);
+		Matcher[] ms = { new Matcher(opts), new BacktrackingMatcher(opts) };
+		int stopped = 0;
+		for (int seed = 0; seed < 200; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			for (Matcher m : ms) {
+				rec.started.clear();
+				rec.ended.clear();
+				if (m.count(agent, redex, 1) == 1) {
+					assertFalse(rec.started.isEmpty());
+					stopped++;
+				}
+				assertEquals("seed " + seed, rec.started, rec.ended);
+			}
+		}
+		assertTrue(stopped > 50);
+	}
+
+	/*
+	 * D[C | -] in D[C] | D[C | C] | D: a single search with three matches,
+	 * the one on the first D and one for each C of the second.
+	 */
+	@Test
+	public void reportsTheMatchesOfAHandBuiltAgent() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		ab.addNode("C", ab.addNode("D", r));
+		Node d = ab.addNode("D", r);
+		ab.addNode("C", d);
+		ab.addNode("C", d);
+		ab.addNode("D", r);
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		d = rb.addNode("D", rb.addRoot());
+		rb.addNode("C", d);
+		rb.addSite(d);
+		Bigraph redex = rb.makeBigraph();
+		Recorder rec = new Recorder();
+		MatcherOptions opts = MatcherOptions.DEFAULT.withListener(rec);
+		Matcher[] ms = { new Matcher(opts), new BacktrackingMatcher(opts) };
+		for (Matcher m : ms) {
+			rec.started.clear();
+			rec.ended.clear();
+			assertEquals(3, RandomBigraphs.count(m.match(agent, redex)));
+			assertEquals(1, rec.started.size());
+			assertEquals(rec.started, rec.ended);
+			MatchStats s = rec.ended.get(0);
+			assertTrue(s.getRedex() == redex);
+			assertEquals(3, s.getMatches());
+			assertEquals(3, s.getSolutions());
+		}
+	}
+}
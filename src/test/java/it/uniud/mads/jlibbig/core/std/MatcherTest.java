@@ -0,0 +1,266 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class MatcherTest {
+
+	/*
+	 * Agents are ground: matches leaving agent sites in the context can not
+	 * be built yet (cf. buildMatch).
+	 */
+	@Test
+	public void matchesComposeBackToTheAgent() {
+		int checked = 0;
+		for (int seed = 0; seed < 200; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (RandomBigraphs.tooMany(agent, redex))
+				continue;
+			String expected = RandomBigraphs.canonicalForm(agent);
+			for (Match m : Matcher.DEFAULT.match(agent, redex)) {
+				Bigraph big = Bigraph.compose(m.getContext(),
+						Bigraph.compose(m.getRedex(), m.getParam()));
+				assertEquals("seed " + seed, expected,
+						RandomBigraphs.canonicalForm(big));
+				checked++;
+			}
+		}
+		assertTrue(checked > 300);
+	}
+
+	/*
+	 * A(y) | - || D[-] with the inner name z linked to y: ports in the
+	 * parameter of either root may be linked to z, hence the redex can not
+	 * be matched one root at a time.
+	 */
+	@Test
+	public void innerNamesKeepTheRedexWhole() {
+		BigraphBuilder bb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName y = bb.addOuterName("y");
+		Root r = bb.addRoot();
+		bb.addNode("A", r, y);
+		bb.addSite(r);
+		bb.addSite(bb.addNode("D", bb.addRoot()));
+		bb.addInnerName("z", y);
+		Bigraph redex = bb.makeBigraph();
+		Matcher whole = Matcher.DEFAULT;
+		MatcherOptions split = MatcherOptions.DEFAULT.withDecomposition(true);
+		Matcher[] ms = { new Matcher(split), new BacktrackingMatcher(split) };
+		int found = 0;
+		for (int seed = 0; seed < 40; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(10),
+					true);
+			if (RandomBigraphs.tooMany(whole, agent, redex))
+				continue;
+			int count = whole.count(agent, redex);
+			List<String> expected = RandomBigraphs.keysOf(whole.match(agent,
+					redex));
+			for (Matcher m : ms) {
+				assertEquals("seed " + seed, count, m.count(agent, redex));
+				assertEquals("seed " + seed, expected,
+						RandomBigraphs.keysOf(m.match(agent, redex)));
+			}
+			found += count;
+		}
+		assertTrue(found > 50);
+	}
+
+	/*
+	 * Decomposition may change the order of the matches but not the matches;
+	 * only redexes with several components are split.
+	 */
+	@Test
+	public void decompositionFindsTheSameMatches() {
+		MatcherOptions split = MatcherOptions.DEFAULT.withDecomposition(true);
+		Matcher[] ms = { new Matcher(split), new BacktrackingMatcher(split) };
+		int compared = 0;
+		for (int seed = 0; seed < 2000; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (new CompiledRedex(redex).countComponents() < 2
+					|| RandomBigraphs.tooMany(agent, redex))
+				continue;
+			int count = Matcher.DEFAULT.count(agent, redex);
+			List<String> expected = RandomBigraphs.keysOf(Matcher.DEFAULT
+					.match(agent, redex));
+			for (Matcher m : ms) {
+				assertEquals("seed " + seed, count, m.count(agent, redex));
+				assertEquals("seed " + seed, expected,
+						RandomBigraphs.keysOf(m.match(agent, redex)));
+			}
+			compared++;
+		}
+		assertTrue(compared > 100);
+	}
+
+	/*
+	 * D[-] || D[-] in D[D] | D: each root goes on a different D, but not on
+	 * the outer and the inner D of the first tree together, since the inner
+	 * one would be in the parameter of the outer one.
+	 */
+	@Test
+	public void componentsOccupyDisjointPartsOfTheAgent() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		ab.addNode("D", ab.addNode("D", r));
+		ab.addNode("D", r);
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		Bigraph redex = rb.makeBigraph();
+		assertEquals(2, new CompiledRedex(redex).countComponents());
+		MatcherOptions split = MatcherOptions.DEFAULT.withDecomposition(true);
+		Matcher[] ms = { Matcher.DEFAULT, BacktrackingMatcher.DEFAULT,
+				new Matcher(split), new BacktrackingMatcher(split) };
+		for (Matcher m : ms) {
+			assertEquals(4, m.count(agent, redex));
+			assertEquals(4, RandomBigraphs.count(m.match(agent, redex)));
+		}
+	}
+
+	/*
+	 * The matchers based on a constraint solver share how their place
+	 * variables are allocated (cf. SparseModel); the agent matcher finds the
+	 * matches of the default one for redexes without inner names.
+	 */
+	@Test
+	public void agentMatcherFindsTheSameMatches() {
+		int compared = 0;
+		for (int seed = 0; seed < 300; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (!redex.getInnerNames().isEmpty()
+					|| RandomBigraphs.tooMany(agent, redex))
+				continue;
+			assertEquals("seed " + seed, RandomBigraphs.keysOf(Matcher.DEFAULT
+					.match(agent, redex)), RandomBigraphs
+					.keysOf(AgentMatcher.DEFAULT.match(agent, redex)));
+			compared++;
+		}
+		assertTrue(compared > 100);
+	}
+
+	/*
+	 * D[-] with the inner name z linked to y in D: no agent port can be
+	 * linked to z, hence some sums of the model are empty. The default
+	 * matcher asks each inner name of the redex to be linked to a port in
+	 * the parameter and finds no match; the agent matcher leaves z idle in
+	 * the parameter.
+	 */
+	@Test
+	public void solvesModelsWithEmptySums() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		ab.addNode("D", ab.addRoot());
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName y = rb.addOuterName("y");
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		rb.addInnerName("z", y);
+		Bigraph redex = rb.makeBigraph();
+		assertEquals(0, Matcher.DEFAULT.count(agent, redex));
+		assertEquals(0, BacktrackingMatcher.DEFAULT.count(agent, redex));
+		assertEquals(1,
+				RandomBigraphs.count(AgentMatcher.DEFAULT.match(agent, redex)));
+		assertEquals(1, RandomBigraphs.count(WeightedMatcher.DEFAULT.match(
+				agent, redex)));
+	}
+
+	@Test
+	public void countsTheMatchesItFinds() {
+		for (int seed = 0; seed < 200; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					seed % 3 != 0);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (RandomBigraphs.tooMany(agent, redex))
+				continue;
+			int count = Matcher.DEFAULT.count(agent, redex);
+			int found = 0;
+			for (Iterator<? extends Match> it = Matcher.DEFAULT.match(agent,
+					redex).iterator(); it.hasNext(); it.next()) {
+				found++;
+			}
+			assertEquals("seed " + seed, found, count);
+			assertEquals("seed " + seed, count > 0,
+					Matcher.DEFAULT.exists(agent, redex));
+		}
+	}
+
+	@Test
+	public void streamsTheMatchesItFinds() {
+		Matcher[] ms = { Matcher.DEFAULT, BacktrackingMatcher.DEFAULT };
+		int found = 0;
+		for (int seed = 0; seed < 200; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (RandomBigraphs.tooMany(agent, redex))
+				continue;
+			for (Matcher m : ms) {
+				List<String> expected = RandomBigraphs.keysOf(m.match(agent,
+						redex));
+				List<String> sequential = m.matchStream(agent, redex)
+						.map(RandomBigraphs::keyOf)
+						.collect(Collectors.toList());
+				List<String> parallel = m.matchStream(agent, redex)
+						.parallel().map(RandomBigraphs::keyOf)
+						.collect(Collectors.toList());
+				// the stream is ordered, also when split among threads
+				assertEquals("seed " + seed, sequential, parallel);
+				assertEquals("seed " + seed, expected.size(), m.matchStream(
+						agent, redex).parallel().count());
+				Collections.sort(sequential);
+				assertEquals("seed " + seed, expected, sequential);
+				found += expected.size();
+			}
+		}
+		assertTrue(found > 300);
+	}
+
+	@Test
+	public void splitsTheStreamInOrder() {
+		for (int seed = 0; seed < 200; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			CompiledRedex redex = new CompiledRedex(RandomBigraphs.redex(rnd));
+			if (redex.rns == 0 || !Matcher.DEFAULT.mayOccur(agent, redex)
+					|| RandomBigraphs.tooMany(agent, redex.redex))
+				continue;
+			final List<String> expected = new ArrayList<>();
+			new MatchSpliterator(Matcher.DEFAULT, agent, redex)
+					.forEachRemaining(m -> expected.add(RandomBigraphs.keyOf(m)));
+			// split after the first match, while its search is in progress
+			Spliterator<Match> suffix = new MatchSpliterator(Matcher.DEFAULT,
+					agent, redex);
+			final List<String> actual = new ArrayList<>();
+			suffix.tryAdvance(m -> actual.add(RandomBigraphs.keyOf(m)));
+			Spliterator<Match> prefix = suffix.trySplit();
+			if (prefix != null)
+				prefix.forEachRemaining(m -> actual.add(RandomBigraphs.keyOf(m)));
+			suffix.forEachRemaining(m -> actual.add(RandomBigraphs.keyOf(m)));
+			assertEquals("seed " + seed, expected, actual);
+			Collections.sort(actual);
+			assertEquals("seed " + seed,
+					RandomBigraphs.keysOf(Matcher.DEFAULT.match(agent, redex)),
+					actual);
+		}
+	}
+}
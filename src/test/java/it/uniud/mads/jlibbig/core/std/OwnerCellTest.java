@@ -0,0 +1,118 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import it.uniud.mads.jlibbig.core.Owner;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class OwnerCellTest {
+
+	// A(y)[-] | D turns into D[-] | A(y)
+	private static RewritingRule rule() {
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName y = rb.addOuterName("y");
+		Root r = rb.addRoot();
+		rb.addSite(rb.addNode("A", r, y));
+		rb.addNode("D", r);
+		BigraphBuilder qb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		y = qb.addOuterName("y");
+		r = qb.addRoot();
+		qb.addSite(qb.addNode("D", r));
+		qb.addNode("A", r, y);
+		return new RewritingRule(rb.makeBigraph(), qb.makeBigraph(), 0);
+	}
+
+	/*
+	 * B(y,z)[-] turns into D, discarding the parameter and leaving y and z
+	 * idle: edges of the agent linked only to the image of B are left
+	 * without points.
+	 */
+	private static RewritingRule drop() {
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addSite(rb.addNode("B", rb.addRoot(), rb.addOuterName("y"),
+				rb.addOuterName("z")));
+		BigraphBuilder qb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		qb.addOuterName("y");
+		qb.addOuterName("z");
+		qb.addNode("D", qb.addRoot());
+		return new RewritingRule(rb.makeBigraph(), qb.makeBigraph());
+	}
+
+	private static void assertOwnedBy(Owner owner, Bigraph big) {
+		assertTrue(big.isConsistent());
+		for (Root r : big.getRoots()) {
+			assertSame(owner, r.getOwner());
+		}
+		for (Site s : big.getSites()) {
+			assertSame(owner, s.getOwner());
+		}
+		Set<Edge> edges = new HashSet<>();
+		for (Node n : big.getNodes()) {
+			assertSame(owner, n.getOwner());
+			for (Port p : n.getPorts()) {
+				assertSame(owner, p.getOwner());
+				if (p.getHandle().isEdge())
+					edges.add((Edge) p.getHandle());
+			}
+		}
+		for (InnerName i : big.getInnerNames()) {
+			if (i.getHandle().isEdge())
+				edges.add((Edge) i.getHandle());
+		}
+		for (OuterName o : big.getOuterNames()) {
+			assertSame(owner, o.getOwner());
+		}
+		// no idle edges are reported
+		assertEquals(edges, new HashSet<Edge>(big.getEdges()));
+		for (Edge e : big.getEdges()) {
+			assertSame(owner, e.getOwner());
+		}
+	}
+
+	@Test
+	public void entitiesBelongToTheirBigraph() {
+		RewritingRule[] rules = { rule(), drop() };
+		int results = 0;
+		for (int seed = 0; seed < 100; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					true);
+			assertOwnedBy(agent, agent);
+			Bigraph copy = agent.clone();
+			assertOwnedBy(copy, copy);
+			assertOwnedBy(agent, agent);
+			for (RewritingRule rule : rules) {
+				for (Bigraph b : rule.apply(agent)) {
+					assertOwnedBy(b, b);
+					results++;
+				}
+			}
+			assertOwnedBy(agent, agent);
+		}
+		assertTrue(results > 50);
+	}
+
+	@Test
+	public void nodesFollowTheirRoot() {
+		Bigraph agent = RandomBigraphs.agent(new Random(0), 20, true);
+		BigraphBuilder bb = new BigraphBuilder(agent);
+		Bigraph big = bb.makeBigraph();
+		assertOwnedBy(big, big);
+		// moving a subtree takes the owner of the new parent
+		EditableRoot r = new EditableRoot();
+		EditableNode n = (EditableNode) big.getNodes().iterator().next();
+		n.setParent(r);
+		assertNull(n.getOwner());
+		r.setOwner(big);
+		for (Child c : n.getChildren()) {
+			assertSame(big, c.getOwner());
+		}
+		assertSame(big, n.getOwner());
+	}
+}
@@ -0,0 +1,132 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ParallelMatcherTest {
+
+	@Test
+	public void findsTheMatchesOfTheSequentialSearch() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			ParallelMatcher[] pms = {
+					new ParallelMatcher(Matcher.DEFAULT, pool, false),
+					new ParallelMatcher(Matcher.DEFAULT, pool, true),
+					new ParallelMatcher(BacktrackingMatcher.DEFAULT, pool,
+							false) };
+			int inner = 0, roots = 0;
+			for (int seed = 0; seed < 600; seed++) {
+				Random rnd = new Random(seed);
+				Bigraph agent = RandomBigraphs.agent(rnd,
+						5 + rnd.nextInt(20), true);
+				Bigraph redex = RandomBigraphs.redex(rnd);
+				if (RandomBigraphs.tooMany(agent, redex))
+					continue;
+				int count = Matcher.DEFAULT.count(agent, redex);
+				List<String> expected = RandomBigraphs.keysOf(Matcher.DEFAULT
+						.match(agent, redex));
+				for (ParallelMatcher pm : pms) {
+					assertEquals("seed " + seed, expected,
+							RandomBigraphs.keysOf(pm.match(agent, redex)));
+				}
+				if (count == 0)
+					continue;
+				if (!redex.getInnerNames().isEmpty())
+					inner++;
+				if (redex.getRoots().size() > 1)
+					roots++;
+			}
+			assertTrue(inner > 10);
+			assertTrue(roots > 20);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void listsOrderedMatchesInTheSameOrder() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			ParallelMatcher pm = new ParallelMatcher(Matcher.DEFAULT, pool,
+					true);
+			for (int seed = 0; seed < 50; seed++) {
+				Random rnd = new Random(seed);
+				Bigraph agent = RandomBigraphs.agent(rnd,
+						5 + rnd.nextInt(20), true);
+				Bigraph redex = RandomBigraphs.redex(rnd);
+				if (RandomBigraphs.tooMany(agent, redex))
+					continue;
+				List<String> first = new ArrayList<>();
+				for (Match m : pm.match(agent, redex)) {
+					first.add(RandomBigraphs.keyOf(m));
+				}
+				List<String> second = new ArrayList<>();
+				for (Match m : pm.match(agent, redex)) {
+					second.add(RandomBigraphs.keyOf(m));
+				}
+				assertEquals("seed " + seed, first, second);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/*
+	 * D occurs once on each of the 400 D of the agent and every one of them
+	 * is the image of the pinned node of a search.
+	 */
+	@Test
+	public void searchesThePartsAsTheIteratorIsConsumed() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		for (int i = 0; i < 400; i++) {
+			ab.addNode("D", r);
+		}
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addNode("D", rb.addRoot());
+		Bigraph redex = rb.makeBigraph();
+		final AtomicInteger searches = new AtomicInteger();
+		Matcher counting = new Matcher() {
+			@Override
+			Iterable<? extends Match> match(Bigraph agent,
+					CompiledRedex redex, Node pin, Node image,
+					AgentIndex index) {
+				searches.incrementAndGet();
+				return super.match(agent, redex, pin, image, index);
+			}
+		};
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for (boolean ordered : new boolean[] { false, true }) {
+				ParallelMatcher pm = new ParallelMatcher(counting, pool,
+						ordered);
+				searches.set(0);
+				int count = 0;
+				for (Iterator<? extends Match> it = pm.match(agent, redex)
+						.iterator(); it.hasNext(); it.next()) {
+					count++;
+				}
+				assertEquals(400, count);
+				assertEquals(400, searches.get());
+				// 8 parts of 50 images, at most 4 of them ahead of the iterator
+				searches.set(0);
+				Iterator<? extends Match> it = pm.match(agent, redex)
+						.iterator();
+				assertTrue(it.hasNext());
+				it.next();
+				assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+				assertTrue(searches.get() <= 250);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class PersistentBigraphTest {
+
+	// A(y)[-] turns into B(y,-)[-]
+	private static RewritingRule swap() {
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName y = rb.addOuterName("y");
+		rb.addSite(rb.addNode("A", rb.addRoot(), y));
+		BigraphBuilder qb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		y = qb.addOuterName("y");
+		qb.addSite(qb.addNode("B", qb.addRoot(), y, null));
+		return new RewritingRule(rb.makeBigraph(), qb.makeBigraph(), 0);
+	}
+
+	// D[-] turns into D[-] | D[-], copying the parameter
+	private static RewritingRule split() {
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		BigraphBuilder qb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = qb.addRoot();
+		qb.addSite(qb.addNode("D", r));
+		qb.addSite(qb.addNode("D", r));
+		return new RewritingRule(rb.makeBigraph(), qb.makeBigraph(), 0, 0);
+	}
+
+	// B(y,-)[-] | A(y) turns into C, discarding the parameter
+	private static RewritingRule drop() {
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		OuterName y = rb.addOuterName("y");
+		Root r = rb.addRoot();
+		rb.addSite(rb.addNode("B", r, y, null));
+		rb.addNode("A", r, y);
+		BigraphBuilder qb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		qb.addOuterName("y");
+		qb.addNode("C", qb.addRoot());
+		return new RewritingRule(rb.makeBigraph(), qb.makeBigraph());
+	}
+
+	// counts the instances of the nodes of the reactum
+	private static class CountingRule extends RewritingRule {
+
+		int instances;
+
+		CountingRule(RewritingRule rule) {
+			super(rule.redex, rule.reactum, rule.eta);
+		}
+
+		@Override
+		protected void instantiateReactumNode(Node original, Node instance,
+				Match match) {
+			instances++;
+		}
+	}
+
+	@Test
+	public void instantiatesTheReactumOfCustomRules() {
+		int instances = 0;
+		for (RewritingRule r : new RewritingRule[] { swap(), split(), drop() }) {
+			CountingRule rule = new CountingRule(r);
+			for (int seed = 0; seed < 30; seed++) {
+				Random rnd = new Random(seed);
+				Bigraph big = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(15),
+						true);
+				List<String> expected = new ArrayList<>();
+				rule.instances = 0;
+				for (Bigraph b : rule.apply(big)) {
+					expected.add(RandomBigraphs.canonicalForm(b));
+				}
+				int count = rule.instances;
+				List<String> actual = new ArrayList<>();
+				rule.instances = 0;
+				for (PersistentBigraph p : rule.apply(new PersistentBigraph(big))) {
+					actual.add(RandomBigraphs.canonicalForm(p.toBigraph()));
+				}
+				assertEquals("seed " + seed, count, rule.instances);
+				Collections.sort(expected);
+				Collections.sort(actual);
+				assertEquals("seed " + seed, expected, actual);
+				instances += count;
+			}
+		}
+		assertTrue(instances > 100);
+	}
+
+	@Test
+	public void rewritesAsTheBigraphItCopies() {
+		RewritingRule[] rules = { swap(), split(), drop() };
+		int compared = 0;
+		for (int seed = 0; seed < 100; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph big = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(15), true);
+			PersistentBigraph pb = new PersistentBigraph(big);
+			assertEquals(RandomBigraphs.canonicalForm(big),
+					RandomBigraphs.canonicalForm(pb.toBigraph()));
+			// follow a random path of rewrites on both representations
+			for (int k = 0; k < 5; k++) {
+				RewritingRule rule = rules[rnd.nextInt(rules.length)];
+				List<Bigraph> bs = new ArrayList<>();
+				List<String> expected = new ArrayList<>();
+				for (Bigraph b : rule.apply(big)) {
+					bs.add(b);
+					expected.add(RandomBigraphs.canonicalForm(b));
+				}
+				List<PersistentBigraph> ps = new ArrayList<>();
+				List<String> actual = new ArrayList<>();
+				for (PersistentBigraph p : rule.apply(pb)) {
+					ps.add(p);
+					actual.add(RandomBigraphs.canonicalForm(p.toBigraph()));
+				}
+				// results may be listed in a different order
+				List<String> sorted = new ArrayList<>(actual);
+				Collections.sort(sorted);
+				List<String> others = new ArrayList<>(expected);
+				Collections.sort(others);
+				assertEquals("seed " + seed, others, sorted);
+				compared += expected.size();
+				if (ps.isEmpty())
+					continue;
+				int i = rnd.nextInt(ps.size());
+				pb = ps.get(i);
+				big = bs.get(expected.indexOf(actual.get(i)));
+			}
+		}
+		assertTrue(compared > 300);
+	}
+}
@@ -0,0 +1,108 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class PlaceEmbeddingPropagatorTest {
+
+	/*
+	 * Redexes are not split in components, hence the roots of redexes with
+	 * several roots are kept apart from the parameters by the propagator.
+	 * The backtracking matcher does not use it.
+	 */
+	@Test
+	public void findsTheMatchesOfTheBacktrackingSearch() {
+		Matcher whole = new Matcher(MatcherOptions.DEFAULT
+				.withDecomposition(false));
+		int roots = 0;
+		for (int seed = 0; seed < 400; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 10 + rnd.nextInt(30),
+					seed % 3 != 0);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (RandomBigraphs.tooMany(whole, agent, redex))
+				continue;
+			int count = whole.count(agent, redex);
+			assertEquals("seed " + seed, RandomBigraphs
+					.keysOf(BacktrackingMatcher.DEFAULT.match(agent, redex)),
+					RandomBigraphs.keysOf(whole.match(agent, redex)));
+			if (redex.getRoots().size() > 1)
+				roots += count;
+		}
+		assertTrue(roots > 100);
+	}
+
+	/*
+	 * D[-] || D[-] in the chain D[D[D[D]]]: placing the two redex nodes on
+	 * the outermost and the innermost D violates no constraint but the one
+	 * keeping roots out of parameters, since the root above the innermost D
+	 * is hosted by a D that is neither a child of the site nor placed on
+	 * anything. Every other choice nests a root in the other one as well,
+	 * hence there are no matches. In D[D] | D each D but the single one pairs
+	 * with it, in either order.
+	 */
+	@Test
+	public void keepsRootsOutOfParameters() {
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		Bigraph redex = rb.makeBigraph();
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		ab.addNode("D", ab.addNode("D",
+				ab.addNode("D", ab.addNode("D", ab.addRoot()))));
+		Bigraph chain = ab.makeBigraph();
+		ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		ab.addNode("D", ab.addNode("D", r));
+		ab.addNode("D", r);
+		Bigraph apart = ab.makeBigraph();
+
+		Matcher whole = new Matcher(MatcherOptions.DEFAULT
+				.withDecomposition(false));
+		Matcher[] ms = { whole, BacktrackingMatcher.DEFAULT };
+		for (Matcher m : ms) {
+			assertEquals(0, m.count(chain, redex));
+			assertFalse(m.exists(chain, redex));
+			assertEquals(0, RandomBigraphs.count(m.match(chain, redex)));
+			assertEquals(4, m.count(apart, redex));
+			assertEquals(4, RandomBigraphs.count(m.match(apart, redex)));
+		}
+	}
+
+	@Test
+	public void agentMatchesComposeBackToTheAgent() {
+		int checked = 0;
+		for (int seed = 0; seed < 200; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(15),
+					true);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (RandomBigraphs.tooMany(agent, redex))
+				continue;
+			String expected = RandomBigraphs.canonicalForm(agent);
+			List<Iterable<? extends Match>> ms = Arrays.asList(
+					AgentMatcher.DEFAULT.match(agent, redex),
+					WeightedMatcher.DEFAULT.match(agent, redex));
+			for (Iterable<? extends Match> matches : ms) {
+				int n = 0;
+				for (Match match : matches) {
+					Bigraph big = Bigraph.compose(match.getContext(), Bigraph
+							.compose(match.getRedex(), match.getParam()));
+					assertEquals("seed " + seed, expected,
+							RandomBigraphs.canonicalForm(big));
+					if (++n == RandomBigraphs.BOUND)
+						break;
+				}
+				checked += n;
+			}
+		}
+		assertTrue(checked > 300);
+	}
+}
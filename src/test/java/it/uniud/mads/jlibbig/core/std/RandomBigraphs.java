@@ -0,0 +1,367 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertNotNull;
+
+import java.util.*;
+
+/**
+ * Random agents and redexes over a small signature, and keys describing
+ * matches in terms of the entities of the agent and of the redex, for
+ * comparing the matches found by different matchers.
+ */
+final class RandomBigraphs {
+
+	/**
+	 * A signature with an active control for each arity up to two, an active
+	 * and a passive atom.
+	 */
+	static final Signature SIGNATURE;
+
+	static {
+		SignatureBuilder sb = new SignatureBuilder();
+		sb.add("A", true, 1);
+		sb.add("B", true, 2);
+		sb.add("C", false, 0);
+		sb.add("D", true, 0);
+		SIGNATURE = sb.makeSignature();
+	}
+
+	private RandomBigraphs() {
+	}
+
+	/**
+	 * Creates a random agent with the given number of nodes, one or two roots,
+	 * an outer name and possibly an idle one. Agents which are not ground may
+	 * have sites and an inner name.
+	 */
+	static Bigraph agent(Random rnd, int nodes, boolean ground) {
+		BigraphBuilder bb = new BigraphBuilder(SIGNATURE);
+		List<Parent> ps = new ArrayList<>();
+		int roots = 1 + rnd.nextInt(2);
+		for (int k = 0; k < roots; k++) {
+			ps.add(bb.addRoot());
+		}
+		List<Handle> hs = new ArrayList<>();
+		hs.add(bb.addOuterName("x"));
+		if (rnd.nextBoolean())
+			bb.addOuterName("u");
+		for (int i = 0; i < nodes; i++) {
+			Parent p = ps.get(rnd.nextInt(ps.size()));
+			Node n;
+			switch (rnd.nextInt(4)) {
+			case 0:
+				n = bb.addNode("A", p, hs.get(rnd.nextInt(hs.size())));
+				break;
+			case 1:
+				n = bb.addNode("B", p, hs.get(rnd.nextInt(hs.size())),
+						rnd.nextBoolean() ? hs.get(rnd.nextInt(hs.size()))
+								: null);
+				break;
+			case 2:
+				n = bb.addNode("C", p);
+				break;
+			default:
+				n = bb.addNode("D", p);
+			}
+			ps.add(n);
+			if (n.getControl().getArity() > 0 && rnd.nextInt(3) == 0)
+				hs.add(n.getPort(n.getControl().getArity() - 1).getHandle());
+			if (!ground && rnd.nextInt(8) == 0)
+				bb.addSite(n);
+		}
+		if (!ground && rnd.nextBoolean())
+			bb.addInnerName("w", hs.get(rnd.nextInt(hs.size())));
+		return bb.makeBigraph();
+	}
+
+	/**
+	 * Creates a random redex with up to three roots and four nodes; nodes
+	 * are linked to an outer name or to fresh or shared edges, sites are
+	 * scattered among roots and nodes and the redex may have an inner name
+	 * and an idle outer name.
+	 */
+	static Bigraph redex(Random rnd) {
+		BigraphBuilder bb = new BigraphBuilder(SIGNATURE);
+		OuterName y = bb.addOuterName("y");
+		List<Parent> ps = new ArrayList<>();
+		int roots = 1 + rnd.nextInt(3);
+		for (int k = 0; k < roots; k++) {
+			ps.add(bb.addRoot());
+		}
+		List<Handle> hs = new ArrayList<>();
+		hs.add(y);
+		int nodes = 1 + rnd.nextInt(4);
+		for (int i = 0; i < nodes; i++) {
+			Parent p = ps.get(rnd.nextInt(ps.size()));
+			Node n;
+			switch (rnd.nextInt(3)) {
+			case 0:
+				n = bb.addNode("A", p,
+						rnd.nextBoolean() ? hs.get(rnd.nextInt(hs.size()))
+								: null);
+				hs.add(n.getPort(0).getHandle());
+				break;
+			case 1:
+				n = bb.addNode("B", p, rnd.nextBoolean() ? y : null,
+						rnd.nextBoolean() ? hs.get(rnd.nextInt(hs.size()))
+								: null);
+				break;
+			default:
+				n = bb.addNode("D", p);
+			}
+			ps.add(n);
+		}
+		for (Parent p : new ArrayList<>(ps)) {
+			if (rnd.nextInt(3) > 0)
+				bb.addSite(p);
+		}
+		switch (rnd.nextInt(6)) {
+		case 0:
+			bb.addInnerName("z", y);
+			break;
+		case 1:
+			bb.addInnerName("z", hs.get(rnd.nextInt(hs.size())));
+			break;
+		case 2:
+			bb.addOuterName("v");
+			break;
+		default:
+		}
+		return bb.makeBigraph();
+	}
+
+	/**
+	 * Pairs of agents and redexes with this many matches are skipped by the
+	 * tests enumerating them, to keep the tests fast.
+	 */
+	static final int BOUND = 200;
+
+	/**
+	 * Tells whether the redex has too many matches in the agent for a test
+	 * to enumerate them (cf. {@link #BOUND}).
+	 */
+	static boolean tooMany(Bigraph agent, Bigraph redex) {
+		return tooMany(Matcher.DEFAULT, agent, redex);
+	}
+
+	/**
+	 * As {@link #tooMany(Bigraph, Bigraph)} but counting the matches found by
+	 * the given matcher.
+	 */
+	static boolean tooMany(Matcher matcher, Bigraph agent, Bigraph redex) {
+		return matcher.count(agent, redex, BOUND) == BOUND;
+	}
+
+	/**
+	 * Counts the given matches, stopping at {@link #BOUND}.
+	 */
+	static int count(Iterable<? extends Match> matches) {
+		int n = 0;
+		for (Iterator<? extends Match> it = matches.iterator(); it.hasNext()
+				&& n < BOUND; it.next()) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Describes a lazily built match by the agent entities its redex is
+	 * placed and linked on; nodes and edges are told apart by their names.
+	 * Matches of the same redex in the same agent have the same key if and
+	 * only if they describe the same embedding.
+	 */
+	static String keyOf(Match match) {
+		return keyOf(match, false);
+	}
+
+	/**
+	 * As {@link #keyOf(Match)} but ignoring which redex node and edge is
+	 * mapped to which agent one, i.e. describing the occurrence of the redex
+	 * up to the automorphisms swapping its nodes.
+	 */
+	static String occurrenceOf(Match match) {
+		return keyOf(match, true);
+	}
+
+	private static String keyOf(Match match, boolean unordered) {
+		Matcher.Embedding emb = match.getEmbedding();
+		assertNotNull("the match should not be built yet", emb);
+		Bigraph agent = match.getSourceAgent();
+		Bigraph redex = match.getSourceRedex();
+		List<Parent> parents = new ArrayList<Parent>(agent.getRoots());
+		parents.addAll(agent.getNodes());
+		StringBuilder key = new StringBuilder();
+		for (Root r : redex.getRoots()) {
+			for (Parent p : parents) {
+				if (emb.isPlaced(p, r))
+					key.append(nameOf(agent, p)).append(' ');
+			}
+		}
+		List<String> images = new ArrayList<>();
+		for (Node n : redex.getNodes()) {
+			for (Node m : agent.getNodes()) {
+				if (emb.isPlaced(m, n))
+					images.add((unordered) ? m.toString() : n + ">" + m);
+			}
+		}
+		Collections.sort(images);
+		key.append(images);
+		List<Child> children = new ArrayList<Child>(agent.getNodes());
+		children.addAll(agent.getSites());
+		Deque<Child> params = new ArrayDeque<>();
+		for (Site s : redex.getSites()) {
+			List<String> cs = new ArrayList<>();
+			for (Child c : children) {
+				if (emb.isPlaced(c, s)) {
+					cs.add(nameOf(agent, c));
+					params.add(c);
+				}
+			}
+			Collections.sort(cs);
+			key.append(cs);
+		}
+		List<String> links = new ArrayList<>();
+		for (OuterName o : redex.getOuterNames()) {
+			Handle h = emb.getHandleImage(o);
+			key.append(o.getName()).append('>')
+					.append((h == null) ? "-" : h).append(' ');
+		}
+		for (Edge e : redex.getEdges()) {
+			Handle h = emb.getHandleImage(e);
+			links.add((unordered) ? h.toString() : e + ">" + h);
+		}
+		Collections.sort(links);
+		key.append(links);
+		// points of the parameters and how they are linked to the redex
+		List<Point> points = new ArrayList<Point>(agent.getInnerNames());
+		while (!params.isEmpty()) {
+			Child c = params.poll();
+			if (c.isNode()) {
+				points.addAll(((Node) c).getPorts());
+				params.addAll(((Node) c).getChildren());
+			}
+		}
+		List<String> wiring = new ArrayList<>();
+		for (Point p : points) {
+			String s = p.toString() + ">";
+			if (emb.isBypassing(p)) {
+				s += "-";
+			} else {
+				for (InnerName i : redex.getInnerNames()) {
+					if (emb.isLinked(p, i))
+						s += i.getName();
+				}
+			}
+			wiring.add(s);
+		}
+		Collections.sort(wiring);
+		return key.append(wiring).toString();
+	}
+
+	private static String nameOf(Bigraph agent, PlaceEntity p) {
+		if (p.isRoot())
+			return "root" + agent.getRoots().indexOf(p);
+		if (p.isSite())
+			return "site" + agent.getSites().indexOf(p);
+		return p.toString();
+	}
+
+	/**
+	 * Describes a bigraph up to the names of its nodes and edges: bigraphs
+	 * equal up to renaming of nodes and edges have the same form. Edges are
+	 * told apart by the points they link, hence bigraphs with the same form
+	 * may differ in how symmetric edges are linked; the form is meant for
+	 * tests, not as a decision procedure for isomorphism.
+	 */
+	static String canonicalForm(Bigraph big) {
+		StringBuilder s = new StringBuilder();
+		for (Root r : big.getRoots()) {
+			s.append(formOf(big, r)).append('|');
+		}
+		List<String> is = new ArrayList<>();
+		for (InnerName i : big.getInnerNames()) {
+			is.add(i.getName() + ">" + labelOf(i.getHandle()));
+		}
+		Collections.sort(is);
+		List<String> os = new ArrayList<>();
+		for (OuterName o : big.getOuterNames()) {
+			os.add(o.getName());
+		}
+		Collections.sort(os);
+		return s.append(is).append(os).append(big.getSites().size())
+				.toString();
+	}
+
+	/**
+	 * Returns the roots and the nodes of a bigraph in breadth first order,
+	 * sorting siblings by their form. Unlike the order of
+	 * {@link Bigraph#getNodes()}, this order does not depend on hashing,
+	 * hence random choices among the parents are reproducible.
+	 */
+	static List<Parent> parentsOf(final Bigraph big) {
+		List<Parent> ps = new ArrayList<Parent>(big.getRoots());
+		for (int i = 0; i < ps.size(); i++) {
+			List<Node> ns = new ArrayList<>();
+			for (Child c : ps.get(i).getChildren()) {
+				if (c.isNode())
+					ns.add((Node) c);
+			}
+			Collections.sort(ns, new Comparator<Node>() {
+				@Override
+				public int compare(Node n1, Node n2) {
+					return formOf(big, n1).compareTo(formOf(big, n2));
+				}
+			});
+			ps.addAll(ns);
+		}
+		return ps;
+	}
+
+	private static String formOf(Bigraph big, PlaceEntity p) {
+		if (p.isSite())
+			return "site" + big.getSites().indexOf(p);
+		StringBuilder s = new StringBuilder();
+		if (p.isNode()) {
+			Node n = (Node) p;
+			s.append(n.getControl().getName()).append('(');
+			for (Port o : n.getPorts()) {
+				s.append(labelOf(o.getHandle())).append(';');
+			}
+			s.append(')');
+		}
+		List<String> cs = new ArrayList<>();
+		for (Child c : ((Parent) p).getChildren()) {
+			cs.add(formOf(big, c));
+		}
+		Collections.sort(cs);
+		return s.append(cs).toString();
+	}
+
+	private static String labelOf(Handle h) {
+		if (h.isOuterName())
+			return ((OuterName) h).getName();
+		List<String> ps = new ArrayList<>();
+		for (Point p : h.getPoints()) {
+			if (p.isPort()) {
+				Port o = (Port) p;
+				ps.add(o.getNode().getControl().getName() + o.getNumber());
+			} else {
+				ps.add(((InnerName) p).getName());
+			}
+		}
+		Collections.sort(ps);
+		return "e" + ps;
+	}
+
+	/**
+	 * Returns the sorted keys of the given matches.
+	 */
+	static List<String> keysOf(Iterable<? extends Match> matches) {
+		List<String> ks = new ArrayList<>();
+		for (Match m : matches) {
+			ks.add(keyOf(m));
+		}
+		Collections.sort(ks);
+		return ks;
+	}
+}
@@ -0,0 +1,123 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class RuleSetMatcherTest {
+
+	// the redex is left as it is, its sites included
+	private static RewritingRule identity(Matcher matcher, Bigraph redex) {
+		int[] eta = new int[redex.getSites().size()];
+		for (int i = 0; i < eta.length; i++) {
+			eta[i] = i;
+		}
+		return new RewritingRule(matcher, redex, redex, eta);
+	}
+
+	@Test
+	public void findsTheMatchesOfEachRule() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			int found = 0;
+			for (int seed = 0; seed < 100; seed++) {
+				Random rnd = new Random(seed);
+				Bigraph agent = RandomBigraphs.agent(rnd,
+						5 + rnd.nextInt(20), true);
+				List<RewritingRule> rules = new ArrayList<>();
+				boolean skip = false;
+				for (int i = 0; i < 4; i++) {
+					Bigraph redex = RandomBigraphs.redex(rnd);
+					skip |= RandomBigraphs.tooMany(agent, redex);
+					rules.add(identity(i % 2 == 0 ? Matcher.DEFAULT
+							: BacktrackingMatcher.DEFAULT, redex));
+				}
+				if (skip)
+					continue;
+				RuleSetMatcher rsm = new RuleSetMatcher(rules);
+				List<List<RuleSetMatcher.RuleMatch>> runs = Arrays.asList(
+						rsm.matchAll(agent), rsm.matchAll(agent, pool));
+				String form = RandomBigraphs.canonicalForm(agent);
+				for (List<RuleSetMatcher.RuleMatch> run : runs) {
+					Map<RewritingRule, List<String>> byRule = new LinkedHashMap<>();
+					for (RewritingRule r : rules) {
+						byRule.put(r, new ArrayList<String>());
+					}
+					int last = 0;
+					for (RuleSetMatcher.RuleMatch m : run) {
+						// matches are listed in rule order
+						int i = rules.indexOf(m.getRule());
+						assertTrue("seed " + seed, i >= last);
+						last = i;
+						// keys are taken before rewriting builds the match
+						byRule.get(m.getRule()).add(
+								RandomBigraphs.keyOf(m.getMatch()));
+						assertEquals("seed " + seed, form, RandomBigraphs
+								.canonicalForm(m.rewrite().getResult()));
+					}
+					for (RewritingRule r : rules) {
+						Collections.sort(byRule.get(r));
+						assertEquals("seed " + seed,
+								RandomBigraphs.keysOf(Matcher.DEFAULT.match(
+										agent, r.getRedex())),
+								byRule.get(r));
+					}
+				}
+				for (RewritingRule r : rules) {
+					long count = Matcher.DEFAULT.count(agent, r.getRedex());
+					assertEquals("seed " + seed, 2 * count,
+							rsm.getMatchCount(r));
+					found += count;
+				}
+			}
+			assertTrue(found > 100);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/*
+	 * In D[C] | D[C | C] | D the redex D[C | -] occurs once on the first D
+	 * and twice on the second, the atomic D only on the third.
+	 */
+	@Test
+	public void listsTheMatchesOfAHandBuiltAgentByRule() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		ab.addNode("C", ab.addNode("D", r));
+		Node d = ab.addNode("D", r);
+		ab.addNode("C", d);
+		ab.addNode("C", d);
+		ab.addNode("D", r);
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		d = rb.addNode("D", rb.addRoot());
+		rb.addNode("C", d);
+		rb.addSite(d);
+		RewritingRule branch = identity(Matcher.DEFAULT, rb.makeBigraph());
+		rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addNode("D", rb.addRoot());
+		RewritingRule leaf = identity(BacktrackingMatcher.DEFAULT,
+				rb.makeBigraph());
+		RuleSetMatcher rsm = new RuleSetMatcher(Arrays.asList(branch, leaf));
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for (List<RuleSetMatcher.RuleMatch> run : Arrays.asList(
+					rsm.matchAll(agent), rsm.matchAll(agent, pool))) {
+				List<RewritingRule> rules = new ArrayList<>();
+				for (RuleSetMatcher.RuleMatch m : run) {
+					rules.add(m.getRule());
+				}
+				assertEquals(Arrays.asList(branch, branch, branch, leaf), rules);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(6, rsm.getMatchCount(branch));
+		assertEquals(2, rsm.getMatchCount(leaf));
+	}
+}
@@ -0,0 +1,193 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import it.uniud.mads.jlibbig.core.MatchListener;
+import it.uniud.mads.jlibbig.core.MatchStats;
+import it.uniud.mads.jlibbig.core.MatcherOptions;
+import it.uniud.mads.jlibbig.core.exceptions.MatchLimitException;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class SearchControlTest {
+
+	// D[-] | D[-] | -, with many matches in large agents
+	private static Bigraph pair() {
+		BigraphBuilder bb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = bb.addRoot();
+		bb.addSite(bb.addNode("D", r));
+		bb.addSite(bb.addNode("D", r));
+		bb.addSite(r);
+		return bb.makeBigraph();
+	}
+
+	// D[-] || D[-], matched by combining the matches of its two roots
+	private static Bigraph split() {
+		BigraphBuilder bb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		bb.addSite(bb.addNode("D", bb.addRoot()));
+		bb.addSite(bb.addNode("D", bb.addRoot()));
+		return bb.makeBigraph();
+	}
+
+	// D | ... | D, where pair() has millions of matches
+	private static Bigraph flat(int n) {
+		BigraphBuilder bb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = bb.addRoot();
+		for (int i = 0; i < n; i++) {
+			bb.addNode("D", r);
+		}
+		return bb.makeBigraph();
+	}
+
+	private static Matcher[] matchers(MatcherOptions opts) {
+		return new Matcher[] { new Matcher(opts), new BacktrackingMatcher(opts) };
+	}
+
+	private static void assertStopped(MatchLimitException.Reason reason,
+			Matcher m, Bigraph agent, Bigraph redex) {
+		try {
+			m.count(agent, redex);
+			fail(m.getClass().getSimpleName() + " should have been stopped");
+		} catch (MatchLimitException e) {
+			assertEquals(m.getClass().getSimpleName(), reason, e.getReason());
+		}
+	}
+
+	@Test
+	public void stopsAtTheLimits() {
+		Bigraph agent = RandomBigraphs.agent(new Random(1), 1000, true);
+		Bigraph redex = pair();
+		assertTrue(Matcher.DEFAULT.count(agent, redex) > 500);
+		for (Matcher m : matchers(MatcherOptions.DEFAULT.withNodeLimit(100))) {
+			assertStopped(MatchLimitException.Reason.NODES, m, agent, redex);
+		}
+		for (Matcher m : matchers(MatcherOptions.DEFAULT.withFailLimit(20))) {
+			assertStopped(MatchLimitException.Reason.FAILS, m, agent, redex);
+		}
+		// a few thousand matches may be counted within a millisecond
+		for (Matcher m : matchers(MatcherOptions.DEFAULT.withTimeLimit(1))) {
+			assertStopped(MatchLimitException.Reason.TIME, m, flat(2000),
+					redex);
+		}
+		// limits large enough are not noticed
+		for (Matcher m : matchers(MatcherOptions.DEFAULT.withNodeLimit(
+				Long.MAX_VALUE).withFailLimit(Long.MAX_VALUE))) {
+			assertEquals(Matcher.DEFAULT.count(agent, redex),
+					m.count(agent, redex));
+		}
+	}
+
+	/*
+	 * pair() places its two D on any two of the four D of flat(4), in either
+	 * order, and each of the other two D in its site or in the context: 48
+	 * matches, within limits that are not reached.
+	 */
+	@Test
+	public void limitsNotReachedLeaveTheMatchesAsTheyAre() {
+		Bigraph agent = flat(4);
+		Bigraph redex = pair();
+		for (Matcher m : matchers(MatcherOptions.DEFAULT.withNodeLimit(1000)
+				.withFailLimit(1000).withTimeLimit(60000))) {
+			assertEquals(48, m.count(agent, redex));
+			assertEquals(48, RandomBigraphs.count(m.match(agent, redex)));
+		}
+	}
+
+	@Test
+	public void stopsWhenCancelled() {
+		Bigraph agent = RandomBigraphs.agent(new Random(1), 1000, true);
+		Bigraph redex = pair();
+		for (int k = 0; k < 2; k++) {
+			MatcherOptions.Cancellation c = new MatcherOptions.Cancellation();
+			Matcher m = matchers(MatcherOptions.DEFAULT.withCancellation(c))[k];
+			Iterator<? extends Match> it = m.match(agent, redex).iterator();
+			assertTrue(it.hasNext());
+			it.next();
+			c.cancel();
+			try {
+				while (it.hasNext())
+					it.next();
+				fail(m.getClass().getSimpleName() + " should have been stopped");
+			} catch (MatchLimitException e) {
+				assertEquals(MatchLimitException.Reason.CANCELLED,
+						e.getReason());
+			}
+		}
+	}
+
+	@Test
+	public void limitsApplyToTheWholeSplitSearch() {
+		Bigraph agent = RandomBigraphs.agent(new Random(1), 200, true);
+		Bigraph redex = split();
+		for (int k = 0; k < 2; k++) {
+			// the effort of the longest search of a single root
+			final long[] max = { 0 };
+			MatchListener l = new MatchListener() {
+				@Override
+				public void searchEnded(MatchStats stats) {
+					max[0] = Math.max(max[0], stats.getNodes());
+				}
+			};
+			MatcherOptions split = MatcherOptions.DEFAULT
+					.withDecomposition(true);
+			Matcher m = matchers(split.withListener(l))[k];
+			assertTrue(m.count(agent, redex) > 100);
+			assertTrue(max[0] > 0);
+			// enough for each root but not for the search as a whole
+			m = matchers(split.withNodeLimit(max[0] + 1))[k];
+			assertStopped(MatchLimitException.Reason.NODES, m, agent, redex);
+		}
+	}
+
+	@Test
+	public void splitSearchesStopWhenCancelled() {
+		Bigraph redex = split();
+		int stopped = 0;
+		for (int seed = 0; seed < 60; seed++) {
+			Bigraph agent = RandomBigraphs.agent(new Random(seed), 30, true);
+			for (int k = 0; k < 2; k++) {
+				MatcherOptions.Cancellation c = new MatcherOptions.Cancellation();
+				Matcher m = matchers(MatcherOptions.DEFAULT
+						.withDecomposition(true).withCancellation(c))[k];
+				Iterator<? extends Match> it = m.match(agent, redex).iterator();
+				if (!it.hasNext())
+					continue;
+				it.next();
+				c.cancel();
+				try {
+					it.hasNext();
+					fail(m.getClass().getSimpleName() + " should have been stopped");
+				} catch (MatchLimitException e) {
+					assertEquals(MatchLimitException.Reason.CANCELLED,
+							e.getReason());
+				}
+				// the enumeration is over
+				assertFalse(it.hasNext());
+				stopped++;
+			}
+		}
+		assertTrue(stopped > 60);
+	}
+
+	@Test
+	public void restartsFindTheSameMatches() {
+		Matcher m = new Matcher(MatcherOptions.DEFAULT.withRestarts(true)
+				.withStrategy(MatcherOptions.Strategy.DOM_WDEG));
+		for (int seed = 0; seed < 100; seed++) {
+			Random rnd = new Random(seed);
+			Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(20),
+					seed % 3 != 0);
+			Bigraph redex = RandomBigraphs.redex(rnd);
+			if (RandomBigraphs.tooMany(agent, redex))
+				continue;
+			assertEquals("seed " + seed, RandomBigraphs.keysOf(Matcher.DEFAULT
+					.match(agent, redex)), RandomBigraphs.keysOf(m.match(agent,
+					redex)));
+		}
+	}
+}
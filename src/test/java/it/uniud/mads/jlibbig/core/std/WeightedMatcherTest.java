@@ -0,0 +1,199 @@
+package it.uniud.mads.jlibbig.core.std;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class WeightedMatcherTest {
+
+	private static class ChildrenMatcher extends WeightedMatcher {
+
+		ChildrenMatcher(boolean maximizing) {
+			super(maximizing);
+		}
+
+		@Override
+		protected int matchingWeight(Bigraph agent, Node agentNode,
+				Bigraph redex, Node redexNode) {
+			// weights are small, hence many matches weigh the same
+			return agentNode.getChildren().size() % 3;
+		}
+	}
+
+	@Test
+	public void topKMatchesTheSortedEnumeration() {
+		int ties = 0;
+		for (boolean maximizing : new boolean[] { true, false }) {
+			WeightedMatcher wm = new ChildrenMatcher(maximizing);
+			for (int seed = 0; seed < 150; seed++) {
+				Random rnd = new Random(seed);
+				Bigraph agent = RandomBigraphs.agent(rnd, 5 + rnd.nextInt(15),
+						true);
+				Bigraph redex = RandomBigraphs.redex(rnd);
+				/*
+				 * matches are those of AgentMatcher; up to BOUND of them the
+				 * search is never cut, hence they are all enumerated
+				 */
+				List<Integer> all = new ArrayList<>();
+				for (WeightedMatch m : wm.topK(agent, redex,
+						RandomBigraphs.BOUND)) {
+					all.add(m.getWeight());
+				}
+				if (all.size() == RandomBigraphs.BOUND)
+					continue;
+				assertEquals("seed " + seed, RandomBigraphs
+						.count(AgentMatcher.DEFAULT.match(agent, redex)), all
+						.size());
+				List<Integer> sorted = new ArrayList<>(all);
+				Collections.sort(sorted);
+				if (maximizing)
+					Collections.reverse(sorted);
+				assertEquals("seed " + seed, sorted, all);
+				assertEquals("seed " + seed, RandomBigraphs.count(wm.match(
+						agent, redex)), wm.count(agent, redex));
+				if (all.isEmpty()) {
+					assertNull(wm.best(agent, redex));
+					continue;
+				}
+				assertEquals("seed " + seed, all.get(0).intValue(), wm.best(
+						agent, redex).getWeight());
+				for (int k : new int[] { 1, 2, 3, 5 }) {
+					List<Integer> ws = new ArrayList<>();
+					for (WeightedMatch m : wm.topK(agent, redex, k)) {
+						ws.add(m.getWeight());
+					}
+					assertEquals("seed " + seed + " k " + k,
+							all.subList(0, Math.min(k, all.size())), ws);
+					// some match left out weighs as the k-th one
+					if (k < all.size() && all.get(k).equals(all.get(k - 1)))
+						ties++;
+				}
+			}
+		}
+		assertTrue(ties > 50);
+	}
+
+	/*
+	 * D[C] | D[C | C] | D | D[C | C | C]: the occurrences of D[-] weigh 1, 2,
+	 * 0 and 0 respectively and are told apart by the Cs in their parameter.
+	 */
+	@Test
+	public void topKFollowsTheWeights() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		for (int children : new int[] { 1, 2, 0, 3 }) {
+			Node d = ab.addNode("D", r);
+			for (int k = 0; k < children; k++) {
+				ab.addNode("C", d);
+			}
+		}
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		Bigraph redex = rb.makeBigraph();
+
+		WeightedMatcher max = new ChildrenMatcher(true);
+		List<WeightedMatch> top = max.topK(agent, redex, 2);
+		assertEquals(2, top.size());
+		assertEquals(2, top.get(0).getWeight());
+		assertEquals(2, top.get(0).getParam().getNodes().size());
+		assertEquals(1, top.get(1).getWeight());
+		assertEquals(1, top.get(1).getParam().getNodes().size());
+		assertEquals(2, max.best(agent, redex).getWeight());
+		assertEquals(4, max.topK(agent, redex, 10).size());
+
+		WeightedMatcher min = new ChildrenMatcher(false);
+		List<Integer> ws = new ArrayList<>();
+		for (WeightedMatch m : min.topK(agent, redex, 3)) {
+			ws.add(m.getWeight());
+		}
+		assertEquals(Arrays.asList(0, 0, 1), ws);
+		assertEquals(0, min.best(agent, redex).getWeight());
+	}
+
+	/*
+	 * D[C] | D[C | C] | D | D[C | C | C]: D[-] has 4 embeddings, but the
+	 * search lists only matches improving on the weight of the previous one,
+	 * hence at most one for each of the weights 0, 1 and 2, the last one
+	 * being optimal. Counting agrees with the listed matches.
+	 */
+	@Test
+	public void countsTheMatchesItLists() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		for (int children : new int[] { 1, 2, 0, 3 }) {
+			Node d = ab.addNode("D", r);
+			for (int k = 0; k < children; k++) {
+				ab.addNode("C", d);
+			}
+		}
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		Bigraph redex = rb.makeBigraph();
+
+		WeightedMatcher wm = new ChildrenMatcher(true);
+		List<Integer> ws = new ArrayList<>();
+		for (WeightedMatch m : wm.match(agent, redex)) {
+			ws.add(m.getWeight());
+		}
+		assertTrue(ws.size() <= 3);
+		assertEquals(2, ws.get(ws.size() - 1).intValue());
+		assertEquals(ws.size(), wm.count(agent, redex));
+		assertEquals(1, wm.count(agent, redex, 1));
+		assertEquals(4, Matcher.DEFAULT.count(agent, redex));
+	}
+
+	/*
+	 * D[-] || D[-] has two components, but weighted searches are not split
+	 * among them (cf. MatcherOptions) even if the redex is counted or merely
+	 * looked for. Either match weighs 0 + 1.
+	 */
+	@Test
+	public void redexComponentsAreNotSplit() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		ab.addNode("D", r);
+		ab.addNode("C", ab.addNode("D", r));
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		Bigraph redex = rb.makeBigraph();
+		assertEquals(2, new CompiledRedex(redex).countComponents());
+
+		WeightedMatcher wm = new ChildrenMatcher(true);
+		assertTrue(wm.exists(agent, redex));
+		assertTrue(wm.count(agent, redex) > 0);
+		assertEquals(1, wm.best(agent, redex).getWeight());
+	}
+
+	/*
+	 * D | D[C]: only the occurrence of D[-] placed on D[C] has the highest
+	 * weight, also when matches are streamed or looked for in parallel.
+	 */
+	@Test
+	public void searchesAreNotSplit() {
+		BigraphBuilder ab = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		Root r = ab.addRoot();
+		ab.addNode("D", r);
+		ab.addNode("C", ab.addNode("D", r));
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(RandomBigraphs.SIGNATURE);
+		rb.addSite(rb.addNode("D", rb.addRoot()));
+		Bigraph redex = rb.makeBigraph();
+
+		WeightedMatcher wm = new ChildrenMatcher(true);
+		assertEquals(1, RandomBigraphs.count(wm.match(agent, redex)));
+		assertEquals(1, wm.matchStream(agent, redex).count());
+		assertEquals(1, RandomBigraphs.count(new ParallelMatcher(wm,
+				ForkJoinPool.commonPool(), true).match(agent, redex)));
+		assertEquals(1, RandomBigraphs.count(new IncrementalMatcher(wm,
+				new CompiledRedex(redex)).match(agent)));
+	}
+}
@@ -0,0 +1,133 @@
+package it.uniud.mads.jlibbig.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import it.uniud.mads.jlibbig.core.std.*;
+
+import java.util.*;
+
+import org.chocosolver.solver.Model;
+import org.chocosolver.solver.variables.IntVar;
+import org.junit.Test;
+
+public class SparseModelTest {
+
+	private static final Signature SIGNATURE;
+
+	static {
+		SignatureBuilder sb = new SignatureBuilder();
+		sb.add("C", false, 0);
+		sb.add("D", true, 0);
+		SIGNATURE = sb.makeSignature();
+	}
+
+	private static Node childOf(Parent p, String control) {
+		for (Child c : p.getChildren()) {
+			if (c.isNode()
+					&& ((Node) c).getControl().getName().equals(control))
+				return (Node) c;
+		}
+		return null;
+	}
+
+	/*
+	 * D[C | -] in D[C] | D[D]: the redex root may go on the agent root only,
+	 * its D on both agent D, C on the C below the first one and the site on
+	 * any child of either D.
+	 */
+	@Test
+	public void allocatesVariablesTopDown() {
+		BigraphBuilder ab = new BigraphBuilder(SIGNATURE);
+		Root ar = ab.addRoot();
+		ab.addNode("C", ab.addNode("D", ar));
+		ab.addNode("D", ab.addNode("D", ar));
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(SIGNATURE);
+		Node d = rb.addNode("D", rb.addRoot());
+		rb.addNode("C", d);
+		rb.addSite(d);
+		Bigraph redex = rb.makeBigraph();
+		// bigraphs own copies of the entities of their builders
+		ar = agent.getRoots().get(0);
+		Root rr = redex.getRoots().get(0);
+		d = childOf(rr, "D");
+		Node c = childOf(d, "C");
+		Site s = redex.getSites().get(0);
+
+		SparseModel<PlaceEntity> sparse = new SparseModel<>(new Model());
+		sparse.addRoot(rr, Arrays.asList(ar), 1);
+		sparse.addChildren(Arrays.asList(d, c, s), (i, j) -> j.isSite()
+				|| (i.isNode() && ((Node) i).getControl().equals(
+						((Node) j).getControl())));
+		Map<PlaceEntity, List<PlaceEntity>> cands = sparse.getCandidates();
+		assertEquals(Arrays.asList(ar), cands.get(rr));
+		assertEquals(2, cands.get(d).size());
+		assertEquals(1, cands.get(c).size());
+		assertEquals("C", ((Node) cands.get(c).get(0)).getControl().getName());
+		assertEquals(2, cands.get(s).size());
+		// every candidate has its variable, other pairs have none
+		int vars = 0;
+		for (Map.Entry<PlaceEntity, List<PlaceEntity>> e : cands.entrySet()) {
+			for (PlaceEntity i : e.getValue()) {
+				assertTrue(sparse.getPlaceVars().get(i).containsKey(e.getKey()));
+				vars++;
+			}
+		}
+		assertEquals(6, vars);
+		// the D below a D may only be in the parameter
+		Node inner = null;
+		for (Child n : ar.getChildren()) {
+			if (childOf((Node) n, "D") != null)
+				inner = childOf((Node) n, "D");
+		}
+		assertEquals(Collections.singleton(s), sparse.getPlaceVars()
+				.get(inner).keySet());
+	}
+
+	// hosts with fewer children than the redex root has node children
+	@Test
+	public void skipsHostsWithTooFewChildren() {
+		BigraphBuilder ab = new BigraphBuilder(SIGNATURE);
+		ab.addNode("D", ab.addRoot());
+		Root r = ab.addRoot();
+		ab.addNode("D", r);
+		ab.addNode("D", r);
+		Bigraph agent = ab.makeBigraph();
+		BigraphBuilder rb = new BigraphBuilder(SIGNATURE);
+		rb.addRoot();
+		Root rr = rb.makeBigraph().getRoots().get(0);
+		SparseModel<PlaceEntity> sparse = new SparseModel<>(new Model());
+		sparse.addRoot(rr, agent.getRoots(), 2);
+		assertEquals(Arrays.asList(agent.getRoots().get(1)), sparse
+				.getCandidates().get(rr));
+	}
+
+	@Test
+	public void postsEmptySums() {
+		List<IntVar> none = Collections.emptyList();
+		String[][] cases = { { "=", "0" }, { "<=", "0" }, { ">=", "0" },
+				{ "<=", "1" }, { "=", "1" }, { ">=", "1" } };
+		for (int k = 0; k < cases.length; k++) {
+			Model model = new Model();
+			SparseModel<PlaceEntity> sparse = new SparseModel<>(model);
+			sparse.postSum(none, cases[k][0], Integer.parseInt(cases[k][1]));
+			boolean holds = k < 4;
+			assertEquals(cases[k][0] + " " + cases[k][1], holds, model
+					.getSolver().solve());
+		}
+		Model model = new Model();
+		SparseModel<PlaceEntity> sparse = new SparseModel<>(model);
+		sparse.postDiff(none, 2, none, "<=");
+		assertTrue(model.getSolver().solve());
+		// y - 2 * x >= 0 forces x to zero
+		model = new Model();
+		sparse = new SparseModel<>(model);
+		IntVar x = model.boolVar("x");
+		sparse.postDiff(Collections.singletonList(model.boolVar("y")), 2,
+				Collections.singletonList(x), ">=");
+		model.arithm(x, "=", 1).post();
+		assertFalse(model.getSolver().solve());
+	}
+}